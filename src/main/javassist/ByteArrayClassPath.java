@@ -23,6 +23,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
 
 /**
  * A <code>ByteArrayClassPath</code> contains bytes that is served as
@@ -81,6 +82,17 @@ public class ByteArrayClassPath implements ClassPath {
         return null;
     }
 
+    /**
+     * Returns a read-only buffer sharing the byte array
+     * given to the constructor.
+     */
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname) {
+        if(this.classname.equals(classname))
+            return ByteBuffer.wrap(classfile).asReadOnlyBuffer();
+        return null;
+    }
+
     /**
      * Obtains the URL.
      */
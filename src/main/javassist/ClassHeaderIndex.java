@@ -0,0 +1,169 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ClassFileReader;
+import javassist.bytecode.HierarchyResolver;
+
+/**
+ * A hierarchy resolver that reads only the headers of class files.
+ *
+ * <p>If a class has been modified in the class pool, its super types
+ * are obtained from the <code>CtClass</code> object.  Otherwise,
+ * the class file is read from the class path of the class pool and only
+ * its header, that is, the constant pool, the name, the super class, and
+ * the interfaces, is decoded by <code>ClassFileReader</code>.  No
+ * <code>CtClass</code> object is created.  The decoded headers are
+ * recorded in this index and reused.
+ *
+ * <p>The class path is searched in the same order as
+ * <code>ClassPool.get()</code> does.  If a class file is not found there,
+ * for example, if the class pool is a subclass generating classes on
+ * the fly, this index falls back on <code>ClassPool.get()</code>.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @see ClassPool#getHierarchyResolver()
+ * @see javassist.bytecode.MethodInfo#rebuildStackMap(HierarchyResolver)
+ * @since 3.31
+ */
+public class ClassHeaderIndex implements HierarchyResolver {
+    static final class Header {
+        final String superclass;
+        final String[] interfaces;
+
+        Header(String superclass, String[] interfaces) {
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+        }
+    }
+
+    private final ClassPool pool;
+    private final ConcurrentHashMap<String,Header> headers;
+
+    /**
+     * Constructs an index.
+     *
+     * @param pool      the class pool whose class path is read.
+     */
+    public ClassHeaderIndex(ClassPool pool) {
+        this.pool = pool;
+        this.headers = new ConcurrentHashMap<String,Header>();
+    }
+
+    /**
+     * Returns the name of the super class.
+     */
+    @Override
+    public String getSuperclass(String classname) throws NotFoundException {
+        CtClass cc = modified(pool, classname);
+        if (cc != null)
+            return cc.getClassFile2().getSuperclass();
+        else
+            return header(classname).superclass;
+    }
+
+    /**
+     * Returns the names of the interfaces.
+     */
+    @Override
+    public String[] getInterfaces(String classname) throws NotFoundException {
+        CtClass cc = modified(pool, classname);
+        if (cc != null)
+            return cc.getClassFile2().getInterfaces();
+        else
+            return header(classname).interfaces;
+    }
+
+    /**
+     * Returns the number of the headers recorded in this index.
+     */
+    public int size() { return headers.size(); }
+
+    /**
+     * Discards the recorded headers.
+     */
+    public void clear() { headers.clear(); }
+
+    /* Returns the modified CtClass object if it is cached in the given
+     * class pool or its parents.
+     */
+    private static CtClass modified(ClassPool cp, String classname) {
+        for (; cp != null; cp = cp.parent) {
+            CtClass cc = cp.getCached(classname);
+            if (cc != null)
+                return cc.isModified() && cc.getClassFile2() != null ? cc : null;
+        }
+
+        return null;
+    }
+
+    private Header header(String classname) throws NotFoundException {
+        Header h = headers.get(classname);
+        if (h == null) {
+            ByteBuffer buf = read(pool, classname);
+            if (buf != null)
+                try {
+                    ClassFileReader reader = new ClassFileReader(buf);
+                    h = new Header(reader.getSuperclass(), reader.getInterfaces());
+                }
+                catch (IOException e) {
+                    throw new NotFoundException(classname, e);
+                }
+            else {
+                ClassFile cf = pool.get(classname).getClassFile2();
+                if (cf == null)
+                    throw new NotFoundException(classname);
+
+                h = new Header(cf.getSuperclass(), cf.getInterfaces());
+            }
+
+            headers.put(classname, h);
+        }
+
+        return h;
+    }
+
+    /* See ClassPool.getSerially().
+     */
+    private static ByteBuffer read(ClassPool cp, String classname)
+        throws NotFoundException
+    {
+        ByteBuffer buf;
+        if (!cp.childFirstLookup && cp.parent != null) {
+            buf = read(cp.parent, classname);
+            if (buf != null)
+                return buf;
+        }
+
+        buf = cp.openClassfileBuffer(classname);
+        if (buf == null && cp.childFirstLookup && cp.parent != null)
+            buf = read(cp.parent, classname);
+
+        return buf;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassHeaderIndex[" + pool + ", headers=" + headers.size() + "]";
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javassist.bytecode.ClassFile;
+
+/**
+ * The memoized class hierarchy of a <code>ClassPool</code>.
+ *
+ * <p>Class names are interned into integer ids.  For every class,
+ * this cache records the names of its direct super types and, when
+ * they are first needed, the records of those super types, its super
+ * class chain, and the sorted ids of all its super types.
+ * <code>subtypeOf()</code> visits the super types in the same order as
+ * <code>CtClassType.subtypeOf()</code> did without this cache and stops
+ * when it finds the class, so it reads no class file that was not read
+ * without this cache.  Once all the super types of a class have been
+ * visited, the sorted ids are recorded and a query is a binary search.
+ * The answers of <code>getCommonSuperclass()</code> are also recorded.
+ *
+ * <p>Every record remembers the <code>CtClass</code> object it was
+ * computed from and the version of its class file.  A record is valid
+ * only while that object is still cached in its <code>ClassPool</code>
+ * and the versions of the class and its super types have not changed.
+ * Hence a record is not used once the super class or the interfaces of
+ * the class or of one of its super types are modified, the class is
+ * renamed or detached, or another class of the same name is defined by
+ * <code>makeClass()</code> and so on.  If an invalid record is found,
+ * the whole cache of this pool, including the interned names, is
+ * discarded.  It is also discarded when it holds many more records
+ * than the classes cached in the pool, for example, after classes are
+ * evicted.
+ *
+ * @see ClassPool#getCommonSuperclass(CtClass,CtClass)
+ * @see CtClassType#subtypeOf(CtClass)
+ */
+final class ClassHierarchyCache {
+    static final class Node {
+        final String name;
+        final int id;
+        final CtClassType owner;
+        final int version;
+        final String supername;     // null if this is java.lang.Object
+        final String[] interfaces;
+        volatile Node superclass;   // null until it is needed
+        final Node[] interfaceNodes;    // the elements are null until needed
+        volatile int[] chain;       // this class and its super classes
+        volatile int[] supertypes;  // sorted.  this class is included.
+
+        Node(String name, int id, CtClassType owner, int version,
+             String supername, String[] interfaces)
+        {
+            this.name = name;
+            this.id = id;
+            this.owner = owner;
+            this.version = version;
+            this.supername = supername;
+            this.interfaces = interfaces;
+            this.interfaceNodes = new Node[interfaces.length];
+        }
+
+        /* Returns false if the class has been modified or it is not
+         * the class cached in its class pool any more.
+         */
+        boolean isValid() {
+            return owner != null
+                   && owner.getClassPool().getCached(name) == owner
+                   && owner.hierarchyVersion() == version;
+        }
+    }
+
+    /* The records and the ids they use.  discard() replaces the whole
+     * state.  A query uses the state when it started till the end so
+     * that it does not mix the ids of different states.
+     */
+    private static final class State {
+        final Map<String,Integer> ids = new HashMap<String,Integer>();
+        final List<String> names = new ArrayList<String>();
+        final Map<String,Node> nodes = new HashMap<String,Node>();
+        final Map<Long,Integer> common = new HashMap<Long,Integer>();
+    }
+
+    private final ClassPool pool;
+    private State state;
+
+    ClassHierarchyCache(ClassPool pool) {
+        this.pool = pool;
+        this.state = new State();
+    }
+
+    /**
+     * Returns true if <code>clazz</code> is a super type of
+     * <code>cc</code> or it is <code>cc</code>.
+     */
+    boolean subtypeOf(CtClass cc, String clazz) throws NotFoundException {
+        boolean shared = shared(cc);
+        State s = state();
+        Node n = node(cc, shared, s);
+        if (s != state()) {
+            // discarded since the record was invalid.
+            s = state();
+            n = node(cc, shared, s);
+        }
+
+        return subtypeOf(n, clazz, s);
+    }
+
+    private boolean subtypeOf(Node n, String clazz, State s) throws NotFoundException {
+        int[] types = n.supertypes;
+        if (types != null) {
+            Integer id = idOf(clazz, s);
+            return id != null && Arrays.binarySearch(types, id) >= 0;
+        }
+
+        if (n.name.equals(clazz) || clazz.equals(n.supername))
+            return true;
+
+        for (String i: n.interfaces)
+            if (i.equals(clazz))
+                return true;
+
+        if (n.supername != null && subtypeOf(superclass(n, s), clazz, s))
+            return true;
+
+        for (int i = 0; i < n.interfaces.length; i++)
+            if (subtypeOf(interfaceNode(n, i, s), clazz, s))
+                return true;
+
+        // all the super types have been visited.
+        supertypes(n, s);
+        return false;
+    }
+
+    /**
+     * Returns the most specific common super class of the given classes.
+     * They must not be an array type or a primitive type.
+     */
+    CtClass commonSuperclass(CtClass one, CtClass two) throws NotFoundException {
+        boolean shared = shared(one) && shared(two);
+        State s = state();
+        Node n1 = node(one, shared, s);
+        Node n2 = node(two, shared, s);
+        if (s != state()) {
+            s = state();
+            n1 = node(one, shared, s);
+            n2 = node(two, shared, s);
+        }
+
+        int id1 = n1.id, id2 = n2.id;
+        Long key = id1 < id2 ? ((long)id1 << 32) | id2 : ((long)id2 << 32) | id1;
+        Integer found = shared ? lookupCommon(key, s) : null;
+        if (found == null) {
+            int[] c1 = chain(n1, s), c2 = chain(n2, s);
+            int i = c1.length - 1, j = c2.length - 1;
+            while (i > 0 && j > 0 && c1[i - 1] == c2[j - 1]) {
+                i--;
+                j--;
+            }
+
+            if (c1[i] != c2[j])
+                throw new NotFoundException(one.getName() + " and " + two.getName()
+                                            + " do not have a common super class");
+
+            found = c1[i];
+            if (shared)
+                record(key, found, s);
+        }
+
+        return pool.get(nameOf(found, s));
+    }
+
+    /* Only the CtClass object obtained by ClassPool.get() is memoized.
+     */
+    private boolean shared(CtClass cc) {
+        return cc.getClassPool() == pool && pool.getCached(cc.getName()) == cc;
+    }
+
+    /* Returns the record of the given class.  It does not read
+     * the class files of the super types.
+     */
+    private Node node(CtClass cc, boolean shared, State s) throws NotFoundException {
+        String name = cc.getName();
+        if (shared) {
+            Node n = lookup(name, s);
+            if (n != null && isValid(n))
+                return n;
+            else if (n != null)
+                discard(s);     // s is still used by this query.
+        }
+
+        CtClassType owner = cc instanceof CtClassType ? (CtClassType)cc : null;
+        int version = owner == null ? 0 : owner.hierarchyVersion();
+        String supername;
+        String[] ifs;
+        ClassFile cf = cc.getClassFile2();
+        if (cf != null) {
+            supername = cf.getSuperclass();
+            ifs = cf.getInterfaces();
+        }
+        else {
+            CtClass sc = cc.getSuperclass();
+            supername = sc == null ? null : sc.getName();
+            CtClass[] ifc = cc.getInterfaces();
+            ifs = new String[ifc.length];
+            for (int i = 0; i < ifc.length; i++)
+                ifs[i] = ifc[i].getName();
+        }
+
+        Node n = new Node(name, intern(name, s), owner, version, supername, ifs);
+        if (shared && owner != null)
+            record(name, n, s);
+
+        return n;
+    }
+
+    private Node superclass(Node n, State s) throws NotFoundException {
+        Node sn = n.superclass;
+        if (sn == null) {
+            sn = node(pool.get(n.supername), true, s);
+            n.superclass = sn;
+        }
+
+        return sn;
+    }
+
+    /* A Node is safely published through the array since
+     * the fields read by other threads first are final.
+     */
+    private Node interfaceNode(Node n, int i, State s) throws NotFoundException {
+        Node in = n.interfaceNodes[i];
+        if (in == null) {
+            in = node(pool.get(n.interfaces[i]), true, s);
+            n.interfaceNodes[i] = in;
+        }
+
+        return in;
+    }
+
+    /* Checks the class and all its super types whose records
+     * the given record depends on.
+     */
+    private static boolean isValid(Node n) {
+        for (; n != null; n = n.superclass) {
+            if (!n.isValid())
+                return false;
+
+            for (Node i: n.interfaceNodes)
+                if (i != null && !isValid(i))
+                    return false;
+        }
+
+        return true;
+    }
+
+    private int[] chain(Node n, State s) throws NotFoundException {
+        int[] chain = n.chain;
+        if (chain != null)
+            return chain;
+
+        if (n.supername == null)
+            chain = new int[] { n.id };
+        else {
+            int[] sc = chain(superclass(n, s), s);
+            chain = new int[sc.length + 1];
+            chain[0] = n.id;
+            System.arraycopy(sc, 0, chain, 1, sc.length);
+        }
+
+        n.chain = chain;
+        return chain;
+    }
+
+    /* The super types are computed only when they are needed since
+     * getting the interfaces may read more class files.
+     */
+    private int[] supertypes(Node n, State s) throws NotFoundException {
+        int[] types = n.supertypes;
+        if (types != null)
+            return types;
+
+        types = new int[] { n.id };
+        if (n.supername != null)
+            types = union(types, supertypes(superclass(n, s), s));
+
+        for (int i = 0; i < n.interfaces.length; i++)
+            types = union(types, supertypes(interfaceNode(n, i, s), s));
+
+        n.supertypes = types;
+        return types;
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] r = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length)
+            if (a[i] < b[j])
+                r[k++] = a[i++];
+            else if (a[i] > b[j])
+                r[k++] = b[j++];
+            else {
+                r[k++] = a[i++];
+                j++;
+            }
+
+        while (i < a.length)
+            r[k++] = a[i++];
+
+        while (j < b.length)
+            r[k++] = b[j++];
+
+        return k == r.length ? r : Arrays.copyOf(r, k);
+    }
+
+    private synchronized Integer idOf(String name, State s) {
+        return s.ids.get(name);
+    }
+
+    private synchronized String nameOf(int id, State s) {
+        return s.names.get(id);
+    }
+
+    private synchronized int intern(String name, State s) {
+        Integer id = s.ids.get(name);
+        if (id != null)
+            return id;
+
+        int i = s.names.size();
+        s.names.add(name);
+        s.ids.put(name, i);
+        return i;
+    }
+
+    /* s is the state when the caller started.  If the cache
+     * has been discarded since then, nothing is found and nothing is recorded.
+     */
+    private synchronized Node lookup(String name, State s) {
+        return s == state ? s.nodes.get(name) : null;
+    }
+
+    private synchronized void record(String name, Node n, State s) {
+        if (s == state) {
+            s.nodes.put(name, n);
+            // the records of evicted or detached classes are never
+            // looked up again.
+            if (s.nodes.size() > pool.classes.size() * 2 + 1000)
+                discard(s);
+        }
+    }
+
+    private synchronized Integer lookupCommon(Long key, State s) {
+        return s == state ? s.common.get(key) : null;
+    }
+
+    private synchronized void record(Long key, int id, State s) {
+        if (s == state)
+            s.common.put(key, id);
+    }
+
+    private synchronized State state() {
+        return state;
+    }
+
+    private synchronized void discard(State s) {
+        if (s == state)
+            state = new State();
+    }
+
+    synchronized int size() {
+        return state.nodes.size();
+    }
+}
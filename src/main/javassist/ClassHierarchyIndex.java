@@ -0,0 +1,626 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFileReader;
+
+/**
+ * A persistent index of the super types and the class-level annotations
+ * of the classes contained in jar files and directories.
+ *
+ * <p>The index answers questions such as "which classes are annotated
+ * with X" and "which classes implement Y" without constructing
+ * <code>CtClass</code> objects.  The class files are read by
+ * <code>ClassFileReader</code>, which does not decode the fields or
+ * the methods.
+ *
+ * <p><code>update()</code> indexes the given class path.  The jar files
+ * are indexed in parallel.  If the index is saved into a file, it can be
+ * reused after the JVM restarts.  Each jar file is identified by its
+ * canonical path name, its size, and its last-modified time, and it is
+ * indexed again only if either the size or the time does not match.
+ * Directories are always indexed again.
+ *
+ * <pre>
+ * ClassHierarchyIndex index = new ClassHierarchyIndex(new File("hierarchy.idx"));
+ * index.update(Arrays.asList("./classes", "./lib/a.jar", "./lib/b.jar"));
+ * index.save();
+ * Set&lt;String&gt; beans = index.getAnnotatedClasses("com.example.Bean");
+ * Set&lt;String&gt; handlers = index.getImplementors("com.example.Handler");
+ * </pre>
+ *
+ * <p>All the class names are fully-qualified names such as
+ * <code>java.lang.String</code>.  If the same class is found in more
+ * than one element of the class path, the first one is indexed.
+ *
+ * @see ClassPathIndex
+ * @see javassist.bytecode.ClassFileReader
+ * @since 3.31
+ */
+public class ClassHierarchyIndex {
+    private static final int MAGIC = 0x4a434849;    // "JCHI"
+    private static final int VERSION = 1;
+    private static final long DIRECTORY = -1;
+
+    static final class Entry {
+        final String name, superclass;      // superclass may be null
+        final int accessFlags;
+        final String[] interfaces, annotations;
+
+        Entry(String name, int accessFlags, String superclass,
+              String[] interfaces, String[] annotations)
+        {
+            this.name = name;
+            this.accessFlags = accessFlags;
+            this.superclass = superclass;
+            this.interfaces = interfaces;
+            this.annotations = annotations;
+        }
+    }
+
+    static final class Source {
+        final long size, lastModified;      // size is DIRECTORY for a directory
+        final List<Entry> classes;
+
+        Source(long size, long lastModified, List<Entry> classes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.classes = classes;
+        }
+    }
+
+    private final File file;
+    private Map<String,Source> sources;     // in the class-path order
+    private boolean modified;
+    private int hits, misses;
+
+    // built on demand
+    private Map<String,Entry> classes;
+    private Map<String,List<String>> subtypes, annotated;
+
+    /**
+     * Constructs an index.  If the given file exists, the index is
+     * loaded from the file.  If the file is broken or it was written
+     * by an incompatible version, the contents of the file are ignored.
+     *
+     * @param file      the file where this index is saved.
+     *                  If it is null, this index is not persistent.
+     */
+    public ClassHierarchyIndex(File file) {
+        this.file = file;
+        this.sources = new LinkedHashMap<String,Source>();
+        this.modified = false;
+        if (file != null && file.isFile())
+            try {
+                load(file);
+            }
+            catch (IOException e) {
+                sources.clear();
+                modified = true;
+            }
+    }
+
+    /**
+     * Returns the file where this index is saved.
+     * It may be null.
+     */
+    public File getFile() { return file; }
+
+    /**
+     * Returns true if this index has been changed since it was
+     * loaded or saved.
+     */
+    public synchronized boolean isModified() { return modified; }
+
+    /**
+     * Returns the number of jar files whose entries were reused
+     * by <code>update()</code> without reading the jar files.
+     */
+    public synchronized int getHits() { return hits; }
+
+    /**
+     * Returns the number of jar files and directories that were read
+     * by <code>update()</code>.
+     */
+    public synchronized int getMisses() { return misses; }
+
+    /**
+     * Indexes the given class path.  The jar files are read
+     * in parallel by <code>ForkJoinPool.commonPool()</code>.
+     *
+     * @param classpath     the paths of jar files and directories.
+     * @see #update(Collection,Executor)
+     */
+    public void update(Collection<String> classpath) throws IOException {
+        update(classpath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Indexes the given class path.  The entries for the jar files
+     * and the directories that are not included in the class path are
+     * discarded.  The jar files whose entries are not stale are not read.
+     * The others are read in parallel by the given executor.
+     * This method returns after all of them are read.
+     * The paths that do not exist are ignored.
+     *
+     * @param classpath     the paths of jar files and directories.
+     * @param executor      the executor reading the jar files.
+     * @throws IOException  if a jar file or a directory cannot be read.
+     */
+    public void update(Collection<String> classpath, Executor executor)
+        throws IOException
+    {
+        Map<String,Source> old;
+        synchronized (this) {
+            old = sources;
+        }
+
+        List<String> keys = new ArrayList<String>();
+        List<CompletableFuture<Source>> tasks = new ArrayList<CompletableFuture<Source>>();
+        int reused = 0;
+        for (String path: classpath) {
+            final File f = new File(path).getCanonicalFile();
+            String key = f.getPath();
+            if (keys.contains(key) || !f.exists())
+                continue;
+
+            keys.add(key);
+            Source s = old.get(key);
+            if (f.isFile() && s != null && s.size == f.length()
+                && s.lastModified == f.lastModified()) {
+                tasks.add(CompletableFuture.completedFuture(s));
+                reused++;
+            }
+            else
+                tasks.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return f.isDirectory() ? readDirectory(f) : readJar(f);
+                    }
+                    catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+        }
+
+        Map<String,Source> map = new LinkedHashMap<String,Source>();
+        try {
+            for (int i = 0; i < keys.size(); i++)
+                map.put(keys.get(i), tasks.get(i).join());
+        }
+        catch (CompletionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException)
+                throw (IOException)t;
+            else if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            else if (t instanceof Error)
+                throw (Error)t;
+            else
+                throw e;
+        }
+
+        synchronized (this) {
+            sources = map;
+            hits += reused;
+            misses += keys.size() - reused;
+            if (reused < keys.size() || keys.size() < old.size())
+                modified = true;
+
+            classes = null;
+            subtypes = annotated = null;
+        }
+    }
+
+    private static Source readJar(File f) throws IOException {
+        long size = f.length();
+        long time = f.lastModified();
+        List<Entry> list = new ArrayList<Entry>();
+        JarFile jar = new JarFile(f);
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry e = entries.nextElement();
+                String name = e.getName();
+                if (isClassFile(name) && !name.startsWith("META-INF/")) {
+                    InputStream in = jar.getInputStream(e);
+                    try {
+                        addEntry(list, ClassPoolTail.readStream(in));
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+            }
+        }
+        finally {
+            jar.close();
+        }
+
+        return new Source(size, time, list);
+    }
+
+    private static Source readDirectory(File dir) throws IOException {
+        List<Entry> list = new ArrayList<Entry>();
+        ArrayDeque<File> dirs = new ArrayDeque<File>();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.poll().listFiles();
+            if (files == null)
+                continue;
+
+            for (File f: files)
+                if (f.isDirectory())
+                    dirs.add(f);
+                else if (isClassFile(f.getName())) {
+                    InputStream in = new FileInputStream(f);
+                    try {
+                        addEntry(list, ClassPoolTail.readStream(in));
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+        }
+
+        return new Source(DIRECTORY, dir.lastModified(), list);
+    }
+
+    private static boolean isClassFile(String name) {
+        return name.endsWith(".class") && !name.endsWith("module-info.class")
+               && !name.endsWith("package-info.class");
+    }
+
+    /* A broken class file is not indexed.
+     */
+    private static void addEntry(List<Entry> list, byte[] bytes) {
+        try {
+            final List<String> annotations = new ArrayList<String>();
+            ClassFileReader reader = new ClassFileReader(bytes) {
+                @Override
+                public boolean fields(int count) { return false; }
+
+                @Override
+                public boolean methods(int count) { return false; }
+
+                @Override
+                public void classAttribute(String name, int pos, int length) {
+                    if (name.equals(AnnotationsAttribute.visibleTag)
+                        || name.equals(AnnotationsAttribute.invisibleTag))
+                        for (String type: getAnnotationTypes(pos, length))
+                            annotations.add(type);
+                }
+            };
+            reader.parse();
+            list.add(new Entry(reader.getName(), reader.getAccessFlags(),
+                               reader.getSuperclass(), reader.getInterfaces(),
+                               annotations.toArray(new String[annotations.size()])));
+        }
+        catch (IOException e) {}
+        catch (RuntimeException e) {}
+    }
+
+    /**
+     * Returns the names of all the indexed classes.
+     */
+    public synchronized Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classes().keySet());
+    }
+
+    /**
+     * Returns true if the given class is indexed.
+     */
+    public synchronized boolean contains(String classname) {
+        return classes().containsKey(classname);
+    }
+
+    /**
+     * Returns the super class of the given class.
+     * It returns null if the class is not indexed or it is
+     * <code>java.lang.Object</code>.
+     */
+    public synchronized String getSuperclass(String classname) {
+        Entry e = classes().get(classname);
+        return e == null ? null : e.superclass;
+    }
+
+    /**
+     * Returns the interfaces directly implemented by the given class.
+     * It returns null if the class is not indexed.
+     */
+    public synchronized String[] getInterfaces(String classname) {
+        Entry e = classes().get(classname);
+        return e == null ? null : e.interfaces.clone();
+    }
+
+    /**
+     * Returns the types of the annotations given to the class.
+     * Both the visible and invisible annotations are included.
+     * It returns null if the class is not indexed.
+     */
+    public synchronized String[] getAnnotations(String classname) {
+        Entry e = classes().get(classname);
+        return e == null ? null : e.annotations.clone();
+    }
+
+    /**
+     * Returns the classes annotated with the given annotation type.
+     * Only the annotations given to the classes are considered.
+     *
+     * @param annotation    the annotation type.
+     */
+    public synchronized Set<String> getAnnotatedClasses(String annotation) {
+        if (annotated == null) {
+            Map<String,List<String>> map = new HashMap<String,List<String>>();
+            for (Entry e: classes().values())
+                for (String a: e.annotations)
+                    add(map, a, e.name);
+
+            annotated = map;
+        }
+
+        List<String> found = annotated.get(annotation);
+        if (found == null)
+            return Collections.emptySet();
+        else
+            return Collections.unmodifiableSet(new LinkedHashSet<String>(found));
+    }
+
+    /**
+     * Returns all the indexed classes and interfaces that are subtypes
+     * of the given class or interface.  They include indirect subtypes
+     * but the given type itself is not included.
+     *
+     * @param classname     the class or interface name.
+     */
+    public synchronized Set<String> getSubtypes(String classname) {
+        return subtypes(classname, false);
+    }
+
+    /**
+     * Returns all the indexed classes that implement the given
+     * interface directly or indirectly, or that extend the given class.
+     * Unlike <code>getSubtypes()</code>, the returned set does not
+     * include interfaces.  It includes abstract classes.
+     *
+     * @param classname     the interface or class name.
+     */
+    public synchronized Set<String> getImplementors(String classname) {
+        return subtypes(classname, true);
+    }
+
+    private Set<String> subtypes(String classname, boolean classesOnly) {
+        if (subtypes == null) {
+            Map<String,List<String>> map = new HashMap<String,List<String>>();
+            for (Entry e: classes().values()) {
+                if (e.superclass != null)
+                    add(map, e.superclass, e.name);
+
+                for (String i: e.interfaces)
+                    add(map, i, e.name);
+            }
+
+            subtypes = map;
+        }
+
+        Set<String> found = new LinkedHashSet<String>();
+        ArrayDeque<String> todo = new ArrayDeque<String>();
+        todo.add(classname);
+        while (!todo.isEmpty()) {
+            List<String> subs = subtypes.get(todo.poll());
+            if (subs != null)
+                for (String s: subs)
+                    if (!s.equals(classname) && found.add(s))
+                        todo.add(s);
+        }
+
+        if (classesOnly)
+            for (Iterator<String> it = found.iterator(); it.hasNext();)
+                if ((classes.get(it.next()).accessFlags & AccessFlag.INTERFACE) != 0)
+                    it.remove();
+
+        return Collections.unmodifiableSet(found);
+    }
+
+    private static void add(Map<String,List<String>> map, String key, String value) {
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<String>();
+            map.put(key, list);
+        }
+
+        list.add(value);
+    }
+
+    private Map<String,Entry> classes() {
+        if (classes == null) {
+            Map<String,Entry> map = new LinkedHashMap<String,Entry>();
+            for (Source s: sources.values())
+                for (Entry e: s.classes)
+                    if (!map.containsKey(e.name))
+                        map.put(e.name, e);
+
+            classes = map;
+        }
+
+        return classes;
+    }
+
+    /**
+     * Writes this index into the file given to the constructor
+     * if this index has been changed.
+     *
+     * @throws IOException      if the file cannot be written.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null || (!modified && file.isFile()))
+            return;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("cannot write " + file);
+        }
+
+        modified = false;
+    }
+
+    /* The names are written only once into a table.  The entries
+     * refer to them by their indexes.  0 means null.
+     */
+    private void write(DataOutputStream out) throws IOException {
+        Map<String,Integer> names = new LinkedHashMap<String,Integer>();
+        for (Source s: sources.values())
+            for (Entry e: s.classes) {
+                index(names, e.name);
+                index(names, e.superclass);
+                for (String i: e.interfaces)
+                    index(names, i);
+
+                for (String a: e.annotations)
+                    index(names, a);
+            }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.size());
+        for (String n: names.keySet())
+            out.writeUTF(n);
+
+        out.writeInt(sources.size());
+        for (Map.Entry<String,Source> se: sources.entrySet()) {
+            Source s = se.getValue();
+            out.writeUTF(se.getKey());
+            out.writeLong(s.size);
+            out.writeLong(s.lastModified);
+            out.writeInt(s.classes.size());
+            for (Entry e: s.classes) {
+                out.writeInt(names.get(e.name));
+                out.writeShort(e.accessFlags);
+                out.writeInt(e.superclass == null ? 0 : names.get(e.superclass));
+                writeNames(out, names, e.interfaces);
+                writeNames(out, names, e.annotations);
+            }
+        }
+    }
+
+    private static void index(Map<String,Integer> names, String name) {
+        if (name != null && !names.containsKey(name))
+            names.put(name, names.size() + 1);
+    }
+
+    private static void writeNames(DataOutputStream out, Map<String,Integer> names,
+                                   String[] list)
+        throws IOException
+    {
+        out.writeShort(list.length);
+        for (String n: list)
+            out.writeInt(names.get(n));
+    }
+
+    private void load(File f) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("bad index file: " + f);
+
+            String[] names = new String[in.readInt() + 1];
+            for (int i = 1; i < names.length; i++)
+                names[i] = in.readUTF();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long time = in.readLong();
+                int n = in.readInt();
+                List<Entry> list = new ArrayList<Entry>(n);
+                for (int j = 0; j < n; j++) {
+                    String name = names[in.readInt()];
+                    int flags = in.readUnsignedShort();
+                    String superclass = names[in.readInt()];
+                    list.add(new Entry(name, flags, superclass,
+                                       readNames(in, names), readNames(in, names)));
+                }
+
+                sources.put(path, new Source(size, time, list));
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("bad index file: " + f, e);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static String[] readNames(DataInputStream in, String[] names)
+        throws IOException
+    {
+        String[] list = new String[in.readUnsignedShort()];
+        for (int i = 0; i < list.length; i++)
+            list[i] = names[in.readInt()];
+
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return "ClassHierarchyIndex[" + file + ", sources=" + sources.size()
+               + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
@@ -16,8 +16,10 @@
 
 package javassist;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 
 /**
  * <code>ClassPath</code> is an interface implemented by objects
@@ -50,6 +52,51 @@ public interface ClassPath {
      */
     InputStream openClassfile(String classname) throws NotFoundException;
 
+    /**
+     * Reads a class file into a byte buffer.
+     * <code>ClassPool</code> calls this method instead of
+     * <code>openClassfile()</code> when it reads a class file.
+     * The contents of the class file are between the position and
+     * the limit of the returned buffer.
+     *
+     * <p>The returned buffer may be a heap, direct, or mapped buffer.
+     * If its backing array is accessible, the caller may use that
+     * array as is, for example, as the result of
+     * <code>CtClass.toBytecode()</code>.
+     * Hence, if the array is shared with others, a read-only buffer
+     * must be returned.
+     *
+     * <p>The default implementation reads the input stream returned by
+     * <code>openClassfile()</code>.  A class path that holds
+     * the contents of class files in memory should override this method
+     * to avoid copying them.
+     *
+     * @param classname         a fully-qualified class name
+     * @return          the contents of the class file or null
+     *                  if the class file is not found.
+     * @see #openClassfile(String)
+     * @since 3.31
+     */
+    default ByteBuffer openClassfileBuffer(String classname)
+        throws NotFoundException
+    {
+        InputStream in = openClassfile(classname);
+        if (in == null)
+            return null;
+
+        try {
+            try {
+                return ByteBuffer.wrap(ClassPoolTail.readStream(in));
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new NotFoundException("cannot read " + classname, e);
+        }
+    }
+
     /**
      * Returns the uniform resource locator (URL) of the class file
      * with the specified name.
@@ -0,0 +1,290 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of the class files contained in jar files.
+ *
+ * <p>When a jar file is appended to a <code>ClassPool</code>, the names of
+ * all the class files in that jar file are listed so that
+ * <code>find()</code> can quickly determine which jar file contains
+ * a class file.  If a <code>ClassPathIndex</code> is given to a
+ * <code>ClassPool</code>, the listed names are recorded in this index
+ * and, if the index is saved into a file, they can be reused
+ * by another <code>ClassPool</code>, for example, after the JVM restarts.
+ * A jar file is not opened until a class file is read from it
+ * if it is found in the index.
+ *
+ * <p>Each jar file is identified by its canonical path name, its size,
+ * and its last-modified time.  If either the size or the time does
+ * not match, the index entry for that jar file is discarded and
+ * the jar file is listed again.  The other entries are still used.
+ *
+ * <pre>
+ * ClassPathIndex index = new ClassPathIndex(new File("classpath.idx"));
+ * ClassPool cp = new ClassPool(true);
+ * cp.setClassPathIndex(index);
+ * cp.appendClassPath("./lib/*");
+ * index.save();
+ * </pre>
+ *
+ * @see ClassPool#setClassPathIndex(ClassPathIndex)
+ * @since 3.31
+ */
+public class ClassPathIndex {
+    private static final int MAGIC = 0x4a434958;    // "JCIX"
+    private static final int VERSION = 1;
+
+    static final class Entry {
+        final long size, lastModified;
+        final Set<String> classfiles;
+        boolean used;
+
+        Entry(long size, long lastModified, Set<String> classfiles) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.classfiles = classfiles;
+            this.used = false;
+        }
+    }
+
+    private final File file;
+    private final Map<String,Entry> jars;
+    private boolean modified;
+    private int hits, misses;
+
+    /**
+     * Constructs an index.  If the given file exists, the index is
+     * loaded from the file.  If the file is broken or it was written
+     * by an incompatible version, the contents of the file are ignored.
+     *
+     * @param file      the file where this index is saved.
+     *                  If it is null, this index is not persistent.
+     */
+    public ClassPathIndex(File file) {
+        this.file = file;
+        this.jars = new HashMap<String,Entry>();
+        this.modified = false;
+        if (file != null && file.isFile())
+            try {
+                load(file);
+            }
+            catch (IOException e) {
+                jars.clear();
+                modified = true;
+            }
+    }
+
+    /**
+     * Returns the file where this index is saved.
+     * It may be null.
+     */
+    public File getFile() { return file; }
+
+    /**
+     * Returns true if this index has been changed since it was
+     * loaded or saved.
+     */
+    public synchronized boolean isModified() { return modified; }
+
+    /**
+     * Returns the number of jar files whose class files were
+     * obtained from this index without listing the jar file.
+     */
+    public synchronized int getHits() { return hits; }
+
+    /**
+     * Returns the number of jar files that were listed since
+     * they were not found in this index or their entries were stale.
+     */
+    public synchronized int getMisses() { return misses; }
+
+    /**
+     * Discards all the entries.
+     */
+    public synchronized void clear() {
+        if (!jars.isEmpty())
+            modified = true;
+
+        jars.clear();
+    }
+
+    /**
+     * Returns the names of the class files contained in the given
+     * jar file.  The jar file is listed only if it is not found
+     * in this index or the recorded entry is stale.
+     *
+     * @param jarfile           the canonical path of the jar file.
+     * @param lister            lists the class files if necessary.
+     */
+    synchronized Set<String> classfiles(File jarfile, JarLister lister)
+        throws IOException
+    {
+        String key = jarfile.getPath();
+        long size = jarfile.length();
+        long time = jarfile.lastModified();
+        Entry e = jars.get(key);
+        if (e != null && e.size == size && e.lastModified == time) {
+            hits++;
+            e.used = true;
+            return e.classfiles;
+        }
+
+        misses++;
+        Set<String> names = Collections.unmodifiableSet(lister.list(jarfile));
+        e = new Entry(size, time, names);
+        e.used = true;
+        jars.put(key, e);
+        modified = true;
+        return names;
+    }
+
+    interface JarLister {
+        Set<String> list(File jarfile) throws IOException;
+    }
+
+    /**
+     * Writes this index into the file given to the constructor
+     * if this index has been changed.  The entries for the jar files
+     * that do not exist any more are not written.
+     *
+     * @throws IOException      if the file cannot be written.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null)
+            return;
+
+        Iterator<Map.Entry<String,Entry>> it = jars.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,Entry> e = it.next();
+            if (!e.getValue().used && !new File(e.getKey()).isFile()) {
+                it.remove();
+                modified = true;
+            }
+        }
+
+        if (!modified && file.isFile())
+            return;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("cannot write " + file);
+        }
+
+        modified = false;
+    }
+
+    /* The class files are grouped by their packages.  So a package
+     * name is written only once.
+     */
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(jars.size());
+        for (Map.Entry<String,Entry> e: jars.entrySet()) {
+            Entry entry = e.getValue();
+            out.writeUTF(e.getKey());
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            Map<String,List<String>> packages = new HashMap<String,List<String>>();
+            for (String name: entry.classfiles) {
+                int i = name.lastIndexOf('/');
+                String pkg = i < 0 ? "" : name.substring(0, i + 1);
+                List<String> list = packages.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    packages.put(pkg, list);
+                }
+
+                list.add(name.substring(i + 1));
+            }
+
+            out.writeInt(packages.size());
+            for (Map.Entry<String,List<String>> p: packages.entrySet()) {
+                out.writeUTF(p.getKey());
+                List<String> names = p.getValue();
+                out.writeInt(names.size());
+                for (String n: names)
+                    out.writeUTF(n);
+            }
+        }
+    }
+
+    private void load(File f) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("bad index file: " + f);
+
+            int jarCount = in.readInt();
+            for (int i = 0; i < jarCount; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long time = in.readLong();
+                Set<String> names = new HashSet<String>();
+                int pkgCount = in.readInt();
+                for (int j = 0; j < pkgCount; j++) {
+                    String pkg = in.readUTF();
+                    int n = in.readInt();
+                    for (int k = 0; k < n; k++)
+                        names.add(pkg + in.readUTF());
+                }
+
+                jars.put(path, new Entry(size, time,
+                                         Collections.unmodifiableSet(names)));
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClassPathIndex[" + file + ", jars=" + jars.size()
+               + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+}
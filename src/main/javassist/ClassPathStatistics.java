@@ -0,0 +1,97 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+/**
+ * A snapshot of the counters of class-file lookups in a
+ * <code>ClassPool</code>.
+ *
+ * <p>A lookup searches the class path for a class file.
+ * A class path is not probed if it is known not to contain the package
+ * of the requested class; such a class path is counted as a skipped
+ * probe.  The class paths backed by jar files and the run-time image
+ * know their packages.  If the negative lookup cache is enabled,
+ * a lookup for a class name that was recently not found is answered
+ * by the cache without probing any class path.
+ *
+ * @see ClassPool#getClassPathStatistics()
+ * @see ClassPool#setNegativeLookupCacheSize(int)
+ * @since 3.31
+ */
+public final class ClassPathStatistics {
+    private final long lookups, probes, skipped, negativeHits, misses;
+
+    ClassPathStatistics(long lookups, long probes, long skipped,
+                        long negativeHits, long misses) {
+        this.lookups = lookups;
+        this.probes = probes;
+        this.skipped = skipped;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+    }
+
+    /**
+     * Returns the number of lookups.
+     */
+    public long getLookups() { return lookups; }
+
+    /**
+     * Returns the number of class paths probed.
+     */
+    public long getProbes() { return probes; }
+
+    /**
+     * Returns the number of class paths not probed since they do not
+     * contain the package of the requested class.
+     */
+    public long getSkippedProbes() { return skipped; }
+
+    /**
+     * Returns the number of lookups answered by the negative lookup cache.
+     */
+    public long getNegativeCacheHits() { return negativeHits; }
+
+    /**
+     * Returns the number of lookups that probed class paths but did not
+     * find a class file.
+     */
+    public long getMisses() { return misses; }
+
+    /**
+     * Returns the ratio of the skipped probes to all the probes that
+     * would be performed without the package routing.
+     */
+    public double getSkipRate() {
+        long all = probes + skipped;
+        return all == 0 ? 0.0 : (double)skipped / all;
+    }
+
+    /**
+     * Returns the ratio of the lookups answered by the negative
+     * lookup cache to all the lookups.
+     */
+    public double getNegativeCacheHitRate() {
+        return lookups == 0 ? 0.0 : (double)negativeHits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return "lookups=" + lookups + ", probes=" + probes
+               + ", skipped=" + skipped + ", negativeHits=" + negativeHits
+               + ", misses=" + misses;
+    }
+}
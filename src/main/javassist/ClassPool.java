@@ -22,14 +22,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import javassist.bytecode.ClassFile;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.HierarchyResolver;
+import javassist.bytecode.SymbolTable;
 import javassist.util.proxy.DefinePackageHelper;
 
 /**
@@ -114,17 +127,80 @@ public class ClassPool {
     public static boolean releaseUnmodifiedClassFile = true;
 
     /**
-     * If true, the contents of a jar file are cached after the jar
-     * file is opened.
+     * If true, a jar file is kept open after a class file is read
+     * from it.  It is closed when the class path representing
+     * the jar file is removed by <code>removeClassPath()</code>.
+     * If false, the jar file is opened and closed whenever a class file
+     * is read from it.
      *
      * <p>The initial value is true.
+     *
+     * @see #removeClassPath(ClassPath)
      */
     public static boolean cacheOpenedJarFile = true;    // see ClassPoolTail.JarClassPath#openClassfile(String)
 
+    /**
+     * If true, a <code>CtClass</code> object keeps the class file
+     * read from the class path as it is, together with the parsed
+     * <code>ClassFile</code>, until the class is modified.
+     * <code>toBytecode()</code> and <code>writeFile()</code> return
+     * the kept class file if the class is not modified.
+     * If false, the class file is read from the class path again.
+     * The kept class file is released with the parsed one.
+     * Its size is counted in the budget given by
+     * <code>setEvictionPolicy()</code>.
+     *
+     * <p>Setting this to true saves reading and copying class files
+     * when many classes are written without modification, at
+     * the cost of memory.  The initial value is false.
+     *
+     * @see CtClass#isModified()
+     * @see #setEvictionPolicy(EvictionPolicy,long)
+     * @since 3.31
+     */
+    public static boolean keepOriginalClassFile = false;
+
     protected ClassPoolTail source;
     protected ClassPool parent;
     protected Hashtable classes;        // should be synchronous
 
+    /**
+     * The <code>CtClass</code> objects that are being created.
+     * It is null unless this is a concurrent class pool.
+     */
+    private ConcurrentHashMap<String,FutureTask<CtClass>> creating;
+
+    /**
+     * The memory budget.  It is null unless an eviction policy is set.
+     */
+    private volatile ClassPoolBudget budget;
+
+    /**
+     * The table of the strings shared among class files.  It may be null.
+     */
+    private volatile SymbolTable symbols;
+
+    /**
+     * True if stack maps are rebuilt only when class files are written.
+     */
+    private volatile boolean stackMapDeferred = false;
+
+    /**
+     * The executor analyzing the methods whose stack maps are rebuilt
+     * when class files are written.  It may be null.
+     */
+    private volatile Executor stackMapExecutor;
+
+    /**
+     * The resolver used for computing stack maps.  It is lazily created.
+     */
+    private volatile HierarchyResolver resolver;
+
+    /**
+     * The memoized super types of the classes in this pool.
+     */
+    final ClassHierarchyCache hierarchy = new ClassHierarchyCache(this);
+
     /**
      * Table of registered cflow variables.
      */
@@ -164,7 +240,39 @@ public class ClassPool {
      * @see javassist.ClassPool#getDefault()
      */
     public ClassPool(ClassPool parent) {
-        this.classes = new Hashtable(INIT_HASH_SIZE);
+        this(parent, false);
+    }
+
+    /**
+     * Creates a class pool.  If <code>concurrent</code> is true,
+     * the created class pool is a concurrent one.  Its cache of
+     * <code>CtClass</code> objects is a concurrent hash table and
+     * <code>get()</code> does not lock the whole class pool.
+     * If several threads concurrently request the same class,
+     * only one of them creates a <code>CtClass</code> object
+     * and the others wait for that object.
+     *
+     * <p>A concurrent class pool still calls
+     * <code>getCached()</code>, <code>cacheCtClass()</code>, and
+     * <code>removeCached()</code>, so subclasses overriding these methods
+     * can be concurrent as well if the overriding methods are thread-safe.
+     *
+     * @param parent        the parent of this class pool.  If this is a root
+     *                      class pool, this parameter must be <code>null</code>.
+     * @param concurrent    true if the class pool is concurrent.
+     * @see #isConcurrent()
+     * @since 3.31
+     */
+    public ClassPool(ClassPool parent, boolean concurrent) {
+        if (concurrent) {
+            this.classes = new ConcurrentClassTable(INIT_HASH_SIZE);
+            this.creating = new ConcurrentHashMap<String,FutureTask<CtClass>>();
+        }
+        else {
+            this.classes = new Hashtable(INIT_HASH_SIZE);
+            this.creating = null;
+        }
+
         this.source = new ClassPoolTail();
         this.parent = parent;
         if (parent == null) {
@@ -214,6 +322,16 @@ public class ClassPool {
 
     private static ClassPool defaultPool = null;
 
+    /**
+     * Returns true if this is a concurrent class pool.
+     *
+     * @see #ClassPool(ClassPool,boolean)
+     * @since 3.31
+     */
+    public boolean isConcurrent() {
+        return creating != null;
+    }
+
     /**
      * Provide a hook so that subclasses can do their own
      * caching of classes.
@@ -267,6 +385,217 @@ public class ClassPool {
         }
     }
 
+    /**
+     * Sets the policy for evicting <code>CtClass</code> objects from this
+     * class pool.  If the total size of the class files held by this
+     * class pool exceeds the given budget, unmodified classes are
+     * removed from this class pool in the order determined by the policy
+     * until the total size fits in the budget.  A removed class
+     * is read again from the class path when it is requested next time.
+     *
+     * <p>Modified classes and frozen classes are never evicted,
+     * since a class read again would be neither modified nor frozen.
+     * Nor are the classes whose members (<code>CtField</code>,
+     * <code>CtMethod</code>, ...) are still in use.  Note that an evicted <code>CtClass</code> object
+     * is detached as by <code>CtClass.detach()</code>.
+     * It should not be modified after it is evicted.
+     *
+     * <p>The sizes of class files are approximate.
+     * The classes whose class files are read before this method is called
+     * are not subject to eviction.
+     *
+     * @param policy    the eviction policy.  If it is null,
+     *                  no class is evicted.
+     * @param budget    the approximate number of bytes.
+     * @see EvictionPolicy.LRU
+     * @see EvictionPolicy.LFU
+     * @see #getEvictionStatistics()
+     * @since 3.31
+     */
+    public void setEvictionPolicy(EvictionPolicy policy, long budget) {
+        if (policy == null)
+            this.budget = null;
+        else
+            this.budget = new ClassPoolBudget(this, policy, budget);
+    }
+
+    /**
+     * Sets the symbol table used when class files are read.
+     * The strings in the constant pool tables, such as class names,
+     * descriptors, and attribute names, are shared among the class
+     * files read by this class pool after this method is called.
+     * The same table may be shared among several class pools.
+     *
+     * <pre>
+     * ClassPool cp = new ClassPool(true);
+     * cp.setSymbolTable(new SymbolTable(true));
+     * </pre>
+     *
+     * @param table     the symbol table.  If it is null, the strings are
+     *                  not shared.
+     * @see SymbolTable#SymbolTable(boolean)
+     * @since 3.31
+     */
+    public void setSymbolTable(SymbolTable table) {
+        symbols = table;
+    }
+
+    /**
+     * Returns the symbol table set by <code>setSymbolTable()</code>.
+     * It may be null.
+     *
+     * @since 3.31
+     */
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    /**
+     * Specifies whether the stack maps of the methods edited through
+     * the classes in this pool are rebuilt immediately or when the
+     * class files are written.
+     *
+     * <p>By default, a stack map is rebuilt whenever the code of the
+     * method is edited, for example, by <code>insertBefore()</code>.
+     * If the rebuild is deferred, the edited methods are only recorded
+     * and <code>CtClass.toBytecode()</code>, <code>toClass()</code>,
+     * <code>writeFile()</code> and so on rebuild the stack maps of those
+     * methods once right before writing.  Even if a method is edited
+     * several times, its stack map is computed only once.
+     *
+     * <p>While the rebuild is deferred, the stack map of an edited
+     * method is not valid until the class file is written.  If the class
+     * file is obtained by <code>getClassFile()</code> and written directly,
+     * <code>ClassFile.rebuildDirtyStackMaps()</code> must be called.
+     *
+     * @param deferred      true if the rebuild is deferred.
+     * @see javassist.bytecode.MethodInfo#isStackMapDirty()
+     * @see javassist.bytecode.ClassFile#rebuildDirtyStackMaps(HierarchyResolver)
+     * @since 3.31
+     */
+    public void setStackMapDeferred(boolean deferred) {
+        stackMapDeferred = deferred;
+    }
+
+    /**
+     * Returns true if the stack maps are rebuilt when the class files
+     * are written.
+     *
+     * @see #setStackMapDeferred(boolean)
+     * @since 3.31
+     */
+    public boolean isStackMapDeferred() {
+        return stackMapDeferred;
+    }
+
+    /**
+     * Specifies the executor used when the deferred stack maps are
+     * rebuilt.  If it is not null, the methods of a class are analyzed
+     * in parallel by the executor, for example,
+     * <code>ForkJoinPool.commonPool()</code>, when the class file is
+     * written.  The resulting class file is identical to the one
+     * written without an executor.  This is effective only if
+     * the rebuild is deferred and a class has a large number of
+     * edited methods.
+     *
+     * <p>The hierarchy resolver of this pool is shared by the tasks.
+     * If a resolver is given by <code>setHierarchyResolver()</code>,
+     * it must be thread-safe.
+     *
+     * @param executor      the executor.  If it is null, the stack maps
+     *                      are rebuilt by the thread writing the class file.
+     *                      The default value is null.
+     * @see #setStackMapDeferred(boolean)
+     * @see javassist.bytecode.ClassFile#rebuildDirtyStackMaps(HierarchyResolver,Executor)
+     * @since 3.31
+     */
+    public void setStackMapExecutor(Executor executor) {
+        stackMapExecutor = executor;
+    }
+
+    /**
+     * Returns the executor used when the deferred stack maps are rebuilt.
+     * It may be null.
+     *
+     * @see #setStackMapExecutor(Executor)
+     * @since 3.31
+     */
+    public Executor getStackMapExecutor() {
+        return stackMapExecutor;
+    }
+
+    /**
+     * Sets the hierarchy resolver used when the stack maps of the
+     * methods in this class pool are computed.
+     *
+     * @param resolver  the resolver.  If it is null, a
+     *                  <code>ClassHeaderIndex</code> is used.
+     * @see #getHierarchyResolver()
+     * @since 3.31
+     */
+    public void setHierarchyResolver(HierarchyResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Returns the hierarchy resolver used when the stack maps of the
+     * methods in this class pool are computed.  Unless another resolver
+     * is set, it is a <code>ClassHeaderIndex</code> reading this class
+     * pool, which does not create <code>CtClass</code> objects for
+     * the classes appearing in the stack maps.
+     *
+     * @see javassist.bytecode.MethodInfo#rebuildStackMap(ClassPool)
+     * @see ClassHeaderIndex
+     * @since 3.31
+     */
+    public HierarchyResolver getHierarchyResolver() {
+        HierarchyResolver r = resolver;
+        if (r == null)
+            synchronized (this) {
+                r = resolver;
+                if (r == null)
+                    resolver = r = new ClassHeaderIndex(this);
+            }
+
+        return r;
+    }
+
+    /**
+     * Returns the eviction policy or null if no policy is set.
+     *
+     * @see #setEvictionPolicy(EvictionPolicy,long)
+     * @since 3.31
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        ClassPoolBudget b = budget;
+        return b == null ? null : b.policy;
+    }
+
+    /**
+     * Returns the counters of eviction or null if no eviction policy
+     * is set.
+     *
+     * @see #setEvictionPolicy(EvictionPolicy,long)
+     * @since 3.31
+     */
+    public EvictionStatistics getEvictionStatistics() {
+        ClassPoolBudget b = budget;
+        return b == null ? null : b.getStatistics();
+    }
+
+    /**
+     * Is called when the class file of the given class is read or
+     * released.
+     *
+     * @param size      the approximate size of the class file.
+     *                  It is zero if the class file is released.
+     */
+    void classFileChanged(CtClassType clazz, long size) {
+        ClassPoolBudget b = budget;
+        if (b != null)
+            b.update(clazz, size);
+    }
+
     /**
      * Record a package name so that the Javassist compiler searches
      * the package to resolve a class name.
@@ -430,10 +759,17 @@ public class ClassPool {
             throw new NotFoundException(classname);
         else {
             clazz.incGetCounter();
+            accessed(clazz);
             return clazz;
         }
     }
 
+    private void accessed(CtClass clazz) {
+        ClassPoolBudget b = budget;
+        if (b != null)
+            b.accessed(clazz);
+    }
+
     /**
      * Reads a class file from the source and returns a reference
      * to the <code>CtClass</code>
@@ -462,8 +798,10 @@ public class ClassPool {
             }
             catch (NotFoundException e){}
 
-        if (clazz != null)
+        if (clazz != null) {
             clazz.incGetCounter();
+            accessed(clazz);
+        }
 
         return clazz;
     }
@@ -499,7 +837,18 @@ public class ClassPool {
      * @param useCache      false if the cached CtClass must be ignored.
      * @return null     if the class could not be found.
      */
-    protected synchronized CtClass get0(String classname, boolean useCache)
+    protected CtClass get0(String classname, boolean useCache)
+        throws NotFoundException
+    {
+        if (creating != null && useCache)
+            return getConcurrently(classname);
+
+        synchronized (this) {
+            return getSerially(classname, useCache);
+        }
+    }
+
+    private CtClass getSerially(String classname, boolean useCache)
         throws NotFoundException
     {
         CtClass clazz = null;
@@ -530,6 +879,89 @@ public class ClassPool {
         return clazz;
     }
 
+    /*
+     * get0() for a concurrent class pool.  It does not lock this
+     * class pool.
+     */
+    private CtClass getConcurrently(String classname)
+        throws NotFoundException
+    {
+        CtClass clazz = getCached(classname);
+        if (clazz != null)
+            return clazz;
+
+        if (!childFirstLookup && parent != null) {
+            clazz = parent.get0(classname, true);
+            if (clazz != null)
+                return clazz;
+        }
+
+        clazz = createOnce(classname, null);
+        if (clazz != null)
+            return clazz;
+
+        if (childFirstLookup && parent != null)
+            clazz = parent.get0(classname, true);
+
+        return clazz;
+    }
+
+    /*
+     * Creates and caches a CtClass object unless another thread is
+     * creating it.  If another thread is, this method waits for that
+     * thread and returns the object created by that thread.
+     * If made is not null, it is cached instead of a new object.
+     */
+    private CtClass createOnce(final String classname, final CtClass made) {
+        FutureTask<CtClass> task = new FutureTask<CtClass>(() -> {
+            // check again since the class might have been cached
+            // after the previous task finished.
+            CtClass c = getCached(classname);
+            if (c == null) {
+                c = made != null ? made : createCtClass(classname, true);
+                if (c != null)
+                    cacheCtClass(c.getName(), c, false);
+            }
+
+            return c;
+        });
+
+        FutureTask<CtClass> running = creating.putIfAbsent(classname, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            }
+            finally {
+                creating.remove(classname, task);
+            }
+        }
+
+        boolean interrupted = false;
+        try {
+            for (;;)
+                try {
+                    return running.get();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+        }
+        catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            else if (t instanceof Error)
+                throw (Error)t;
+            else
+                throw new RuntimeException(t.getMessage(), t);
+        }
+        finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Creates a CtClass object representing the specified class.
      * It first examines whether or not the corresponding class
@@ -621,6 +1053,29 @@ public class ClassPool {
         return source.openClassfile(classname);
     }
 
+    /* for CtClassType.getClassFile2().  Don't delegate to the parent.
+     */
+    ByteBuffer openClassfileBuffer(String classname) throws NotFoundException {
+        return source.openClassfileBuffer(classname);
+    }
+
+    /* for CtClassType.toBytecode().  The returned array may be
+     * the backing array of the buffer returned by the class path.
+     */
+    byte[] readClassfile(String classname) throws NotFoundException {
+        ByteBuffer buf = openClassfileBuffer(classname);
+        if (buf == null)
+            throw new NotFoundException(classname);
+
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0
+            && buf.remaining() == buf.array().length)
+            return buf.array();
+
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
     void writeClassfile(String classname, OutputStream out)
         throws NotFoundException, IOException, CannotCompileException
     {
@@ -650,6 +1105,242 @@ public class ClassPool {
         return result;
     }
 
+    /**
+     * Reads class files from the source and returns the
+     * <code>CtClass</code> objects representing those class files.
+     * The class files are parsed in parallel by the common
+     * fork-join pool.
+     *
+     * @param classnames        fully-qualified class names.
+     * @param notFound          the class names whose class files are
+     *                          not found or cannot be read are added to
+     *                          this collection.  It may be null.
+     * @return  a map from the class names in <code>classnames</code>
+     *          to the <code>CtClass</code> objects.  The iteration order
+     *          of the map is the order of <code>classnames</code>.
+     *          It does not contain the names added to <code>notFound</code>.
+     * @see #getAll(Collection,Collection,Executor)
+     * @see #getAllAsync(Collection,Collection,Executor)
+     * @since 3.31
+     */
+    public Map<String,CtClass> getAll(Collection<String> classnames,
+                                      Collection<String> notFound)
+    {
+        return getAll(classnames, notFound, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads class files from the source and returns the
+     * <code>CtClass</code> objects representing those class files.
+     * The class files are parsed in parallel by the given executor.
+     * This method returns after all the class files are parsed.
+     *
+     * @param classnames        fully-qualified class names.
+     * @param notFound          the class names whose class files are
+     *                          not found or cannot be read are added to
+     *                          this collection.  It may be null.
+     * @param executor          the executor parsing the class files.
+     * @return  a map from the class names in <code>classnames</code>
+     *          to the <code>CtClass</code> objects.
+     * @see #getAllAsync(Collection,Collection,Executor)
+     * @since 3.31
+     */
+    public Map<String,CtClass> getAll(Collection<String> classnames,
+                                      Collection<String> notFound,
+                                      Executor executor)
+    {
+        try {
+            return getAllAsync(classnames, notFound, executor).join();
+        }
+        catch (CompletionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            else if (t instanceof Error)
+                throw (Error)t;
+            else
+                throw e;
+        }
+    }
+
+    /**
+     * Reads class files from the source in parallel.
+     * The returned future is completed with a map from the class names
+     * to the <code>CtClass</code> objects after all the class files are
+     * parsed.  The <code>CtClass</code> objects created by this method
+     * are cached in this class pool only after all the class files are
+     * parsed.  The objects whose class files cannot be read are not cached.
+     * If another thread obtains the same class by <code>get()</code> in
+     * the meantime, the object obtained by that thread is returned.
+     *
+     * <p>If this class pool is not concurrent, the <code>CtClass</code>
+     * objects are created one by one by a single task while
+     * the class files are parsed in parallel.  If it is concurrent,
+     * both are done in parallel.
+     *
+     * @param classnames        fully-qualified class names.
+     * @param notFound          the class names whose class files are
+     *                          not found or cannot be read are added to
+     *                          this collection before the returned future
+     *                          is completed.  It may be null.
+     * @param executor          the executor parsing the class files.
+     * @see #isConcurrent()
+     * @since 3.31
+     */
+    public CompletableFuture<Map<String,CtClass>> getAllAsync(
+                                        Collection<String> classnames,
+                                        final Collection<String> notFound,
+                                        final Executor executor)
+    {
+        final String[] names = classnames.toArray(new String[classnames.size()]);
+        final CtClass[] found = new CtClass[names.length];
+        final boolean[] created = new boolean[names.length];  // not cached yet
+        CompletableFuture<Void> all;
+        if (isConcurrent()) {
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[names.length];
+            for (int i = 0; i < names.length; i++) {
+                final int k = i;
+                tasks[i] = CompletableFuture.runAsync(() -> {
+                    found[k] = parse(findForBatch(names[k], created, k));
+                }, executor);
+            }
+
+            all = CompletableFuture.allOf(tasks);
+        }
+        else
+            all = CompletableFuture.runAsync(() -> {
+                synchronized (this) {
+                    for (int i = 0; i < names.length; i++)
+                        found[i] = findForBatch(names[i], created, i);
+                }
+            }, executor).thenCompose(v -> {
+                CompletableFuture<?>[] tasks = new CompletableFuture<?>[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    final int k = i;
+                    tasks[i] = CompletableFuture.runAsync(() -> {
+                        found[k] = parse(found[k]);
+                    }, executor);
+                }
+
+                return CompletableFuture.allOf(tasks);
+            });
+
+        return all.thenApply(v -> {
+            publish(found, created);
+            Map<String,CtClass> map = new LinkedHashMap<String,CtClass>();
+            for (int i = 0; i < names.length; i++)
+                if (found[i] != null)
+                    map.put(names[i], found[i]);
+                else if (notFound != null)
+                    notFound.add(names[i]);
+
+            return map;
+        });
+    }
+
+    /* get0() for getAllAsync().  It does not cache a CtClass object
+     * it creates but sets created[k] to true.
+     * Returns null if the class is not found.
+     */
+    private CtClass findForBatch(String classname, boolean[] created, int k) {
+        if (classname == null)
+            return null;
+
+        try {
+            CtClass clazz = getCached(classname);
+            if (clazz != null)
+                return clazz;
+
+            if (!childFirstLookup && parent != null) {
+                clazz = parent.get0(classname, true);
+                if (clazz != null)
+                    return clazz;
+            }
+
+            clazz = createCtClass(classname, true);
+            if (clazz != null) {
+                created[k] = true;
+                return clazz;
+            }
+
+            if (childFirstLookup && parent != null)
+                return parent.get0(classname, true);
+        }
+        catch (NotFoundException e) {}
+
+        return null;
+    }
+
+    /* Caches the CtClass objects created by findForBatch().
+     * If another object has been cached for the same class,
+     * found[i] is replaced with that object.
+     */
+    private void publish(CtClass[] found, boolean[] created) {
+        if (isConcurrent()) {
+            for (int i = 0; i < found.length; i++)
+                if (created[i] && found[i] != null)
+                    found[i] = createOnce(found[i].getName(), found[i]);
+        }
+        else
+            synchronized (this) {
+                for (int i = 0; i < found.length; i++)
+                    if (created[i] && found[i] != null) {
+                        String name = found[i].getName();
+                        CtClass c = getCached(name);
+                        if (c == null)
+                            cacheCtClass(name, found[i], false);
+                        else
+                            found[i] = c;
+                    }
+            }
+
+        for (int i = 0; i < found.length; i++) {
+            CtClass clazz = found[i];
+            if (clazz != null) {
+                if (created[i] && clazz instanceof CtClassType)
+                    ((CtClassType)clazz).recount();
+
+                clazz.incGetCounter();
+                accessed(clazz);
+            }
+        }
+    }
+
+    /* Returns null if the class file cannot be read.
+     */
+    private static CtClass parse(CtClass clazz) {
+        if (clazz instanceof CtClassType)
+            try {
+                ((CtClassType)clazz).getClassFile2();
+            }
+            catch (RuntimeException e) {
+                return null;
+            }
+
+        return clazz;
+    }
+
+    /**
+     * Returns the most specific common super class of the given classes.
+     * If one is a super class of the other, the super class is returned.
+     * Interfaces are not considered; for example, if both are interfaces,
+     * <code>java.lang.Object</code> is returned.
+     *
+     * <p>The answer is memoized in this class pool together with
+     * the super types of every class visited.  They are discarded when
+     * the super class or the interfaces of some class are modified.
+     *
+     * @param one       a class.  It must not be an array type or a primitive type.
+     * @param two       another class.
+     * @see javassist.bytecode.stackmap.TypeData#commonSuperClass(CtClass,CtClass)
+     * @since 3.31
+     */
+    public CtClass getCommonSuperclass(CtClass one, CtClass two)
+        throws NotFoundException
+    {
+        return hierarchy.commonSuperclass(one, two);
+    }
+
     /**
      * Reads a class file and obtains a compile-time method.
      *
@@ -914,7 +1605,13 @@ public class ClassPool {
      * <code>-classpath</code> option or the <code>CLASSPATH</code>
      * environment variable.
      *
+     * <p>In Java 9 or later, the class files of the platform library
+     * are directly read from the run-time image by
+     * <code>ModuleClassPath</code>.  The other class files are
+     * obtained from the context class loader.
+     *
      * @return the appended class path.
+     * @see ModuleClassPath
      */
     public ClassPath appendSystemPath() {
         return source.appendSystemPath();
@@ -982,10 +1679,77 @@ public class ClassPool {
         return source.appendClassPath(pathname);
     }
 
+    /**
+     * Sets the index of jar files.  It is used by
+     * <code>insertClassPath(String)</code>,
+     * <code>appendClassPath(String)</code>, and
+     * <code>appendPathList(String)</code> for quickly
+     * obtaining the list of the class files in a jar file.
+     * The jar files already in the search path are not affected.
+     *
+     * @param index     the index.  If it is null, jar files are
+     *                  always listed when they are added.
+     * @see ClassPathIndex#save()
+     * @since 3.31
+     */
+    public void setClassPathIndex(ClassPathIndex index) {
+        source.setIndex(index);
+    }
+
+    /**
+     * Returns the index of jar files set by
+     * <code>setClassPathIndex()</code>.  It may be null.
+     *
+     * @since 3.31
+     */
+    public ClassPathIndex getClassPathIndex() {
+        return source.getIndex();
+    }
+
+    /**
+     * Enables the negative lookup cache.  It records the names of
+     * the classes recently not found in the search path
+     * so that the search path is not searched again for those classes.
+     * The cache is cleared when the search path is changed by
+     * <code>insertClassPath()</code>, <code>appendClassPath()</code>,
+     * or <code>removeClassPath()</code>.
+     *
+     * <p>Note that, if this cache is enabled, a class file
+     * added to a directory in the search path is not found
+     * until the search path is changed, when the class has been
+     * looked for before the class file is added.
+     *
+     * <p>The cache is disabled by default.
+     *
+     * @param size      the maximum number of the recorded names.
+     *                  If it is zero, the cache is disabled.
+     * @see #getClassPathStatistics()
+     * @since 3.31
+     */
+    public void setNegativeLookupCacheSize(int size) {
+        source.setNegativeCacheSize(size);
+    }
+
+    /**
+     * Returns the counters of the class-file lookups in the search path
+     * of this class pool.  The search path of the parent class pool
+     * is not included.
+     *
+     * @since 3.31
+     */
+    public ClassPathStatistics getClassPathStatistics() {
+        return source.getStatistics();
+    }
+
     /**
      * Detatches the <code>ClassPath</code> object from the search path.
      * The detached <code>ClassPath</code> object cannot be added
      * to the path again.
+     *
+     * <p>If the <code>ClassPath</code> object has been returned by
+     * <code>insertClassPath(String)</code> or
+     * <code>appendClassPath(String)</code> and it represents jar files,
+     * those jar files are closed.
      */
     public void removeClassPath(ClassPath cp) {
         source.removeClassPath(cp);
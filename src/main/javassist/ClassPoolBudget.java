@@ -0,0 +1,139 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The memory budget of a <code>ClassPool</code>.
+ * It records the approximate size of every class file held by the
+ * <code>ClassPool</code> and evicts classes according to
+ * an <code>EvictionPolicy</code>.
+ *
+ * <p>A class that cannot be evicted is removed from the policy and
+ * kept in <code>pinnedClasses</code> until it is obtained by
+ * <code>get()</code> again.  Otherwise, once such classes alone
+ * exceeded the budget, every class file read would make the budget
+ * examine all of them again.
+ */
+final class ClassPoolBudget {
+    private final ClassPool pool;
+    final EvictionPolicy policy;
+    private final long budget;
+    private final Map<CtClass,Long> sizes;
+    private final Set<CtClass> pinnedClasses;  // not in the policy
+    private long retained, evictions, evictedBytes, pinned;
+
+    ClassPoolBudget(ClassPool pool, EvictionPolicy policy, long budget) {
+        this.pool = pool;
+        this.policy = policy;
+        this.budget = budget;
+        this.sizes = new IdentityHashMap<CtClass,Long>();
+        this.pinnedClasses = Collections.newSetFromMap(new IdentityHashMap<CtClass,Boolean>());
+        this.retained = evictions = evictedBytes = pinned = 0;
+    }
+
+    synchronized EvictionStatistics getStatistics() {
+        return new EvictionStatistics(budget, retained, sizes.size(),
+                                      evictions, evictedBytes, pinned);
+    }
+
+    /**
+     * Is called when the class file of the class is read or released.
+     *
+     * @param size      zero if the class file is released.
+     */
+    synchronized void update(CtClassType clazz, long size) {
+        if (size == 0) {
+            Long old = sizes.get(clazz);
+            if (old != null)
+                forget(clazz, old);
+
+            return;
+        }
+
+        Long old = sizes.put(clazz, size);
+        if (old == null) {
+            pinnedClasses.remove(clazz);
+            policy.loaded(clazz);
+        }
+        else
+            retained -= old;
+
+        retained += size;
+        if (retained > budget)
+            evict(clazz);
+    }
+
+    synchronized void accessed(CtClass clazz) {
+        if (pinnedClasses.remove(clazz))
+            policy.loaded(clazz);   // it may be evicted next time.
+        else if (sizes.containsKey(clazz))
+            policy.accessed(clazz);
+    }
+
+    /**
+     * @param current       the class just read.  It is not evicted.
+     */
+    private void evict(CtClass current) {
+        // the policy is not notified during the iteration.
+        List<CtClass> removed = new ArrayList<CtClass>();
+        Iterator<CtClass> it = policy.candidates();
+        while (retained > budget && it.hasNext()) {
+            CtClass c = it.next();
+            Long size = sizes.get(c);
+            if (size == null || c == current)
+                continue;
+
+            removed.add(c);
+            String name = c.getName();
+            if (pool.getCached(name) != c)
+                drop(c, size);          // detached or renamed
+            else if (c.isModified() || c.isFrozen()
+                     || ((CtClassType)c).hasMemberCache() != null) {
+                pinned++;
+                pinnedClasses.add(c);
+            }
+            else {
+                pool.removeCached(name);
+                drop(c, size);
+                evictions++;
+                evictedBytes += size;
+            }
+        }
+
+        for (CtClass c: removed)
+            policy.removed(c);
+    }
+
+    private void forget(CtClass c, long size) {
+        drop(c, size);
+        policy.removed(c);
+    }
+
+    private void drop(CtClass c, long size) {
+        sizes.remove(c);
+        pinnedClasses.remove(c);
+        retained -= size;
+    }
+}
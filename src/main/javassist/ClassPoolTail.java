@@ -16,6 +16,8 @@
 
 package javassist;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -23,13 +25,29 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javassist.bytecode.ClassFile;
 
 final class ClassPathList {
     ClassPathList next;
@@ -61,6 +79,28 @@ final class DirClassPath implements ClassPath {
         return null;
     }
 
+    /**
+     * Reads the class file into a buffer of the same size.
+     */
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname)
+        throws NotFoundException
+    {
+        try {
+            char sep = File.separatorChar;
+            String filename = directory + sep
+                + classname.replace('.', sep) + ".class";
+            return ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+        }
+        catch (NoSuchFileException e) {}
+        catch (SecurityException e) {}
+        catch (IOException e) {
+            throw new NotFoundException(classname, e);
+        }
+
+        return null;
+    }
+
     @Override
     public URL find(String classname) {
         char sep = File.separatorChar;
@@ -83,10 +123,12 @@ final class DirClassPath implements ClassPath {
     }
 }
 
-final class JarDirClassPath implements ClassPath {
+final class JarDirClassPath implements ClassPath, Closeable, RoutedClassPath {
     JarClassPath[] jars;
 
-    JarDirClassPath(String dirName) throws NotFoundException {
+    JarDirClassPath(String dirName, ClassPathIndex index)
+        throws NotFoundException
+    {
         File[] files = new File(dirName).listFiles(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
@@ -98,7 +140,7 @@ final class JarDirClassPath implements ClassPath {
         if (files != null) {
             jars = new JarClassPath[files.length];
             for (int i = 0; i < files.length; i++)
-                jars[i] = new JarClassPath(files[i].getPath());
+                jars[i] = new JarClassPath(files[i].getPath(), index);
         }
     }
 
@@ -114,6 +156,20 @@ final class JarDirClassPath implements ClassPath {
         return null;    // not found
     }
 
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname)
+        throws NotFoundException
+    {
+        if (jars != null)
+            for (int i = 0; i < jars.length; i++) {
+                ByteBuffer buf = jars[i].openClassfileBuffer(classname);
+                if (buf != null)
+                    return buf;
+            }
+
+        return null;    // not found
+    }
+
     @Override
     public URL find(String classname) {
         if (jars != null)
@@ -125,53 +181,219 @@ final class JarDirClassPath implements ClassPath {
 
         return null;    // not found
     }
+
+    @Override
+    public void close() throws IOException {
+        if (jars != null)
+            for (int i = 0; i < jars.length; i++)
+                jars[i].close();
+    }
+
+    @Override
+    public Collection<String> packages() {
+        Set<String> pkgs = new HashSet<String>();
+        if (jars != null)
+            for (int i = 0; i < jars.length; i++)
+                pkgs.addAll(jars[i].packages());
+
+        return pkgs;
+    }
 }
 
-final class JarClassPath implements ClassPath {
+final class JarClassPath implements ClassPath, Closeable, RoutedClassPath {
     Set<String> jarfileEntries;
     String jarfileURL;
+    File jarfilePath;
+    private JarFile jarfile;    // null if it is not open.
+
+    /* JarFile(File,boolean,int,Runtime.Version) and Runtime.version().
+     * They are used for reading a multi-release jar file as
+     * a jar: URL connection does in Java 9 or later.
+     */
+    private static final Constructor<JarFile> versionedJarFile;
+    private static final Object runtimeVersion;
+
+    static {
+        Constructor<JarFile> cons = null;
+        Object version = null;
+        if (ClassFile.MAJOR_VERSION >= ClassFile.JAVA_9)
+            try {
+                Class<?> vclass = Class.forName("java.lang.Runtime$Version");
+                cons = JarFile.class.getConstructor(File.class, boolean.class,
+                                                    int.class, vclass);
+                version = Runtime.class.getMethod("version").invoke(null);
+            }
+            catch (Exception e) {
+                cons = null;
+            }
+
+        versionedJarFile = cons;
+        runtimeVersion = version;
+    }
 
-    JarClassPath(String pathname) throws NotFoundException {
-        JarFile jarfile = null;
+    /**
+     * @param index     the index of jar files or null.
+     */
+    JarClassPath(String pathname, ClassPathIndex index)
+        throws NotFoundException
+    {
         try {
-            jarfile = new JarFile(pathname);
-            jarfileEntries = new HashSet<String>();
-            for (JarEntry je: Collections.list(jarfile.entries()))
-                if (je.getName().endsWith(".class"))
-                    jarfileEntries.add(je.getName());
-            jarfileURL = new File(pathname).getCanonicalFile()
-                    .toURI().toURL().toString();
+            jarfilePath = new File(pathname).getCanonicalFile();
+            if (index == null)
+                jarfileEntries = listClassfiles(jarfilePath);
+            else
+                jarfileEntries = index.classfiles(jarfilePath,
+                                                  JarClassPath::listClassfiles);
+
+            jarfileURL = jarfilePath.toURI().toURL().toString();
             return;
         } catch (IOException e) {}
+        throw new NotFoundException(pathname);
+    }
+
+    static Set<String> listClassfiles(File path) throws IOException {
+        JarFile jarfile = new JarFile(path);
+        try {
+            Set<String> entries = new HashSet<String>();
+            for (JarEntry je: Collections.list(jarfile.entries()))
+                if (je.getName().endsWith(".class"))
+                    entries.add(je.getName());
+
+            return entries;
+        }
         finally {
-            if (null != jarfile)
-                try {
-                    jarfile.close();
-                } catch (IOException e) {}
+            jarfile.close();
         }
-        throw new NotFoundException(pathname);
     }
 
+    /**
+     * Reads the class file directly from the jar file.
+     * The jar file is kept open until {@link #close()} is called
+     * unless {@link ClassPool#cacheOpenedJarFile} is false.
+     */
     @Override
     public InputStream openClassfile(String classname)
             throws NotFoundException
     {
-        URL jarURL = find(classname);
-        if (null != jarURL)
+        byte[] bytes = read(classname);
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Reads the class file directly from the jar file into a buffer
+     * of the same size as the class file.
+     */
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname)
+            throws NotFoundException
+    {
+        byte[] bytes = read(classname);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    private byte[] read(String classname) throws NotFoundException {
+        String jarname = classname.replace('.', '/') + ".class";
+        if (!jarfileEntries.contains(jarname))
+            return null;
+
+        try {
+            JarFile jar = openJarFile();
             try {
-                if (ClassPool.cacheOpenedJarFile)
-                    return jarURL.openConnection().getInputStream();
-                else {
-                    java.net.URLConnection con = jarURL.openConnection();
-                    con.setUseCaches(false);
-                    return con.getInputStream();
+                ZipEntry entry = jar.getEntry(jarname);
+                if (entry == null)
+                    return null;
+
+                InputStream ins = jar.getInputStream(entry);
+                try {
+                    return readEntry(ins, entry.getSize());
+                }
+                finally {
+                    ins.close();
                 }
             }
-            catch (IOException e) {
-                throw new NotFoundException("broken jar file?: "
-                        + classname);
+            finally {
+                if (!ClassPool.cacheOpenedJarFile)
+                    closeJarFile(jar);
             }
-        return null;
+        }
+        catch (IOException e) {
+            throw new NotFoundException("broken jar file?: "
+                    + classname, e);
+        }
+    }
+
+    private static byte[] readEntry(InputStream ins, long size)
+        throws IOException
+    {
+        if (size < 0 || size > Integer.MAX_VALUE)
+            return ClassPoolTail.readStream(ins);
+
+        byte[] bytes = new byte[(int)size];
+        int len = 0;
+        while (len < bytes.length) {
+            int n = ins.read(bytes, len, bytes.length - len);
+            if (n < 0)
+                throw new IOException("truncated entry");
+
+            len += n;
+        }
+
+        return bytes;
+    }
+
+    private synchronized JarFile openJarFile() throws IOException {
+        if (jarfile == null) {
+            JarFile jar;
+            if (versionedJarFile == null)
+                jar = new JarFile(jarfilePath);
+            else
+                try {
+                    jar = versionedJarFile.newInstance(jarfilePath, true,
+                                    ZipFile.OPEN_READ, runtimeVersion);
+                }
+                catch (Exception e) {
+                    jar = new JarFile(jarfilePath);
+                }
+
+            if (!ClassPool.cacheOpenedJarFile)
+                return jar;
+
+            jarfile = jar;
+        }
+
+        return jarfile;
+    }
+
+    private synchronized void closeJarFile(JarFile jar) throws IOException {
+        if (jar != jarfile)
+            jar.close();
+    }
+
+    /**
+     * Closes the jar file if it is open.  Since the jar file is
+     * opened again when a class file is read after this method is
+     * called, this method should be called when this class path
+     * is not used any more.
+     *
+     * @see ClassPool#removeClassPath(ClassPath)
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        JarFile jar = jarfile;
+        jarfile = null;
+        if (jar != null)
+            jar.close();
+    }
+
+    @Override
+    public Collection<String> packages() {
+        Set<String> pkgs = new HashSet<String>();
+        for (String name: jarfileEntries) {
+            int i = name.lastIndexOf('/');
+            pkgs.add(i < 0 ? "" : name.substring(0, i).replace('/', '.'));
+        }
+
+        return pkgs;
     }
 
     @Override
@@ -179,7 +401,7 @@ final class JarClassPath implements ClassPath {
         String jarname = classname.replace('.', '/') + ".class";
         if (jarfileEntries.contains(jarname))
             try {
-                return new URL(String.format("jar:%s!/%s", jarfileURL, jarname));
+                return new URL("jar:" + jarfileURL + "!/" + jarname);
             }
             catch (MalformedURLException e) {}
         return null;            // not found
@@ -191,11 +413,229 @@ final class JarClassPath implements ClassPath {
     }
 }
 
+/**
+ * The system search path in Java 9 or later.
+ * Class files in the run-time image are read directly from it.
+ * The other class files are obtained from the class loader.
+ * <code>ClassPathRoutes</code> routes the two parts separately.
+ */
+final class SystemClassPath implements ClassPath {
+    ModuleClassPath image;
+    LoaderClassPath loader;
+
+    SystemClassPath(ModuleClassPath image, LoaderClassPath loader) {
+        this.image = image;
+        this.loader = loader;
+    }
+
+    @Override
+    public InputStream openClassfile(String classname) throws NotFoundException {
+        InputStream is = image.openClassfile(classname);
+        if (is == null)
+            return loader.openClassfile(classname);
+        else
+            return is;
+    }
+
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname)
+        throws NotFoundException
+    {
+        ByteBuffer buf = image.openClassfileBuffer(classname);
+        if (buf == null)
+            return loader.openClassfileBuffer(classname);
+        else
+            return buf;
+    }
+
+    @Override
+    public URL find(String classname) {
+        URL url = image.find(classname);
+        if (url == null)
+            return loader.find(classname);
+        else
+            return url;
+    }
+
+    /**
+     * Returns the run-time image and the class loader
+     * in the search order.
+     */
+    ClassPath[] parts() {
+        return new ClassPath[] { image, loader };
+    }
+
+    @Override
+    public String toString() {
+        return image.toString() + File.pathSeparatorChar + loader.toString();
+    }
+}
+
+/**
+ * The class paths that must be searched for each package.
+ */
+final class ClassPathRoutes {
+    private final Map<String,ClassPath[]> routes;
+    private final ClassPath[] others;   // for the other packages
+    final int size;
+
+    /**
+     * @param paths     all the class paths in the search order.
+     */
+    ClassPathRoutes(List<ClassPath> paths) {
+        Map<String,List<ClassPath>> table = new HashMap<String,List<ClassPath>>();
+        List<ClassPath> unrouted = new ArrayList<ClassPath>();
+        int n = 0;
+        for (ClassPath path: paths) {
+            // the run-time image of the system search path is routed
+            // but its class loader is not.
+            ClassPath[] parts = path instanceof SystemClassPath
+                                ? ((SystemClassPath)path).parts()
+                                : new ClassPath[] { path };
+            n += parts.length;
+            for (ClassPath cp: parts)
+                add(cp, table, unrouted);
+        }
+
+        routes = new HashMap<String,ClassPath[]>(table.size() * 4 / 3 + 1);
+        for (Map.Entry<String,List<ClassPath>> e: table.entrySet()) {
+            List<ClassPath> list = e.getValue();
+            routes.put(e.getKey(), list.toArray(new ClassPath[list.size()]));
+        }
+
+        others = unrouted.toArray(new ClassPath[unrouted.size()]);
+        size = n;
+    }
+
+    private static void add(ClassPath cp, Map<String,List<ClassPath>> table,
+                            List<ClassPath> unrouted)
+    {
+        if (cp instanceof RoutedClassPath)
+            for (String pkg: ((RoutedClassPath)cp).packages()) {
+                List<ClassPath> list = table.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<ClassPath>(unrouted);
+                    table.put(pkg, list);
+                }
+
+                list.add(cp);
+            }
+        else {
+            unrouted.add(cp);
+            for (List<ClassPath> list: table.values())
+                list.add(cp);
+        }
+    }
+
+    /**
+     * Returns the class paths that may contain the given class
+     * in the search order.
+     */
+    ClassPath[] get(String classname) {
+        int i = classname.lastIndexOf('.');
+        ClassPath[] found = routes.get(i < 0 ? "" : classname.substring(0, i));
+        return found == null ? others : found;
+    }
+}
+
+/**
+ * A bounded set of the class names that were not found.
+ * The least recently used name is discarded first.
+ */
+final class NegativeLookupCache {
+    private final Map<String,Boolean> names;
+    final int size;
+
+    NegativeLookupCache(final int size) {
+        this.size = size;
+        names = new LinkedHashMap<String,Boolean>(16, 0.75f, true) {
+            /** default serialVersionUID */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Boolean> e) {
+                return size() > size;
+            }
+        };
+    }
+
+    synchronized boolean contains(String classname) {
+        return names.get(classname) != null;
+    }
+
+    synchronized void add(String classname) {
+        names.put(classname, Boolean.TRUE);
+    }
+
+}
+
 final class ClassPoolTail {
     protected ClassPathList pathList;
+    private ClassPathIndex index;
+    private volatile ClassPathRoutes routes;    // null if it must be made again.
+    private volatile NegativeLookupCache notFound;
+    private final LongAdder lookups, probes, skipped, negativeHits, misses;
 
     public ClassPoolTail() {
         pathList = null;
+        index = null;
+        routes = null;
+        notFound = null;
+        lookups = new LongAdder();
+        probes = new LongAdder();
+        skipped = new LongAdder();
+        negativeHits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    /**
+     * @param size      the maximum number of class names recorded.
+     *                  If it is zero, no name is recorded.
+     */
+    synchronized void setNegativeCacheSize(int size) {
+        notFound = size > 0 ? new NegativeLookupCache(size) : null;
+    }
+
+    ClassPathStatistics getStatistics() {
+        return new ClassPathStatistics(lookups.sum(), probes.sum(),
+                                       skipped.sum(), negativeHits.sum(),
+                                       misses.sum());
+    }
+
+    /* Must be called when the class path is changed.
+     * The negative cache is not cleared but replaced since another
+     * thread may be adding a name to it.
+     */
+    private void pathChanged() {
+        routes = null;
+        NegativeLookupCache cache = notFound;
+        if (cache != null)
+            notFound = new NegativeLookupCache(cache.size);
+    }
+
+    private ClassPathRoutes routes() {
+        ClassPathRoutes r = routes;
+        if (r == null)
+            synchronized (this) {
+                r = routes;
+                if (r == null) {
+                    List<ClassPath> paths = new ArrayList<ClassPath>();
+                    for (ClassPathList list = pathList; list != null; list = list.next)
+                        paths.add(list.path);
+
+                    routes = r = new ClassPathRoutes(paths);
+                }
+            }
+
+        return r;
+    }
+
+    void setIndex(ClassPathIndex index) {
+        this.index = index;
+    }
+
+    ClassPathIndex getIndex() {
+        return index;
     }
 
     @Override
@@ -215,6 +655,7 @@ final class ClassPoolTail {
 
     public synchronized ClassPath insertClassPath(ClassPath cp) {
         pathList = new ClassPathList(cp, pathList);
+        pathChanged();
         return cp;
     }
 
@@ -230,6 +671,7 @@ final class ClassPoolTail {
             list.next = tail;
         }
 
+        pathChanged();
         return cp;
     }
 
@@ -245,12 +687,26 @@ final class ClassPoolTail {
                     else
                         list = list.next;
             }
+
+        pathChanged();
+        if (cp instanceof JarClassPath || cp instanceof JarDirClassPath)
+            try {
+                ((Closeable)cp).close();
+            }
+            catch (IOException e) {}
     }
 
     public ClassPath appendSystemPath() {
         if (javassist.bytecode.ClassFile.MAJOR_VERSION < javassist.bytecode.ClassFile.JAVA_9)
             return appendClassPath(new ClassClassPath());
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (ModuleClassPath.isAvailable())
+            try {
+                return appendClassPath(new SystemClassPath(new ModuleClassPath(),
+                                                           new LoaderClassPath(cl)));
+            }
+            catch (NotFoundException e) {}
+
         return appendClassPath(new LoaderClassPath(cl));
     }
 
@@ -266,19 +722,19 @@ final class ClassPoolTail {
         return appendClassPath(makePathObject(pathname));
     }
 
-    private static ClassPath makePathObject(String pathname)
+    private ClassPath makePathObject(String pathname)
         throws NotFoundException
     {
         String lower = pathname.toLowerCase();
         if (lower.endsWith(".jar") || lower.endsWith(".zip"))
-            return new JarClassPath(pathname);
+            return new JarClassPath(pathname, index);
 
         int len = pathname.length();
         if (len > 2 && pathname.charAt(len - 1) == '*'
             && (pathname.charAt(len - 2) == '/'
                 || pathname.charAt(len - 2) == File.separatorChar)) {
             String dir = pathname.substring(0, len - 2);
-            return new JarDirClassPath(dir);
+            return new JarDirClassPath(dir, index);
         }
 
         return new DirClassPath(pathname);
@@ -290,15 +746,20 @@ final class ClassPoolTail {
     void writeClassfile(String classname, OutputStream out)
         throws NotFoundException, IOException, CannotCompileException
     {
-        InputStream fin = openClassfile(classname);
-        if (fin == null)
+        ByteBuffer buf = openClassfileBuffer(classname);
+        if (buf == null)
             throw new NotFoundException(classname);
 
-        try {
-            copyStream(fin, out);
-        }
-        finally {
-            fin.close();
+        if (buf.hasArray())
+            out.write(buf.array(), buf.arrayOffset() + buf.position(),
+                      buf.remaining());
+        else {
+            byte[] chunk = new byte[Math.min(buf.remaining(), 8192)];
+            while (buf.hasRemaining()) {
+                int len = Math.min(buf.remaining(), chunk.length);
+                buf.get(chunk, 0, len);
+                out.write(chunk, 0, len);
+            }
         }
     }
 
@@ -332,29 +793,71 @@ final class ClassPoolTail {
     InputStream openClassfile(String classname)
         throws NotFoundException
     {
-        ClassPathList list = pathList;
-        InputStream ins = null;
+        return open(classname, ClassPath::openClassfile);
+    }
+
+    /**
+     * Reads the class file for the class specified by
+     * <code>classname</code> into a byte buffer.
+     *
+     * @param classname             a fully-qualified class name
+     * @return null                 if the file has not been found.
+     * @throws NotFoundException    if any error is reported by ClassPath.
+     * @see ClassPath#openClassfileBuffer(String)
+     */
+    ByteBuffer openClassfileBuffer(String classname)
+        throws NotFoundException
+    {
+        return open(classname, ClassPath::openClassfileBuffer);
+    }
+
+    private interface Opener<T> {
+        T open(ClassPath path, String classname) throws NotFoundException;
+    }
+
+    private <T> T open(String classname, Opener<T> opener)
+        throws NotFoundException
+    {
+        lookups.increment();
+        NegativeLookupCache cache = notFound;
+        if (cache != null && cache.contains(classname)) {
+            negativeHits.increment();
+            return null;
+        }
+
+        ClassPathRoutes r = routes();
+        ClassPath[] paths = r.get(classname);
+        skipped.add(r.size - paths.length);
+        T result = null;
         NotFoundException error = null;
-        while (list != null) {
+        for (int i = 0; i < paths.length; i++) {
+            probes.increment();
             try {
-                ins = list.path.openClassfile(classname);
+                result = opener.open(paths[i], classname);
             }
             catch (NotFoundException e) {
                 if (error == null)
                     error = e;
             }
 
-            if (ins == null)
-                list = list.next;
-            else
-                return ins;
+            if (result != null)
+                return result;
         }
 
         if (error != null)
             throw error;
+
+        notFound(cache, r, classname);
         return null;    // not found
     }
 
+    private void notFound(NegativeLookupCache cache, ClassPathRoutes r,
+                          String classname) {
+        misses.increment();
+        if (cache != null && routes == r)
+            cache.add(classname);
+    }
+
     /**
      * Searches the class path to obtain the URL of the class file
      * specified by classname.  It is also used to determine whether
@@ -364,16 +867,24 @@ final class ClassPoolTail {
      * @return null if the class file could not be found.
      */
     public URL find(String classname) {
-        ClassPathList list = pathList;
-        URL url = null;
-        while (list != null) {
-            url = list.path.find(classname);
-            if (url == null)
-                list = list.next;
-            else
+        lookups.increment();
+        NegativeLookupCache cache = notFound;
+        if (cache != null && cache.contains(classname)) {
+            negativeHits.increment();
+            return null;
+        }
+
+        ClassPathRoutes r = routes();
+        ClassPath[] paths = r.get(classname);
+        skipped.add(r.size - paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            probes.increment();
+            URL url = paths[i].find(classname);
+            if (url != null)
                 return url;
         }
 
+        notFound(cache, r, classname);
         return null;
     }
 
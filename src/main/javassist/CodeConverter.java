@@ -16,10 +16,13 @@
 
 package javassist;
 
+import java.util.Arrays;
+
 import javassist.bytecode.BadBytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.convert.TransformAccessArrayField;
 import javassist.convert.TransformAfter;
@@ -548,6 +551,16 @@ public class CodeConverter {
         CodeAttribute codeAttr = minfo.getCodeAttribute();
         if (codeAttr == null || transformers == null)
             return;
+
+        try {
+            if (!mayTransform(cp, codeAttr))
+                return;
+        }
+        catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+
+        byte[] original = codeAttr.getCode().clone();
         for (t = transformers; t != null; t = t.getNext())
             t.initialize(cp, clazz, minfo);
 
@@ -584,6 +597,10 @@ public class CodeConverter {
         if (stack > 0)
             codeAttr.setMaxStack(codeAttr.getMaxStack() + stack);
 
+        // the stack map of a method that no transformer changed is valid.
+        if (Arrays.equals(original, codeAttr.getCode()))
+            return;
+
         try {
         	minfo.rebuildStackMapIf6(clazz.getClassPool(),
                                      clazz.getClassFile2());
@@ -593,6 +610,33 @@ public class CodeConverter {
         }
     }
 
+    /* Returns false if no transformer can transform the method body.
+     */
+    /* Returns false if no method of the class using the given
+     * constant pool is transformed.
+     */
+    boolean mayTransform(ConstPool cp) {
+        for (Transformer t = transformers; t != null; t = t.getNext()) {
+            MemberMatcher targets = t.getTargets();
+            if (targets == null || targets.refersTo(cp))
+                return true;
+        }
+
+        return false;
+    }
+
+    private boolean mayTransform(ConstPool cp, CodeAttribute codeAttr)
+        throws BadBytecode
+    {
+        for (Transformer t = transformers; t != null; t = t.getNext()) {
+            MemberMatcher targets = t.getTargets();
+            if (targets == null || targets.refersTo(cp, codeAttr))
+                return true;
+        }
+
+        return false;
+    }
+
     /**
      * Interface containing the method names to be used
      * as array access replacements.
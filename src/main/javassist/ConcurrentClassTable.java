@@ -0,0 +1,184 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The table of <code>CtClass</code> objects used by a concurrent
+ * <code>ClassPool</code>.
+ *
+ * <p>Since <code>ClassPool.classes</code> is declared as a
+ * <code>Hashtable</code> and subclasses such as
+ * <code>ScopedClassPool</code> access it directly, this table extends
+ * <code>Hashtable</code> but delegates every operation to a
+ * <code>ConcurrentHashMap</code>.  Hence reading the table never
+ * acquires the monitor of the table.
+ *
+ * @see ClassPool#ClassPool(ClassPool,boolean)
+ */
+final class ConcurrentClassTable extends Hashtable<Object,Object> {
+    /** default serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentHashMap<Object,Object> table;
+
+    ConcurrentClassTable(int initialCapacity) {
+        super(1);
+        table = new ConcurrentHashMap<Object,Object>(initialCapacity);
+    }
+
+    @Override
+    public int size() { return table.size(); }
+
+    @Override
+    public boolean isEmpty() { return table.isEmpty(); }
+
+    @Override
+    public Enumeration<Object> keys() { return table.keys(); }
+
+    @Override
+    public Enumeration<Object> elements() { return table.elements(); }
+
+    @Override
+    public boolean contains(Object value) { return table.contains(value); }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return table.containsValue(value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) { return table.containsKey(key); }
+
+    @Override
+    public Object get(Object key) { return table.get(key); }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        return table.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        return table.put(key, value);
+    }
+
+    @Override
+    public Object putIfAbsent(Object key, Object value) {
+        return table.putIfAbsent(key, value);
+    }
+
+    @Override
+    public void putAll(Map<?,?> t) { table.putAll(t); }
+
+    @Override
+    public Object remove(Object key) { return table.remove(key); }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return table.remove(key, value);
+    }
+
+    @Override
+    public boolean replace(Object key, Object oldValue, Object newValue) {
+        return table.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public Object replace(Object key, Object value) {
+        return table.replace(key, value);
+    }
+
+    @Override
+    public Object computeIfAbsent(Object key,
+            Function<? super Object,? extends Object> f) {
+        return table.computeIfAbsent(key, f);
+    }
+
+    @Override
+    public Object computeIfPresent(Object key,
+            BiFunction<? super Object,? super Object,? extends Object> f) {
+        return table.computeIfPresent(key, f);
+    }
+
+    @Override
+    public Object compute(Object key,
+            BiFunction<? super Object,? super Object,? extends Object> f) {
+        return table.compute(key, f);
+    }
+
+    @Override
+    public Object merge(Object key, Object value,
+            BiFunction<? super Object,? super Object,? extends Object> f) {
+        return table.merge(key, value, f);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super Object,? super Object> action) {
+        table.forEach(action);
+    }
+
+    @Override
+    public void replaceAll(
+            BiFunction<? super Object,? super Object,? extends Object> f) {
+        table.replaceAll(f);
+    }
+
+    @Override
+    public void clear() { table.clear(); }
+
+    @Override
+    public Set<Object> keySet() { return table.keySet(); }
+
+    @Override
+    public Set<Map.Entry<Object,Object>> entrySet() {
+        return table.entrySet();
+    }
+
+    @Override
+    public Collection<Object> values() { return table.values(); }
+
+    @Override
+    public Object clone() {
+        ConcurrentClassTable t = new ConcurrentClassTable(table.size());
+        t.table.putAll(table);
+        return t;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof Map && table.equals(o));
+    }
+
+    @Override
+    public int hashCode() { return table.hashCode(); }
+
+    @Override
+    public String toString() { return table.toString(); }
+
+    @Override
+    protected void rehash() {}
+}
@@ -16,8 +16,6 @@
 
 package javassist;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -26,6 +24,8 @@ import java.io.InputStream;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -47,6 +47,7 @@ import javassist.bytecode.Descriptor;
 import javassist.bytecode.EnclosingMethodAttribute;
 import javassist.bytecode.FieldInfo;
 import javassist.bytecode.InnerClassesAttribute;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.ParameterAnnotationsAttribute;
 import javassist.bytecode.SignatureAttribute;
@@ -67,6 +68,9 @@ class CtClassType extends CtClass {
     boolean gcConstPool;    // if true, the constant pool entries will be garbage collected. 
     ClassFile classfile;
     byte[] rawClassfile;    // backup storage
+    ByteBuffer originalClassfile;   // the class file read from the class path
+                                    // while the class is not modified.
+    private int hierarchyVersion;   // see hierarchyVersion()
 
     private Reference<CtMember.Cache> memberCache;
     private AccessorMaker accessors;
@@ -85,6 +89,8 @@ class CtClassType extends CtClass {
         wasChanged = wasFrozen = wasPruned = gcConstPool = false;
         classfile = null;
         rawClassfile = null;
+        originalClassfile = null;
+        hierarchyVersion = 0;
         memberCache = null;
         accessors = null;
         fieldInitializers = null;
@@ -95,7 +101,7 @@ class CtClassType extends CtClass {
 
     CtClassType(InputStream ins, ClassPool cp) throws IOException {
         this((String)null, cp);
-        classfile = new ClassFile(new DataInputStream(ins));
+        classfile = new ClassFile(new DataInputStream(ins), cp.getSymbolTable());
         qualifiedName = classfile.getName();
     }
 
@@ -200,7 +206,7 @@ class CtClassType extends CtClass {
         if (rcfile != null) {
             final ClassFile cf;
             try {
-                cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(rcfile)));
+                cf = new ClassFile(ByteBuffer.wrap(rcfile), classPool.getSymbolTable());
             }
             catch (IOException e) {
                 throw new RuntimeException(e.toString(), e);
@@ -208,24 +214,38 @@ class CtClassType extends CtClass {
             getCount = GET_THRESHOLD;
             synchronized (this) {
                 rawClassfile = null;
-                return setClassFile(cf);
+                cfile = setClassFile(cf);
+                if (cfile == cf)
+                    keepOriginal(ByteBuffer.wrap(rcfile));
             }
+
+            if (cfile == cf)
+                classPool.classFileChanged(this, estimateSize(cf) + sizeOfOriginal());
+
+            return cfile;
         }
 
-        InputStream fin = null;
         try {
-            fin = classPool.openClassfile(getName());
-            if (fin == null)
+            ByteBuffer buf = classPool.openClassfileBuffer(getName());
+            if (buf == null)
                 throw new NotFoundException(getName());
 
-            fin = new BufferedInputStream(fin);
-            ClassFile cf = new ClassFile(new DataInputStream(fin));
+            ClassFile cf = new ClassFile(buf, classPool.getSymbolTable());
             if (!cf.getName().equals(qualifiedName))
                 throw new RuntimeException("cannot find " + qualifiedName + ": " 
                         + cf.getName() + " found in "
                         + qualifiedName.replace('.', '/') + ".class");
 
-            return setClassFile(cf);
+            synchronized (this) {
+                cfile = setClassFile(cf);
+                if (cfile == cf)
+                    keepOriginal(buf);
+            }
+
+            if (cfile == cf)
+                classPool.classFileChanged(this, estimateSize(cf) + sizeOfOriginal());
+
+            return cfile;
         }
         catch (NotFoundException e) {
             throw new RuntimeException(e.toString(), e);
@@ -233,13 +253,29 @@ class CtClassType extends CtClass {
         catch (IOException e) {
             throw new RuntimeException(e.toString(), e);
         }
-        finally {
-            if (fin != null)
-                try {
-                    fin.close();
-                }
-                catch (IOException e) {}
-        }
+    }
+
+    /* Keeps the class file that the current ClassFile object was
+     * constructed from.  Called while this object is locked.
+     */
+    private void keepOriginal(ByteBuffer buf) {
+        if (ClassPool.keepOriginalClassFile && !wasChanged)
+            originalClassfile = buf;
+    }
+
+    private int sizeOfOriginal() {
+        ByteBuffer buf = originalClassfile;
+        return buf == null ? 0 : buf.remaining();
+    }
+
+    /* Called by ClassPool.getAllAsync() when this object is cached
+     * after its class file is read.  The class pool might have discarded
+     * the size of the class file since this object was not cached then.
+     */
+    void recount() {
+        ClassFile cf = classfile;
+        if (cf != null)
+            classPool.classFileChanged(this, estimateSize(cf) + sizeOfOriginal());
     }
 
    /* Inherited from CtClass.  Called by get() in ClassPool.
@@ -276,20 +312,83 @@ class CtClassType extends CtClass {
         if (classfile == null || hasMemberCache() != null)
             return;
 
-        ByteArrayOutputStream barray = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream(barray);
         try {
-            classfile.write(out);
-            barray.close();
-            rawClassfile = barray.toByteArray();
+            ByteBuffer original = originalClassfile;
+            if (original != null && !isModified())
+                rawClassfile = toArray(original);
+            else
+                rawClassfile = toBytes(classfile);
+
+            hierarchyVersion += classfile.hierarchyVersion();
             classfile = null;
+            originalClassfile = null;
+            classPool.classFileChanged(this, rawClassfile.length);
         }
         catch (IOException e) {}
     }
 
+    /* Writes the class file into a buffer presized by sizeOf().
+     * If sizeOf() is not exact, for example, because an attribute
+     * changes its contents while it is written, the class file is
+     * written again into a growing buffer.
+     */
+    private static byte[] toBytes(ClassFile cf) throws IOException {
+        int size = cf.sizeOf();
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        try {
+            cf.write(buf);
+            if (buf.position() == size)
+                return buf.array();
+        }
+        catch (BufferOverflowException e) {}
+
+        ByteArrayOutputStream barray = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(barray);
+        cf.write(out);
+        out.close();
+        return barray.toByteArray();
+    }
+
+    /* Returns a copy of the contents of the given buffer.
+     * The position of the buffer is not changed.
+     */
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
     private synchronized void removeClassFile() {
-        if (classfile != null && !isModified() && hasMemberCache() == null)
+        if (classfile != null && !isModified() && hasMemberCache() == null) {
+            hierarchyVersion += classfile.hierarchyVersion();
             classfile = null;
+            originalClassfile = null;
+            classPool.classFileChanged(this, 0);
+        }
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by
+     * the given class file.
+     */
+    static long estimateSize(ClassFile cf) {
+        long size = 128 + 48L * cf.getConstPool().getSize()
+                    + attributesSize(cf.getAttributes());
+        for (FieldInfo f: cf.getFields())
+            size += 64 + attributesSize(f.getAttributes());
+
+        for (MethodInfo m: cf.getMethods())
+            size += 96 + m.getAttributesLength();  // not to decode a Code attribute
+
+        return size;
+    }
+
+    private static long attributesSize(List<AttributeInfo> attributes) {
+        long size = 0;
+        for (AttributeInfo a: attributes)
+            size += 32 + a.length();
+
+        return size;
     }
 
     /**
@@ -302,6 +401,20 @@ class CtClassType extends CtClass {
         return classfile;
     }
 
+    /**
+     * Returns a number that changes whenever the super class or
+     * the interfaces of this class may change.  It does not read
+     * the class file.  The versions of the class files released by
+     * <code>compress()</code> are accumulated since a class file read
+     * again has the same super types as the released one.
+     *
+     * @see ClassFile#hierarchyVersion()
+     */
+    synchronized int hierarchyVersion() {
+        ClassFile cf = classfile;
+        return cf == null ? hierarchyVersion : hierarchyVersion + cf.hierarchyVersion();
+    }
+
     @Override
     public ClassPool getClassPool() { return classPool; }
 
@@ -335,6 +448,7 @@ class CtClassType extends CtClass {
         }
 
         wasChanged = true;
+        originalClassfile = null;
     }
 
     @Override
@@ -345,6 +459,20 @@ class CtClassType extends CtClass {
 
     @Override
     public boolean subtypeOf(CtClass clazz) throws NotFoundException {
+        String cname = clazz.getName();
+        if (this == clazz || getName().equals(cname))
+            return true;
+
+        try {
+            return classPool.hierarchy.subtypeOf(this, cname);
+        }
+        catch (NotFoundException e) {
+            // some super type is not found.  It may not be needed.
+            return subtypeOf0(clazz);
+        }
+    }
+
+    private boolean subtypeOf0(CtClass clazz) throws NotFoundException {
         int i;
         String cname = clazz.getName();
         if (this == clazz || getName().equals(cname))
@@ -1538,9 +1666,13 @@ class CtClassType extends CtClass {
     public void instrument(CodeConverter converter)
         throws CannotCompileException
     {
-        checkModify();
         ClassFile cf = getClassFile2();
         ConstPool cp = cf.getConstPool();
+        // a class referring to no target is left unmodified.
+        if (!converter.mayTransform(cp) && !isFrozen())
+            return;
+
+        checkModify();
         List<MethodInfo> methods = cf.getMethods();
         for (MethodInfo minfo: methods.toArray(new MethodInfo[methods.size()]))
             converter.doit(this, minfo, cp);
@@ -1550,8 +1682,14 @@ class CtClassType extends CtClass {
     public void instrument(ExprEditor editor)
         throws CannotCompileException
     {
-        checkModify();
         ClassFile cf = getClassFile2();
+        MemberMatcher targets = editor.getTargets();
+        // a class referring to no target is left unmodified.
+        if (targets != null && !targets.refersTo(cf.getConstPool())
+            && !isFrozen())
+            return;
+
+        checkModify();
         List<MethodInfo> methods = cf.getMethods();
         for (MethodInfo minfo: methods.toArray(new MethodInfo[methods.size()]))
             editor.doit(this, minfo);
@@ -1574,10 +1712,38 @@ class CtClassType extends CtClass {
     @Override
     public void rebuildClassFile() { gcConstPool = true; }
 
+    /**
+     * Writes the class file into a buffer of the same size.
+     * If the class is not modified, the class file is the one
+     * read from the class path.  It is not written again from the
+     * parsed <code>ClassFile</code>.
+     *
+     * @see ClassPool#keepOriginalClassFile
+     */
+    @Override
+    public byte[] toBytecode() throws IOException, CannotCompileException {
+        return toBytecode0(null);
+    }
+
     @Override
     public void toBytecode(DataOutputStream out)
         throws CannotCompileException, IOException
     {
+        toBytecode0(out);
+    }
+
+    /* Called before the class file is written.
+     */
+    void prepareToWrite() throws CannotCompileException {}
+
+    /* If out is null, this returns the class file as a byte array.
+     * Otherwise, this writes the class file into out and returns null.
+     */
+    private byte[] toBytecode0(DataOutputStream out)
+        throws CannotCompileException, IOException
+    {
+        prepareToWrite();
+        byte[] bytes = null;
         try {
             if (isModified()) {
                 checkPruned("toBytecode");
@@ -1589,11 +1755,24 @@ class CtClassType extends CtClass {
 
                 modifyClassConstructor(cf);
                 modifyConstructors(cf);
+                try {
+                    cf.rebuildDirtyStackMaps(classPool.getHierarchyResolver(),
+                                             classPool.getStackMapExecutor());
+                }
+                catch (BadBytecode e) {
+                    throw new CannotCompileException(e);
+                }
+
                 if (debugDump != null)
                     dumpClassFile(cf);
 
-                cf.write(out);
-                out.flush();
+                if (out == null)
+                    bytes = toBytes(cf);
+                else {
+                    cf.write(out);
+                    out.flush();
+                }
+
                 fieldInitializers = null;
                 if (doPruning) {
                     // to save memory
@@ -1602,13 +1781,28 @@ class CtClassType extends CtClass {
                 }
             }
             else {
-                classPool.writeClassfile(getName(), out);
-                // to save memory
-                // classfile = null;
+                ByteBuffer original = originalClassfile;
+                if (original != null) {
+                    // the class file is not parsed or read again.
+                    bytes = toArray(original);
+                    if (out != null) {
+                        out.write(bytes);
+                        out.flush();
+                        bytes = null;
+                    }
+                }
+                else if (out == null)
+                    bytes = classPool.readClassfile(getName());
+                else {
+                    classPool.writeClassfile(getName(), out);
+                    // to save memory
+                    // classfile = null;
+                }
             }
 
             getCount = 0;
             wasFrozen = true;
+            return bytes;
         }
         catch (NotFoundException e) {
             throw new CannotCompileException(e);
@@ -16,9 +16,6 @@
 
 package javassist;
 
-import java.io.DataOutputStream;
-import java.io.IOException;
-
 import javassist.bytecode.ClassFile;
 
 class CtNewClass extends CtClassType {
@@ -61,9 +58,7 @@ class CtNewClass extends CtClassType {
     }
 
     @Override
-    public void toBytecode(DataOutputStream out)
-        throws CannotCompileException, IOException
-    {
+    void prepareToWrite() throws CannotCompileException {
         if (!hasConstructor)
             try {
                 inheritAllConstructors();
@@ -72,8 +67,6 @@ class CtNewClass extends CtClassType {
             catch (NotFoundException e) {
                 throw new CannotCompileException(e);
             }
-
-        super.toBytecode(out);
     }
 
     /**
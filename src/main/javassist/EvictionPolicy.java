@@ -0,0 +1,167 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A policy determining which <code>CtClass</code> objects are evicted
+ * from a <code>ClassPool</code> when the class files held by
+ * the <code>ClassPool</code> exceed the memory budget.
+ *
+ * <p>A <code>ClassPool</code> notifies the policy of the classes whose
+ * class files are read, the classes obtained by <code>get()</code>,
+ * and the classes evicted.  When the budget is exceeded, the
+ * <code>ClassPool</code> evicts the classes in the order given by
+ * <code>candidates()</code>.  It never evicts a class that has been
+ * modified or frozen, or a class whose members are still in use.
+ * Such a class is removed from the policy by <code>removed()</code>
+ * and it is given to <code>loaded()</code> again when it is obtained
+ * by <code>get()</code> next time.
+ * The methods of a policy are called while the <code>ClassPool</code>
+ * holds its lock for eviction, so they do not have to be thread-safe.
+ *
+ * <p>{@link LRU} and {@link LFU} are the policies provided by Javassist.
+ *
+ * @see ClassPool#setEvictionPolicy(EvictionPolicy,long)
+ * @since 3.31
+ */
+public interface EvictionPolicy {
+    /**
+     * Is called when the class file of the given class is read.
+     */
+    void loaded(CtClass clazz);
+
+    /**
+     * Is called when the given class is obtained by <code>get()</code>
+     * in <code>ClassPool</code>.  It is called only if the class file of
+     * the class has been read.
+     */
+    void accessed(CtClass clazz);
+
+    /**
+     * Is called when the given class is evicted or it is found that
+     * the class is not in the <code>ClassPool</code> any more.
+     */
+    void removed(CtClass clazz);
+
+    /**
+     * Returns the classes in the order they should be evicted.
+     * The other methods of this policy are not called while
+     * the returned iterator is used.  So it may iterate over
+     * the data structure of this policy without copying it.
+     * It should yield the classes lazily since the iteration usually
+     * stops after the first few classes.
+     */
+    Iterator<CtClass> candidates();
+
+    /**
+     * The least-recently-used policy.
+     */
+    public static class LRU implements EvictionPolicy {
+        private final LinkedHashMap<CtClass,Boolean> order
+            = new LinkedHashMap<CtClass,Boolean>(64, 0.75f, true);
+
+        @Override
+        public void loaded(CtClass clazz) { order.put(clazz, Boolean.TRUE); }
+
+        @Override
+        public void accessed(CtClass clazz) { order.get(clazz); }
+
+        @Override
+        public void removed(CtClass clazz) { order.remove(clazz); }
+
+        @Override
+        public Iterator<CtClass> candidates() {
+            return order.keySet().iterator();
+        }
+    }
+
+    /**
+     * The least-frequently-used policy.  Among the classes
+     * accessed equally often, the class read first is evicted first.
+     */
+    public static class LFU implements EvictionPolicy {
+        private static final class Entry {
+            final CtClass clazz;
+            final long serial;      // the order of loaded()
+            long count;
+
+            Entry(CtClass clazz, long serial) {
+                this.clazz = clazz;
+                this.serial = serial;
+                this.count = 0;
+            }
+        }
+
+        private final Map<CtClass,Entry> entries
+            = new IdentityHashMap<CtClass,Entry>();
+        private final TreeSet<Entry> order
+            = new TreeSet<Entry>(new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    if (a.count != b.count)
+                        return a.count < b.count ? -1 : 1;
+                    else
+                        return Long.compare(a.serial, b.serial);
+                }
+            });
+        private long clock = 0;
+
+        @Override
+        public void loaded(CtClass clazz) {
+            removed(clazz);
+            Entry e = new Entry(clazz, clock++);
+            entries.put(clazz, e);
+            order.add(e);
+        }
+
+        @Override
+        public void accessed(CtClass clazz) {
+            Entry e = entries.get(clazz);
+            if (e != null) {
+                order.remove(e);
+                e.count++;
+                order.add(e);
+            }
+        }
+
+        @Override
+        public void removed(CtClass clazz) {
+            Entry e = entries.remove(clazz);
+            if (e != null)
+                order.remove(e);
+        }
+
+        @Override
+        public Iterator<CtClass> candidates() {
+            final Iterator<Entry> it = order.iterator();
+            return new Iterator<CtClass>() {
+                @Override
+                public boolean hasNext() { return it.hasNext(); }
+
+                @Override
+                public CtClass next() { return it.next().clazz; }
+            };
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+/**
+ * A snapshot of the counters of the eviction in a <code>ClassPool</code>.
+ * The sizes are approximate numbers of bytes retained by
+ * the class files.
+ *
+ * @see ClassPool#getEvictionStatistics()
+ * @since 3.31
+ */
+public final class EvictionStatistics {
+    private final long budget, retained, evictions, evictedBytes, pinned;
+    private final int classes;
+
+    EvictionStatistics(long budget, long retained, int classes,
+                       long evictions, long evictedBytes, long pinned) {
+        this.budget = budget;
+        this.retained = retained;
+        this.classes = classes;
+        this.evictions = evictions;
+        this.evictedBytes = evictedBytes;
+        this.pinned = pinned;
+    }
+
+    /**
+     * Returns the memory budget in bytes.
+     */
+    public long getBudget() { return budget; }
+
+    /**
+     * Returns the approximate size of the class files currently
+     * held by the <code>ClassPool</code>.
+     */
+    public long getRetainedBytes() { return retained; }
+
+    /**
+     * Returns the number of the classes whose class files are currently
+     * held by the <code>ClassPool</code>.
+     */
+    public int getClasses() { return classes; }
+
+    /**
+     * Returns the number of the evicted classes.
+     */
+    public long getEvictions() { return evictions; }
+
+    /**
+     * Returns the total size of the evicted class files.
+     */
+    public long getEvictedBytes() { return evictedBytes; }
+
+    /**
+     * Returns how many times a class could not be evicted since it
+     * was modified or frozen, or its members were in use.
+     */
+    public long getPinnedSkips() { return pinned; }
+
+    @Override
+    public String toString() {
+        return "budget=" + budget + ", retained=" + retained
+               + ", classes=" + classes + ", evictions=" + evictions
+               + ", evictedBytes=" + evictedBytes + ", pinned=" + pinned;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javassist.bytecode.ClassFile;
+
+/**
+ * A class search-path representing the run-time image of the JDK.
+ *
+ * <p>It reads the class files of the modules in the boot layer
+ * directly from the <code>jrt:/</code> file system, which is available
+ * in Java 9 or later.  When a class file is requested, the module
+ * containing that class is determined by the package name of the class.
+ * The table from package names to modules is constructed only once
+ * and it is shared among all the <code>ModuleClassPath</code> objects.
+ *
+ * <p><code>ClassPool.appendSystemPath()</code> uses this class path
+ * together with a <code>LoaderClassPath</code> in Java 9 or later.
+ * Note that the class files in the run-time image are read even
+ * if they are patched by the <code>--patch-module</code> option.
+ *
+ * @see ClassPool#appendSystemPath()
+ * @see LoaderClassPath
+ * @since 3.31
+ */
+public class ModuleClassPath implements ClassPath, RoutedClassPath {
+    private final Map<String,Path[]> packages;
+
+    /**
+     * Creates a search path representing the run-time image.
+     *
+     * @throws NotFoundException    if the <code>jrt:/</code> file system
+     *                              is not available.
+     */
+    public ModuleClassPath() throws NotFoundException {
+        packages = Image.packages();
+        if (packages == null)
+            throw new NotFoundException("jrt:/");
+    }
+
+    /**
+     * Returns true if the <code>jrt:/</code> file system is available.
+     */
+    public static boolean isAvailable() {
+        return Image.packages() != null;
+    }
+
+    /* The table is constructed when this class is initialized.
+     */
+    private static final class Image {
+        private static final Map<String,Path[]> table = makeTable();
+
+        static Map<String,Path[]> packages() { return table; }
+
+        private static Map<String,Path[]> makeTable() {
+            if (ClassFile.MAJOR_VERSION < ClassFile.JAVA_9)
+                return null;
+
+            try {
+                FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+                Path modules = jrt.getPath("/modules");
+                Map<String,Path[]> map = new HashMap<String,Path[]>();
+                DirectoryStream<Path> pkgs = Files.newDirectoryStream(jrt.getPath("/packages"));
+                try {
+                    for (Path pkg: pkgs) {
+                        List<Path> found = new ArrayList<Path>(1);
+                        DirectoryStream<Path> mods = Files.newDirectoryStream(pkg);
+                        try {
+                            for (Path mod: mods) {
+                                String name = mod.getFileName().toString();
+                                if (ModuleLayer.boot().findModule(name).isPresent())
+                                    found.add(modules.resolve(name));
+                            }
+                        }
+                        finally {
+                            mods.close();
+                        }
+
+                        if (found.size() > 0)
+                            map.put(pkg.getFileName().toString(),
+                                    found.toArray(new Path[found.size()]));
+                    }
+                }
+                finally {
+                    pkgs.close();
+                }
+
+                return map;
+            }
+            catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    private Path[] modulesOf(String classname) {
+        int i = classname.lastIndexOf('.');
+        if (i < 0)
+            return null;
+        else
+            return packages.get(classname.substring(0, i));
+    }
+
+    /**
+     * Obtains a class file from the run-time image.
+     */
+    @Override
+    public InputStream openClassfile(String classname) throws NotFoundException {
+        byte[] bytes = read(classname);
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Obtains a class file from the run-time image.
+     */
+    @Override
+    public ByteBuffer openClassfileBuffer(String classname) throws NotFoundException {
+        byte[] bytes = read(classname);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    private byte[] read(String classname) throws NotFoundException {
+        Path[] mods = modulesOf(classname);
+        if (mods == null)
+            return null;
+
+        String filename = classname.replace('.', '/') + ".class";
+        for (Path mod: mods)
+            try {
+                return Files.readAllBytes(mod.resolve(filename));
+            }
+            catch (NoSuchFileException e) {}
+            catch (IOException e) {
+                throw new NotFoundException(classname, e);
+            }
+
+        return null;
+    }
+
+    /**
+     * Obtains the URL of the specified class file.
+     * It is a <code>jrt:</code> URL.
+     *
+     * @return null if the class file could not be found.
+     */
+    @Override
+    public URL find(String classname) {
+        Path[] mods = modulesOf(classname);
+        if (mods == null)
+            return null;
+
+        String filename = classname.replace('.', '/') + ".class";
+        for (Path mod: mods) {
+            Path p = mod.resolve(filename);
+            if (Files.exists(p))
+                try {
+                    return p.toUri().toURL();
+                }
+                catch (MalformedURLException e) {}
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the names of the packages in the run-time image.
+     * <code>ClassPool</code> does not search this class path for
+     * the classes in the other packages.
+     */
+    @Override
+    public Collection<String> packages() {
+        return packages.keySet();
+    }
+
+    @Override
+    public String toString() {
+        return "jrt:/";
+    }
+}
@@ -28,6 +28,6 @@ public class NotFoundException extends Exception {
     }
 
     public NotFoundException(String msg, Exception e) {
-        super(msg + " because of " + e.toString());
+        super(msg + " because of " + e.toString(), e);
     }
 }
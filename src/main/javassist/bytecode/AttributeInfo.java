@@ -75,7 +75,18 @@ public class AttributeInfo {
     static AttributeInfo read(ConstPool cp, DataInputStream in)
         throws IOException
     {
-        int name = in.readUnsignedShort();
+        return read(cp, in.readUnsignedShort(), in);
+    }
+
+    /**
+     * Reads an attribute except its <code>attribute_name_index</code>,
+     * which has been already read.
+     *
+     * @param name      <code>attribute_name_index</code>.
+     */
+    static AttributeInfo read(ConstPool cp, int name, DataInputStream in)
+        throws IOException
+    {
         String nameStr = cp.getUtf8Info(name);
         char first = nameStr.charAt(0);
         if (first < 'E')
@@ -0,0 +1,63 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading a byte buffer.
+ * Unlike <code>ByteArrayInputStream</code>, it reads a direct or mapped
+ * buffer as well as a heap buffer without copying the contents.
+ * The position of the buffer is advanced while reading.
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferInputStream(ByteBuffer buf) { this.buf = buf; }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+
+        int n = buf.remaining();
+        if (n == 0)
+            return -1;
+
+        if (len > n)
+            len = n;
+
+        buf.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int len = (int)Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + len);
+        return len;
+    }
+
+    @Override
+    public int available() { return buf.remaining(); }
+}
@@ -0,0 +1,41 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream writing into a byte buffer.
+ * It throws a <code>BufferOverflowException</code> if the buffer
+ * does not have enough space.
+ */
+final class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferOutputStream(ByteBuffer buf) { this.buf = buf; }
+
+    @Override
+    public void write(int b) {
+        buf.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) {
+        buf.put(data, off, len);
+    }
+}
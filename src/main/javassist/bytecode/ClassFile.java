@@ -19,13 +19,18 @@ package javassist.bytecode;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javassist.CannotCompileException;
+import javassist.bytecode.stackmap.MapMaker;
 
 /**
  * <code>ClassFile</code> represents a Java <code>.class</code> file, which
@@ -69,6 +74,7 @@ public final class ClassFile {
     String thisclassname; // not JVM-internal name
     String[] cachedInterfaces;
     String cachedSuperclass;
+    private int hierarchyVersion;
 
     /**
      * The major version number of class files
@@ -178,11 +184,67 @@ public final class ClassFile {
         MAJOR_VERSION = ver;
     }
 
+    /**
+     * Undocumented method.  Do not use; internal-use only.
+     *
+     * <p>It returns a number incremented whenever the super class or
+     * the interfaces of this class file may change.  ClassPool checks it
+     * to see whether the class hierarchy it has memoized is still valid.
+     */
+    public int hierarchyVersion() { return hierarchyVersion; }
+
+    private void hierarchyChanged() { hierarchyVersion++; }
+
     /**
      * Constructs a class file from a byte stream.
      */
     public ClassFile(DataInputStream in) throws IOException {
-        read(in);
+        this(in, null);
+    }
+
+    /**
+     * Constructs a class file from a byte stream.
+     * The strings in the constant pool table are shared with other
+     * class files through the given symbol table.
+     *
+     * @param in        the byte stream.
+     * @param symbols   the symbol table.  It may be null.
+     * @since 3.31
+     */
+    public ClassFile(DataInputStream in, SymbolTable symbols)
+        throws IOException
+    {
+        read(in, symbols);
+    }
+
+    /**
+     * Constructs a class file from a byte buffer.
+     * The class file is read from the position of the buffer.
+     * The buffer may be a heap, direct, or mapped buffer.
+     * Its contents are not copied into another buffer
+     * before they are parsed.  The position of the given buffer
+     * is not changed.
+     *
+     * @param buf       the contents of a class file.
+     * @since 3.31
+     */
+    public ClassFile(ByteBuffer buf) throws IOException {
+        this(buf, null);
+    }
+
+    /**
+     * Constructs a class file from a byte buffer.
+     * The strings in the constant pool table are shared with other
+     * class files through the given symbol table.
+     *
+     * @param buf       the contents of a class file.
+     * @param symbols   the symbol table.  It may be null.
+     * @see #ClassFile(ByteBuffer)
+     * @since 3.31
+     */
+    public ClassFile(ByteBuffer buf, SymbolTable symbols) throws IOException {
+        this(new DataInputStream(new ByteBufferInputStream(buf.duplicate())),
+             symbols);
     }
 
     /**
@@ -429,6 +491,7 @@ public final class ClassFile {
             throw new CannotCompileException(e);
         }
         cachedSuperclass = superclass;
+        hierarchyChanged();
     }
 
     /**
@@ -455,6 +518,7 @@ public final class ClassFile {
         oldname = Descriptor.toJvmName(oldname);
         newname = Descriptor.toJvmName(newname);
         constPool.renameClass(oldname, newname);
+        hierarchyChanged();
 
         AttributeInfo.renameClass(attributes, oldname, newname);
         for (MethodInfo minfo :methods) {
@@ -486,6 +550,7 @@ public final class ClassFile {
             thisclassname = Descriptor.toJavaName(jvmNewThisName);
 
         constPool.renameClass(classnames);
+        hierarchyChanged();
 
         AttributeInfo.renameClass(attributes, classnames);
         for (MethodInfo minfo:methods) {
@@ -553,6 +618,7 @@ public final class ClassFile {
      */
     public void setInterfaces(String[] nameList) {
         cachedInterfaces = null;
+        hierarchyChanged();
         if (nameList != null) {
             interfaces = new int[nameList.length];
             for (int i = 0; i < nameList.length; ++i)
@@ -565,6 +631,7 @@ public final class ClassFile {
      */
     public void addInterface(String name) {
         cachedInterfaces = null;
+        hierarchyChanged();
         int info = constPool.addClassInfo(name);
         if (interfaces == null) {
             interfaces = new int[1];
@@ -673,6 +740,149 @@ public final class ClassFile {
         methods.add(minfo);
     }
 
+    /**
+     * Rebuilds the stack map tables of all the methods if this class
+     * file is for Java 6 or later.  If <code>MethodInfo.doPreverify</code>
+     * is true, the stack maps for J2ME are also rebuilt.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @see MethodInfo#rebuildStackMapIf6(HierarchyResolver,ClassFile)
+     * @see javassist.ClassPool#getHierarchyResolver()
+     * @since 3.31
+     */
+    public void rebuildStackMaps(HierarchyResolver resolver) throws BadBytecode {
+        for (MethodInfo minfo: methods)
+            minfo.rebuildStackMapIf6(resolver, this);
+    }
+
+    /**
+     * Rebuilds the stack map tables of all the methods in parallel.
+     * The methods are analyzed by the tasks submitted to the given
+     * executor, for example, <code>ForkJoinPool.commonPool()</code>.
+     * Then the stack map tables are made in the order of the methods
+     * by the calling thread.  So the resulting class file is identical
+     * to the one after <code>rebuildStackMaps(resolver)</code>.
+     *
+     * <p>The resolver must be thread-safe.
+     * <code>ClassPool.getHierarchyResolver()</code> returns a
+     * thread-safe one, which is shared among the tasks.
+     * The stack maps for J2ME are rebuilt by the calling thread
+     * if <code>MethodInfo.doPreverify</code> is true.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @param executor      runs the analysis.  If it is null,
+     *                      the stack map tables are rebuilt serially.
+     * @see #rebuildStackMaps(HierarchyResolver)
+     * @see javassist.bytecode.stackmap.MapMaker#analyze(HierarchyResolver,MethodInfo)
+     * @since 3.31
+     */
+    public void rebuildStackMaps(HierarchyResolver resolver,
+                                 Executor executor)
+        throws BadBytecode
+    {
+        rebuildStackMaps(methods, resolver, executor);
+    }
+
+    /**
+     * Rebuilds the stack map tables of only the methods whose rebuilds
+     * have been deferred.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @see MethodInfo#isStackMapDirty()
+     * @see javassist.ClassPool#setStackMapDeferred(boolean)
+     * @since 3.31
+     */
+    public void rebuildDirtyStackMaps(HierarchyResolver resolver) throws BadBytecode {
+        rebuildDirtyStackMaps(resolver, null);
+    }
+
+    /**
+     * Rebuilds the stack map tables of only the methods whose rebuilds
+     * have been deferred.  They are analyzed in parallel by the given
+     * executor.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @param executor      runs the analysis.  If it is null,
+     *                      the stack map tables are rebuilt serially.
+     * @see #rebuildStackMaps(HierarchyResolver,Executor)
+     * @see MethodInfo#isStackMapDirty()
+     * @since 3.31
+     */
+    public void rebuildDirtyStackMaps(HierarchyResolver resolver,
+                                      Executor executor)
+        throws BadBytecode
+    {
+        List<MethodInfo> dirty = new ArrayList<MethodInfo>();
+        for (MethodInfo minfo: methods)
+            if (minfo.isStackMapDirty())
+                dirty.add(minfo);
+
+        rebuildStackMaps(dirty, resolver, executor);
+    }
+
+    private void rebuildStackMaps(List<MethodInfo> targets,
+                                  final HierarchyResolver resolver,
+                                  Executor executor)
+        throws BadBytecode
+    {
+        int n = targets.size();
+        if (executor == null || n < 2 || getMajorVersion() < JAVA_6) {
+            for (MethodInfo minfo: targets)
+                minfo.rebuildStackMapIf6(resolver, this);
+
+            return;
+        }
+
+        final MapMaker.Analysis[] results = new MapMaker.Analysis[n];
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[n];
+        for (int i = 0; i < n; i++) {
+            final int k = i;
+            final MethodInfo minfo = targets.get(i);
+            tasks[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    results[k] = MapMaker.analyze(resolver, minfo);
+                }
+                catch (BadBytecode e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        try {
+            CompletableFuture.allOf(tasks).join();
+        }
+        catch (CompletionException e) {
+            // report the error of the first method as the serial rebuild does.
+            for (CompletableFuture<?> t: tasks)
+                if (t.isCompletedExceptionally())
+                    rethrow(t);
+
+            throw e;
+        }
+
+        // the tables are made in order since they may add entries
+        // to the constant pool.
+        for (int i = 0; i < n; i++)
+            targets.get(i).rebuildStackMapIf6(resolver, results[i]);
+    }
+
+    private static void rethrow(CompletableFuture<?> task) throws BadBytecode {
+        try {
+            task.join();
+        }
+        catch (CompletionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof BadBytecode)
+                throw (BadBytecode)t;
+            else if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            else if (t instanceof Error)
+                throw (Error)t;
+            else
+                throw e;
+        }
+    }
+
     private void testExistingMethod(MethodInfo newMinfo)
         throws DuplicateMemberException
     {
@@ -783,7 +993,9 @@ public final class ClassFile {
         return sf.getFileName();
     }
 
-    private void read(DataInputStream in) throws IOException {
+    private void read(DataInputStream in, SymbolTable symbols)
+        throws IOException
+    {
         int i, n;
         int magic = in.readInt();
         if (magic != 0xCAFEBABE)
@@ -791,7 +1003,7 @@ public final class ClassFile {
 
         minor = in.readUnsignedShort();
         major = in.readUnsignedShort();
-        constPool = new ConstPool(in);
+        constPool = new ConstPool(in, symbols);
         accessFlags = in.readUnsignedShort();
         thisClass = in.readUnsignedShort();
         constPool.setThisClassInfo(thisClass);
@@ -862,6 +1074,51 @@ public final class ClassFile {
         AttributeInfo.writeAll(attributes, out);
     }
 
+    /**
+     * Writes a class file represented by this object into a byte buffer.
+     * The class file is written at the position of the buffer and
+     * the position is advanced.  The buffer must have at least
+     * <code>sizeOf()</code> bytes remaining.
+     *
+     * <pre>
+     * ByteBuffer buf = ByteBuffer.allocate(cf.sizeOf());
+     * cf.write(buf);
+     * byte[] classfile = buf.array();</pre>
+     *
+     * @param buf       the buffer.
+     * @throws java.nio.BufferOverflowException     if the buffer is too small.
+     * @see #sizeOf()
+     * @since 3.31
+     */
+    public void write(ByteBuffer buf) throws IOException {
+        write(new DataOutputStream(new ByteBufferOutputStream(buf)));
+    }
+
+    /**
+     * Returns the size of the class file written by <code>write()</code>
+     * in bytes.
+     *
+     * @see #write(ByteBuffer)
+     * @since 3.31
+     */
+    public int sizeOf() {
+        // magic, minor, major, constant pool, access_flags, this_class,
+        // super_class, and interfaces_count
+        int size = 8 + constPool.sizeOf() + 8;
+        if (interfaces != null)
+            size += interfaces.length * 2;
+
+        size += 2;
+        for (FieldInfo finfo: fields)
+            size += finfo.sizeOf();
+
+        size += 2;
+        for (MethodInfo minfo: methods)
+            size += minfo.sizeOf();
+
+        return size + 2 + AttributeInfo.getLength(attributes);
+    }
+
     /**
      * Get the Major version.
      * 
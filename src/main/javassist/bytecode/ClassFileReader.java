@@ -0,0 +1,509 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A reader that walks around a class file without constructing
+ * a <code>ClassFile</code> object.
+ *
+ * <p>The constructor finds only the positions of the constant pool
+ * entries and the header of the class file.  The name, the super class,
+ * and the interfaces are available without calling <code>parse()</code>.
+ * <code>parse()</code> visits the constant pool entries, the fields,
+ * the methods, and the attributes in the order they appear in the class
+ * file, and it calls the methods of this class such as
+ * <code>method()</code> and <code>methodAttribute()</code>.
+ * A subclass overrides them to receive the structures.  By default,
+ * they do nothing and a section is skipped without decoding
+ * the structures in it.
+ *
+ * <p>For example, the following code collects the names of the classes
+ * annotated with <code>@Deprecated</code>:
+ *
+ * <pre>
+ * final List&lt;String&gt; found = new ArrayList&lt;String&gt;();
+ * new ClassFileReader(bytes) {
+ *     public boolean fields(int count) { return false; }
+ *     public boolean methods(int count) { return false; }
+ *     public void classAttribute(String name, int pos, int length) {
+ *         if (name.equals(AnnotationsAttribute.visibleTag))
+ *             for (String type: getAnnotationTypes(pos, length))
+ *                 if (type.equals("java.lang.Deprecated"))
+ *                     found.add(getName());
+ *     }
+ * }.parse();
+ * </pre>
+ *
+ * <p>A position passed to these methods is an index into the array
+ * returned by <code>getBytes()</code>.
+ *
+ * @see ClassFile
+ * @since 3.31
+ */
+public class ClassFileReader {
+    private final byte[] info;
+    private final int start, end;
+    private final int[] offsets;        // the positions of the constant pool entries
+    private final String[] strings;     // decoded CONSTANT_Utf8_info entries
+    private final int header;           // the position of access_flags
+
+    /**
+     * Constructs a reader.
+     *
+     * @param data      the class file.
+     * @throws IOException      if the data is not a class file.
+     */
+    public ClassFileReader(byte[] data) throws IOException {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Constructs a reader.  It reads the remaining bytes of the given
+     * buffer.  If the buffer is backed by an accessible array,
+     * that array is directly read.  Otherwise, the bytes are copied.
+     * The position of the buffer is not changed.
+     *
+     * @param buf       the class file.
+     * @throws IOException      if the data is not a class file.
+     */
+    public ClassFileReader(ByteBuffer buf) throws IOException {
+        this(buf.hasArray() ? buf.array() : copy(buf),
+             buf.hasArray() ? buf.arrayOffset() + buf.position() : 0,
+             buf.remaining());
+    }
+
+    private static byte[] copy(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private ClassFileReader(byte[] data, int offset, int length)
+        throws IOException
+    {
+        info = data;
+        start = offset;
+        end = offset + length;
+        try {
+            int magic = ByteArray.read32bit(data, offset);
+            if (magic != 0xCAFEBABE)
+                throw new IOException("bad magic number: " + Integer.toHexString(magic));
+
+            int n = ByteArray.readU16bit(data, offset + 8);
+            offsets = new int[n];
+            strings = new String[n];
+            int pos = offset + 10;
+            for (int i = 1; i < n; i++) {
+                offsets[i] = pos;
+                int tag = data[pos];
+                if (tag == ConstPool.CONST_Utf8)
+                    pos += 3 + ByteArray.readU16bit(data, pos + 1);
+                else {
+                    int len = ConstPool.rawLength(tag);
+                    if (len < 0)
+                        throw new IOException("invalid constant type: "
+                                              + tag + " at " + i);
+
+                    pos += 1 + len;
+                    if (tag == ConstPool.CONST_Long || tag == ConstPool.CONST_Double)
+                        i++;
+                }
+            }
+
+            header = pos;
+            check(pos + 8 + 2 * getInterfacesCount());
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            throw truncated(e);
+        }
+    }
+
+    private static IOException truncated(RuntimeException e) {
+        return new IOException("truncated class file", e);
+    }
+
+    private void check(int pos) throws IOException {
+        if (pos > end)
+            throw new IOException("truncated class file");
+    }
+
+    /**
+     * Returns the array containing the class file.
+     * The reader does not copy the array given to the constructor.
+     * The caller must not change the contents.
+     */
+    public final byte[] getBytes() { return info; }
+
+    /**
+     * Reads an unsigned 16bit integer at the given position.
+     */
+    public final int readU16bit(int pos) {
+        return ByteArray.readU16bit(info, pos);
+    }
+
+    /**
+     * Reads a 32bit integer at the given position.
+     */
+    public final int read32bit(int pos) {
+        return ByteArray.read32bit(info, pos);
+    }
+
+    /**
+     * Returns the major version number.
+     */
+    public final int getMajorVersion() { return readU16bit(start + 6); }
+
+    /**
+     * Returns the minor version number.
+     */
+    public final int getMinorVersion() { return readU16bit(start + 4); }
+
+    /**
+     * Returns the access flags of the class.
+     *
+     * @see AccessFlag
+     */
+    public final int getAccessFlags() { return readU16bit(header); }
+
+    /**
+     * Returns the class name.
+     */
+    public final String getName() {
+        return getClassInfo(readU16bit(header + 2));
+    }
+
+    /**
+     * Returns the super class name.
+     * It returns null if the class is <code>java.lang.Object</code>
+     * or a module.
+     */
+    public final String getSuperclass() {
+        return getClassInfo(readU16bit(header + 4));
+    }
+
+    private int getInterfacesCount() {
+        return readU16bit(header + 6);
+    }
+
+    /**
+     * Returns the names of the interfaces implemented by the class.
+     */
+    public final String[] getInterfaces() {
+        int n = getInterfacesCount();
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++)
+            names[i] = getClassInfo(readU16bit(header + 8 + i * 2));
+
+        return names;
+    }
+
+    /**
+     * Returns the number of the entries in the constant pool table,
+     * including the 0th entry.
+     */
+    public final int getConstPoolSize() { return offsets.length; }
+
+    /**
+     * Returns the position of the constant pool entry at the given index.
+     * The <code>tag</code> field of the entry is at that position.
+     * It returns 0 if the index is 0 or it points to the entry
+     * following a <code>long</code> or <code>double</code> constant.
+     */
+    public final int getItemPosition(int index) { return offsets[index]; }
+
+    /**
+     * Returns the <code>tag</code> field of the constant pool entry
+     * at the given index.  It returns 0 if there is no entry at the index.
+     *
+     * @see ConstPool#getTag(int)
+     */
+    public final int getTag(int index) {
+        int pos = offsets[index];
+        return pos == 0 ? 0 : info[pos];
+    }
+
+    /**
+     * Reads the <code>CONSTANT_Utf8_info</code> entry at the given index.
+     * The decoded string is cached.
+     *
+     * @see ConstPool#getUtf8Info(int)
+     */
+    public final String getUtf8Info(int index) {
+        String s = strings[index];
+        if (s == null) {
+            int pos = offsets[index];
+            if (pos == 0 || info[pos] != ConstPool.CONST_Utf8)
+                throw new IllegalArgumentException("not CONSTANT_Utf8_info: " + index);
+
+            s = ConstPool.decodeUtf8(info, pos + 1);
+            strings[index] = s;
+        }
+
+        return s;
+    }
+
+    /**
+     * Reads the <code>CONSTANT_Class_info</code> entry at the given index.
+     * It returns null if the index is 0.
+     *
+     * @return  a fully-qualified class or interface name specified
+     *          by <code>name_index</code>.  If the type is an array
+     *          type, this method returns an encoded name like
+     *          <code>[Ljava.lang.Object;</code> (note that the separators
+     *          are not slashes but dots).
+     * @see ConstPool#getClassInfo(int)
+     */
+    public final String getClassInfo(int index) {
+        if (index == 0)
+            return null;
+
+        return Descriptor.toJavaName(getUtf8Info(readU16bit(offsets[index] + 1)));
+    }
+
+    /**
+     * Returns the names of all the classes in the constant pool table.
+     * The names are in the JVM-internal representation.
+     *
+     * @see ConstPool#getClassNames()
+     */
+    public Set<String> getClassNames() {
+        Set<String> names = new HashSet<String>();
+        for (int i = 1; i < offsets.length; i++)
+            if (getTag(i) == ConstPool.CONST_Class)
+                names.add(getUtf8Info(readU16bit(offsets[i] + 1)));
+
+        return names;
+    }
+
+    /**
+     * Returns the types of the annotations in a
+     * <code>RuntimeVisibleAnnotations</code> or
+     * <code>RuntimeInvisibleAnnotations</code> attribute.
+     *
+     * @param pos       the position of the <code>info</code> field
+     *                  of the attribute.
+     * @param length    the length of the <code>info</code> field.
+     * @return          fully-qualified class names.
+     * @throws RuntimeException     if the attribute is broken.
+     * @see AnnotationsAttribute
+     */
+    public String[] getAnnotationTypes(int pos, int length) {
+        final List<String> types = new ArrayList<String>();
+        try {
+            new AnnotationsAttribute.Walker(Arrays.copyOfRange(info, pos, pos + length)) {
+                @Override
+                int annotation(int pos, int type, int numPairs) throws Exception {
+                    types.add(Descriptor.toClassName(getUtf8Info(type)));
+                    return super.annotation(pos, type, numPairs);
+                }
+            }.annotationArray();
+        }
+        catch (Exception e) {
+            throw new RuntimeException("broken annotations attribute", e);
+        }
+
+        return types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Visits the constant pool entries, the fields, the methods,
+     * and the attributes of the class.
+     *
+     * @throws IOException      if the class file is broken.
+     */
+    public void parse() throws IOException {
+        try {
+            parse0();
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            throw truncated(e);
+        }
+    }
+
+    private void parse0() throws IOException {
+        int n = offsets.length;
+        if (constPool(n))
+            for (int i = 1; i < n; i++)
+                if (offsets[i] != 0)
+                    constant(i, info[offsets[i]], offsets[i]);
+
+        int pos = header + 8 + 2 * getInterfacesCount();
+        check(pos + 2);
+        int count = readU16bit(pos);
+        pos += 2;
+        boolean visit = fields(count);
+        for (int i = 0; i < count; i++) {
+            check(pos + 8);
+            boolean visitAttrs = visit && field(readU16bit(pos), getUtf8Info(readU16bit(pos + 2)),
+                                                getUtf8Info(readU16bit(pos + 4)));
+            pos = attributes(pos + 6, visitAttrs ? FIELD : SKIP);
+        }
+
+        check(pos + 2);
+        count = readU16bit(pos);
+        pos += 2;
+        visit = methods(count);
+        for (int i = 0; i < count; i++) {
+            check(pos + 8);
+            boolean visitAttrs = visit && method(readU16bit(pos), getUtf8Info(readU16bit(pos + 2)),
+                                                 getUtf8Info(readU16bit(pos + 4)));
+            pos = attributes(pos + 6, visitAttrs ? METHOD : SKIP);
+        }
+
+        check(pos + 2);
+        attributes(pos, CLASS);
+    }
+
+    private static final int SKIP = 0, CLASS = 1, FIELD = 2, METHOD = 3;
+
+    /* Visits attributes_count and attributes[] at the given position
+     * and returns the position following them.
+     */
+    private int attributes(int pos, int owner) throws IOException {
+        int count = readU16bit(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            check(pos + 6);
+            int length = read32bit(pos + 2);
+            int body = pos + 6;
+            if (length < 0 || body + length > end)
+                throw new IOException("truncated class file");
+
+            if (owner != SKIP) {
+                String name = getUtf8Info(readU16bit(pos));
+                if (owner == CLASS)
+                    classAttribute(name, body, length);
+                else if (owner == FIELD)
+                    fieldAttribute(name, body, length);
+                else
+                    methodAttribute(name, body, length);
+            }
+
+            pos = body + length;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Is called first by <code>parse()</code>.
+     *
+     * @param size      the number of the entries including the 0th entry.
+     * @return          true if <code>constant()</code> is called for
+     *                  each entry.  By default, it returns false.
+     */
+    public boolean constPool(int size) { return false; }
+
+    /**
+     * Is called for each constant pool entry if <code>constPool()</code>
+     * returns true.  It is not called for the 0th entry or the entry
+     * following a <code>long</code> or <code>double</code> constant.
+     *
+     * @param index     the index of the entry.
+     * @param tag       the <code>tag</code> field of the entry.
+     * @param pos       the position of the entry.
+     */
+    public void constant(int index, int tag, int pos) {}
+
+    /**
+     * Is called before the fields are visited.
+     *
+     * @param count     the number of the fields.
+     * @return          false if the fields are skipped.
+     *                  By default, it returns true.
+     */
+    public boolean fields(int count) { return true; }
+
+    /**
+     * Is called for each field unless <code>fields()</code>
+     * returns false.
+     *
+     * @param accessFlags       the access flags.
+     * @param name              the field name.
+     * @param descriptor        the field descriptor.
+     * @return          true if <code>fieldAttribute()</code> is called
+     *                  for the attributes of this field.
+     *                  By default, it returns false.
+     * @see Descriptor
+     */
+    public boolean field(int accessFlags, String name, String descriptor) {
+        return false;
+    }
+
+    /**
+     * Is called for each attribute of a field
+     * if <code>field()</code> returns true.
+     *
+     * @param name      the attribute name.
+     * @param pos       the position of the <code>info</code> field.
+     * @param length    the length of the <code>info</code> field.
+     */
+    public void fieldAttribute(String name, int pos, int length) {}
+
+    /**
+     * Is called before the methods are visited.
+     *
+     * @param count     the number of the methods.
+     * @return          false if the methods are skipped.
+     *                  By default, it returns true.
+     */
+    public boolean methods(int count) { return true; }
+
+    /**
+     * Is called for each method unless <code>methods()</code>
+     * returns false.
+     *
+     * @param accessFlags       the access flags.
+     * @param name              the method name.
+     * @param descriptor        the method descriptor.
+     * @return          true if <code>methodAttribute()</code> is called
+     *                  for the attributes of this method.
+     *                  By default, it returns false.
+     * @see Descriptor
+     */
+    public boolean method(int accessFlags, String name, String descriptor) {
+        return false;
+    }
+
+    /**
+     * Is called for each attribute of a method
+     * if <code>method()</code> returns true.
+     * The <code>Code</code> attribute is not decoded.
+     *
+     * @param name      the attribute name.
+     * @param pos       the position of the <code>info</code> field.
+     * @param length    the length of the <code>info</code> field.
+     */
+    public void methodAttribute(String name, int pos, int length) {}
+
+    /**
+     * Is called for each attribute of the class.
+     *
+     * @param name      the attribute name.
+     * @param pos       the position of the <code>info</code> field.
+     * @param length    the length of the <code>info</code> field.
+     */
+    public void classAttribute(String name, int pos, int length) {}
+}
@@ -18,6 +18,7 @@ package javassist.bytecode;
 
 import javassist.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -98,10 +99,14 @@ public class CodeAttribute extends AttributeInfo implements Opcode {
     CodeAttribute(ConstPool cp, int name_id, DataInputStream in)
         throws IOException
     {
-        super(cp, name_id, (byte[])null);
-        @SuppressWarnings("unused")
-        int attr_len = in.readInt();
+        this(cp, name_id, in.readInt(), in);
+    }
 
+    private CodeAttribute(ConstPool cp, int name_id, int attr_len,
+                          DataInputStream in)
+        throws IOException
+    {
+        super(cp, name_id, (byte[])null);
         maxStack = in.readUnsignedShort();
         maxLocals = in.readUnsignedShort();
 
@@ -117,6 +122,18 @@ public class CodeAttribute extends AttributeInfo implements Opcode {
             attributes.add(AttributeInfo.read(cp, in));
     }
 
+    /**
+     * Decodes the <code>info</code> field of a <code>Code</code> attribute
+     * that was read as a generic <code>attribute_info</code>.
+     *
+     * @see MethodInfo#lazyDecoding
+     */
+    static CodeAttribute decode(AttributeInfo raw) throws IOException {
+        byte[] info = raw.get();
+        return new CodeAttribute(raw.getConstPool(), raw.name, info.length,
+                    new DataInputStream(new ByteArrayInputStream(info)));
+    }
+
     /**
      * Makes a copy.  Class names are replaced according to the
      * given <code>Map</code> object.
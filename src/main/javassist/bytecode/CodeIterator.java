@@ -17,6 +17,7 @@
 package javassist.bytecode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -693,6 +694,459 @@ public class CodeIterator implements Opcode {
         // empty
     }
 
+    /**
+     * Makes an object recording a batch of insertions and replacements
+     * in the code attribute edited by this iterator.  The recorded edits
+     * are applied at once by <code>apply()</code>.
+     *
+     * @see Batch
+     * @since 3.31
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    /**
+     * A batch of insertions and replacements.
+     *
+     * <p>Every edit is specified by the index of an instruction in
+     * the bytecode before the batch is applied.  <code>apply()</code>
+     * relocates the bytecode sequence only once for all the edits.
+     * Branch offsets, the exception table, and the attributes such as
+     * <code>LineNumberTable</code>, <code>LocalVariableTable</code>, and
+     * <code>StackMapTable</code> are also updated only once.  So the time
+     * for applying <i>N</i> edits is almost proportional to the size of
+     * the code attribute while calling <code>insertAt()</code> <i>N</i>
+     * times takes <i>N</i> times as long.
+     *
+     * <pre>
+     * CodeIterator.Batch batch = iterator.batch();
+     * for (int pos: positions)
+     *     batch.insert(pos, probe);
+     *
+     * int[] inserted = batch.apply();</pre>
+     *
+     * <p>An inserted byte sequence is placed as
+     * <code>insertAt()</code> or <code>insertExAt()</code> places it.
+     * If several sequences are inserted at the same index, the
+     * exclusively inserted sequences come first and then the
+     * other sequences follow.  In each group, the sequences
+     * are placed in the order they are recorded.
+     * The inserted sequences may be followed by extra <code>NOP</code>s
+     * for adjusting alignment if the code attribute includes
+     * <code>LOOKUPSWITCH</code> or <code>TABLESWITCH</code>.
+     *
+     * <p>While the edits are recorded, the bytecode must not be changed
+     * through the iterator.
+     *
+     * @see CodeIterator#batch()
+     * @since 3.31
+     */
+    public static class Batch {
+        private static final int EXCLUSIVE = 0, INCLUSIVE = 1, REPLACE = 2;
+
+        static final class Edit {
+            final int pos, kind, order;
+            final byte[] code;
+            int length;     // the length of the instruction at pos
+            int gap;
+
+            Edit(int pos, int kind, int order, byte[] code) {
+                this.pos = pos;
+                this.kind = kind;
+                this.order = order;
+                this.code = code;
+            }
+        }
+
+        private final CodeIterator iterator;
+        private List<Edit> edits;
+
+        Batch(CodeIterator it) {
+            iterator = it;
+            edits = new ArrayList<Edit>();
+        }
+
+        /**
+         * Records that the given bytecode sequence is inserted
+         * before the instruction at the given index, as
+         * <code>CodeIterator.insertAt()</code> does.
+         *
+         * @param pos       the index of the instruction.
+         * @param code      inserted bytecode sequence.
+         * @see CodeIterator#insertAt(int, byte[])
+         */
+        public void insert(int pos, byte[] code) {
+            add(pos, INCLUSIVE, code);
+        }
+
+        /**
+         * Records that the given bytecode sequence is exclusively inserted
+         * before the instruction at the given index, as
+         * <code>CodeIterator.insertExAt()</code> does.
+         *
+         * @param pos       the index of the instruction.
+         * @param code      inserted bytecode sequence.
+         * @see CodeIterator#insertExAt(int, byte[])
+         */
+        public void insertEx(int pos, byte[] code) {
+            add(pos, EXCLUSIVE, code);
+        }
+
+        /**
+         * Records that the instruction at the given index is replaced with
+         * the given bytecode sequence.  If the sequence is shorter than
+         * the instruction, the rest is filled with <code>NOP</code>.
+         * A branch to the replaced instruction jumps to the first byte
+         * of the sequence.  The sequence must not include a branch
+         * instruction jumping out of the sequence.
+         *
+         * <p>An instruction can be replaced only once in a batch.
+         *
+         * @param pos       the index of the instruction.
+         * @param code      the new bytecode sequence.
+         */
+        public void replace(int pos, byte[] code) {
+            add(pos, REPLACE, code);
+        }
+
+        private void add(int pos, int kind, byte[] code) {
+            edits.add(new Edit(pos, kind, edits.size(), code));
+        }
+
+        /**
+         * Returns the number of the recorded edits.
+         */
+        public int size() { return edits.size(); }
+
+        /**
+         * Applies the recorded edits.  After this method returns,
+         * this object can record another batch of edits, which are
+         * specified by the indexes in the updated bytecode.
+         * The cursor and the marks of the iterator are also updated.
+         *
+         * @return  the indexes of the first bytes of the inserted or
+         *          replaced byte sequences, in the order the edits
+         *          were recorded.
+         */
+        public int[] apply() throws BadBytecode {
+            List<Edit> list = edits;
+            edits = new ArrayList<Edit>();
+            int n = list.size();
+            int[] result = new int[n];
+            if (n == 0)
+                return result;
+
+            Edit[] sorted = list.toArray(new Edit[n]);
+            Arrays.sort(sorted, (a, b) -> a.pos != b.pos ? a.pos - b.pos
+                                          : a.kind != b.kind ? a.kind - b.kind
+                                          : a.order - b.order);
+
+            CodeIterator it = iterator;
+            byte[] code = it.bytecode;
+            int lastSwitch = scan(code, sorted);
+            for (int i = 0; i < n; i++) {
+                Edit e = sorted[i];
+                int len = e.code.length;
+                if (e.kind == REPLACE) {
+                    if (i + 1 < n && sorted[i + 1].pos == e.pos)
+                        throw new BadBytecode("replaced twice at " + e.pos);
+
+                    len -= e.length;
+                }
+
+                if (len > 0 && e.pos <= lastSwitch)
+                    len = (len + 3) & ~3;
+
+                e.gap = Math.max(len, 0);
+            }
+
+            int[] wheres = new int[n];
+            boolean[] exclusive = new boolean[n];
+            int[] prefix = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                wheres[i] = sorted[i].pos;
+                exclusive[i] = sorted[i].kind == EXCLUSIVE;
+                prefix[i + 1] = prefix[i] + sorted[i].gap;
+            }
+
+            Relocation r = new Relocation(wheres, exclusive, prefix);
+
+            boolean replaced = false;
+            for (Edit e: sorted)
+                if (e.kind == REPLACE) {
+                    if (!replaced) {
+                        code = code.clone();
+                        replaced = true;
+                    }
+
+                    // the replaced instruction is not relocated.
+                    for (int k = e.pos; k < e.pos + e.length; k++)
+                        code[k] = NOP;
+                }
+
+            int[] positions = new int[n];
+            ExceptionTable etable = it.get().getExceptionTable();
+            CodeAttribute ca = it.codeAttr;
+            byte[] newcode;
+            int cursor = it.currentPos;
+            if (code.length + prefix[n] > Short.MAX_VALUE) {
+                Pointers ptrs = new Pointers(cursor, it.mark, it.mark2, 0, etable, ca);
+                List<Branch> jumps = makeJumpList(code, code.length, ptrs);
+                ptrs.shiftPc(r);
+                for (Branch b: jumps)
+                    b.relocate(r);
+
+                relax(jumps, ptrs);
+                newcode = makeExapndedCode(code, jumps, wheres, gaps(sorted), positions);
+                // the cursor points to the instruction, not to the inserted code.
+                it.currentPos = ptrs.cursor + r.newPosition(cursor) - r.newTarget(cursor);
+                it.mark = ptrs.mark;
+                it.mark2 = ptrs.mark2;
+            }
+            else {
+                newcode = relocate(code, r, positions);
+                etable.shiftPc(r);
+                LineNumberAttribute na
+                    = (LineNumberAttribute)ca.getAttribute(LineNumberAttribute.tag);
+                if (na != null)
+                    na.shiftPc(r);
+
+                LocalVariableAttribute va = (LocalVariableAttribute)ca.getAttribute(
+                                                        LocalVariableAttribute.tag);
+                if (va != null)
+                    va.shiftPc(r);
+
+                LocalVariableAttribute vta = (LocalVariableAttribute)ca.getAttribute(
+                                                        LocalVariableAttribute.typeTag);
+                if (vta != null)
+                    vta.shiftPc(r);
+
+                StackMapTable smt = (StackMapTable)ca.getAttribute(StackMapTable.tag);
+                if (smt != null)
+                    smt.shiftPc(r);
+
+                StackMap sm = (StackMap)ca.getAttribute(StackMap.tag);
+                if (sm != null)
+                    sm.shiftPc(r);
+
+                it.currentPos = r.newPosition(cursor);
+                it.mark = r.newTarget(it.mark);
+                it.mark2 = r.newTarget(it.mark2);
+            }
+
+            for (int i = 0; i < n; i++) {
+                Edit e = sorted[i];
+                System.arraycopy(e.code, 0, newcode, positions[i], e.code.length);
+                result[e.order] = positions[i];
+            }
+
+            ca.setCode(newcode);
+            it.bytecode = newcode;
+            it.endPos = it.getCodeLength();
+            for (int i = n - 1; i >= 0; i--)
+                if (sorted[i].gap > 0)
+                    it.updateCursors(wheres[i], sorted[i].gap);
+
+            return result;
+        }
+
+        private static int[] gaps(Edit[] sorted) {
+            int[] gaps = new int[sorted.length];
+            for (int i = 0; i < gaps.length; i++)
+                gaps[i] = sorted[i].gap;
+
+            return gaps;
+        }
+
+        /* Checks that every edit is at the beginning of an instruction
+         * and records the length of that instruction.
+         * It returns the index of the last TABLESWITCH or LOOKUPSWITCH,
+         * or -1.
+         */
+        private static int scan(byte[] code, Edit[] sorted)
+            throws BadBytecode
+        {
+            int lastSwitch = -1;
+            int k = 0;
+            int n = sorted.length;
+            int nextPos;
+            for (int i = 0; i < code.length; i = nextPos) {
+                nextPos = nextOpcode(code, i);
+                int inst = code[i] & 0xff;
+                if (inst == TABLESWITCH || inst == LOOKUPSWITCH)
+                    lastSwitch = i;
+
+                if (k < n && sorted[k].pos < i)
+                    break;
+
+                while (k < n && sorted[k].pos == i)
+                    sorted[k++].length = nextPos - i;
+            }
+
+            if (k < n)
+                throw new BadBytecode("not the first byte of an instruction: "
+                                      + sorted[k].pos);
+
+            return lastSwitch;
+        }
+
+        /* Copies the bytecode into a new array with the gaps.
+         * All the gap lengths must be multiples of 4 if the gaps precede
+         * TABLESWITCH or LOOKUPSWITCH.  The positions of the gaps are
+         * stored in positions.
+         */
+        private static byte[] relocate(byte[] code, Relocation r, int[] positions)
+            throws BadBytecode
+        {
+            int[] wheres = r.wheres;
+            int[] prefix = r.prefix;
+            int n = wheres.length;
+            byte[] newcode = new byte[code.length + prefix[n]];
+            int g = 0;
+            int j = 0;
+            int nextPos;
+            for (int i = 0; i < code.length; i = nextPos) {
+                while (g < n && wheres[g] == i) {
+                    positions[g] = j;
+                    int j2 = j + prefix[g + 1] - prefix[g];
+                    while (j < j2)
+                        newcode[j++] = NOP;
+
+                    g++;
+                }
+
+                nextPos = nextOpcode(code, i);
+                int inst = code[i] & 0xff;
+                // if<cond>, if_icmp<cond>, if_acmp<cond>, goto, jsr
+                if ((153 <= inst && inst <= 168)
+                    || inst == IFNULL || inst == IFNONNULL) {
+                    /* 2bytes *signed* offset */
+                    int offset = (code[i + 1] << 8) | (code[i + 2] & 0xff);
+                    newcode[j] = code[i];
+                    ByteArray.write16bit(newOffset(r, i, offset, j), newcode, j + 1);
+                    j += 3;
+                }
+                else if (inst == GOTO_W || inst == JSR_W) {
+                    /* 4bytes offset */
+                    int offset = ByteArray.read32bit(code, i + 1);
+                    newcode[j] = code[i];
+                    ByteArray.write32bit(newOffset(r, i, offset, j), newcode, j + 1);
+                    j += 5;
+                }
+                else if (inst == TABLESWITCH) {
+                    int base = j;
+                    int i2 = (i & ~3) + 4;  // 0-3 byte padding
+                    j = copyGapBytes(newcode, j, code, i, i2);
+                    int defaultbyte = ByteArray.read32bit(code, i2);
+                    ByteArray.write32bit(newOffset(r, i, defaultbyte, base), newcode, j);
+                    int lowbyte = ByteArray.read32bit(code, i2 + 4);
+                    ByteArray.write32bit(lowbyte, newcode, j + 4);
+                    int highbyte = ByteArray.read32bit(code, i2 + 8);
+                    ByteArray.write32bit(highbyte, newcode, j + 8);
+                    j += 12;
+                    int i0 = i2 + 12;
+                    i2 = i0 + (highbyte - lowbyte + 1) * 4;
+                    while (i0 < i2) {
+                        int offset = newOffset(r, i, ByteArray.read32bit(code, i0), base);
+                        ByteArray.write32bit(offset, newcode, j);
+                        j += 4;
+                        i0 += 4;
+                    }
+                }
+                else if (inst == LOOKUPSWITCH) {
+                    int base = j;
+                    int i2 = (i & ~3) + 4;  // 0-3 byte padding
+                    j = copyGapBytes(newcode, j, code, i, i2);
+                    int defaultbyte = ByteArray.read32bit(code, i2);
+                    ByteArray.write32bit(newOffset(r, i, defaultbyte, base), newcode, j);
+                    int npairs = ByteArray.read32bit(code, i2 + 4);
+                    ByteArray.write32bit(npairs, newcode, j + 4);
+                    j += 8;
+                    int i0 = i2 + 8;
+                    i2 = i0 + npairs * 8;
+                    while (i0 < i2) {
+                        ByteArray.copy32bit(code, i0, newcode, j);
+                        int offset = newOffset(r, i, ByteArray.read32bit(code, i0 + 4), base);
+                        ByteArray.write32bit(offset, newcode, j + 4);
+                        j += 8;
+                        i0 += 8;
+                    }
+                }
+                else
+                    while (i < nextPos)
+                        newcode[j++] = code[i++];
+            }
+
+            return newcode;
+        }
+
+        /* Computes the branch offset of the instruction moved from i to j.
+         * A branch to the instruction itself is not changed.
+         */
+        private static int newOffset(Relocation r, int i, int offset, int j) {
+            if (offset == 0)
+                return 0;
+            else
+                return r.newTarget(i + offset) - j;
+        }
+    }
+
+    /* A set of gaps inserted into the bytecode at once.
+     * The gaps are sorted by their positions.  prefix[k] is the total
+     * length of the first k gaps.  It is used for updating the branch
+     * offsets and the attributes only once for all the gaps.
+     */
+    static final class Relocation {
+        final int[] wheres, prefix;
+        final boolean[] exclusive;      // null if no gap is exclusive
+
+        Relocation(int[] wheres, boolean[] exclusive, int[] prefix) {
+            this.wheres = wheres;
+            this.exclusive = exclusive;
+            this.prefix = prefix;
+        }
+
+        /* Returns the index that a branch to the instruction at pc
+         * or an attribute pointing to pc must point to after the gaps
+         * are inserted.  It may be the index of a gap inserted at pc.
+         */
+        int newTarget(int pc) {
+            int k = lowerBound(wheres, pc);
+            if (exclusive != null)
+                while (k < wheres.length && wheres[k] == pc && exclusive[k])
+                    k++;
+
+            return pc + prefix[k];
+        }
+
+        /* Returns the index of the instruction that was at pc
+         * before the gaps are inserted.
+         */
+        int newPosition(int pc) {
+            int k = lowerBound(wheres, pc);
+            while (k < wheres.length && wheres[k] == pc)
+                k++;
+
+            return pc + prefix[k];
+        }
+
+        /* Returns the index of the first element at pc or after pc.
+         */
+        static int lowerBound(int[] wheres, int pc) {
+            int low = 0, high = wheres.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (wheres[mid] < pc)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+
+            return low;
+        }
+    }
+
     /**
      * Copies and inserts the entries in the given exception table
      * at the beginning of the exception table in the code attribute
@@ -1025,7 +1479,6 @@ public class CodeIterator implements Opcode {
                 offset += gapLength;
         }
         else if (i == where) {
-            // This code is different from the code in Branch#shiftOffset().
             // see JASSIST-124.
             if (target < where)
                 offset -= gapLength;
@@ -1089,6 +1542,28 @@ public class CodeIterator implements Opcode {
                 stack2.shiftPc(where, gapLength, exclusive);
         }
 
+        void shiftPc(Relocation r) throws BadBytecode {
+            cursor = r.newTarget(cursor);
+            mark = r.newTarget(mark);
+            mark2 = r.newTarget(mark2);
+            mark0 = r.newTarget(mark0);
+            etable.shiftPc(r);
+            if (line != null)
+                line.shiftPc(r);
+
+            if (vars != null)
+                vars.shiftPc(r);
+
+            if (types != null)
+                types.shiftPc(r);
+
+            if (stack != null)
+                stack.shiftPc(r);
+
+            if (stack2 != null)
+                stack2.shiftPc(r);
+        }
+
         void shiftForSwitch(int where, int gapLength) throws BadBytecode {
             if (stack != null)
                 stack.shiftForSwitch(where, gapLength);
@@ -1177,35 +1652,113 @@ public class CodeIterator implements Opcode {
                 b.shift(where, gapLength, exclusive);
         }
 
-        boolean unstable = true;
+        relax(jumps, ptrs);
+        return makeExapndedCode(code, jumps, where, gapLength);
+    }
+
+    /* Expands the branch instructions whose offsets do not fit in 16 bits
+     * and adjusts the padding of the switch instructions.
+     *
+     * The growth of an instruction is regarded as a gap inserted right
+     * after the first byte of that instruction, so the instruction itself
+     * does not move.  The branch list is swept backward and forward until
+     * no branch is expanded.  An expansion is immediately visible to the
+     * following checks, so a chain of expansions is usually resolved in
+     * a single sweep.  Then the padding of the switch instructions is
+     * adjusted in the order of their positions.  This is repeated until
+     * no instruction grows.  Since an instruction never shrinks, this
+     * terminates.  Then the branches and the pointers are shifted only
+     * once for all the gaps.  The jumps must be sorted by their positions.
+     */
+    private static void relax(List<Branch> jumps, Pointers ptrs)
+        throws BadBytecode
+    {
+        int n = jumps.size();
+        Branch[] branches = jumps.toArray(new Branch[n]);
+        Layout layout = new Layout(branches);
+        boolean unstable;
         do {
-            while (unstable) {
-                unstable = false;
-                for (Branch b:jumps) {
-                    if (b.expanded()) {
-                        unstable = true;
-                        int p = b.pos;
-                        int delta = b.deltaSize();
-                        ptrs.shiftPc(p, delta, false);
-                        for (Branch bb:jumps)
-                            bb.shift(p, delta, false);
-                    }
-                }
-            }
+            boolean expanded;
+            do {
+                expanded = false;
+                for (int i = n - 1; i >= 0; i--)
+                    expanded |= layout.update(i, branches[i].expand(layout));
+
+                for (int i = 0; i < n; i++)
+                    expanded |= layout.update(i, branches[i].expand(layout));
+            } while (expanded);
+
+            unstable = false;
+            for (int i = 0; i < n; i++)
+                unstable |= layout.update(i, branches[i].align(layout));
+        } while (unstable);
 
-            for (Branch b:jumps) {
-                int diff = b.gapChanged();
-                if (diff > 0) {
-                    unstable = true;
-                    int p = b.pos;
-                    ptrs.shiftPc(p, diff, false);
-                    for (Branch bb:jumps)
-                        bb.shift(p, diff, false);
-                }
+        Relocation r = layout.toRelocation();
+        if (r.prefix[n] > 0) {
+            ptrs.shiftPc(r);
+            for (Branch b:branches)
+                b.relocate(r);
+        }
+    }
+
+    /* The growth of the branch instructions during relax().
+     * It is recorded in a binary indexed tree so that the new position
+     * of an instruction is computed in O(log n) time after a growth.
+     */
+    static final class Layout {
+        private final Branch[] branches;
+        private final int[] wheres, deltas, tree;
+
+        Layout(Branch[] branches) {
+            this.branches = branches;
+            int n = branches.length;
+            wheres = new int[n];
+            deltas = new int[n];
+            tree = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                wheres[i] = branches[i].pos + 1;
+                add(i, branches[i].deltaSize());
             }
-        } while (unstable);
+        }
 
-        return makeExapndedCode(code, jumps, where, gapLength);
+        /* Records the size of the i-th branch if it has grown.
+         */
+        boolean update(int i, boolean grown) {
+            if (grown)
+                add(i, branches[i].deltaSize() - deltas[i]);
+
+            return grown;
+        }
+
+        private void add(int i, int delta) {
+            deltas[i] += delta;
+            for (int k = i + 1; k < tree.length; k += k & -k)
+                tree[k] += delta;
+        }
+
+        /* Returns the new index of the instruction at pc,
+         * or the index of the gap inserted at pc.
+         */
+        int newTarget(int pc) {
+            int sum = 0;
+            for (int k = Relocation.lowerBound(wheres, pc); k > 0; k -= k & -k)
+                sum += tree[k];
+
+            return pc + sum;
+        }
+
+        int newOffset(int pos, int offset) {
+            return newTarget(pos + offset) - newTarget(pos);
+        }
+
+        Relocation toRelocation() {
+            int n = wheres.length;
+            int[] prefix = new int[n + 1];
+            for (int i = 0; i < n; i++)
+                prefix[i + 1] = prefix[i] + deltas[i];
+
+            return new Relocation(wheres, null, prefix);
+        }
     }
 
     private static List<Branch> makeJumpList(byte[] code, int endPos, Pointers ptrs)
@@ -1272,9 +1825,24 @@ public class CodeIterator implements Opcode {
     private static byte[] makeExapndedCode(byte[] code, List<Branch> jumps,
                                            int where, int gapLength)
         throws BadBytecode
+    {
+        return makeExapndedCode(code, jumps, new int[] { where },
+                                new int[] { gapLength }, new int[1]);
+    }
+
+    /* The gaps must be sorted by their positions.  The positions
+     * of the gaps in the new code are stored in newWheres.
+     */
+    private static byte[] makeExapndedCode(byte[] code, List<Branch> jumps,
+                                           int[] wheres, int[] gapLengths,
+                                           int[] newWheres)
+        throws BadBytecode
     {
         int n = jumps.size();
-        int size = code.length + gapLength;
+        int size = code.length;
+        for (int gapLength: gapLengths)
+            size += gapLength;
+
         for (Branch b:jumps)
             size += b.deltaSize();
 
@@ -1292,9 +1860,11 @@ public class CodeIterator implements Opcode {
             bpos = len;  // src will be never equal to bpos
         }
 
+        int g = 0;
         while (src < len) {
-            if (src == where) {
-                int pos2 = dest + gapLength;
+            while (g < wheres.length && wheres[g] == src) {
+                newWheres[g] = dest;
+                int pos2 = dest + gapLengths[g++];
                 while (dest < pos2)
                     newcode[dest++] = NOP;
             }
@@ -1322,35 +1892,41 @@ public class CodeIterator implements Opcode {
     static abstract class Branch {
         int pos, orgPos;
         Branch(int p) { pos = orgPos = p; }
+        /* The gap is inserted before the instruction at where
+         * even if it is not exclusive.
+         */
         void shift(int where, int gapLength, boolean exclusive) {
-            if (where < pos || (where == pos && exclusive))
+            if (where <= pos)
                 pos += gapLength;
         }
 
         static int shiftOffset(int i, int offset, int where,
                                int gapLength, boolean exclusive) {
-            int target = i + offset;
-            if (i < where) {
-                if (where < target || (exclusive && where == target))
-                    offset += gapLength;
-            }
-            else if (i == where) {
-                // This code is different from the code in CodeIterator#newOffset().
-                // see JASSIST-124.
-                if (target < where && exclusive)
-                    offset -= gapLength;
-                else if (where < target && !exclusive)
-                    offset += gapLength;
-            }
-            else
-                if (target < where || (!exclusive && where == target))
-                    offset -= gapLength;
+            return CodeIterator.newOffset(i, offset, where, gapLength, exclusive);
+        }
 
-            return offset;
+        /* Returns true if the branch instruction is expanded since its
+         * offset does not fit in 16 bits in the given layout.
+         */
+        boolean expand(Layout l) { return false; }
+
+        /* Returns true if the padding of the switch instruction
+         * grows in the given layout.
+         */
+        boolean align(Layout l) { return false; }
+
+        void relocate(Relocation r) { pos = r.newPosition(pos); }
+
+        /* Returns the offset of the branch after the gaps are inserted.
+         * A branch to the instruction itself is not changed.
+         */
+        int newOffset(Relocation r, int offset) {
+            if (offset == 0)
+                return 0;
+            else
+                return r.newTarget(pos + offset) - r.newPosition(pos);
         }
 
-        boolean expanded() { return false; }
-        int gapChanged() { return 0; }
         int deltaSize() { return 0; }   // newSize - oldSize
 
         // This returns the original instruction size.
@@ -1361,20 +1937,9 @@ public class CodeIterator implements Opcode {
      */
     static class LdcW extends Branch {
         int index;
-        boolean state;
         LdcW(int p, int i) {
             super(p);
             index = i;
-            state = true;
-        }
-
-        @Override
-        boolean expanded() {
-            if (state) {
-                state = false;
-                return true;
-            }
-            return false;
         }
 
         @Override
@@ -1392,8 +1957,7 @@ public class CodeIterator implements Opcode {
         int offset;
         int state;
         static final int BIT16 = 0;
-        static final int EXPAND = 1;
-        static final int BIT32 = 2;
+        static final int BIT32 = 1;
 
         Branch16(int p, int off) {
             super(p);
@@ -1405,20 +1969,27 @@ public class CodeIterator implements Opcode {
         void shift(int where, int gapLength, boolean exclusive) {
             offset = shiftOffset(pos, offset, where, gapLength, exclusive);
             super.shift(where, gapLength, exclusive);
-            if (state == BIT16)
-                if (offset < Short.MIN_VALUE || Short.MAX_VALUE < offset)
-                    state = EXPAND;
         }
 
         @Override
-        boolean expanded() {
-            if (state == EXPAND) {
-                state = BIT32;
-                return true;
+        boolean expand(Layout l) {
+            if (state == BIT16) {
+                int off = l.newOffset(pos, offset);
+                if (off < Short.MIN_VALUE || Short.MAX_VALUE < off) {
+                    state = BIT32;
+                    return true;
+                }
             }
+
             return false;
         }
 
+        @Override
+        void relocate(Relocation r) {
+            offset = newOffset(r, offset);
+            super.relocate(r);
+        }
+
         @Override
         abstract int deltaSize();
         abstract void write32(int src, byte[] code, int dest, byte[] newcode);
@@ -1499,6 +2070,12 @@ public class CodeIterator implements Opcode {
             super.shift(where, gapLength, exclusive);
         }
 
+        @Override
+        void relocate(Relocation r) {
+            offset = newOffset(r, offset);
+            super.relocate(r);
+        }
+
         @Override
         int write(int src, byte[] code, int dest, byte[] newcode) {
             newcode[dest] = code[src];
@@ -1532,15 +2109,24 @@ public class CodeIterator implements Opcode {
         }
 
         @Override
-        int gapChanged() {
-            int newGap = 3 - (pos & 3);
+        void relocate(Relocation r) {
+            defaultByte = newOffset(r, defaultByte);
+            int num = offsets.length;
+            for (int i = 0; i < num; i++)
+                offsets[i] = newOffset(r, offsets[i]);
+
+            super.relocate(r);
+        }
+
+        @Override
+        boolean align(Layout l) {
+            int newGap = 3 - (l.newTarget(pos) & 3);
             if (newGap > gap) {
-                int diff = newGap - gap;
                 gap = newGap;
-                return diff;
+                return true;
             }
 
-            return 0;
+            return false;
         }
 
         @Override
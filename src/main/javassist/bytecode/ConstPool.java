@@ -16,12 +16,14 @@
 
 package javassist.bytecode;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -36,7 +38,31 @@ public final class ConstPool
     LongVector items;
     int numOfItems;
     int thisClassInfo;
-    Map<ConstInfo,ConstInfo> itemsCache;
+    ConstIndex itemsCache;  // built on demand
+
+    /* If the table was read when lazyDecoding was true, rawItems holds
+     * the entries as they were in the class file and rawOffsets[i] is
+     * the position of the i-th entry in rawItems.  The elements of
+     * items are null until they are decoded.
+     */
+    byte[] rawItems;
+    int[] rawOffsets;
+
+    SymbolTable symbols;    // may be null
+    int modCount;           // incremented when entries are modified
+
+    /**
+     * If this value is true, the entries of a constant pool table are not
+     * decoded when the table is read from a class file.  They are kept
+     * as a byte array and each entry is decoded when it is first accessed.
+     * This reduces the memory for reading class files if only a few
+     * entries are used, for example, to obtain the class name and
+     * the super class.  The initial value of this field is <code>false</code>.
+     *
+     * @see MethodInfo#lazyDecoding
+     * @since 3.31
+     */
+    public static boolean lazyDecoding = false;
 
     /**
      * <code>CONSTANT_Class</code>
@@ -197,14 +223,37 @@ public final class ConstPool
      * @param in        byte stream.
      */
     public ConstPool(DataInputStream in) throws IOException
+    {
+        this(in, null);
+    }
+
+    /**
+     * Constructs a constant pool table from the given byte stream.
+     * The contents of <code>CONSTANT_Utf8_info</code> entries are
+     * shared with other constant pool tables through the given table
+     * when they are decoded.
+     *
+     * @param in        byte stream.
+     * @param symbols   the symbol table.  It may be null.
+     * @since 3.31
+     */
+    public ConstPool(DataInputStream in, SymbolTable symbols)
+        throws IOException
     {
         itemsCache = null;
         thisClassInfo = 0;
+        this.symbols = symbols;
         /* read() initializes items and numOfItems, and do addItem(null).
          */
         read(in);
     }
 
+    private String intern(String s)
+    {
+        SymbolTable table = symbols;
+        return table == null ? s : table.intern(s);
+    }
+
     void prune()
     {
         itemsCache = null;
@@ -218,6 +267,19 @@ public final class ConstPool
         return numOfItems;
     }
 
+    /**
+     * Returns a number incremented whenever existing entries are
+     * modified, for example, when class names are replaced by
+     * <code>renameClass()</code>.  Adding a new entry does not
+     * change this number.
+     *
+     * @since 3.31
+     */
+    public int getModCount()
+    {
+        return modCount;
+    }
+
     /**
      * Returns the name of the class using this constant pool table.
      */
@@ -242,7 +304,157 @@ public final class ConstPool
 
     ConstInfo getItem(int n)
     {
-        return items.elementAt(n);
+        ConstInfo info = items.elementAt(n);
+        if (info == null && rawItems != null && 0 < n && n < rawOffsets.length)
+            info = decodeItem(n);
+
+        return info;
+    }
+
+    /* Decodes the n-th entry in rawItems.  Two threads may decode the same
+     * entry at the same time but the results are equivalent.
+     */
+    private ConstInfo decodeItem(int n)
+    {
+        byte[] raw = rawItems;
+        int p = rawOffsets[n];
+        int tag = raw[p++] & 0xff;
+        ConstInfo info;
+        switch (tag) {
+        case Utf8Info.tag :
+            info = new Utf8Info(intern(decodeUtf8(raw, p)), n);
+            break;
+        case IntegerInfo.tag :
+            info = new IntegerInfo(ByteArray.read32bit(raw, p), n);
+            break;
+        case FloatInfo.tag :
+            info = new FloatInfo(Float.intBitsToFloat(ByteArray.read32bit(raw, p)), n);
+            break;
+        case LongInfo.tag :
+            info = new LongInfo(read64bit(raw, p), n);
+            break;
+        case DoubleInfo.tag :
+            info = new DoubleInfo(Double.longBitsToDouble(read64bit(raw, p)), n);
+            break;
+        case ClassInfo.tag :
+            info = new ClassInfo(ByteArray.readU16bit(raw, p), n);
+            break;
+        case StringInfo.tag :
+            info = new StringInfo(ByteArray.readU16bit(raw, p), n);
+            break;
+        case FieldrefInfo.tag :
+            info = new FieldrefInfo(ByteArray.readU16bit(raw, p),
+                                    ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case MethodrefInfo.tag :
+            info = new MethodrefInfo(ByteArray.readU16bit(raw, p),
+                                     ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case InterfaceMethodrefInfo.tag :
+            info = new InterfaceMethodrefInfo(ByteArray.readU16bit(raw, p),
+                                              ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case NameAndTypeInfo.tag :
+            info = new NameAndTypeInfo(ByteArray.readU16bit(raw, p),
+                                       ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case MethodHandleInfo.tag :
+            info = new MethodHandleInfo(raw[p] & 0xff,
+                                        ByteArray.readU16bit(raw, p + 1), n);
+            break;
+        case MethodTypeInfo.tag :
+            info = new MethodTypeInfo(ByteArray.readU16bit(raw, p), n);
+            break;
+        case DynamicInfo.tag :
+            info = new DynamicInfo(ByteArray.readU16bit(raw, p),
+                                   ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case InvokeDynamicInfo.tag :
+            info = new InvokeDynamicInfo(ByteArray.readU16bit(raw, p),
+                                         ByteArray.readU16bit(raw, p + 2), n);
+            break;
+        case ModuleInfo.tag :
+            info = new ModuleInfo(ByteArray.readU16bit(raw, p), n);
+            break;
+        case PackageInfo.tag :
+            info = new PackageInfo(ByteArray.readU16bit(raw, p), n);
+            break;
+        default :
+            throw new RuntimeException("invalid constant type: "
+                                       + tag + " at " + n);
+        }
+
+        items.setElementAt(info, n);
+        return info;
+    }
+
+    private static long read64bit(byte[] raw, int p)
+    {
+        return ((long)ByteArray.read32bit(raw, p) << 32)
+               | (ByteArray.read32bit(raw, p + 4) & 0xffffffffL);
+    }
+
+    /* p is the position of the length field.
+     */
+    static String decodeUtf8(byte[] raw, int p)
+    {
+        int len = ByteArray.readU16bit(raw, p);
+        int start = p + 2;
+        int end = start + len;
+        for (int i = start; i < end; i++) {
+            int b = raw[i];
+            if (b <= 0)         // not ASCII
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(raw, p, len + 2)).readUTF();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("broken UTF-8 constant", e);
+                }
+        }
+
+        return new String(raw, start, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /* Returns the length of an undecoded entry including its tag.
+     */
+    private static int rawLength(byte[] raw, int p)
+    {
+        int tag = raw[p];
+        if (tag == Utf8Info.tag)
+            return 3 + ByteArray.readU16bit(raw, p + 1);
+        else
+            return 1 + rawLength(tag);
+    }
+
+    /* Returns the length of an entry except its tag.
+     * The length of a CONSTANT_Utf8_info depends on its contents.
+     */
+    static int rawLength(int tag)
+    {
+        switch (tag) {
+        case ClassInfo.tag :
+        case StringInfo.tag :
+        case MethodTypeInfo.tag :
+        case ModuleInfo.tag :
+        case PackageInfo.tag :
+            return 2;
+        case MethodHandleInfo.tag :
+            return 3;
+        case IntegerInfo.tag :
+        case FloatInfo.tag :
+        case FieldrefInfo.tag :
+        case MethodrefInfo.tag :
+        case InterfaceMethodrefInfo.tag :
+        case NameAndTypeInfo.tag :
+        case DynamicInfo.tag :
+        case InvokeDynamicInfo.tag :
+            return 4;
+        case LongInfo.tag :
+        case DoubleInfo.tag :
+            return 8;
+        default :
+            return -1;
+        }
     }
 
     /**
@@ -254,6 +466,10 @@ public final class ConstPool
      */
     public int getTag(int index)
     {
+        if (rawItems != null && 0 < index && index < rawOffsets.length
+            && items.elementAt(index) == null)
+            return rawItems[rawOffsets[index]];
+
         return getItem(index).getTag();
     }
 
@@ -920,16 +1136,29 @@ public final class ConstPool
         return numOfItems++;
     }
 
-    private int addItem(ConstInfo info)
+    private ConstIndex itemsCache()
     {
         if (itemsCache == null)
-            itemsCache = makeItemsCache(items);
+            itemsCache = makeItemsCache();
+
+        return itemsCache;
+    }
 
-        ConstInfo found = itemsCache.get(info);
-        if (found != null)
-            return found.index;
+    /* Returns the index of an existing entry with the given key,
+     * or 0 if there is no such entry.  It does not allocate an object.
+     */
+    private int findItem(int tag, int key1, int key2)
+    {
+        return itemsCache().find(tag, key1, key2);
+    }
+
+    /* The caller must have made sure that there is no equivalent entry
+     * by findItem().
+     */
+    private int addItem(ConstInfo info)
+    {
         items.addElement(info);
-        itemsCache.put(info, info);
+        itemsCache.put(info);
         return numOfItems++;
     }
 
@@ -994,7 +1223,8 @@ public final class ConstPool
     public int addClassInfo(String qname)
     {
         int utf8 = addUtf8Info(Descriptor.toJvmName(qname));
-        return addItem(new ClassInfo(utf8, numOfItems));
+        int i = findItem(ClassInfo.tag, utf8, 0);
+        return i != 0 ? i : addItem(new ClassInfo(utf8, numOfItems));
     }
 
     /**
@@ -1020,7 +1250,8 @@ public final class ConstPool
      */
     public int addNameAndTypeInfo(int name, int type)
     {
-        return addItem(new NameAndTypeInfo(name, type, numOfItems));
+        int i = findItem(NameAndTypeInfo.tag, name, type);
+        return i != 0 ? i : addItem(new NameAndTypeInfo(name, type, numOfItems));
     }
 
     /**
@@ -1051,8 +1282,9 @@ public final class ConstPool
      */
     public int addFieldrefInfo(int classInfo, int nameAndTypeInfo) 
     {
-        return addItem(new FieldrefInfo(classInfo, nameAndTypeInfo,
-                                        numOfItems));
+        int i = findItem(FieldrefInfo.tag, classInfo, nameAndTypeInfo);
+        return i != 0 ? i : addItem(new FieldrefInfo(classInfo, nameAndTypeInfo,
+                                                     numOfItems));
     }
 
     /**
@@ -1083,8 +1315,9 @@ public final class ConstPool
      */
     public int addMethodrefInfo(int classInfo, int nameAndTypeInfo)
     {
-         return addItem(new MethodrefInfo(classInfo,
-                 nameAndTypeInfo, numOfItems));
+        int i = findItem(MethodrefInfo.tag, classInfo, nameAndTypeInfo);
+        return i != 0 ? i : addItem(new MethodrefInfo(classInfo,
+                                    nameAndTypeInfo, numOfItems));
     }
 
     /**
@@ -1120,9 +1353,10 @@ public final class ConstPool
     public int addInterfaceMethodrefInfo(int classInfo,
                                          int nameAndTypeInfo)
     {
-        return addItem(new InterfaceMethodrefInfo(classInfo,
-                                                  nameAndTypeInfo,
-                                                  numOfItems));
+        int i = findItem(InterfaceMethodrefInfo.tag, classInfo, nameAndTypeInfo);
+        return i != 0 ? i : addItem(new InterfaceMethodrefInfo(classInfo,
+                                                               nameAndTypeInfo,
+                                                               numOfItems));
     }
 
     /**
@@ -1137,7 +1371,8 @@ public final class ConstPool
     public int addStringInfo(String str)
     {
         int utf = addUtf8Info(str);
-        return addItem(new StringInfo(utf, numOfItems));
+        int i = findItem(StringInfo.tag, utf, 0);
+        return i != 0 ? i : addItem(new StringInfo(utf, numOfItems));
     }
 
     /**
@@ -1148,7 +1383,8 @@ public final class ConstPool
      */
     public int addIntegerInfo(int i)
     {
-        return addItem(new IntegerInfo(i, numOfItems));
+        int n = findItem(IntegerInfo.tag, i, 0);
+        return n != 0 ? n : addItem(new IntegerInfo(i, numOfItems));
     }
 
     /**
@@ -1159,7 +1395,8 @@ public final class ConstPool
      */
     public int addFloatInfo(float f)
     {
-        return addItem(new FloatInfo(f, numOfItems));
+        int i = findItem(FloatInfo.tag, Float.floatToIntBits(f), 0);
+        return i != 0 ? i : addItem(new FloatInfo(f, numOfItems));
     }
 
     /**
@@ -1170,9 +1407,11 @@ public final class ConstPool
      */
     public int addLongInfo(long l)
     {
-        int i = addItem(new LongInfo(l, numOfItems));
-        if (i == numOfItems - 1)    // if not existing
+        int i = findItem(LongInfo.tag, (int)(l >>> 32), (int)l);
+        if (i == 0) {
+            i = addItem(new LongInfo(l, numOfItems));
             addConstInfoPadding();
+        }
 
         return i;
     }
@@ -1185,9 +1424,12 @@ public final class ConstPool
      */
     public int addDoubleInfo(double d)
     {
-        int i = addItem(new DoubleInfo(d, numOfItems));
-        if (i == numOfItems - 1)    // if not existing
+        long bits = Double.doubleToLongBits(d);
+        int i = findItem(DoubleInfo.tag, (int)(bits >>> 32), (int)bits);
+        if (i == 0) {
+            i = addItem(new DoubleInfo(d, numOfItems));
             addConstInfoPadding();
+        }
 
         return i;
     }
@@ -1200,7 +1442,8 @@ public final class ConstPool
      */
     public int addUtf8Info(String utf8)
     {
-        return addItem(new Utf8Info(utf8, numOfItems));
+        int i = itemsCache().findUtf8(utf8);
+        return i != 0 ? i : addItem(new Utf8Info(utf8, numOfItems));
     }
 
     /**
@@ -1216,7 +1459,8 @@ public final class ConstPool
      */
     public int addMethodHandleInfo(int kind, int index)
     {
-        return addItem(new MethodHandleInfo(kind, index, numOfItems));
+        int i = findItem(MethodHandleInfo.tag, kind, index);
+        return i != 0 ? i : addItem(new MethodHandleInfo(kind, index, numOfItems));
     }
 
     /**
@@ -1230,7 +1474,8 @@ public final class ConstPool
      */
     public int addMethodTypeInfo(int desc)
     {
-        return addItem(new MethodTypeInfo(desc, numOfItems));
+        int i = findItem(MethodTypeInfo.tag, desc, 0);
+        return i != 0 ? i : addItem(new MethodTypeInfo(desc, numOfItems));
     }
 
     /**
@@ -1245,7 +1490,8 @@ public final class ConstPool
      */
     public int addInvokeDynamicInfo(int bootstrap, int nameAndType)
     {
-        return addItem(new InvokeDynamicInfo(bootstrap, nameAndType, numOfItems));
+        int i = findItem(InvokeDynamicInfo.tag, bootstrap, nameAndType);
+        return i != 0 ? i : addItem(new InvokeDynamicInfo(bootstrap, nameAndType, numOfItems));
     }
 
     /**
@@ -1257,7 +1503,8 @@ public final class ConstPool
      * @since 3.26
      */
     public int addDynamicInfo(int bootstrap, int nameAndType) {
-        return addItem(new DynamicInfo(bootstrap, nameAndType, numOfItems));
+        int i = findItem(DynamicInfo.tag, bootstrap, nameAndType);
+        return i != 0 ? i : addItem(new DynamicInfo(bootstrap, nameAndType, numOfItems));
     }
 
     /**
@@ -1268,7 +1515,8 @@ public final class ConstPool
      */
     public int addModuleInfo(int nameIndex)
     {
-        return addItem(new ModuleInfo(nameIndex, numOfItems));
+        int i = findItem(ModuleInfo.tag, nameIndex, 0);
+        return i != 0 ? i : addItem(new ModuleInfo(nameIndex, numOfItems));
     }
 
     /**
@@ -1279,7 +1527,8 @@ public final class ConstPool
      */
     public int addPackageInfo(int nameIndex)
     {
-        return addItem(new PackageInfo(nameIndex, numOfItems));
+        int i = findItem(PackageInfo.tag, nameIndex, 0);
+        return i != 0 ? i : addItem(new PackageInfo(nameIndex, numOfItems));
     }
 
     /**
@@ -1290,10 +1539,9 @@ public final class ConstPool
     public Set<String> getClassNames()
     {
         Set<String> result = new HashSet<String>();
-        LongVector v = items;
         int size = numOfItems;
         for (int i = 1; i < size; ++i) {
-            String className = v.elementAt(i).getClassName(this);
+            String className = getItem(i).getClassName(this);
             if (className != null)
                result.add(className);
         }
@@ -1308,10 +1556,10 @@ public final class ConstPool
      */
     public void renameClass(String oldName, String newName)
     {
-        LongVector v = items;
+        modCount++;
         int size = numOfItems;
         for (int i = 1; i < size; ++i) {
-            ConstInfo ci = v.elementAt(i);
+            ConstInfo ci = getItem(i);
             ci.renameClass(this, oldName, newName, itemsCache);
         }
     }
@@ -1324,10 +1572,10 @@ public final class ConstPool
      */
     public void renameClass(Map<String,String> classnames)
     {
-        LongVector v = items;
+        modCount++;
         int size = numOfItems;
         for (int i = 1; i < size; ++i) {
-            ConstInfo ci = v.elementAt(i);
+            ConstInfo ci = getItem(i);
             ci.renameClass(this, classnames, itemsCache);
         }
     }
@@ -1339,6 +1587,10 @@ public final class ConstPool
         items = new LongVector(n);
         numOfItems = 0;
         addItem0(null);          // index 0 is reserved by the JVM.
+        if (lazyDecoding) {
+            readLazily(in, n);
+            return;
+        }
 
         while (--n > 0) {       // index 0 is reserved by JVM
             int tag = readOne(in);
@@ -1349,15 +1601,59 @@ public final class ConstPool
         }
     }
 
-    private static Map<ConstInfo,ConstInfo> makeItemsCache(LongVector items)
+    /* Copies the entries into rawItems without decoding them.
+     */
+    private void readLazily(DataInputStream in, int n) throws IOException
     {
-        Map<ConstInfo,ConstInfo> cache = new HashMap<ConstInfo,ConstInfo>();
-        int i = 1;
-        while (true) {
-            ConstInfo info = items.elementAt(i++);
-            if (info == null)
-                break;
-            cache.put(info, info);
+        int[] offsets = new int[n];
+        byte[] raw = new byte[n * 8];
+        int pos = 0;
+        for (int i = 1; i < n; i++) {
+            int tag = in.readUnsignedByte();
+            int len = 0;
+            if (tag == Utf8Info.tag)
+                len = 2 + in.readUnsignedShort();
+            else {
+                len = rawLength(tag);
+                if (len < 0)
+                    throw new IOException("invalid constant type: "
+                                          + tag + " at " + i);
+            }
+
+            if (pos + 1 + len > raw.length)
+                raw = Arrays.copyOf(raw, Math.max(raw.length * 2, pos + 1 + len));
+
+            offsets[i] = pos;
+            raw[pos++] = (byte)tag;
+            if (tag == Utf8Info.tag) {
+                ByteArray.write16bit(len - 2, raw, pos);
+                in.readFully(raw, pos + 2, len - 2);
+            }
+            else
+                in.readFully(raw, pos, len);
+
+            pos += len;
+            addItem0(null);
+            if ((tag == LongInfo.tag) || (tag == DoubleInfo.tag)) {
+                if (++i < n)
+                    offsets[i] = -1;
+
+                addConstInfoPadding();
+            }
+        }
+
+        rawItems = Arrays.copyOf(raw, pos);
+        rawOffsets = offsets;
+    }
+
+    private ConstIndex makeItemsCache()
+    {
+        int size = numOfItems;
+        ConstIndex cache = new ConstIndex(this, size);
+        for (int i = 1; i < size; ++i) {
+            ConstInfo info = getItem(i);
+            if (!(info instanceof ConstInfoPadding))
+                cache.put(info);
         }
 
         return cache;
@@ -1369,7 +1665,7 @@ public final class ConstPool
         int tag = in.readUnsignedByte();
         switch (tag) {
         case Utf8Info.tag :                     // 1
-            info = new Utf8Info(in, numOfItems);
+            info = new Utf8Info(intern(in.readUTF()), numOfItems);
             break;
         case IntegerInfo.tag :                  // 3
             info = new IntegerInfo(in, numOfItems);
@@ -1439,8 +1735,37 @@ public final class ConstPool
         out.writeShort(numOfItems);
         LongVector v = items;
         int size = numOfItems;
-        for (int i = 1; i < size; ++i)
-            v.elementAt(i).write(out);
+        for (int i = 1; i < size; ++i) {
+            ConstInfo info = v.elementAt(i);
+            if (info == null) {     // not decoded
+                int p = rawOffsets[i];
+                out.write(rawItems, p, rawLength(rawItems, p));
+            }
+            else
+                info.write(out);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written by <code>write()</code>.
+     *
+     * @see #write(DataOutputStream)
+     * @since 3.31
+     */
+    public int sizeOf()
+    {
+        LongVector v = items;
+        int size = numOfItems;
+        int len = 2;
+        for (int i = 1; i < size; ++i) {
+            ConstInfo info = v.elementAt(i);
+            if (info == null)       // not decoded
+                len += rawLength(rawItems, rawOffsets[i]);
+            else
+                len += info.size();
+        }
+
+        return len;
     }
 
     /**
@@ -1460,7 +1785,178 @@ public final class ConstPool
         for (int i = 1; i < size; ++i) {
             out.print(i);
             out.print(" ");
-            items.elementAt(i).print(out);
+            getItem(i).print(out);
+        }
+    }
+
+    /* An index from the contents of constant pool entries to their
+     * positions.  ConstPool.addXxxInfo() looks up this index to find
+     * an existing entry before it allocates a new ConstInfo object.
+     *
+     * This is an open-addressing hash table with linear probing.
+     * Each slot consists of four ints: the index of an entry in the
+     * constant pool, its tag, and its two operands.  0 at the first int
+     * means an empty slot since the 0th entry is never recorded.
+     * For a CONSTANT_Utf8_info entry, the hash code of the string is
+     * recorded instead of the operands and the string is compared only
+     * if the hash code matches.  Other entries are compared without
+     * reading them from the constant pool.
+     */
+    static final class ConstIndex
+    {
+        private static final int INDEX = 0, TAG = 1, KEY1 = 2, KEY2 = 3;
+        private static final int STRIDE = 4;
+
+        private final ConstPool pool;
+        private int[] table;
+        private int mask;       // (the number of slots - 1) * STRIDE
+        private int size;
+
+        ConstIndex(ConstPool pool, int expected)
+        {
+            this.pool = pool;
+            int capacity = 16;
+            while (capacity < expected * 2)
+                capacity <<= 1;
+
+            table = new int[capacity * STRIDE];
+            mask = (capacity - 1) * STRIDE;
+            size = 0;
+        }
+
+        int size() { return size; }
+
+        private int slot(int tag, int key1, int key2)
+        {
+            int h = (tag * 31 + key1) * 31 + key2;
+            h *= 0x9e3779b9;
+            return (h ^ (h >>> 16)) * STRIDE & mask;
+        }
+
+        private static int key1(ConstInfo info)
+        {
+            if (info instanceof Utf8Info)
+                return ((Utf8Info)info).string.hashCode();
+            else
+                return info.key1();
+        }
+
+        /**
+         * Returns the index of the entry with the given key,
+         * or 0 if not found.  The tag must not be <code>Utf8Info.tag</code>.
+         */
+        int find(int tag, int key1, int key2)
+        {
+            int[] t = table;
+            for (int i = slot(tag, key1, key2);; i = (i + STRIDE) & mask) {
+                int n = t[i + INDEX];
+                if (n == 0)
+                    return 0;
+                else if (t[i + TAG] == tag && t[i + KEY1] == key1
+                         && t[i + KEY2] == key2)
+                    return n;
+            }
+        }
+
+        /**
+         * Returns the index of the <code>CONSTANT_Utf8_info</code> entry
+         * with the given string, or 0 if not found.
+         */
+        int findUtf8(String s)
+        {
+            int[] t = table;
+            int h = s.hashCode();
+            for (int i = slot(Utf8Info.tag, h, 0);; i = (i + STRIDE) & mask) {
+                int n = t[i + INDEX];
+                if (n == 0)
+                    return 0;
+                else if (t[i + TAG] == Utf8Info.tag && t[i + KEY1] == h
+                         && s.equals(((Utf8Info)pool.getItem(n)).string))
+                    return n;
+            }
+        }
+
+        /**
+         * Records the given entry.  If another entry with the same key
+         * has been recorded, it is replaced with the given entry.
+         */
+        void put(ConstInfo info)
+        {
+            int[] t = table;
+            int tag = info.getTag();
+            int key1 = key1(info);
+            int key2 = info.key2();
+            for (int i = slot(tag, key1, key2);; i = (i + STRIDE) & mask) {
+                int n = t[i + INDEX];
+                if (n == 0) {
+                    t[i + INDEX] = info.index;
+                    t[i + TAG] = tag;
+                    t[i + KEY1] = key1;
+                    t[i + KEY2] = key2;
+                    if (++size * 2 * STRIDE > t.length)
+                        grow();
+
+                    return;
+                }
+                else if (t[i + TAG] == tag && t[i + KEY1] == key1
+                         && t[i + KEY2] == key2
+                         && (tag != Utf8Info.tag || n == info.index
+                             || ((Utf8Info)info).string.equals(
+                                    ((Utf8Info)pool.getItem(n)).string))) {
+                    t[i + INDEX] = info.index;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Removes the given entry.  This must be called before the key
+         * of the entry is changed.  Nothing happens if the entry is not
+         * recorded.
+         */
+        void remove(ConstInfo info)
+        {
+            int[] t = table;
+            int i = slot(info.getTag(), key1(info), info.key2());
+            for (;; i = (i + STRIDE) & mask) {
+                int n = t[i + INDEX];
+                if (n == 0)
+                    return;
+                else if (n == info.index)
+                    break;
+            }
+
+            // backward-shift deletion keeps the probe sequences unbroken.
+            int j = i;
+            while (true) {
+                j = (j + STRIDE) & mask;
+                if (t[j + INDEX] == 0)
+                    break;
+
+                int home = slot(t[j + TAG], t[j + KEY1], t[j + KEY2]);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    System.arraycopy(t, j, t, i, STRIDE);
+                    i = j;
+                }
+            }
+
+            t[i + INDEX] = 0;
+            size--;
+        }
+
+        private void grow()
+        {
+            int[] old = table;
+            table = new int[old.length * 2];
+            mask = table.length - STRIDE;
+            for (int k = 0; k < old.length; k += STRIDE)
+                if (old[k + INDEX] != 0) {
+                    int i = slot(old[k + TAG], old[k + KEY1], old[k + KEY2]);
+                    while (table[i + INDEX] != 0)
+                        i = (i + STRIDE) & mask;
+
+                    System.arraycopy(old, k, table, i, STRIDE);
+                }
         }
     }
 }
@@ -1473,16 +1969,23 @@ abstract class ConstInfo
 
     public abstract int getTag();
 
+    /* The operands compared by ConstIndex.  CONSTANT_Utf8_info
+     * entries are compared by their strings instead.
+     */
+    int key1() { return 0; }
+    int key2() { return 0; }
+
     public String getClassName(ConstPool cp) { return null; }
     public void renameClass(ConstPool cp, String oldName, String newName,
-            Map<ConstInfo,ConstInfo> cache) {}
+            ConstPool.ConstIndex cache) {}
     public void renameClass(ConstPool cp, Map<String,String> classnames,
-            Map<ConstInfo,ConstInfo> cache) {}
+            ConstPool.ConstIndex cache) {}
     public abstract int copy(ConstPool src, ConstPool dest,
             Map<String, String> classnames);
         // ** classnames is a mapping between JVM names.
 
     public abstract void write(DataOutputStream out) throws IOException;
+    public abstract int size();     // the number of bytes written by write()
     public abstract void print(PrintWriter out);
 
     @Override
@@ -1509,6 +2012,9 @@ class ConstInfoPadding extends ConstInfo
         return dest.addConstInfoPadding();
     }
 
+    @Override
+    public int size() { return 0; }
+
     @Override
     public void write(DataOutputStream out) throws IOException {}
 
@@ -1539,6 +2045,9 @@ class ClassInfo extends ConstInfo
     @Override
     public int hashCode() { return name; }
 
+    @Override
+    int key1() { return name; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -1556,7 +2065,7 @@ class ClassInfo extends ConstInfo
 
     @Override
     public void renameClass(ConstPool cp, String oldName, String newName,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String nameStr = cp.getUtf8Info(name);
         String newNameStr = null;
@@ -1574,13 +2083,13 @@ class ClassInfo extends ConstInfo
             else {
                 cache.remove(this);
                 name = cp.addUtf8Info(newNameStr);
-                cache.put(this, this);
+                cache.put(this);
             }
     }
 
     @Override
     public void renameClass(ConstPool cp, Map<String,String> map,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String oldName = cp.getUtf8Info(name);
         String newName = null;
@@ -1601,7 +2110,7 @@ class ClassInfo extends ConstInfo
             else {
                 cache.remove(this);
                 name = cp.addUtf8Info(newName);
-                cache.put(this, this);
+                cache.put(this);
             }
         }
     }
@@ -1619,6 +2128,9 @@ class ClassInfo extends ConstInfo
         return dest.addClassInfo(classname);
     }
 
+    @Override
+    public int size() { return 3; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -1657,6 +2169,12 @@ class NameAndTypeInfo extends ConstInfo
     @Override
     public int hashCode() { return (memberName << 16) ^ typeDescriptor; }
 
+    @Override
+    int key1() { return memberName; }
+
+    @Override
+    int key2() { return typeDescriptor; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -1673,7 +2191,7 @@ class NameAndTypeInfo extends ConstInfo
 
     @Override
     public void renameClass(ConstPool cp, String oldName, String newName,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String type = cp.getUtf8Info(typeDescriptor);
         String type2 = Descriptor.rename(type, oldName, newName);
@@ -1683,13 +2201,13 @@ class NameAndTypeInfo extends ConstInfo
             else {
                 cache.remove(this);
                 typeDescriptor = cp.addUtf8Info(type2);
-                cache.put(this, this);
+                cache.put(this);
             }
     }
 
     @Override
     public void renameClass(ConstPool cp, Map<String,String> map,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String type = cp.getUtf8Info(typeDescriptor);
         String type2 = Descriptor.rename(type, map);
@@ -1699,7 +2217,7 @@ class NameAndTypeInfo extends ConstInfo
             else {
                 cache.remove(this);
                 typeDescriptor = cp.addUtf8Info(type2);
-                cache.put(this, this);
+                cache.put(this);
             }
     }
 
@@ -1713,6 +2231,9 @@ class NameAndTypeInfo extends ConstInfo
                                        dest.addUtf8Info(tdesc));
     }
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException {
         out.writeByte(tag);
@@ -1752,6 +2273,12 @@ abstract class MemberrefInfo extends ConstInfo
     @Override
     public int hashCode() { return (classIndex << 16) ^ nameAndTypeIndex; }
 
+    @Override
+    int key1() { return classIndex; }
+
+    @Override
+    int key2() { return nameAndTypeIndex; }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof MemberrefInfo) {
@@ -1773,6 +2300,9 @@ abstract class MemberrefInfo extends ConstInfo
 
     abstract protected int copy2(ConstPool dest, int cindex, int ntindex);
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -1897,6 +2427,9 @@ class StringInfo extends ConstInfo
     @Override
     public int hashCode() { return string; }
 
+    @Override
+    int key1() { return string; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -1912,6 +2445,9 @@ class StringInfo extends ConstInfo
         return dest.addStringInfo(src.getUtf8Info(string));
     }
 
+    @Override
+    public int size() { return 3; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -1947,6 +2483,9 @@ class IntegerInfo extends ConstInfo
     @Override
     public int hashCode() { return value; }
 
+    @Override
+    int key1() { return value; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -1962,6 +2501,9 @@ class IntegerInfo extends ConstInfo
         return dest.addIntegerInfo(value);
     }
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -1997,6 +2539,9 @@ class FloatInfo extends ConstInfo
     @Override
     public int hashCode() { return Float.floatToIntBits(value); }
 
+    @Override
+    int key1() { return Float.floatToIntBits(value); }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2012,6 +2557,9 @@ class FloatInfo extends ConstInfo
         return dest.addFloatInfo(value);
     }
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2047,6 +2595,12 @@ class LongInfo extends ConstInfo
     @Override
     public int hashCode() { return (int)(value ^ (value >>> 32)); }
 
+    @Override
+    int key1() { return (int)(value >>> 32); }
+
+    @Override
+    int key2() { return (int)value; }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof LongInfo && ((LongInfo)obj).value == value;
@@ -2061,6 +2615,9 @@ class LongInfo extends ConstInfo
         return dest.addLongInfo(value);
     }
 
+    @Override
+    public int size() { return 9; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2099,6 +2656,12 @@ class DoubleInfo extends ConstInfo
         return (int)(v ^ (v >>> 32));
     }
 
+    @Override
+    int key1() { return (int)(Double.doubleToLongBits(value) >>> 32); }
+
+    @Override
+    int key2() { return (int)Double.doubleToLongBits(value); }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2115,6 +2678,9 @@ class DoubleInfo extends ConstInfo
         return dest.addDoubleInfo(value);
     }
 
+    @Override
+    public int size() { return 9; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2169,6 +2735,27 @@ class Utf8Info extends ConstInfo
         return dest.addUtf8Info(string);
     }
 
+    @Override
+    public int size() {
+        return 3 + utf8Length(string);
+    }
+
+    /* the length of the modified UTF-8 encoding written by writeUTF().
+     */
+    static int utf8Length(String s) {
+        int len = s.length();
+        int n = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800)
+                n += 2;
+            else if (c >= 0x80 || c == 0)
+                n++;
+        }
+
+        return n;
+    }
+
     @Override
     public void write(DataOutputStream out)
             throws IOException
@@ -2206,6 +2793,12 @@ class MethodHandleInfo extends ConstInfo {
     @Override
     public int hashCode() { return (refKind << 16) ^ refIndex; }
 
+    @Override
+    int key1() { return refKind; }
+
+    @Override
+    int key2() { return refIndex; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2227,6 +2820,9 @@ class MethodHandleInfo extends ConstInfo {
                    src.getItem(refIndex).copy(src, dest, map));
     }
 
+    @Override
+    public int size() { return 4; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2265,6 +2861,9 @@ class MethodTypeInfo extends ConstInfo
     @Override
     public int hashCode() { return descriptor; }
 
+    @Override
+    int key1() { return descriptor; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2278,7 +2877,7 @@ class MethodTypeInfo extends ConstInfo
 
     @Override
     public void renameClass(ConstPool cp, String oldName, String newName,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String desc = cp.getUtf8Info(descriptor);
         String desc2 = Descriptor.rename(desc, oldName, newName);
@@ -2288,13 +2887,13 @@ class MethodTypeInfo extends ConstInfo
             else {
                 cache.remove(this);
                 descriptor = cp.addUtf8Info(desc2);
-                cache.put(this, this);
+                cache.put(this);
             }
     }
 
     @Override
     public void renameClass(ConstPool cp, Map<String,String> map,
-            Map<ConstInfo,ConstInfo> cache)
+            ConstPool.ConstIndex cache)
     {
         String desc = cp.getUtf8Info(descriptor);
         String desc2 = Descriptor.rename(desc, map);
@@ -2304,7 +2903,7 @@ class MethodTypeInfo extends ConstInfo
             else {
                 cache.remove(this);
                 descriptor = cp.addUtf8Info(desc2);
-                cache.put(this, this);
+                cache.put(this);
             }
     }
 
@@ -2316,6 +2915,9 @@ class MethodTypeInfo extends ConstInfo
         return dest.addMethodTypeInfo(dest.addUtf8Info(desc));
     }
 
+    @Override
+    public int size() { return 3; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2354,6 +2956,12 @@ class InvokeDynamicInfo extends ConstInfo
     @Override
     public int hashCode() { return (bootstrap << 16) ^ nameAndType; }
 
+    @Override
+    int key1() { return bootstrap; }
+
+    @Override
+    int key2() { return nameAndType; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2376,6 +2984,9 @@ class InvokeDynamicInfo extends ConstInfo
             src.getItem(nameAndType).copy(src, dest, map));
     }
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2415,6 +3026,12 @@ class DynamicInfo extends ConstInfo {
         return (bootstrap << 16) ^ nameAndType;
     }
 
+    @Override
+    int key1() { return bootstrap; }
+
+    @Override
+    int key2() { return nameAndType; }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof DynamicInfo) {
@@ -2434,6 +3051,9 @@ class DynamicInfo extends ConstInfo {
         return dest.addDynamicInfo(bootstrap, src.getItem(nameAndType).copy(src, dest, map));
     }
 
+    @Override
+    public int size() { return 5; }
+
     @Override
     public void write(DataOutputStream out) throws IOException {
         out.writeByte(tag);
@@ -2471,6 +3091,9 @@ class ModuleInfo extends ConstInfo
     @Override
     public int hashCode() { return name; }
 
+    @Override
+    int key1() { return name; }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -2495,6 +3118,9 @@ class ModuleInfo extends ConstInfo
         return dest.addModuleInfo(newName);
     }
 
+    @Override
+    public int size() { return 3; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
@@ -2530,6 +3156,9 @@ class PackageInfo extends ConstInfo
     @Override
     public int hashCode() { return name; }
 
+    @Override
+    int key1() { return name; }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof PackageInfo
@@ -2553,6 +3182,9 @@ class PackageInfo extends ConstInfo
         return dest.addModuleInfo(newName);
     }
 
+    @Override
+    public int size() { return 3; }
+
     @Override
     public void write(DataOutputStream out) throws IOException
     {
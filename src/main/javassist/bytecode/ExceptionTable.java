@@ -248,6 +248,14 @@ public class ExceptionTable implements Cloneable {
         }
     }
 
+    void shiftPc(CodeIterator.Relocation reloc) {
+        for (ExceptionTableEntry e:entries) {
+            e.startPc = reloc.newTarget(e.startPc);
+            e.endPc = reloc.newTarget(e.endPc);
+            e.handlerPc = reloc.newTarget(e.handlerPc);
+        }
+    }
+
     private static int shiftPc(int pc, int where, int gapLength,
                                boolean exclusive) {
         if (pc > where || (exclusive && pc == where))
@@ -278,6 +278,12 @@ public final class FieldInfo {
             attribute.add(AttributeInfo.read(constPool, in));
     }
 
+    /* the number of bytes written by write().
+     */
+    int sizeOf() {
+        return 8 + (attribute == null ? 0 : AttributeInfo.getLength(attribute));
+    }
+
     void write(DataOutputStream out) throws IOException {
         out.writeShort(accessFlags);
         out.writeShort(name);
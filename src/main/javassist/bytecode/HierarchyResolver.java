@@ -0,0 +1,58 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import javassist.NotFoundException;
+
+/**
+ * Resolves the super types of classes by their names.
+ *
+ * <p>The stack map generator uses this interface when it merges the
+ * types of values reaching the same instruction.  It needs only the
+ * names of the super class and the interfaces, so an implementation
+ * does not have to construct a <code>CtClass</code> object or parse
+ * a whole class file.
+ *
+ * <p>Class names are fully-qualified names such as
+ * <code>java.lang.String</code>.  They are never array types.
+ * An implementation must be thread-safe if it is shared among threads.
+ *
+ * @see MethodInfo#rebuildStackMap(HierarchyResolver)
+ * @see ClassFile#rebuildStackMaps(HierarchyResolver)
+ * @see javassist.ClassHeaderIndex
+ * @see javassist.ClassPool#getHierarchyResolver()
+ * @since 3.31
+ */
+public interface HierarchyResolver {
+    /**
+     * Returns the name of the super class of the given class.
+     * If the class is an interface, <code>java.lang.Object</code>
+     * is returned.
+     *
+     * @return null if the class is <code>java.lang.Object</code>.
+     * @throws NotFoundException    if the class is not found.
+     */
+    String getSuperclass(String classname) throws NotFoundException;
+
+    /**
+     * Returns the names of the interfaces directly implemented by
+     * the given class.  The returned array must not be modified.
+     *
+     * @throws NotFoundException    if the class is not found.
+     */
+    String[] getInterfaces(String classname) throws NotFoundException;
+}
@@ -180,4 +180,16 @@ public class LineNumberAttribute extends AttributeInfo {
                 ByteArray.write16bit(pc + gapLength, info, pos);
         }
     }
+
+    /**
+     * Adjusts start_pc after several gaps are inserted at once.
+     */
+    void shiftPc(CodeIterator.Relocation reloc) {
+        int n = tableLength();
+        for (int i = 0; i < n; ++i) {
+            int pos = i * 4 + 2;
+            int pc = ByteArray.readU16bit(info, pos);
+            ByteArray.write16bit(reloc.newTarget(pc), info, pos);
+        }
+    }
 }
@@ -197,6 +197,24 @@ public class LocalVariableAttribute extends AttributeInfo {
         }
     }
 
+    /**
+     * Adjusts start_pc and length after several gaps are inserted at once.
+     */
+    void shiftPc(CodeIterator.Relocation reloc) {
+        int n = tableLength();
+        for (int i = 0; i < n; ++i) {
+            int pos = i * 10 + 2;
+            int pc = ByteArray.readU16bit(info, pos);
+            int len = ByteArray.readU16bit(info, pos + 2);
+
+            /* if pc == 0, then the local variable is a method parameter.
+             */
+            int newPc = pc == 0 ? 0 : reloc.newTarget(pc);
+            ByteArray.write16bit(newPc, info, pos);
+            ByteArray.write16bit(reloc.newTarget(pc + len) - newPc, info, pos + 2);
+        }
+    }
+
     /**
      * Returns the value of <code>local_variable_table[i].name_index</code>.
      * This represents the name of the local variable.
@@ -45,6 +45,10 @@ final class LongVector {
         return objects[i >> ABITS][i & (ASIZE - 1)];
     }
 
+    public void setElementAt(ConstInfo value, int i) {
+        objects[i >> ABITS][i & (ASIZE - 1)] = value;
+    }
+
     public void addElement(ConstInfo value) {
         int nth = elements >> ABITS;
         int offset = elements & (ASIZE - 1);
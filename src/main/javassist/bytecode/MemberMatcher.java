@@ -0,0 +1,282 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+/**
+ * A set of patterns of the methods and fields referred to by bytecode.
+ *
+ * <p>A pattern specifies the name of the class, the name of the member,
+ * and the descriptor of the member.  The class name is the one recorded
+ * in a <code>CONSTANT_Methodref_info</code> or
+ * <code>CONSTANT_Fieldref_info</code> entry, that is, the static type
+ * of the target object.  It is a fully-qualified name such as
+ * <code>java.lang.String</code>.  A null pattern element matches
+ * any name or descriptor.
+ *
+ * <pre>
+ * MemberMatcher m = MemberMatcher.method("java.io.PrintStream", "println", null)
+ *                       .or(MemberMatcher.field("java.lang.System", "out", null));
+ * </pre>
+ *
+ * <p>A matcher records whether a constant pool entry matches its patterns
+ * when the entry is looked up for the first time.  It keeps the records
+ * until it is given another constant pool or the entries are modified,
+ * for example, by <code>ConstPool.renameClass()</code>.
+ * The same matcher should be reused for all the methods of a class.  Then testing whether
+ * an instruction refers to a matching member is mostly an array lookup
+ * by the constant pool index.  A matcher is thread-safe.
+ *
+ * @see javassist.expr.ExprEditor#getTargets()
+ * @see javassist.expr.MethodCall#matches(MemberMatcher)
+ * @see javassist.expr.FieldAccess#matches(MemberMatcher)
+ * @since 3.31
+ */
+public class MemberMatcher {
+    private static final int METHOD = 0;
+    private static final int FIELD = 1;
+
+    private final int[] kinds;
+    private final String[] classnames;
+    private final String[] names;
+    private final String[] descriptors;
+    private volatile Table table;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCHED = 1;
+    private static final byte UNMATCHED = 2;
+
+    /* Whether each entry of a constant pool matches.  An entry is
+     * examined when it is first looked up.  Since the result is always
+     * the same, threads sharing a table may examine the same entry.
+     */
+    private static final class Table {
+        final ConstPool constPool;
+        final int modCount;
+        final byte[] states;
+        int found;      // the number of matching entries, or -1
+
+        Table(ConstPool cp, Table old) {
+            constPool = cp;
+            modCount = cp.getModCount();
+            states = new byte[cp.getSize()];
+            found = -1;
+            /* if entries have been only added since the old table
+             * was made, the results for the other entries are valid.
+             */
+            if (old != null && old.constPool == cp && old.modCount == modCount
+                && old.states.length < states.length)
+                System.arraycopy(old.states, 0, states, 0, old.states.length);
+        }
+    }
+
+    private MemberMatcher(int[] kinds, String[] classnames, String[] names,
+                          String[] descriptors)
+    {
+        this.kinds = kinds;
+        this.classnames = classnames;
+        this.names = names;
+        this.descriptors = descriptors;
+        this.table = null;
+    }
+
+    private static MemberMatcher make(int kind, String classname, String name,
+                                      String descriptor)
+    {
+        return new MemberMatcher(new int[] { kind }, new String[] { classname },
+                                 new String[] { name }, new String[] { descriptor });
+    }
+
+    /**
+     * Makes a matcher of the references to methods and constructors.
+     * The name of a constructor is <code>&lt;init&gt;</code>.
+     *
+     * @param classname     the class name, or null for any class.
+     * @param name          the method name, or null for any method.
+     * @param descriptor    the method descriptor such as
+     *                      <code>(I)Ljava/lang/String;</code>,
+     *                      or null for any descriptor.
+     */
+    public static MemberMatcher method(String classname, String name,
+                                       String descriptor)
+    {
+        return make(METHOD, classname, name, descriptor);
+    }
+
+    /**
+     * Makes a matcher of the references to fields.
+     *
+     * @param classname     the class name, or null for any class.
+     * @param name          the field name, or null for any field.
+     * @param descriptor    the type descriptor such as <code>I</code>,
+     *                      or null for any type.
+     */
+    public static MemberMatcher field(String classname, String name,
+                                      String descriptor)
+    {
+        return make(FIELD, classname, name, descriptor);
+    }
+
+    /**
+     * Returns a matcher matching the references that this matcher
+     * or the given matcher matches.
+     */
+    public MemberMatcher or(MemberMatcher m) {
+        return new MemberMatcher(concat(kinds, m.kinds),
+                                 concat(classnames, m.classnames),
+                                 concat(names, m.names),
+                                 concat(descriptors, m.descriptors));
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = new int[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] c = new String[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * Returns true if the constant pool entry at the given index is a
+     * <code>CONSTANT_Methodref_info</code>,
+     * <code>CONSTANT_InterfaceMethodref_info</code>, or
+     * <code>CONSTANT_Fieldref_info</code> entry matching this matcher.
+     * Each entry is examined only when it is looked up for the first time
+     * unless this matcher is given another constant pool in between
+     * or the entries are modified.
+     *
+     * @param cp        the constant pool.
+     * @param index     the index of the entry.
+     */
+    public boolean matches(ConstPool cp, int index) {
+        Table t = resolve(cp);
+        return 0 < index && index < t.states.length
+               && state(t, cp, index) == MATCHED;
+    }
+
+    /**
+     * Returns true if the given constant pool contains a
+     * <code>CONSTANT_Methodref_info</code>,
+     * <code>CONSTANT_InterfaceMethodref_info</code>, or
+     * <code>CONSTANT_Fieldref_info</code> entry matching this matcher.
+     * If it returns false, no instruction of the class refers to
+     * a matching member.
+     */
+    public boolean refersTo(ConstPool cp) {
+        return found(resolve(cp), cp) > 0;
+    }
+
+    /**
+     * Returns true if an instruction of the given method body refers to
+     * a member matching this matcher.
+     *
+     * @param cp        the constant pool of the method.
+     * @param ca        the method body.
+     */
+    public boolean refersTo(ConstPool cp, CodeAttribute ca) throws BadBytecode {
+        Table t = resolve(cp);
+        if (found(t, cp) == 0)
+            return false;
+
+        CodeIterator it = ca.iterator();
+        while (it.hasNext()) {
+            int pos = it.next();
+            int op = it.byteAt(pos);
+            if (Opcode.GETSTATIC <= op && op <= Opcode.INVOKEINTERFACE) {
+                int index = it.u16bitAt(pos + 1);
+                if (index >= t.states.length || state(t, cp, index) == MATCHED)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /* Returns the table for the given constant pool.
+     * If entries have been added to the constant pool, the results
+     * for the other entries are copied to a new table unless
+     * some entries have been modified.
+     */
+    private Table resolve(ConstPool cp) {
+        Table t = table;
+        if (t == null || t.constPool != cp || t.modCount != cp.getModCount()
+            || t.states.length != cp.getSize()) {
+            t = new Table(cp, t);
+            table = t;
+        }
+
+        return t;
+    }
+
+    private byte state(Table t, ConstPool cp, int index) {
+        byte s = t.states[index];
+        if (s == UNKNOWN) {
+            s = examine(cp, index) ? MATCHED : UNMATCHED;
+            t.states[index] = s;
+        }
+
+        return s;
+    }
+
+    /* Examines all the entries of the constant pool.
+     */
+    private int found(Table t, ConstPool cp) {
+        if (t.found < 0) {
+            int n = 0;
+            for (int i = 1; i < t.states.length; i++)
+                if (state(t, cp, i) == MATCHED)
+                    n++;
+
+            t.found = n;
+        }
+
+        return t.found;
+    }
+
+    private boolean examine(ConstPool cp, int index) {
+        int kind;
+        switch (cp.getTag(index)) {
+        case ConstPool.CONST_Methodref :
+        case ConstPool.CONST_InterfaceMethodref :
+            kind = METHOD;
+            break;
+        case ConstPool.CONST_Fieldref :
+            kind = FIELD;
+            break;
+        default :
+            return false;
+        }
+
+        int nt = cp.getMemberNameAndType(index);
+        for (int i = 0; i < kinds.length; i++)
+            if (kinds[i] == kind
+                && (names[i] == null
+                    || names[i].equals(cp.getUtf8Info(cp.getNameAndTypeName(nt))))
+                && (descriptors[i] == null
+                    || descriptors[i].equals(cp.getUtf8Info(cp.getNameAndTypeDescriptor(nt))))
+                && (classnames[i] == null
+                    || classnames[i].equals(cp.getClassInfo(cp.getMemberClass(index)))))
+                return true;
+
+        return false;
+    }
+}
@@ -16,10 +16,12 @@
 
 package javassist.bytecode;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -60,6 +62,18 @@ public class MethodInfo {
     String cachedName;
     int descriptor;
     List<AttributeInfo> attribute; // may be null
+    AttributeInfo rawCode;          // an undecoded Code attribute or null
+
+    /* attributes_count and attributes[] as they were in the class file.
+     * This is null if keepEncoded was false when the method was read
+     * or if the attributes might have been changed since then.
+     */
+    byte[] encoded;
+
+    /* True if the code was changed but the stack map has not been
+     * rebuilt since the rebuild was deferred.
+     */
+    private boolean stackMapDirty;
 
     /**
      * If this value is true, Javassist maintains a <code>StackMap</code> attribute
@@ -68,6 +82,37 @@ public class MethodInfo {
      */
     public static boolean doPreverify = false;
 
+    /**
+     * If this value is true, the <code>Code</code> attribute of a method
+     * is not decoded when a class file is read.  It is kept as a byte
+     * array and decoded when it is first accessed by, for example,
+     * <code>getCodeAttribute()</code> or <code>getAttributes()</code>.
+     * This reduces the time and the memory for reading class files
+     * if the method bodies are rarely examined.
+     * The initial value of this field is <code>false</code>.
+     *
+     * @see #getCodeAttribute()
+     * @since 3.31
+     */
+    public static boolean lazyDecoding = false;
+
+    /**
+     * If this value is true, the attributes of a method are also kept
+     * in the encoded form when a class file is read.  While they are
+     * not changed, <code>ClassFile.write()</code> copies the encoded
+     * attributes instead of encoding them again.  So the time for
+     * writing a class file is proportional to the number of the changed
+     * methods.  An attribute is regarded as changed once it is obtained
+     * by, for example, <code>getAttributes()</code> or
+     * <code>getCodeAttribute()</code>.
+     * This increases the memory for reading class files.
+     * The initial value of this field is <code>false</code>.
+     *
+     * @see ClassFile#write(DataOutputStream)
+     * @since 3.31
+     */
+    public static boolean keepEncoded = false;
+
     /**
      * The name of constructors: <code>&lt;init&gt;</code>.
      */
@@ -82,6 +127,8 @@ public class MethodInfo {
     private MethodInfo(ConstPool cp) {
         constPool = cp;
         attribute = null;
+        rawCode = null;
+        encoded = null;
     }
 
     /**
@@ -154,7 +201,9 @@ public class MethodInfo {
     void compact(ConstPool cp) {
         name = cp.addUtf8Info(getName());
         descriptor = cp.addUtf8Info(getDescriptor());
+        decodeCode();
         attribute = AttributeInfo.copyAll(attribute, cp);
+        encoded = null;
         constPool = cp;
     }
 
@@ -206,6 +255,8 @@ public class MethodInfo {
         }
         
         attribute = newAttributes;
+        rawCode = null;
+        encoded = null;
         name = cp.addUtf8Info(getName());
         descriptor = cp.addUtf8Info(getDescriptor());
         constPool = cp;
@@ -307,6 +358,8 @@ public class MethodInfo {
      * @see AttributeInfo
      */
     public List<AttributeInfo> getAttributes() {
+        decodeCode();
+        encoded = null;
         if (attribute == null)
             attribute = new ArrayList<AttributeInfo>();
 
@@ -327,7 +380,38 @@ public class MethodInfo {
      * @see #getAttributes()
      */
     public AttributeInfo getAttribute(String name) {
-        return AttributeInfo.lookup(attribute, name);
+        if (rawCode != null && name.equals(CodeAttribute.tag))
+            decodeCode();
+
+        return exposed(AttributeInfo.lookup(attribute, name));
+    }
+
+    /* Called when an attribute is given to the caller, who may
+     * change it.
+     */
+    private <T extends AttributeInfo> T exposed(T attr) {
+        if (attr != null)
+            encoded = null;
+
+        return attr;
+    }
+
+    /**
+     * Returns the total length of the attributes in bytes.
+     * It is the length of the attributes written in a class file.
+     * Unlike <code>getAttributes()</code>, this method does not decode
+     * a <code>Code</code> attribute kept undecoded.
+     *
+     * @see #lazyDecoding
+     * @since 3.31
+     */
+    public int getAttributesLength() {
+        if (encoded != null)
+            return encoded.length - 2;
+        else if (attribute == null)
+            return 0;
+        else
+            return AttributeInfo.getLength(attribute);
     }
 
     /**
@@ -338,7 +422,10 @@ public class MethodInfo {
      * @since 3.21
      */
     public AttributeInfo removeAttribute(String name) {
-        return AttributeInfo.remove(attribute, name);
+        if (rawCode != null && name.equals(CodeAttribute.tag))
+            decodeCode();
+
+        return exposed(AttributeInfo.remove(attribute, name));
     }
 
     /**
@@ -348,9 +435,13 @@ public class MethodInfo {
      * @see #getAttributes()
      */
     public void addAttribute(AttributeInfo info) {
+        encoded = null;
         if (attribute == null)
             attribute = new ArrayList<AttributeInfo>();
 
+        if (rawCode != null && info.getName().equals(CodeAttribute.tag))
+            rawCode = null;
+
         AttributeInfo.remove(attribute, info.getName());
         attribute.add(info);
     }
@@ -363,7 +454,7 @@ public class MethodInfo {
     public ExceptionsAttribute getExceptionsAttribute() {
         AttributeInfo info = AttributeInfo.lookup(attribute,
                 ExceptionsAttribute.tag);
-        return (ExceptionsAttribute)info;
+        return (ExceptionsAttribute)exposed(info);
     }
 
     /**
@@ -372,15 +463,22 @@ public class MethodInfo {
      * @return a Code attribute or null if it is not specified.
      */
     public CodeAttribute getCodeAttribute() {
-        AttributeInfo info = AttributeInfo.lookup(attribute, CodeAttribute.tag);
-        return (CodeAttribute)info;
+        return exposed(findCodeAttribute());
+    }
+
+    /* Unlike getCodeAttribute(), the caller must not change
+     * the returned attribute.
+     */
+    private CodeAttribute findCodeAttribute() {
+        decodeCode();
+        return (CodeAttribute)AttributeInfo.lookup(attribute, CodeAttribute.tag);
     }
 
     /**
      * Removes an Exception attribute.
      */
     public void removeExceptionsAttribute() {
-        AttributeInfo.remove(attribute, ExceptionsAttribute.tag);
+        exposed(AttributeInfo.remove(attribute, ExceptionsAttribute.tag));
     }
 
     /**
@@ -392,6 +490,7 @@ public class MethodInfo {
      */
     public void setExceptionsAttribute(ExceptionsAttribute cattr) {
         removeExceptionsAttribute();
+        encoded = null;
         if (attribute == null)
             attribute = new ArrayList<AttributeInfo>();
 
@@ -402,7 +501,34 @@ public class MethodInfo {
      * Removes a Code attribute.
      */
     public void removeCodeAttribute() {
-        AttributeInfo.remove(attribute, CodeAttribute.tag);
+        exposed(AttributeInfo.remove(attribute, CodeAttribute.tag));
+        rawCode = null;
+    }
+
+    /* Decodes the Code attribute if it was not decoded when
+     * the class file was read.  The decoded attribute substitutes for
+     * the undecoded one at the same position in the attribute list.
+     */
+    private void decodeCode() {
+        AttributeInfo raw = rawCode;
+        if (raw == null)
+            return;
+
+        CodeAttribute code;
+        try {
+            code = CodeAttribute.decode(raw);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("broken Code attribute: " + getName(), e);
+        }
+
+        for (int i = 0; i < attribute.size(); i++)
+            if (attribute.get(i) == raw) {
+                attribute.set(i, code);
+                break;
+            }
+
+        rawCode = null;
     }
 
     /**
@@ -414,6 +540,7 @@ public class MethodInfo {
      */
     public void setCodeAttribute(CodeAttribute cattr) {
         removeCodeAttribute();
+        encoded = null;
         if (attribute == null)
             attribute = new ArrayList<AttributeInfo>();
 
@@ -426,6 +553,11 @@ public class MethodInfo {
      * map table.  If <code>doPreverify</code> is true, this method
      * also rebuilds a stack map for J2ME (CLDC).  
      *
+     * <p>If the rebuild is deferred by the class pool, this method only
+     * records that the stack map must be rebuilt.  It is rebuilt when
+     * the class file is written by <code>CtClass.toBytecode()</code>
+     * and so on.
+     *
      * @param pool          used for making type hierarchy.
      * @param cf            rebuild if this class file is for Java 6 or later.
      * @see #rebuildStackMap(ClassPool)
@@ -435,27 +567,98 @@ public class MethodInfo {
      */
     public void rebuildStackMapIf6(ClassPool pool, ClassFile cf)
         throws BadBytecode
+    {
+        if (pool.isStackMapDeferred())
+            stackMapDirty = true;
+        else
+            rebuildStackMapIf6(pool.getHierarchyResolver(), cf);
+    }
+
+    /**
+     * Rebuilds a stack map table if the class file is for Java 6
+     * or later.  It is the same as
+     * <code>rebuildStackMapIf6(ClassPool,ClassFile)</code>
+     * except that the type hierarchy is obtained from the given resolver.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @param cf            rebuild if this class file is for Java 6 or later.
+     * @see #rebuildStackMapIf6(ClassPool,ClassFile)
+     * @since 3.31
+     */
+    public void rebuildStackMapIf6(HierarchyResolver resolver, ClassFile cf)
+        throws BadBytecode
     {
         if (cf.getMajorVersion() >= ClassFile.JAVA_6)
-            rebuildStackMap(pool);
+            rebuildStackMap(resolver);
 
         if (doPreverify)
-            rebuildStackMapForME(pool);
+            rebuildStackMapForME(resolver);
+
+        stackMapDirty = false;
     }
 
+    /* Installs the stack map table computed in advance by
+     * MapMaker.analyze() for rebuildStackMapIf6().  The class file must
+     * be for Java 6 or later.
+     */
+    void rebuildStackMapIf6(HierarchyResolver resolver,
+                            MapMaker.Analysis result)
+        throws BadBytecode
+    {
+        CodeAttribute ca = getCodeAttribute();
+        if (ca != null)
+            ca.setAttribute(result == null ? null : result.toStackMapTable());
+
+        if (doPreverify)
+            rebuildStackMapForME(resolver);
+
+        stackMapDirty = false;
+    }
+
+    /**
+     * Returns true if the code of this method has been changed but
+     * the stack map has not been rebuilt yet.  It happens only when the
+     * rebuild is deferred.
+     *
+     * @see ClassPool#setStackMapDeferred(boolean)
+     * @see ClassFile#rebuildDirtyStackMaps(HierarchyResolver)
+     * @since 3.31
+     */
+    public boolean isStackMapDirty() { return stackMapDirty; }
+
     /**
      * Rebuilds a stack map table.  If no stack map table is included,
      * a new one is created.  If this <code>MethodInfo</code> does not
      * include a code attribute, nothing happens.
      *
      * @param pool          used for making type hierarchy.
+     *                      Its <code>getHierarchyResolver()</code> is used.
      * @see StackMapTable
+     * @see ClassPool#getHierarchyResolver()
      * @since 3.6
      */
     public void rebuildStackMap(ClassPool pool) throws BadBytecode {
+        rebuildStackMap(pool.getHierarchyResolver());
+    }
+
+    /**
+     * Rebuilds a stack map table.  If no stack map table is included,
+     * a new one is created.  If this <code>MethodInfo</code> does not
+     * include a code attribute, nothing happens.
+     *
+     * <p>The super types of the classes appearing in the stack map are
+     * obtained from the given resolver.  A missing class is reported
+     * only if the resolver is asked about it.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @see StackMapTable
+     * @see javassist.ClassHeaderIndex
+     * @since 3.31
+     */
+    public void rebuildStackMap(HierarchyResolver resolver) throws BadBytecode {
         CodeAttribute ca = getCodeAttribute();
         if (ca != null) {
-            StackMapTable smt = MapMaker.make(pool, this);
+            StackMapTable smt = MapMaker.make(resolver, this);
             ca.setAttribute(smt);
         }
     }
@@ -470,9 +673,22 @@ public class MethodInfo {
      * @since 3.12
      */
     public void rebuildStackMapForME(ClassPool pool) throws BadBytecode {
+        rebuildStackMapForME(pool.getHierarchyResolver());
+    }
+
+    /**
+     * Rebuilds a stack map table for J2ME (CLDC).  If no stack map table is included,
+     * a new one is created.  If this <code>MethodInfo</code> does not
+     * include a code attribute, nothing happens.
+     *
+     * @param resolver      used for making type hierarchy.
+     * @see StackMap
+     * @since 3.31
+     */
+    public void rebuildStackMapForME(HierarchyResolver resolver) throws BadBytecode {
         CodeAttribute ca = getCodeAttribute();
         if (ca != null) {
-            StackMap sm = MapMaker.make2(pool, this);
+            StackMap sm = MapMaker.make2(resolver, this);
             ca.setAttribute(sm);
         }
     }
@@ -487,7 +703,7 @@ public class MethodInfo {
      * @return -1 if this information is not available.
      */
     public int getLineNumber(int pos) {
-        CodeAttribute ca = getCodeAttribute();
+        CodeAttribute ca = findCodeAttribute();
         if (ca == null)
             return -1;
 
@@ -549,23 +765,72 @@ public class MethodInfo {
         descriptor = destCp.addUtf8Info(desc2);
 
         attribute = new ArrayList<AttributeInfo>();
-        ExceptionsAttribute eattr = src.getExceptionsAttribute();
+        ExceptionsAttribute eattr = (ExceptionsAttribute)AttributeInfo.lookup(
+                src.attribute, ExceptionsAttribute.tag);
         if (eattr != null)
             attribute.add(eattr.copy(destCp, classnames));
 
-        CodeAttribute cattr = src.getCodeAttribute();
+        CodeAttribute cattr = src.findCodeAttribute();
         if (cattr != null)
             attribute.add(cattr.copy(destCp, classnames));
+
+        stackMapDirty = src.stackMapDirty;
     }
 
     private void read(DataInputStream in) throws IOException {
         accessFlags = in.readUnsignedShort();
         name = in.readUnsignedShort();
         descriptor = in.readUnsignedShort();
+        if (keepEncoded) {
+            encoded = readEncoded(in);
+            in = new DataInputStream(new ByteArrayInputStream(encoded));
+        }
+
         int n = in.readUnsignedShort();
         attribute = new ArrayList<AttributeInfo>();
-        for (int i = 0; i < n; ++i)
-            attribute.add(AttributeInfo.read(constPool, in));
+        for (int i = 0; i < n; ++i) {
+            int attrname = in.readUnsignedShort();
+            if (lazyDecoding && rawCode == null
+                && CodeAttribute.tag.equals(constPool.getUtf8Info(attrname))) {
+                rawCode = new AttributeInfo(constPool, attrname, in);
+                attribute.add(rawCode);
+            }
+            else
+                attribute.add(AttributeInfo.read(constPool, attrname, in));
+        }
+    }
+
+    /* Reads attributes_count and attributes[] without decoding them.
+     */
+    private static byte[] readEncoded(DataInputStream in) throws IOException {
+        int n = in.readUnsignedShort();
+        byte[] buf = new byte[256];
+        ByteArray.write16bit(n, buf, 0);
+        int pos = 2;
+        for (int i = 0; i < n; ++i) {
+            if (pos + 6 > buf.length)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+
+            in.readFully(buf, pos, 6);      // attribute_name_index and attribute_length
+            int len = ByteArray.read32bit(buf, pos + 2);
+            if (len < 0)
+                throw new IOException("too long attribute: " + len);
+
+            pos += 6;
+            if (pos + len > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + len));
+
+            in.readFully(buf, pos, len);
+            pos += len;
+        }
+
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /* the number of bytes written by write().
+     */
+    int sizeOf() {
+        return 8 + getAttributesLength();
     }
 
     void write(DataOutputStream out) throws IOException {
@@ -573,7 +838,9 @@ public class MethodInfo {
         out.writeShort(name);
         out.writeShort(descriptor);
 
-        if (attribute == null)
+        if (encoded != null)
+            out.write(encoded);
+        else if (attribute == null)
             out.writeShort(0);
         else {
             out.writeShort(attribute.size());
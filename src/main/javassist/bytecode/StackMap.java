@@ -389,6 +389,33 @@ public class StackMap extends AttributeInfo {
         new Shifter(this, where, gapSize, exclusive).visit();
     }
 
+    /**
+     * Updates the offsets after several gaps are inserted at once.
+     */
+    void shiftPc(CodeIterator.Relocation reloc) throws BadBytecode {
+        new BatchShifter(this, reloc).visit();
+    }
+
+    static class BatchShifter extends Walker {
+        private CodeIterator.Relocation reloc;
+
+        public BatchShifter(StackMap smt, CodeIterator.Relocation reloc) {
+            super(smt);
+            this.reloc = reloc;
+        }
+
+        @Override
+        public int locals(int pos, int offset, int num) {
+            ByteArray.write16bit(reloc.newTarget(offset), info, pos - 4);
+            return super.locals(pos, offset, num);
+        }
+
+        @Override
+        public void uninitialized(int pos, int offset) {
+            ByteArray.write16bit(reloc.newPosition(offset), info, pos + 1);
+        }
+    }
+
     static class Shifter extends Walker {
         private int where, gap;
         private boolean exclusive;
@@ -829,6 +829,77 @@ public class StackMapTable extends AttributeInfo {
         new Shifter(this, where, gapSize, exclusive).doit();
     }
 
+    /**
+     * Updates the offsets after several gaps are inserted at once.
+     */
+    void shiftPc(CodeIterator.Relocation reloc) throws BadBytecode {
+        set(new BatchShifter(info, reloc).doit());
+    }
+
+    static class BatchShifter extends SimpleCopy {
+        private CodeIterator.Relocation reloc;
+        private int position, newPosition;
+
+        BatchShifter(byte[] data, CodeIterator.Relocation reloc) {
+            super(data);
+            this.reloc = reloc;
+            this.position = -1;
+            this.newPosition = -1;
+        }
+
+        private int offsetDelta(int offsetDelta) {
+            position += offsetDelta + 1;
+            int newPos = reloc.newTarget(position);
+            int delta = newPos - newPosition - 1;
+            newPosition = newPos;
+            return delta;
+        }
+
+        @Override
+        public void sameFrame(int pos, int offsetDelta) {
+            super.sameFrame(pos, offsetDelta(offsetDelta));
+        }
+
+        @Override
+        public void sameLocals(int pos, int offsetDelta, int stackTag, int stackData) {
+            super.sameLocals(pos, offsetDelta(offsetDelta), stackTag, stackData);
+        }
+
+        @Override
+        public void chopFrame(int pos, int offsetDelta, int k) {
+            super.chopFrame(pos, offsetDelta(offsetDelta), k);
+        }
+
+        @Override
+        public void appendFrame(int pos, int offsetDelta, int[] tags, int[] data) {
+            super.appendFrame(pos, offsetDelta(offsetDelta), tags, data);
+        }
+
+        @Override
+        public void fullFrame(int pos, int offsetDelta, int[] localTags, int[] localData,
+                              int[] stackTags, int[] stackData) {
+            super.fullFrame(pos, offsetDelta(offsetDelta), localTags, localData,
+                            stackTags, stackData);
+        }
+
+        @Override
+        protected int copyData(int tag, int data) {
+            if (tag == UNINIT)
+                return reloc.newPosition(data);
+
+            return data;
+        }
+
+        @Override
+        protected int[] copyData(int[] tags, int[] data) {
+            int[] newData = new int[data.length];
+            for (int i = 0; i < data.length; i++)
+                newData[i] = copyData(tags[i], data[i]);
+
+            return newData;
+        }
+    }
+
     static class OffsetShifter extends Walker {
     	int where, gap;
 
@@ -0,0 +1,116 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.bytecode;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of the strings shared among constant pool tables.
+ *
+ * <p>When a class file is read with a <code>SymbolTable</code>, the
+ * contents of the <code>CONSTANT_Utf8_info</code> entries, such as
+ * class names, descriptors, and attribute names, are replaced with the
+ * equal strings already recorded in the table.  Hence strings like
+ * <code>"java/lang/Object"</code>, <code>"()V"</code>, and
+ * <code>"Code"</code> are not duplicated among the class files.
+ *
+ * <p>A weak table does not prevent the recorded strings from being
+ * garbage-collected when no class file refers to them.
+ * A strong table keeps them until <code>clear()</code> is called or
+ * the table itself becomes unreachable.  A strong table is faster
+ * and it is suitable if the table is discarded together with
+ * the <code>ClassPool</code>.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @see javassist.ClassPool#setSymbolTable(SymbolTable)
+ * @see ClassFile#ClassFile(java.io.DataInputStream, SymbolTable)
+ * @since 3.31
+ */
+public class SymbolTable {
+    private final boolean weak;
+    private volatile Map<String,String> strong;
+    private Map<String,WeakReference<String>> weakTable;
+
+    /**
+     * Constructs a table.
+     *
+     * @param weak      true if the recorded strings may be
+     *                  garbage-collected when they are not used.
+     */
+    public SymbolTable(boolean weak) {
+        this.weak = weak;
+        clear();
+    }
+
+    /**
+     * Returns true if this table does not keep the recorded strings alive.
+     */
+    public boolean isWeak() { return weak; }
+
+    /**
+     * Returns the string equal to the given one.  If no such string has
+     * been recorded, the given string is recorded and returned.
+     */
+    public String intern(String s) {
+        if (!weak) {
+            String found = strong.putIfAbsent(s, s);
+            return found == null ? s : found;
+        }
+
+        synchronized (this) {
+            WeakReference<String> ref = weakTable.get(s);
+            if (ref != null) {
+                String found = ref.get();
+                if (found != null)
+                    return found;
+            }
+
+            weakTable.put(s, new WeakReference<String>(s));
+            return s;
+        }
+    }
+
+    /**
+     * Returns the number of the recorded strings.
+     * If this table is weak, the number includes the strings that
+     * have been garbage-collected but not removed yet.
+     */
+    public synchronized int size() {
+        return weak ? weakTable.size() : strong.size();
+    }
+
+    /**
+     * Removes all the recorded strings.  The strings already shared
+     * by class files are not affected.
+     */
+    public synchronized void clear() {
+        if (weak)
+            weakTable = new WeakHashMap<String,WeakReference<String>>();
+        else
+            strong = new ConcurrentHashMap<String,String>();
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable[" + (weak ? "weak" : "strong")
+               + ", size=" + size() + "]";
+    }
+}
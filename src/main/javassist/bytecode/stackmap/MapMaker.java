@@ -26,6 +26,7 @@ import javassist.bytecode.ByteArray;
 import javassist.bytecode.Bytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.HierarchyResolver;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.StackMap;
 import javassist.bytecode.StackMapTable;
@@ -95,6 +96,21 @@ public class MapMaker extends Tracer {
      */
     public static StackMapTable make(ClassPool classes, MethodInfo minfo)
         throws BadBytecode
+    {
+        return make(classes.getHierarchyResolver(), minfo);
+    }
+
+    /**
+     * Computes the stack map table of the given method and returns it.
+     * It returns null if the given method does not have to have a
+     * stack map table or it includes JSR.
+     *
+     * @param classes       resolves the super types of the classes
+     *                      whose types are merged.
+     * @since 3.31
+     */
+    public static StackMapTable make(HierarchyResolver classes, MethodInfo minfo)
+        throws BadBytecode
     {
         CodeAttribute ca = minfo.getCodeAttribute();
         if (ca == null)
@@ -122,6 +138,91 @@ public class MapMaker extends Tracer {
         return mm.toStackMap(blocks);
     }
 
+    /**
+     * Computes the stack map table of the given method but does not
+     * add any entries to the constant pool of the method yet.
+     * It returns null if the given method does not have to have a
+     * stack map table or it includes JSR.
+     *
+     * <p>This method reads but never modifies the constant pool.
+     * Hence it can run on several methods sharing the same constant pool
+     * at the same time if <code>classes</code> is thread-safe and
+     * every method is analyzed by only one thread.
+     * <code>toStackMapTable()</code> on the returned object must not
+     * be called concurrently since it adds the class names to
+     * the constant pool.
+     *
+     * @param classes       resolves the super types of the classes
+     *                      whose types are merged.
+     * @see Analysis#toStackMapTable()
+     * @since 3.31
+     */
+    public static Analysis analyze(HierarchyResolver classes, MethodInfo minfo)
+        throws BadBytecode
+    {
+        CodeAttribute ca = minfo.getCodeAttribute();
+        if (ca == null)
+            return null;
+
+        TypedBlock[] blocks;
+        try {
+            blocks = TypedBlock.makeBlocks(minfo, ca, true);
+        }
+        catch (BasicBlock.JsrBytecode e) {
+            return null;
+        }
+
+        if (blocks == null)
+            return null;
+
+        MapMaker mm = new MapMaker(classes, minfo, ca);
+        try {
+            mm.make(blocks, ca.getCode());
+        }
+        catch (BadBytecode bb) {
+            throw new BadBytecode(minfo, bb);
+        }
+
+        ConstPool cp = minfo.getConstPool();
+        ConstPool scratch = new ConstPool(cp.getClassName());
+        return new Analysis(cp, mm.toStackMap(scratch, blocks));
+    }
+
+    /**
+     * A stack map table computed by <code>analyze()</code>.
+     * The table refers to a private constant pool, in which
+     * the class names are recorded in the order they were added.
+     *
+     * @see MapMaker#analyze(HierarchyResolver,MethodInfo)
+     * @since 3.31
+     */
+    public static final class Analysis {
+        private final ConstPool constPool;
+        private final StackMapTable table;
+
+        Analysis(ConstPool cp, StackMapTable table) {
+            this.constPool = cp;
+            this.table = table;
+        }
+
+        /**
+         * Returns the stack map table.  The class names in the table
+         * are added to the constant pool of the analyzed method in the
+         * same order as <code>MapMaker.make()</code> adds them.
+         * So the constant pool is changed exactly as it is by
+         * <code>make()</code>.
+         */
+        public StackMapTable toStackMapTable() {
+            ConstPool scratch = table.getConstPool();
+            int size = scratch.getSize();
+            for (int i = 1; i < size; i++)
+                if (scratch.getTag(i) == ConstPool.CONST_Class)
+                    scratch.copy(i, constPool, null);
+
+            return (StackMapTable)table.copy(constPool, null);
+        }
+    }
+
     /**
      * Computes the stack map table for J2ME.
      * It returns null if the given method does not have to have a
@@ -129,6 +230,19 @@ public class MapMaker extends Tracer {
      */
     public static StackMap make2(ClassPool classes, MethodInfo minfo)
         throws BadBytecode
+    {
+        return make2(classes.getHierarchyResolver(), minfo);
+    }
+
+    /**
+     * Computes the stack map table for J2ME.
+     * It returns null if the given method does not have to have a
+     * stack map table or it includes JSR.
+     *
+     * @since 3.31
+     */
+    public static StackMap make2(HierarchyResolver classes, MethodInfo minfo)
+        throws BadBytecode
     {
         CodeAttribute ca = minfo.getCodeAttribute();
         if (ca == null)
@@ -156,6 +270,13 @@ public class MapMaker extends Tracer {
     }
 
     public MapMaker(ClassPool classes, MethodInfo minfo, CodeAttribute ca) {
+        this(classes.getHierarchyResolver(), minfo, ca);
+    }
+
+    /**
+     * @since 3.31
+     */
+    public MapMaker(HierarchyResolver classes, MethodInfo minfo, CodeAttribute ca) {
         super(classes, minfo.getConstPool(),
               ca.getMaxStack(), ca.getMaxLocals(),
               TypedBlock.getRetType(minfo.getDescriptor()));
@@ -394,11 +515,11 @@ public class MapMaker extends Tracer {
             if (block.alreadySet()) {   // if block is not dead code
                 int n = block.localsTypes.length;
                 for (int j = 0; j < n; j++)
-                    index = block.localsTypes[j].dfs(preOrder, index, classPool);
+                    index = block.localsTypes[j].dfs(preOrder, index, hierarchy);
 
                 n = block.stackTop;
                 for (int j = 0; j < n; j++)
-                    index = block.stackTypes[j].dfs(preOrder, index, classPool);
+                    index = block.stackTypes[j].dfs(preOrder, index, hierarchy);
             }
         }
     }
@@ -406,6 +527,16 @@ public class MapMaker extends Tracer {
     // Phase 3
 
     public StackMapTable toStackMap(TypedBlock[] blocks) {
+        return toStackMap(cpool, blocks);
+    }
+
+    /**
+     * Makes a stack map table.  The class names in the table are added
+     * to the given constant pool.
+     *
+     * @since 3.31
+     */
+    public StackMapTable toStackMap(ConstPool cp, TypedBlock[] blocks) {
         StackMapTable.Writer writer = new StackMapTable.Writer(32);
         int n = blocks.length;
         TypedBlock prev = blocks[0];
@@ -421,7 +552,7 @@ public class MapMaker extends Tracer {
                 bb.resetNumLocals();
                 int diffL = stackMapDiff(prev.numLocals, prev.localsTypes,
                                          bb.numLocals, bb.localsTypes);
-                toStackMapBody(writer, bb, diffL, offsetDelta, prev);
+                toStackMapBody(writer, cp, bb, diffL, offsetDelta, prev);
                 offsetDelta = bb.length - 1;
                 prev = bb;
             }
@@ -434,7 +565,7 @@ public class MapMaker extends Tracer {
                 offsetDelta += bb.length;
         }
 
-        return writer.toStackMapTable(cpool);
+        return writer.toStackMapTable(cp);
     }
 
     /**
@@ -450,8 +581,9 @@ public class MapMaker extends Tracer {
         return prev.stop;
     }
 
-    private void toStackMapBody(StackMapTable.Writer writer, TypedBlock bb,
-                                int diffL, int offsetDelta, TypedBlock prev) {
+    private void toStackMapBody(StackMapTable.Writer writer, ConstPool cp,
+                                TypedBlock bb, int diffL, int offsetDelta,
+                                TypedBlock prev) {
         // if diffL is -100, two TypeData arrays do not share
         // any elements.
 
@@ -467,7 +599,7 @@ public class MapMaker extends Tracer {
             }
             else if (0 < diffL && diffL <= 3) {
                 int[] data = new int[diffL];
-                int[] tags = fillStackMap(bb.numLocals - prev.numLocals,
+                int[] tags = fillStackMap(cp, bb.numLocals - prev.numLocals,
                                           prev.numLocals, data,
                                           bb.localsTypes);
                 writer.appendFrame(offsetDelta, tags, data);
@@ -476,28 +608,28 @@ public class MapMaker extends Tracer {
         }
         else if (stackTop == 1 && diffL == 0) {
             TypeData td = bb.stackTypes[0];
-            writer.sameLocals(offsetDelta, td.getTypeTag(), td.getTypeData(cpool));
+            writer.sameLocals(offsetDelta, td.getTypeTag(), td.getTypeData(cp));
             return;
         }
         else if (stackTop == 2 && diffL == 0) {
             TypeData td = bb.stackTypes[0];
             if (td.is2WordType()) {
                 // bb.stackTypes[1] must be TOP.
-                writer.sameLocals(offsetDelta, td.getTypeTag(), td.getTypeData(cpool));
+                writer.sameLocals(offsetDelta, td.getTypeTag(), td.getTypeData(cp));
                 return;
             }
         }
 
         int[] sdata = new int[stackTop];
-        int[] stags = fillStackMap(stackTop, 0, sdata, bb.stackTypes);
+        int[] stags = fillStackMap(cp, stackTop, 0, sdata, bb.stackTypes);
         int[] ldata = new int[bb.numLocals];
-        int[] ltags = fillStackMap(bb.numLocals, 0, ldata, bb.localsTypes);
+        int[] ltags = fillStackMap(cp, bb.numLocals, 0, ldata, bb.localsTypes);
         writer.fullFrame(offsetDelta, ltags, ldata, stags, sdata);
     }
 
-    private int[] fillStackMap(int num, int offset, int[] data, TypeData[] types) {
+    private static int[] fillStackMap(ConstPool cp, int num, int offset,
+                                      int[] data, TypeData[] types) {
         int realNum = diffSize(types, offset, offset + num);
-        ConstPool cp = cpool;
         int[] tags = new int[realNum];
         int j = 0;
         for (int i = 0; i < num; i++) {
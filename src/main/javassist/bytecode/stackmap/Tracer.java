@@ -21,6 +21,7 @@ import javassist.bytecode.BadBytecode;
 import javassist.bytecode.ByteArray;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.HierarchyResolver;
 import javassist.bytecode.Opcode;
 
 /*
@@ -29,7 +30,7 @@ import javassist.bytecode.Opcode;
  */
 
 public abstract class Tracer implements TypeTag {
-    protected ClassPool classPool;
+    protected HierarchyResolver hierarchy;
     protected ConstPool cpool;
     protected String returnType;    // used as the type of ARETURN
 
@@ -39,7 +40,15 @@ public abstract class Tracer implements TypeTag {
 
     public Tracer(ClassPool classes, ConstPool cp, int maxStack, int maxLocals,
                   String retType) {
-        classPool = classes;
+        this(classes.getHierarchyResolver(), cp, maxStack, maxLocals, retType);
+    }
+
+    /**
+     * @since 3.31
+     */
+    public Tracer(HierarchyResolver classes, ConstPool cp, int maxStack,
+                  int maxLocals, String retType) {
+        hierarchy = classes;
         cpool = cp;
         returnType = retType;
         stackTop = 0;
@@ -48,7 +57,7 @@ public abstract class Tracer implements TypeTag {
     }
 
     public Tracer(Tracer t) {
-        classPool = t.classPool;
+        hierarchy = t.hierarchy;
         cpool = t.cpool;
         returnType = t.returnType;
         stackTop = t.stackTop;
@@ -351,7 +360,7 @@ public abstract class Tracer implements TypeTag {
         case Opcode.AASTORE :
             TypeData.ArrayElement.aastore(stackTypes[stackTop - 3],
                                           stackTypes[stackTop - 1],
-                                          classPool);
+                                          hierarchy);
             stackTop -= 3;
             break;
         case Opcode.BASTORE :
@@ -577,7 +586,7 @@ public abstract class Tracer implements TypeTag {
             visitReturn(pos, code);
             break;
         case Opcode.ARETURN :
-            stackTypes[--stackTop].setType(returnType, classPool);
+            stackTypes[--stackTop].setType(returnType, hierarchy);
             visitReturn(pos, code);
             break;
         case Opcode.RETURN :
@@ -619,15 +628,15 @@ public abstract class Tracer implements TypeTag {
                     = new TypeData.ClassName(type);
             return 3; }
         case Opcode.ARRAYLENGTH :
-            stackTypes[stackTop - 1].setType("[Ljava.lang.Object;", classPool);
+            stackTypes[stackTop - 1].setType("[Ljava.lang.Object;", hierarchy);
             stackTypes[stackTop - 1] = INTEGER;
             break;
         case Opcode.ATHROW :
-            stackTypes[--stackTop].setType("java.lang.Throwable", classPool);
+            stackTypes[--stackTop].setType("java.lang.Throwable", hierarchy);
             visitThrow(pos, code);
             break;
         case Opcode.CHECKCAST : {
-            // TypeData.setType(stackTypes[stackTop - 1], "java.lang.Object", classPool);
+            // TypeData.setType(stackTypes[stackTop - 1], "java.lang.Object", hierarchy);
             int i = ByteArray.readU16bit(code, pos + 1);
             String type = cpool.getClassInfo(i);
             if (type.charAt(0) == '[')
@@ -636,13 +645,13 @@ public abstract class Tracer implements TypeTag {
             stackTypes[stackTop - 1] = new TypeData.ClassName(type);
             return 3; }
         case Opcode.INSTANCEOF :
-            // TypeData.setType(stackTypes[stackTop - 1], "java.lang.Object", classPool);
+            // TypeData.setType(stackTypes[stackTop - 1], "java.lang.Object", hierarchy);
             stackTypes[stackTop - 1] = INTEGER;
             return 3;
         case Opcode.MONITORENTER :
         case Opcode.MONITOREXIT :
             stackTop--;
-            // TypeData.setType(stackTypes[stackTop], "java.lang.Object", classPool);
+            // TypeData.setType(stackTypes[stackTop], "java.lang.Object", hierarchy);
             break;
         case Opcode.WIDE :
             return doWIDE(pos, code);
@@ -727,9 +736,9 @@ public abstract class Tracer implements TypeTag {
         stackTop -= Descriptor.dataSize(desc);
         char c = desc.charAt(0);
         if (c == 'L')
-            stackTypes[stackTop].setType(getFieldClassName(desc, 0), classPool);
+            stackTypes[stackTop].setType(getFieldClassName(desc, 0), hierarchy);
         else if (c == '[')
-            stackTypes[stackTop].setType(desc, classPool);
+            stackTypes[stackTop].setType(desc, hierarchy);
 
         setFieldTarget(notStatic, index);
         return 3;
@@ -746,7 +755,7 @@ public abstract class Tracer implements TypeTag {
     private void setFieldTarget(boolean notStatic, int index) throws BadBytecode {
         if (notStatic) {
             String className = cpool.getFieldrefClassName(index);
-            stackTypes[--stackTop].setType(className, classPool);
+            stackTypes[--stackTop].setType(className, hierarchy);
         }
     }
 
@@ -808,7 +817,7 @@ public abstract class Tracer implements TypeTag {
             else if (target instanceof TypeData.UninitData)
                 constructorCalled(target, ((TypeData.UninitData)target).offset());
 
-            target.setType(className, classPool);
+            target.setType(className, hierarchy);
         }
 
         pushMemberType(desc);
@@ -834,7 +843,7 @@ public abstract class Tracer implements TypeTag {
         String desc = cpool.getInterfaceMethodrefType(i);
         checkParamTypes(desc, 1);
         String className = cpool.getInterfaceMethodrefClassName(i);
-        stackTypes[--stackTop].setType(className, classPool);
+        stackTypes[--stackTop].setType(className, hierarchy);
         pushMemberType(desc);
         return 5;
     }
@@ -926,9 +935,9 @@ public abstract class Tracer implements TypeTag {
             stackTop--;
 
         if (array)
-            stackTypes[stackTop].setType(desc.substring(i, k), classPool);
+            stackTypes[stackTop].setType(desc.substring(i, k), hierarchy);
         else if (c == 'L')
             stackTypes[stackTop].setType(desc.substring(i + 1, k - 1).replace('/', '.'),
-                                         classPool);
+                                         hierarchy);
     }
 }
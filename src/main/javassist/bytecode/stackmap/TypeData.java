@@ -27,7 +27,7 @@ import javassist.CtClass;
 import javassist.NotFoundException;
 import javassist.bytecode.BadBytecode;
 import javassist.bytecode.ConstPool;
-import javassist.bytecode.Descriptor;
+import javassist.bytecode.HierarchyResolver;
 import javassist.bytecode.StackMapTable;
 
 public abstract class TypeData {
@@ -53,7 +53,7 @@ public abstract class TypeData {
      * @param className     dot-separated name unless the type is an array type. 
      */
     @SuppressWarnings("unused")
-    private static void setType(TypeData td, String className, ClassPool cp) throws BadBytecode {
+    private static void setType(TypeData td, String className, HierarchyResolver cp) throws BadBytecode {
         td.setType(className, cp);
     }
 
@@ -80,7 +80,7 @@ public abstract class TypeData {
     public abstract boolean eq(TypeData d);
 
     public abstract String getName();
-    public abstract void setType(String s, ClassPool cp) throws BadBytecode;
+    public abstract void setType(String s, HierarchyResolver cp) throws BadBytecode;
 
     /**
      * @param dim		array dimension.  It may be negative.
@@ -93,7 +93,7 @@ public abstract class TypeData {
      * @param order			a node stack in the order in which nodes are visited.
      * @param index			the index used by the algorithm.
      */
-    public int dfs(List<TypeData> order, int index, ClassPool cp)
+    public int dfs(List<TypeData> order, int index, HierarchyResolver cp)
         throws NotFoundException
     {
         return index;
@@ -164,7 +164,7 @@ public abstract class TypeData {
         public char getDecodedName() { return decodedName; }
 
         @Override
-        public void setType(String s, ClassPool cp) throws BadBytecode {
+        public void setType(String s, HierarchyResolver cp) throws BadBytecode {
             throw new BadBytecode("conflict: " + name + " and " + s);
         }
 
@@ -294,7 +294,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public void setType(String typeName, ClassPool cp) throws BadBytecode {
+        public void setType(String typeName, HierarchyResolver cp) throws BadBytecode {
             if (uppers == null)
                 uppers = new ArrayList<String>();
 
@@ -330,7 +330,7 @@ public abstract class TypeData {
 
         // depth-first serach
         @Override
-        public int dfs(List<TypeData> preOrder, int index, ClassPool cp) throws NotFoundException {
+        public int dfs(List<TypeData> preOrder, int index, HierarchyResolver cp) throws NotFoundException {
             if (visited > 0)
                 return index;		// MapMaker.make() may call an already visited node.
 
@@ -365,7 +365,7 @@ public abstract class TypeData {
             return index;
         }
 
-        private void fixTypes(List<TypeData> scc, ClassPool cp) throws NotFoundException {
+        private void fixTypes(List<TypeData> scc, HierarchyResolver cp) throws NotFoundException {
             Set<String> lowersSet = new HashSet<String>();
             boolean isBasicType = false;
             TypeData kind = null;
@@ -432,32 +432,25 @@ public abstract class TypeData {
             }
         }
 
-        private String fixTypes2(List<TypeData> scc, Set<String> lowersSet, ClassPool cp) throws NotFoundException {
+        private String fixTypes2(List<TypeData> scc, Set<String> lowersSet, HierarchyResolver cp) throws NotFoundException {
             Iterator<String> it = lowersSet.iterator();
             if (lowersSet.isEmpty())
                 return null;      // only NullType
             else if (lowersSet.size() == 1)
                 return it.next();
             else {
-                CtClass cc = cp.get(it.next());
+                String type = toTypeName(it.next());
                 while (it.hasNext())
-                    cc = commonSuperClassEx(cc, cp.get(it.next()));
+                    type = commonSuperClassEx(type, toTypeName(it.next()), cp);
 
-                if (cc.getSuperclass() == null || isObjectArray(cc))
-                    cc = fixByUppers(scc, cp, new HashSet<TypeData>(), cc);
+                if (type.equals(JAVA_LANG_OBJECT) || type.equals(OBJECT_ARRAY))
+                    type = fixByUppers(scc, cp, new HashSet<TypeData>(), type);
 
-                if (cc.isArray())
-                    return Descriptor.toJvmName(cc);
-
-                return cc.getName();
+                return type;
             }
         }
 
-        private static boolean isObjectArray(CtClass cc) throws NotFoundException {
-            return cc.isArray() && cc.getComponentType().getSuperclass() == null;
-        }
-
-        private CtClass fixByUppers(List<TypeData> users, ClassPool cp, Set<TypeData> visited, CtClass type)
+        private String fixByUppers(List<TypeData> users, HierarchyResolver cp, Set<TypeData> visited, String type)
             throws NotFoundException
         {
             if (users == null)
@@ -472,9 +465,9 @@ public abstract class TypeData {
                 if (t.uppers != null) {
                     int s = t.uppers.size();
                     for (int k = 0; k < s; k++) {
-                        CtClass cc = cp.get(t.uppers.get(k));
-                        if (cc.subtypeOf(type))
-                            type = cc;
+                        String upper = toTypeName(t.uppers.get(k));
+                        if (subtypeOf(upper, type, cp))
+                            type = upper;
                     }
                 }
 
@@ -497,6 +490,144 @@ public abstract class TypeData {
         }
     }
 
+    private static final String JAVA_LANG_OBJECT = "java.lang.Object";
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+
+    /* Returns a class name such as java.lang.String or a descriptor
+     * such as [Ljava/lang/String; if the type is an array type.
+     */
+    static String toTypeName(String name) {
+        if (name.charAt(0) == '[')
+            return name.replace('.', '/');
+        else
+            return name;
+    }
+
+    /* Returns the type name of the component type.  It returns null
+     * if the component type is a primitive type.
+     */
+    private static String componentType(String array) {
+        char c = array.charAt(1);
+        if (c == '[')
+            return array.substring(1);
+        else if (c == 'L')
+            return array.substring(2, array.length() - 1).replace('/', '.');
+        else
+            return null;
+    }
+
+    /**
+     * Finds the most specific common super class of the given types
+     * by considering array types.  It is the same as
+     * <code>commonSuperClassEx(CtClass,CtClass)</code> except that
+     * no <code>CtClass</code> object is created.
+     *
+     * @param one       a class name or, if it is an array type,
+     *                  a descriptor such as <code>[Ljava/lang/String;</code>.
+     * @param two       another type name.
+     * @param cp        resolves the super classes.
+     * @return the name of the super class.
+     * @since 3.31
+     */
+    public static String commonSuperClassEx(String one, String two, HierarchyResolver cp)
+        throws NotFoundException
+    {
+        if (one.equals(two))
+            return one;
+        else if (one.charAt(0) == '[' && two.charAt(0) == '[') {
+            String ele1 = componentType(one);
+            String ele2 = componentType(two);
+            if (ele1 == null || ele2 == null)
+                return JAVA_LANG_OBJECT;    // an array of primitive type
+
+            String element = commonSuperClassEx(ele1, ele2, cp);
+            if (element.equals(ele1))
+                return one;
+            else if (element.equals(ele2))
+                return two;
+            else
+                return ArrayType.typeName(element);
+        }
+        else if (one.charAt(0) == '[' || two.charAt(0) == '[')
+            return JAVA_LANG_OBJECT;
+        else
+            return commonSuperClass(one, two, cp);
+    }
+
+    /**
+     * Finds the most specific common super class of the given classes.
+     * Neither of them is an array type.
+     *
+     * @since 3.31
+     */
+    public static String commonSuperClass(String one, String two, HierarchyResolver cp)
+        throws NotFoundException
+    {
+        List<String> chain1 = superclasses(one, cp);
+        List<String> chain2 = superclasses(two, cp);
+        int i = chain1.size() - 1, j = chain2.size() - 1;
+        if (!chain1.get(i).equals(chain2.get(j)))
+            throw new NotFoundException(one + " and " + two
+                                        + " do not have a common super class");
+
+        while (i > 0 && j > 0 && chain1.get(i - 1).equals(chain2.get(j - 1))) {
+            i--;
+            j--;
+        }
+
+        return chain1.get(i);
+    }
+
+    private static List<String> superclasses(String name, HierarchyResolver cp)
+        throws NotFoundException
+    {
+        List<String> chain = new ArrayList<String>();
+        do {
+            chain.add(name);
+            name = cp.getSuperclass(name);
+        } while (name != null);
+
+        return chain;
+    }
+
+    /**
+     * Returns true if the type <code>sub</code> is a subtype of
+     * <code>type</code>.  The arguments are type names as in
+     * <code>commonSuperClassEx(String,String,HierarchyResolver)</code>.
+     *
+     * @since 3.31
+     */
+    public static boolean subtypeOf(String sub, String type, HierarchyResolver cp)
+        throws NotFoundException
+    {
+        if (sub.equals(type))
+            return true;
+        else if (sub.charAt(0) == '[') {
+            if (type.equals(JAVA_LANG_OBJECT) || type.equals("java.lang.Cloneable")
+                || type.equals("java.io.Serializable"))
+                return true;
+            else if (type.charAt(0) == '[') {
+                String ele1 = componentType(sub);
+                String ele2 = componentType(type);
+                return ele1 != null && ele2 != null && subtypeOf(ele1, ele2, cp);
+            }
+            else
+                return false;
+        }
+        else if (type.charAt(0) == '[')
+            return false;
+
+        String supername = cp.getSuperclass(sub);
+        if (supername != null && subtypeOf(supername, type, cp))
+            return true;
+
+        for (String i: cp.getInterfaces(sub))
+            if (subtypeOf(i, type, cp))
+                return true;
+
+        return false;
+    }
+
     /**
      * Finds the most specific common super class of the given classes
      * by considering array types.
@@ -526,9 +657,24 @@ public abstract class TypeData {
 
     /**
      * Finds the most specific common super class of the given classes.
-     * This method is a copy from javassist.bytecode.analysis.Type.
+     * The answer is memoized by the class pool.
+     *
+     * @see javassist.ClassPool#getCommonSuperclass(CtClass,CtClass)
      */
     public static CtClass commonSuperClass(CtClass one, CtClass two) throws NotFoundException {
+        ClassPool cp = one.getClassPool();
+        if (cp != null)
+            try {
+                return cp.getCommonSuperclass(one, two);
+            }
+            catch (NotFoundException e) {}
+
+        return commonSuperClass0(one, two);
+    }
+
+    /* This method is a copy from javassist.bytecode.analysis.Type.
+     */
+    private static CtClass commonSuperClass0(CtClass one, CtClass two) throws NotFoundException {
         CtClass deep = one;
         CtClass shallow = two;
         CtClass backupShallow = shallow;
@@ -589,7 +735,7 @@ public abstract class TypeData {
         return one == two || (one != null && two != null && one.getName().equals(two.getName()));
     }
 
-    public static void aastore(TypeData array, TypeData value, ClassPool cp) throws BadBytecode {
+    public static void aastore(TypeData array, TypeData value, HierarchyResolver cp) throws BadBytecode {
         if (array instanceof AbsTypeVar)
             if (!value.isNullType())
                 ((AbsTypeVar)array).merge(ArrayType.make(value));
@@ -663,7 +809,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public void setType(String s, ClassPool cp) throws BadBytecode {
+        public void setType(String s, HierarchyResolver cp) throws BadBytecode {
             element.setType(ArrayElement.typeName(s), cp);
         }
 
@@ -676,7 +822,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public int dfs(List<TypeData> order, int index, ClassPool cp) throws NotFoundException {
+        public int dfs(List<TypeData> order, int index, HierarchyResolver cp) throws NotFoundException {
             return element.dfs(order, index, cp);
         }
 
@@ -750,7 +896,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public void setType(String s, ClassPool cp) throws BadBytecode {
+        public void setType(String s, HierarchyResolver cp) throws BadBytecode {
             array.setType(ArrayType.typeName(s), cp);
         }
 
@@ -763,7 +909,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public int dfs(List<TypeData> order, int index, ClassPool cp) throws NotFoundException {
+        public int dfs(List<TypeData> order, int index, HierarchyResolver cp) throws NotFoundException {
             return array.dfs(order, index, cp);
         }
 
@@ -798,7 +944,7 @@ public abstract class TypeData {
         public TypeData join() { return type.join(); }
 
         @Override
-        public void setType(String s, ClassPool cp) throws BadBytecode {
+        public void setType(String s, HierarchyResolver cp) throws BadBytecode {
             type.setType(s, cp);
         }
 
@@ -866,7 +1012,7 @@ public abstract class TypeData {
         }
 
         @Override
-        public void setType(String typeName, ClassPool cp) throws BadBytecode {}
+        public void setType(String typeName, HierarchyResolver cp) throws BadBytecode {}
 
         @Override
         public TypeData getArrayType(int dim) throws NotFoundException {
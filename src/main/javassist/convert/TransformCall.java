@@ -25,6 +25,7 @@ import javassist.bytecode.BadBytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
 
 public class TransformCall extends Transformer {
     protected String classname, methodname, methodDescriptor;
@@ -34,6 +35,7 @@ public class TransformCall extends Transformer {
     /* cache */
     protected int newIndex;
     protected ConstPool constPool;
+    private MemberMatcher targets;
 
     public TransformCall(Transformer next, CtMethod origMethod,
                          CtMethod substMethod)
@@ -60,6 +62,18 @@ public class TransformCall extends Transformer {
             newIndex = 0;
     }
 
+    /**
+     * The class name is not given to the matcher since the class name
+     * in the operand of an instruction might be a subclass.
+     */
+    @Override
+    public MemberMatcher getTargets() {
+        if (targets == null)
+            targets = MemberMatcher.method(null, methodname, methodDescriptor);
+
+        return targets;
+    }
+
     /**
      * Modify INVOKEINTERFACE, INVOKESPECIAL, INVOKESTATIC and INVOKEVIRTUAL
      * so that a different method is invoked.  The class name in the operand
@@ -22,6 +22,7 @@ import javassist.Modifier;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
 
 final public class TransformFieldAccess extends Transformer {
     private String newClassname, newFieldname;
@@ -32,6 +33,7 @@ final public class TransformFieldAccess extends Transformer {
     /* cache */
     private int newIndex;
     private ConstPool constPool;
+    private MemberMatcher targets;
 
     public TransformFieldAccess(Transformer next, CtField field,
                                 String newClassname, String newFieldname)
@@ -43,6 +45,7 @@ final public class TransformFieldAccess extends Transformer {
         this.newClassname = newClassname;
         this.newFieldname = newFieldname;
         this.constPool = null;
+        this.targets = MemberMatcher.field(null, fieldname, null);
     }
 
     @Override
@@ -51,6 +54,9 @@ final public class TransformFieldAccess extends Transformer {
             newIndex = 0;
     }
 
+    @Override
+    public MemberMatcher getTargets() { return targets; }
+
     /**
      * Modify GETFIELD, GETSTATIC, PUTFIELD, and PUTSTATIC so that
      * a different field is accessed.  The new field must be declared
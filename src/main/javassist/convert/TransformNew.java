@@ -22,21 +22,32 @@ import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.MemberMatcher;
+import javassist.bytecode.MethodInfo;
 import javassist.bytecode.StackMap;
 import javassist.bytecode.StackMapTable;
 
 final public class TransformNew extends Transformer {
     private int nested;
     private String classname, trapClass, trapMethod;
+    private MemberMatcher targets;
 
     public TransformNew(Transformer next,
                  String classname, String trapClass, String trapMethod) {
         super(next);
         this.classname = classname;
+        this.targets = MemberMatcher.method(classname, MethodInfo.nameInit, null);
         this.trapClass = trapClass;
         this.trapMethod = trapMethod;
     }
 
+    /**
+     * A <code>NEW</code> instruction is always followed by a call to
+     * a constructor of the same class.
+     */
+    @Override
+    public MemberMatcher getTargets() { return targets; }
+
     @Override
     public void initialize(ConstPool cp, CodeAttribute attr) {
         nested = 0;
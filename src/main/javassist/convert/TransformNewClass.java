@@ -21,19 +21,30 @@ import javassist.CtClass;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
+import javassist.bytecode.MethodInfo;
 
 final public class TransformNewClass extends Transformer {
     private int nested;
     private String classname, newClassName;
+    private MemberMatcher targets;
     private int newClassIndex, newMethodNTIndex, newMethodIndex;
 
     public TransformNewClass(Transformer next,
                              String classname, String newClassName) {
         super(next);
         this.classname = classname;
+        this.targets = MemberMatcher.method(classname, MethodInfo.nameInit, null);
         this.newClassName = newClassName;
     }
 
+    /**
+     * The matcher does not refer to <code>NEW</code> instructions but
+     * every object creation calls a constructor.
+     */
+    @Override
+    public MemberMatcher getTargets() { return targets; }
+
     @Override
     public void initialize(ConstPool cp, CodeAttribute attr) {
         nested = 0;
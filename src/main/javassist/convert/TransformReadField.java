@@ -24,12 +24,14 @@ import javassist.NotFoundException;
 import javassist.bytecode.BadBytecode;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
 
 public class TransformReadField extends Transformer {
     protected String fieldname;
     protected CtClass fieldClass;
     protected boolean isPrivate;
     protected String methodClassname, methodName;
+    private MemberMatcher targets;
 
     public TransformReadField(Transformer next, CtField field,
                               String methodClassname, String methodName)
@@ -40,8 +42,12 @@ public class TransformReadField extends Transformer {
         this.methodClassname = methodClassname;
         this.methodName = methodName;
         this.isPrivate = Modifier.isPrivate(field.getModifiers());
+        this.targets = MemberMatcher.field(null, fieldname, null);
     }
 
+    @Override
+    public MemberMatcher getTargets() { return targets; }
+
     static String isField(ClassPool pool, ConstPool cp, CtClass fclass,
                           String fname, boolean is_private, int index) {
         if (!cp.getFieldrefName(index).equals(fname))
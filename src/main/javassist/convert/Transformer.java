@@ -22,6 +22,7 @@ import javassist.bytecode.BadBytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
 
@@ -54,4 +55,12 @@ public abstract class Transformer implements Opcode {
     public int extraLocals() { return 0; }
 
     public int extraStack() { return 0; }
+
+    /**
+     * Returns the members that this transformer may transform the
+     * references to.  <code>CodeConverter</code> skips a method body
+     * unless one of its instructions refers to a matching member.
+     * If this method returns null, no method body is skipped.
+     */
+    public MemberMatcher getTargets() { return null; }
 }
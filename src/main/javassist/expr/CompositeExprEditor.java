@@ -0,0 +1,267 @@
+/*
+ * Javassist, a Java-bytecode translator toolkit.
+ * Copyright (C) 1999- Shigeru Chiba. All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public License Version
+ * 1.1 (the "License"); you may not use this file except in compliance with
+ * the License.  Alternatively, the contents of this file may be used under
+ * the terms of the GNU Lesser General Public License Version 2.1 or later,
+ * or the Apache License Version 2.0.
+ *
+ * Software distributed under the License is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ * for the specific language governing rights and limitations under the
+ * License.
+ */
+
+package javassist.expr;
+
+import javassist.CannotCompileException;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.MemberMatcher;
+
+/**
+ * An editor applying several editors during a single traversal
+ * of a method body.
+ *
+ * <p>Instrumenting a class with a <code>CompositeExprEditor</code>
+ * has the same effect as instrumenting it with the given editors
+ * one by one, but every method body is scanned only once and
+ * the stack map is rebuilt only once.  Each expression is given to
+ * the editors in the order they are passed to the constructor.
+ * If an editor replaces the expression, the following editors are not
+ * given that expression but they visit the expressions in the substituted
+ * bytecode, as they would if the editors were applied one by one.
+ * In the same way, the following editors visit the expressions in the
+ * bytecode inserted into a catch clause by
+ * <code>Handler.insertBefore()</code>.
+ *
+ * <pre>
+ * CtClass cc = ...;
+ * cc.instrument(new CompositeExprEditor(tracer, profiler, checker));
+ * </pre>
+ *
+ * <p>The only difference is the order in which the expressions are visited.
+ * While the editors are applied one by one, the first editor visits all
+ * the expressions in the method body before the second editor visits
+ * the first expression.  A <code>CompositeExprEditor</code> gives the first
+ * expression to all the editors before the second expression.
+ * Only the <code>edit()</code> methods of the given editors are called.
+ *
+ * @see javassist.CtClass#instrument(ExprEditor)
+ * @see Expr#replace(String, ExprEditor)
+ * @since 3.31
+ */
+public class CompositeExprEditor extends ExprEditor {
+    private final ExprEditor[] editors;
+    private final int first;
+    private CompositeExprEditor rest;
+    private MemberMatcher targets;
+    private boolean targetsResolved;
+
+    /**
+     * Constructs an editor applying the given editors in this order.
+     *
+     * @param editors       the editors.
+     */
+    public CompositeExprEditor(ExprEditor... editors) {
+        this(editors.clone(), 0);
+    }
+
+    private CompositeExprEditor(ExprEditor[] editors, int first) {
+        this.editors = editors;
+        this.first = first;
+        this.rest = null;
+        this.targets = null;
+        this.targetsResolved = false;
+    }
+
+    /**
+     * Returns the editors applied by this editor.
+     */
+    public ExprEditor[] getEditors() {
+        ExprEditor[] result = new ExprEditor[editors.length - first];
+        System.arraycopy(editors, first, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Returns the union of the targets of the editors.
+     * If one of the editors returns null, this method returns null.
+     *
+     * @see ExprEditor#getTargets()
+     */
+    @Override
+    public MemberMatcher getTargets() {
+        if (!targetsResolved) {
+            MemberMatcher m = null;
+            for (int i = first; i < editors.length; i++) {
+                MemberMatcher m2 = editors[i].getTargets();
+                if (m2 == null) {
+                    m = null;
+                    break;
+                }
+
+                m = m == null ? m2 : m.or(m2);
+            }
+
+            targets = m;
+            targetsResolved = true;
+        }
+
+        return targets;
+    }
+
+    /* Returns the editors following the i-th editor, or null.
+     */
+    private CompositeExprEditor rest(int i) {
+        if (i + 1 >= editors.length)
+            return null;
+        else if (i == first) {
+            if (rest == null)
+                rest = new CompositeExprEditor(editors, first + 1);
+
+            return rest;
+        }
+        else
+            return rest(first).rest(i);
+    }
+
+    /* Gives the replaced expression to the editors following the i-th editor.
+     */
+    private void edited(Expr expr, int i) throws CannotCompileException {
+        CompositeExprEditor ed = rest(i);
+        if (ed != null)
+            expr.runEditor(ed, expr.iterator);
+    }
+
+    @Override
+    public void edit(NewExpr e) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(e);
+            if (e.edited()) {
+                edited(e, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(NewArray a) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(a);
+            if (a.edited()) {
+                edited(a, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(MethodCall m) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(m);
+            if (m.edited()) {
+                edited(m, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(ConstructorCall c) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(c);
+            if (c.edited()) {
+                edited(c, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(FieldAccess f) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(f);
+            if (f.edited()) {
+                edited(f, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(Instanceof io) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(io);
+            if (io.edited()) {
+                edited(io, i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void edit(Cast c) throws CannotCompileException {
+        for (int i = first; i < editors.length; i++) {
+            editors[i].edit(c);
+            if (c.edited()) {
+                edited(c, i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gives the catch clause to all the editors.  Since
+     * <code>Handler.insertBefore()</code> appends the inserted bytecode
+     * at the end of the method body, the following editors visit
+     * the expressions in the appended bytecode.
+     */
+    @Override
+    public void edit(Handler h) throws CannotCompileException {
+        CodeIterator iterator = h.iterator;
+        int locals = 0, stack = 0;
+        for (int i = first; i < editors.length; i++) {
+            int size = iterator.getCodeLength();
+            editors[i].edit(h);
+            int size2 = iterator.getCodeLength();
+            if (size < size2) {
+                CompositeExprEditor ed = rest(i);
+                if (ed != null)
+                    ed.visit(h, size, size2);
+
+                locals = Math.max(locals, h.locals());
+                stack = Math.max(stack, h.stack());
+            }
+        }
+
+        if (h.edited()) {
+            h.maxLocals = locals;
+            h.maxStack = stack;
+        }
+    }
+
+    /* Visits the expressions in the bytecode appended to a catch clause.
+     * See Expr.runEditor().
+     */
+    private void visit(Handler h, int start, int end)
+        throws CannotCompileException
+    {
+        CodeIterator iterator = h.iterator;
+        CodeAttribute codeAttr = iterator.get();
+        int orgLocals = codeAttr.getMaxLocals();
+        int orgStack = codeAttr.getMaxStack();
+        int newLocals = Math.max(orgLocals, h.locals());
+        codeAttr.setMaxStack(h.stack());
+        codeAttr.setMaxLocals(newLocals);
+        LoopContext context = new LoopContext(newLocals);
+        iterator.move(start);
+        doit(h.thisClass, h.thisMethod, context, iterator, end);
+        codeAttr.setMaxLocals(orgLocals);
+        codeAttr.setMaxStack(orgStack);
+        h.maxLocals = context.maxLocals;
+        h.maxStack += context.maxStack;
+    }
+}
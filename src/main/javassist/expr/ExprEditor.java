@@ -22,6 +22,7 @@ import javassist.bytecode.BadBytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ExceptionTable;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
 
@@ -69,6 +70,7 @@ import javassist.bytecode.Opcode;
  * @see MethodCall
  * @see NewExpr
  * @see FieldAccess
+ * @see CompositeExprEditor
  *
  * @see javassist.CodeConverter
  */
@@ -78,16 +80,63 @@ public class ExprEditor {
      */
     public ExprEditor() {}
 
+    /**
+     * Returns the methods and fields that this editor is interested in
+     * (overridable).  If this method returns a matcher,
+     * <code>instrument()</code> skips a method body unless it contains
+     * a method call or a field access matching the matcher.  If the class
+     * does not refer to any matching member, all the methods are
+     * skipped without being scanned or decoded and
+     * <code>CtClass.instrument()</code> leaves the class unmodified.
+     * The <code>edit()</code> methods
+     * are not called for the expressions in the skipped methods,
+     * including <code>new</code> expressions, casts, and catch clauses.
+     *
+     * <p>This method should return the same matcher whenever it is called
+     * since the matcher caches the result of examining a constant pool.
+     * The default implementation returns null and thus no method is skipped.
+     *
+     * <pre>
+     * static final MemberMatcher targets
+     *     = MemberMatcher.method("java.sql.Statement", "executeQuery", null);
+     *
+     * cc.instrument(new ExprEditor() {
+     *     public MemberMatcher getTargets() { return targets; }
+     *     public void edit(MethodCall m) throws CannotCompileException { ... }
+     * });
+     * </pre>
+     *
+     * @return null if no method should be skipped.
+     * @since 3.31
+     */
+    public MemberMatcher getTargets() {
+        return null;
+    }
+
     /**
      * Undocumented method.  Do not use; internal-use only.
      */
     public boolean doit(CtClass clazz, MethodInfo minfo)
         throws CannotCompileException
     {
+        MemberMatcher targets = getTargets();
+        // check the class first not to decode the method body.
+        if (targets != null && !targets.refersTo(minfo.getConstPool()))
+            return false;
+
         CodeAttribute codeAttr = minfo.getCodeAttribute();
         if (codeAttr == null)
             return false;
 
+        try {
+            if (targets != null
+                && !targets.refersTo(minfo.getConstPool(), codeAttr))
+                return false;
+        }
+        catch (BadBytecode e) {
+            throw new CannotCompileException(e);
+        }
+
         CodeIterator iterator = codeAttr.iterator();
         boolean edited = false;
         LoopContext context = new LoopContext(codeAttr.getMaxLocals());
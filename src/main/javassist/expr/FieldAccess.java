@@ -29,6 +29,7 @@ import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
 import javassist.compiler.CompileError;
@@ -126,6 +127,19 @@ public class FieldAccess extends Expr {
         return getConstPool().getFieldrefName(index);
     }
 
+    /**
+     * Returns true if the accessed field matches the given matcher.
+     * It does not construct a string but looks up the constant pool
+     * index of the field.
+     *
+     * @see MemberMatcher#field(String, String, String)
+     * @see MethodCall#matches(MemberMatcher)
+     * @since 3.31
+     */
+    public boolean matches(MemberMatcher m) {
+        return m.matches(getConstPool(), iterator.u16bitAt(currentPos + 1));
+    }
+
     /**
      * Returns the field accessed by this expression.
      */
@@ -28,6 +28,7 @@ import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.Descriptor;
+import javassist.bytecode.MemberMatcher;
 import javassist.bytecode.MethodInfo;
 import javassist.compiler.CompileError;
 import javassist.compiler.Javac;
@@ -122,6 +123,32 @@ public class MethodCall extends Expr {
         return cp.getUtf8Info(cp.getNameAndTypeName(nt));
     }
 
+    /**
+     * Returns true if the called method matches the given matcher.
+     * Unlike comparing the results of <code>getClassName()</code> and
+     * <code>getMethodName()</code>, this method does not construct
+     * a string.  The matcher examines the constant pool entry of
+     * the called method when the entry is looked up for the first time
+     * and records the result by its index.  Later calls referring to
+     * the same entry are array lookups.
+     *
+     * <pre>
+     * static final MemberMatcher println
+     *     = MemberMatcher.method("java.io.PrintStream", "println", null);
+     *
+     * public void edit(MethodCall m) throws CannotCompileException {
+     *     if (m.matches(println))
+     *         m.replace("{ $_ = $proceed($$); System.out.flush(); }");
+     * }
+     * </pre>
+     *
+     * @see MemberMatcher#method(String, String, String)
+     * @since 3.31
+     */
+    public boolean matches(MemberMatcher m) {
+        return m.matches(getConstPool(), iterator.u16bitAt(currentPos + 1));
+    }
+
     /**
      * Returns the called method.
      */
@@ -0,0 +1,86 @@
+package javassist;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.ExceptionTable;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * Measures the time for inserting a gap into a method of nearly 64KB
+ * when the gap makes a chain of branch instructions exceed 32K.
+ * The method starts with the given number of <code>ifne</code>
+ * instructions jumping over a long sequence of <code>NOP</code>s.
+ * The gap is inserted among the <code>NOP</code>s.  Only the last
+ * branch exceeds 32K by the gap.  The expansion of every branch makes
+ * the previous branch exceed 32K.
+ *
+ * <pre>java javassist.BranchRelaxationBench [branches] [rounds]</pre>
+ */
+public class BranchRelaxationBench {
+    public static void main(String[] args) throws Exception {
+        int branches = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        ClassFile cf = new ClassFile(false, "test5.BranchRelaxationBench", null);
+        MethodInfo minfo = makeMethod(cf.getConstPool(), branches, 4);
+        cf.addMethod(minfo);
+        minfo.rebuildStackMap(cp);
+        CodeAttribute original = minfo.getCodeAttribute();
+        int where = 2 + 4 * branches + 1;
+        System.out.println("code length: " + original.getCodeLength()
+                           + " branches: " + branches + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            CodeAttribute ca = (CodeAttribute)original.copy(cf.getConstPool(), null);
+            long t0 = System.nanoTime();
+            ca.iterator().insertGap(where, 4);
+            long t1 = System.nanoTime();
+            int expected = original.getCodeLength() + 4 + 5 * branches;
+            if (ca.getCodeLength() != expected)
+                throw new RuntimeException("code length: " + ca.getCodeLength());
+
+            System.out.println("new code length: " + ca.getCodeLength()
+                               + "\ttime: " + (t1 - t0) / 1000000 + " ms");
+        }
+    }
+
+    /* static int run(int n) {
+     *     int s = 0;
+     *     if (n != 0) goto L[0]; ... if (n != 0) goto L[branches - 1];
+     *     nop; ... nop;
+     *     return s;
+     * }
+     *
+     * L[k] is a nop.  After a gap of the given length is inserted after
+     * the first nop, the k-th branch exceeds 32K only if all
+     * the following branches are expanded.
+     */
+    static MethodInfo makeMethod(ConstPool cp, int branches, int gap) {
+        int start = 2;
+        int end = start + 4 * (branches - 1) + 32768 - gap;
+        byte[] code = new byte[end + 3];
+        code[0] = Opcode.ICONST_0;
+        code[1] = Opcode.ISTORE_1;
+        for (int k = 0; k < branches; k++) {
+            int pos = start + 4 * k;
+            int offset = 32768 - gap - 5 * (branches - 1 - k);
+            code[pos] = Opcode.ILOAD_0;
+            code[pos + 1] = (byte)Opcode.IFNE;
+            code[pos + 2] = (byte)(offset >> 8);
+            code[pos + 3] = (byte)offset;
+        }
+
+        for (int i = start + 4 * branches; i <= end; i++)
+            code[i] = Opcode.NOP;
+
+        code[end + 1] = Opcode.ILOAD_1;
+        code[end + 2] = (byte)Opcode.IRETURN;
+        MethodInfo minfo = new MethodInfo(cp, "run", "(I)I");
+        minfo.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.STATIC);
+        minfo.setCodeAttribute(new CodeAttribute(cp, 1, 2, code, new ExceptionTable(cp)));
+        return minfo;
+    }
+}
@@ -0,0 +1,114 @@
+package javassist;
+
+import javassist.bytecode.MemberMatcher;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.expr.MethodCall;
+
+/**
+ * Compares the time for finding the calls to a few methods and
+ * the accesses to a field in all the classes in a jar file when
+ * an editor compares the names obtained by <code>getClassName()</code>
+ * and <code>getMethodName()</code> and when it uses
+ * <code>MemberMatcher</code>s.  It also checks that both find
+ * the same expressions.  The time for an editor doing nothing is shown
+ * as the cost of scanning the method bodies.
+ *
+ * <pre>java javassist.CallSiteMatchBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class CallSiteMatchBench {
+    static final MemberMatcher append
+        = MemberMatcher.method("java.lang.StringBuilder", "append", null);
+    static final MemberMatcher get
+        = MemberMatcher.method("java.util.HashMap", "get", null);
+    static final MemberMatcher equals
+        = MemberMatcher.method("java.lang.String", "equals", null);
+    static final MemberMatcher out
+        = MemberMatcher.field("java.lang.System", "out", null);
+
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] names = ClassPoolContentionBench.classNames(jar);
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        cp.appendClassPath(jar);
+        CtClass[] classes = new CtClass[names.length];
+        for (int i = 0; i < names.length; i++) {
+            classes[i] = cp.get(names[i]);
+            classes[i].getClassFile();
+        }
+
+        System.out.println("classes: " + names.length + " rounds: " + rounds);
+        ExprEditor empty = new ExprEditor() {
+            public void edit(MethodCall m) {}
+            public void edit(FieldAccess f) {}
+        };
+
+        for (int r = 0; r < rounds; r++) {
+            long t0 = run(classes, empty);
+            int[] counts1 = new int[4];
+            long t1 = run(classes, byName(counts1));
+            int[] counts2 = new int[4];
+            long t2 = run(classes, byMatcher(counts2));
+            if (!java.util.Arrays.equals(counts1, counts2))
+                throw new RuntimeException("different matches");
+
+            System.out.println("matches: " + java.util.Arrays.toString(counts1)
+                               + "\tscan: " + t0 + " ms\tby name: " + t1
+                               + " ms\tby matcher: " + t2 + " ms");
+        }
+    }
+
+    static long run(CtClass[] classes, ExprEditor editor) throws Exception {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            for (CtClass cc: classes)
+                if (!cc.isInterface() && !cc.isAnnotation())
+                    cc.instrument(editor);
+
+        return (System.nanoTime() - t0) / 1000000;
+    }
+
+    static ExprEditor byName(final int[] counts) {
+        return new ExprEditor() {
+            public void edit(MethodCall m) {
+                String cname = m.getClassName();
+                String mname = m.getMethodName();
+                if (cname.equals("java.lang.StringBuilder") && mname.equals("append"))
+                    counts[0]++;
+                else if (cname.equals("java.util.HashMap") && mname.equals("get"))
+                    counts[1]++;
+                else if (cname.equals("java.lang.String") && mname.equals("equals"))
+                    counts[2]++;
+            }
+
+            public void edit(FieldAccess f) {
+                if (f.getClassName().equals("java.lang.System")
+                    && f.getFieldName().equals("out"))
+                    counts[3]++;
+            }
+        };
+    }
+
+    static ExprEditor byMatcher(final int[] counts) {
+        return new ExprEditor() {
+            public void edit(MethodCall m) {
+                if (m.matches(append))
+                    counts[0]++;
+                else if (m.matches(get))
+                    counts[1]++;
+                else if (m.matches(equals))
+                    counts[2]++;
+            }
+
+            public void edit(FieldAccess f) {
+                if (f.matches(out))
+                    counts[3]++;
+            }
+        };
+    }
+}
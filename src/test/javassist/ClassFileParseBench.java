@@ -0,0 +1,110 @@
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+
+/**
+ * Compares the time and the heap for reading class files when
+ * <code>MethodInfo.lazyDecoding</code> and
+ * <code>ConstPool.lazyDecoding</code> are false and true.
+ * After reading, the names and the descriptors of the methods are
+ * obtained but the <code>Code</code> attributes are not.
+ *
+ * <pre>java javassist.ClassFileParseBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class ClassFileParseBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<byte[]> classfiles = readAll(jar);
+        System.out.println("classes: " + classfiles.size() + " rounds: " + rounds);
+
+        for (int r = 0; r < rounds; r++) {
+            report("eager", classfiles, false, false);
+            report("code ", classfiles, true, false);
+            report("all  ", classfiles, true, true);
+        }
+    }
+
+    static void report(String label, List<byte[]> classfiles,
+                       boolean lazyCode, boolean lazyConstPool)
+        throws Exception
+    {
+        long heap0 = usedHeap();
+        long t0 = System.nanoTime();
+        List<ClassFile> parsed = parse(classfiles, lazyCode, lazyConstPool);
+        long t = (System.nanoTime() - t0) / 1000000;
+        long heap = usedHeap() - heap0;
+        System.out.println(label + "\ttime: " + t + " ms\theap: "
+                           + heap / 1024 + " KB\t("
+                           + heap / parsed.size() + " bytes/class)");
+    }
+
+    static List<ClassFile> parse(List<byte[]> classfiles, boolean lazyCode,
+                                 boolean lazyConstPool)
+        throws Exception
+    {
+        List<ClassFile> list = new ArrayList<ClassFile>(classfiles.size());
+        boolean old = MethodInfo.lazyDecoding;
+        boolean old2 = ConstPool.lazyDecoding;
+        MethodInfo.lazyDecoding = lazyCode;
+        ConstPool.lazyDecoding = lazyConstPool;
+        try {
+            for (byte[] b: classfiles) {
+                ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(b)));
+                for (MethodInfo m: cf.getMethods())
+                    m.getDescriptor();
+
+                cf.getSuperclass();
+                cf.getInterfaces();
+                list.add(cf);
+            }
+        }
+        finally {
+            MethodInfo.lazyDecoding = old;
+            ConstPool.lazyDecoding = old2;
+        }
+
+        return list;
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @SuppressWarnings("rawtypes")
+    static List<byte[]> readAll(String filename) throws Exception {
+        List<byte[]> list = new ArrayList<byte[]>();
+        ZipFile zip = new ZipFile(filename);
+        Enumeration files = zip.entries();
+        while (files.hasMoreElements()) {
+            ZipEntry e = (ZipEntry)files.nextElement();
+            String name = e.getName();
+            if (name.endsWith(".class") && !name.endsWith("module-info.class")) {
+                InputStream in = zip.getInputStream(e);
+                list.add(in.readAllBytes());
+                in.close();
+            }
+        }
+
+        zip.close();
+        return list;
+    }
+}
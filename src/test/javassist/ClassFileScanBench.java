@@ -0,0 +1,77 @@
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.List;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ClassFileReader;
+import javassist.bytecode.annotation.Annotation;
+
+/**
+ * Compares the time for collecting the super classes, the interfaces,
+ * and the class annotations of class files by <code>ClassFile</code>
+ * and <code>ClassFileReader</code>.
+ *
+ * <pre>java javassist.ClassFileScanBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class ClassFileScanBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<byte[]> classfiles = ClassFileParseBench.readAll(jar);
+        long total = 0;
+        for (byte[] b: classfiles)
+            total += b.length;
+
+        System.out.println("classes: " + classfiles.size() + " (" + total / 1024
+                           + " KB) rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            int n = 0;
+            for (byte[] b: classfiles)
+                n += parse(b);
+
+            long t1 = System.nanoTime();
+            int n2 = 0;
+            for (byte[] b: classfiles)
+                n2 += scan(b);
+
+            long t2 = System.nanoTime();
+            System.out.println("ClassFile: " + (t1 - t0) / 1000000 + " ms\t"
+                               + "ClassFileReader: " + (t2 - t1) / 1000000 + " ms\t"
+                               + "(" + n + ", " + n2 + " names)");
+        }
+    }
+
+    static int parse(byte[] b) throws Exception {
+        ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(b)));
+        int n = cf.getInterfaces().length + (cf.getSuperclass() == null ? 0 : 1);
+        AnnotationsAttribute a = (AnnotationsAttribute)cf.getAttribute(AnnotationsAttribute.visibleTag);
+        if (a != null)
+            for (Annotation anno: a.getAnnotations())
+                if (anno.getTypeName() != null)
+                    n++;
+
+        return n;
+    }
+
+    static int scan(byte[] b) throws Exception {
+        final int[] n = new int[1];
+        ClassFileReader reader = new ClassFileReader(b) {
+            public boolean fields(int count) { return false; }
+            public boolean methods(int count) { return false; }
+            public void classAttribute(String name, int pos, int length) {
+                if (name.equals(AnnotationsAttribute.visibleTag))
+                    n[0] += getAnnotationTypes(pos, length).length;
+            }
+        };
+        n[0] += reader.getInterfaces().length + (reader.getSuperclass() == null ? 0 : 1);
+        reader.parse();
+        return n[0];
+    }
+}
@@ -0,0 +1,80 @@
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.MethodInfo;
+
+/**
+ * Compares the time for writing class files when
+ * <code>MethodInfo.keepEncoded</code> is false and true.
+ * Before writing, the <code>Code</code> attribute of only one method
+ * is changed in each class file.
+ *
+ * <pre>java javassist.ClassFileWriteBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class ClassFileWriteBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<byte[]> classfiles = ClassFileParseBench.readAll(jar);
+        System.out.println("classes: " + classfiles.size() + " rounds: " + rounds);
+
+        for (int r = 0; r < rounds; r++) {
+            report("encode", classfiles, false);
+            report("copy  ", classfiles, true);
+        }
+    }
+
+    static void report(String label, List<byte[]> classfiles, boolean keep)
+        throws Exception
+    {
+        List<ClassFile> parsed = parse(classfiles, keep);
+        long t0 = System.nanoTime();
+        long size = 0;
+        for (ClassFile cf: parsed) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(cf.sizeOf());
+            cf.write(new DataOutputStream(out));
+            size += out.size();
+        }
+
+        long t = (System.nanoTime() - t0) / 1000000;
+        System.out.println(label + "\twrite: " + t + " ms\t(" + size / 1024 + " KB)");
+    }
+
+    static List<ClassFile> parse(List<byte[]> classfiles, boolean keep)
+        throws Exception
+    {
+        List<ClassFile> list = new ArrayList<ClassFile>(classfiles.size());
+        boolean old = MethodInfo.keepEncoded;
+        MethodInfo.keepEncoded = keep;
+        try {
+            for (byte[] b: classfiles) {
+                ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(b)));
+                for (MethodInfo m: cf.getMethods()) {
+                    CodeAttribute ca = m.getCodeAttribute();
+                    if (ca != null) {
+                        ca.setMaxLocals(ca.getMaxLocals() + 1);
+                        break;
+                    }
+                }
+
+                list.add(cf);
+            }
+        }
+        finally {
+            MethodInfo.keepEncoded = old;
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,106 @@
+package javassist;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Measures the throughput of <code>ClassPool.get()</code> when it is
+ * called by several threads at the same time.
+ *
+ * <pre>java javassist.ClassPoolContentionBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, a fixed set of JDK classes is looked up.
+ */
+public class ClassPoolContentionBench {
+    static final String[] JDK_CLASSES = {
+        "java.lang.Object", "java.lang.String", "java.lang.Integer",
+        "java.lang.Long", "java.lang.Thread", "java.lang.Runnable",
+        "java.lang.Exception", "java.lang.RuntimeException",
+        "java.lang.StringBuilder", "java.lang.Math", "java.util.List",
+        "java.util.ArrayList", "java.util.HashMap", "java.util.Map",
+        "java.util.Set", "java.util.HashSet", "java.util.Iterator",
+        "java.util.Collections", "java.io.InputStream", "java.io.File",
+        "java.io.IOException", "java.net.URL", "java.util.concurrent.Future",
+        "java.util.concurrent.ConcurrentHashMap" };
+
+    public static void main(String[] args) throws Exception {
+        String[] names = args.length > 0 ? classNames(args[0]) : JDK_CLASSES;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int max = Runtime.getRuntime().availableProcessors() * 2;
+        String jar = args.length > 0 ? args[0] : null;
+
+        System.out.println("classes: " + names.length + " rounds: " + rounds);
+        for (int threads = 1; threads <= max; threads *= 2) {
+            long serial = run(makePool(false, jar), names, threads, rounds);
+            long concurrent = run(makePool(true, jar), names, threads, rounds);
+            System.out.println("threads: " + threads
+                               + "\tserial: " + serial + " gets/ms"
+                               + "\tconcurrent: " + concurrent + " gets/ms");
+        }
+    }
+
+    static ClassPool makePool(boolean concurrent, String jar)
+        throws NotFoundException
+    {
+        ClassPool cp = new ClassPool(null, concurrent);
+        cp.appendSystemPath();
+        if (jar != null)
+            cp.appendClassPath(jar);
+
+        return cp;
+    }
+
+    static long run(final ClassPool cp, final String[] names, int threads,
+                    final int rounds)
+        throws Exception
+    {
+        Thread[] workers = new Thread[threads];
+        final Exception[] error = new Exception[1];
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int r = 0; r < rounds; r++)
+                            for (int j = 0; j < names.length; j++)
+                                cp.get(names[(j + offset) % names.length]);
+                    }
+                    catch (NotFoundException e) {
+                        error[0] = e;
+                    }
+                }
+            };
+        }
+
+        long t0 = System.nanoTime();
+        for (Thread t: workers)
+            t.start();
+
+        for (Thread t: workers)
+            t.join();
+
+        long t = Math.max(1, (System.nanoTime() - t0) / 1000000);
+        if (error[0] != null)
+            throw error[0];
+
+        return (long)threads * rounds * names.length / t;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static String[] classNames(String filename) throws Exception {
+        List<String> list = new ArrayList<String>();
+        ZipFile zip = new ZipFile(filename);
+        Enumeration files = zip.entries();
+        while (files.hasMoreElements()) {
+            String name = ((ZipEntry)files.nextElement()).getName();
+            if (name.endsWith(".class") && !name.endsWith("module-info.class"))
+                list.add(name.substring(0, name.length() - 6).replace('/', '.'));
+        }
+
+        zip.close();
+        return list.toArray(new String[list.size()]);
+    }
+}
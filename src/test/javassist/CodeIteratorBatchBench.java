@@ -0,0 +1,78 @@
+package javassist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * Compares the time for inserting a probe before every branch
+ * instruction of a large method when the probes are inserted one by one
+ * by <code>CodeIterator.insertAt()</code> and when they are inserted by
+ * a <code>CodeIterator.Batch</code>.  It also checks that both produce
+ * the same bytecode.
+ *
+ * <pre>java javassist.CodeIteratorBatchBench [loops] [rounds]</pre>
+ */
+public class CodeIteratorBatchBench {
+    public static void main(String[] args) throws Exception {
+        int loops = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        CtClass cc = cp.makeClass("test5.CodeIteratorBatchBench");
+        StringBuilder body = new StringBuilder("public int m(int n) { int s = 0;");
+        for (int i = 0; i < loops; i++)
+            body.append(" for (int j = 0; j < n; j++) if (j % 3 == ")
+                .append(i % 3).append(") s += j; else s -= ").append(i).append(';');
+
+        body.append(" return s; }");
+        cc.addMethod(CtNewMethod.make(body.toString(), cc));
+        MethodInfo minfo = cc.getDeclaredMethod("m").getMethodInfo();
+        CodeAttribute original = minfo.getCodeAttribute();
+        byte[] probe = { (byte)Opcode.ICONST_0, (byte)Opcode.POP };
+        System.out.println("code length: " + original.getCodeLength()
+                           + " loops: " + loops + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            CodeAttribute ca1 = (CodeAttribute)original.copy(minfo.getConstPool(), null);
+            CodeAttribute ca2 = (CodeAttribute)original.copy(minfo.getConstPool(), null);
+            List<Integer> branches = branches(ca1);
+            long t0 = System.nanoTime();
+            CodeIterator it = ca1.iterator();
+            for (int i = branches.size() - 1; i >= 0; i--)
+                it.insertAt(branches.get(i), probe);
+
+            long t1 = System.nanoTime();
+            CodeIterator.Batch batch = ca2.iterator().batch();
+            for (int pos: branches)
+                batch.insert(pos, probe);
+
+            batch.apply();
+            long t2 = System.nanoTime();
+            if (!Arrays.equals(ca1.getCode(), ca2.getCode()))
+                throw new RuntimeException("different bytecode");
+
+            System.out.println("probes: " + branches.size() + "\tsequential: "
+                               + (t1 - t0) / 1000000 + " ms\tbatch: "
+                               + (t2 - t1) / 1000000 + " ms");
+        }
+    }
+
+    static List<Integer> branches(CodeAttribute ca) throws Exception {
+        List<Integer> list = new ArrayList<Integer>();
+        CodeIterator it = ca.iterator();
+        while (it.hasNext()) {
+            int pos = it.next();
+            int op = it.byteAt(pos);
+            if ((Opcode.IFEQ <= op && op <= Opcode.GOTO) || op == Opcode.IFNULL
+                || op == Opcode.IFNONNULL)
+                list.add(pos);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,105 @@
+package javassist;
+
+import javassist.expr.Cast;
+import javassist.expr.CompositeExprEditor;
+import javassist.expr.ExprEditor;
+import javassist.expr.FieldAccess;
+import javassist.expr.Handler;
+import javassist.expr.Instanceof;
+import javassist.expr.MethodCall;
+import javassist.expr.NewExpr;
+
+/**
+ * Compares the time for instrumenting all the classes in a jar file
+ * with six editors when the editors are applied one by one and when
+ * they are applied by a <code>CompositeExprEditor</code>.
+ * Two of the editors modify the method bodies.
+ *
+ * <pre>java javassist.CompositeExprEditorBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class CompositeExprEditorBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] names = ClassPoolContentionBench.classNames(jar);
+        System.out.println("classes: " + names.length + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            int[] counts1 = new int[6];
+            long t1 = run(jar, names, false, counts1);
+            int[] counts2 = new int[6];
+            long t2 = run(jar, names, true, counts2);
+            if (!java.util.Arrays.equals(counts1, counts2))
+                throw new RuntimeException("different visits");
+
+            System.out.println("one by one: " + t1 + " ms\tcomposite: " + t2 + " ms");
+        }
+    }
+
+    static long run(String jar, String[] names, boolean composite, int[] counts)
+        throws Exception
+    {
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        cp.appendClassPath(jar);
+        CtClass[] classes = new CtClass[names.length];
+        for (int i = 0; i < names.length; i++)
+            classes[i] = cp.get(names[i]);
+
+        ExprEditor[] editors = editors(counts);
+        long t0 = System.nanoTime();
+        for (CtClass cc: classes)
+            if (!cc.isInterface() && !cc.isAnnotation())
+                if (composite)
+                    cc.instrument(new CompositeExprEditor(editors));
+                else
+                    for (ExprEditor ed: editors)
+                        cc.instrument(ed);
+
+        return (System.nanoTime() - t0) / 1000000;
+    }
+
+    static ExprEditor[] editors(final int[] counts) {
+        return new ExprEditor[] {
+            new ExprEditor() {
+                public void edit(MethodCall m) {
+                    if (m.getClassName().equals("java.lang.String"))
+                        counts[0]++;
+                }
+            },
+            new ExprEditor() {
+                public void edit(FieldAccess f) {
+                    if (f.isStatic())
+                        counts[1]++;
+                }
+            },
+            new ExprEditor() {
+                public void edit(NewExpr e) {
+                    counts[2]++;
+                }
+            },
+            new ExprEditor() {
+                public void edit(Cast c) { counts[3]++; }
+                public void edit(Instanceof i) { counts[3]++; }
+            },
+            new ExprEditor() {
+                public void edit(MethodCall m) throws CannotCompileException {
+                    if (m.getMethodName().equals("toString")
+                        && m.getSignature().equals("()Ljava/lang/String;")) {
+                        counts[4]++;
+                        m.replace("{ $_ = $proceed($$); }");
+                    }
+                }
+            },
+            new ExprEditor() {
+                public void edit(Handler h) throws CannotCompileException {
+                    if (!h.isFinally()) {
+                        counts[5]++;
+                        h.insertBefore("{ $1 = $1; }");
+                    }
+                }
+            } };
+    }
+}
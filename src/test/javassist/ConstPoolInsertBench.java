@@ -0,0 +1,37 @@
+package javassist;
+
+import javassist.bytecode.ConstPool;
+
+/**
+ * Measures the time for adding constants to a large constant pool
+ * table.  Every constant is added several times, so most of the calls
+ * to <code>ConstPool.addXxxInfo()</code> find an existing entry.
+ *
+ * <pre>java javassist.ConstPoolInsertBench [constants] [rounds]</pre>
+ */
+public class ConstPoolInsertBench {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++)
+            names[i] = "get" + Integer.toHexString(i * 0x9e3779b9);
+
+        System.out.println("constants: " + n + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            ConstPool cp = new ConstPool("test.Mapper");
+            int thisClass = cp.getThisClassInfo();
+            for (int k = 0; k < 10; k++)
+                for (int i = 0; i < n; i++) {
+                    cp.addMethodrefInfo(thisClass, names[i], "()Ljava/lang/String;");
+                    cp.addStringInfo(names[i]);
+                    cp.addIntegerInfo(i * 0x9e3779b9);
+                    cp.addLongInfo(i * 0x9e3779b97f4a7c15L);
+                }
+
+            long t = (System.nanoTime() - t0) / 1000000;
+            System.out.println("time: " + t + " ms\tentries: " + cp.getSize());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package javassist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javassist.bytecode.stackmap.TypeData;
+
+/**
+ * Measures <code>CtClass.subtypeOf()</code> and the common super class
+ * computed for stack maps over all the classes in a jar file.
+ * Every class is tested against a fixed set of super types and
+ * every class that is not an interface is paired with its neighbour.
+ *
+ * <pre>java javassist.HierarchyQueryBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class HierarchyQueryBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        ClassPool cp = new ClassPool(true);
+        cp.appendClassPath(jar);
+        List<CtClass> classes = new ArrayList<CtClass>();
+        List<CtClass> concrete = new ArrayList<CtClass>();
+        for (String name: ClassPoolContentionBench.classNames(jar)) {
+            CtClass cc = cp.get(name);
+            classes.add(cc);
+            if (!cc.isInterface())
+                concrete.add(cc);
+        }
+
+        CtClass[] targets = { cp.get("java.lang.Object"), cp.get("java.io.Serializable"),
+                              cp.get("java.lang.Exception"), cp.get("java.lang.Runnable"),
+                              cp.get("javassist.CtClass"), cp.get("javassist.ClassPath"),
+                              cp.get("javassist.CtMember"), cp.get("java.lang.Cloneable") };
+
+        System.out.println("classes: " + classes.size() + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            int found = 0;
+            for (CtClass cc: classes)
+                for (CtClass t: targets)
+                    if (cc.subtypeOf(t))
+                        found++;
+
+            long t1 = System.nanoTime();
+            int common = 0;
+            for (int i = 1; i < concrete.size(); i++)
+                if (TypeData.commonSuperClass(concrete.get(i), concrete.get(i - 1))
+                    != targets[0])
+                    common++;
+
+            long t2 = System.nanoTime();
+            System.out.println("subtypeOf: " + (t1 - t0) / 1000 + " us (" + found
+                               + ")\tcommon super class: " + (t2 - t1) / 1000
+                               + " us (" + common + ")");
+        }
+    }
+}
@@ -667,4 +667,1223 @@ public class JvstTest5 extends JvstTestRoot {
         assertEquals("javassist.MultipleNestedClasses", nested2ICA.outerClass(0));
         assertEquals("javassist.MultipleNestedClasses$Nested2", nested2ICA.innerClass(0));
     }
+
+    public void testConcurrentClassPool() throws Exception {
+        final ClassPool cp = new ClassPool(null, true);
+        assertTrue(cp.isConcurrent());
+        assertFalse(sloader.isConcurrent());
+        cp.appendClassPath(PATH);
+        cp.appendSystemPath();
+        final String[] names = { "test5.BoolTest", "java.lang.String",
+                                 "java.util.ArrayList", "test5.NotExist" };
+        final CtClass[][] found = new CtClass[8][names.length];
+        Thread[] threads = new Thread[found.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int k = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < names.length; j++)
+                        found[k][j] = cp.getOrNull(names[j]);
+                }
+            };
+        }
+
+        for (Thread t: threads)
+            t.start();
+
+        for (Thread t: threads)
+            t.join();
+
+        for (int i = 0; i < found.length; i++) {
+            assertNotNull(found[i][0]);
+            assertSame(found[0][0], found[i][0]);
+            assertSame(found[0][1], found[i][1]);
+            assertSame(found[0][2], found[i][2]);
+            assertNull(found[i][3]);
+        }
+
+        assertSame(found[0][1], cp.get("java.lang.String"));
+        assertEquals("java.lang.Object", found[0][2].getSuperclass().getSuperclass().getSuperclass().getName());
+        CtClass cc = cp.makeClass("test5.ConcurrentPool");
+        assertSame(cc, cp.get("test5.ConcurrentPool"));
+        cc.detach();
+        assertNull(cp.getOrNull("test5.ConcurrentPool"));
+    }
+
+    public void testJarClassPathClose() throws Exception {
+        ClassPool cp = new ClassPool(null);
+        ClassPath path = cp.appendClassPath(JAR_PATH + "javassist.jar");
+        assertTrue(path instanceof java.io.Closeable);
+        CtClass cc = cp.get("javassist.CtMethod");
+        assertEquals("javassist.CtBehavior", cc.getSuperclass().getName());
+        java.net.URL url = cp.find("javassist.CtField");
+        assertTrue(url.toString().startsWith("jar:file:"));
+        url.openStream().close();
+
+        ((java.io.Closeable)path).close();
+        assertEquals("javassist.CtField", cp.get("javassist.CtField").getClassFile2().getName());
+        cp.removeClassPath(path);
+        assertNull(cp.find("javassist.CtNewMethod"));
+        assertNull(cp.getOrNull("javassist.CtNewMethod"));
+
+        File jar = new File("jarclasspath-close-test.jar");
+        java.nio.file.Files.copy(new File(JAR_PATH + "javassist.jar").toPath(), jar.toPath(),
+                                 java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        ClassPath path2 = cp.appendClassPath(jar.getPath());
+        ((java.io.Closeable)path2).close();
+        assertTrue(jar.delete());
+        try {
+            path2.openClassfile("javassist.CtField");
+            fail("the jar file was deleted");
+        }
+        catch (NotFoundException e) {
+            assertTrue(e.getCause() instanceof java.io.IOException);
+        }
+    }
+
+    public void testClassPathIndex() throws Exception {
+        File jar = new File("classpath-index-test.jar");
+        java.nio.file.Files.copy(new File(JAR_PATH + "javassist.jar").toPath(), jar.toPath(),
+                                 java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        File file = new File("classpath-index-test.idx");
+        file.delete();
+
+        ClassPathIndex index = new ClassPathIndex(file);
+        ClassPool cp = new ClassPool(null);
+        cp.setClassPathIndex(index);
+        cp.appendClassPath(jar.getPath());
+        assertEquals(1, index.getMisses());
+        assertTrue(index.isModified());
+        index.save();
+        assertTrue(file.isFile());
+        assertFalse(index.isModified());
+
+        ClassPathIndex index2 = new ClassPathIndex(file);
+        ClassPool cp2 = new ClassPool(null);
+        cp2.setClassPathIndex(index2);
+        cp2.appendClassPath(jar.getPath());
+        assertEquals(1, index2.getHits());
+        assertEquals(0, index2.getMisses());
+        assertFalse(index2.isModified());
+        assertNotNull(cp2.find("javassist.CtClass"));
+        assertNull(cp2.find("javassist.NoSuchClass"));
+        assertEquals("javassist.CtBehavior", cp2.get("javassist.CtMethod").getSuperclass().getName());
+
+        jar.setLastModified(jar.lastModified() - 10000);
+        ClassPool cp3 = new ClassPool(null);
+        cp3.setClassPathIndex(index2);
+        cp3.appendClassPath(jar.getPath());
+        assertEquals(1, index2.getMisses());
+        assertTrue(index2.isModified());
+        assertNotNull(cp3.find("javassist.CtClass"));
+        index2.save();
+        file.delete();
+        jar.delete();
+    }
+
+    public void testModuleClassPath() throws Exception {
+        if (!JvstTest.java9)
+            return;
+
+        assertTrue(ModuleClassPath.isAvailable());
+        ClassPool cp = new ClassPool(null);
+        ClassPath path = cp.appendClassPath(new ModuleClassPath());
+        CtClass cc = cp.get("java.util.ArrayList");
+        assertEquals("java.util.AbstractList", cc.getSuperclass().getName());
+        assertNotNull(cp.get("java.util.Map$Entry"));
+        assertNotNull(cp.get("java.sql.Connection"));
+        assertEquals("jrt", cp.find("java.lang.String").getProtocol());
+        assertNull(cp.find("java.lang.NoSuchClass"));
+        assertNull(cp.find("javassist.CtClass"));
+        assertNull(path.openClassfile("javassist.CtClass"));
+        assertNull(path.openClassfile("NoPackage"));
+
+        ClassPool cp2 = new ClassPool(true);
+        assertTrue(cp2.toString().contains("jrt:/"));
+        assertEquals("jrt", cp2.find("java.lang.String").getProtocol());
+        assertNotNull(cp2.get("javassist.CtClass"));
+    }
+
+    public void testClassPathRouting() throws Exception {
+        ClassPool cp = new ClassPool(null);
+        cp.appendClassPath(JAR_PATH + "javassist.jar");
+        cp.appendClassPath(PATH);
+        cp.appendClassPath(JAR_PATH + "javassist.jar");
+        assertNotNull(cp.find("javassist.CtClass"));
+        assertNotNull(cp.find("test5.BoolTest"));
+        ClassPathStatistics stats = cp.getClassPathStatistics();
+        assertEquals(2, stats.getLookups());
+        assertEquals(2, stats.getProbes());
+        assertEquals(2, stats.getSkippedProbes());
+        assertNull(cp.find("test5.NoSuchClass"));
+        assertNull(cp.find("test5.NoSuchClass"));
+        stats = cp.getClassPathStatistics();
+        assertEquals(2, stats.getMisses());
+        assertEquals(0, stats.getNegativeCacheHits());
+
+        cp.setNegativeLookupCacheSize(2);
+        assertNull(cp.find("test5.NoSuchClass"));
+        assertNull(cp.find("test5.NoSuchClass"));
+        assertNull(cp.find("test5.NoSuchClass2"));
+        assertNull(cp.find("test5.NoSuchClass3"));
+        assertNull(cp.find("test5.NoSuchClass"));
+        stats = cp.getClassPathStatistics();
+        assertEquals(1, stats.getNegativeCacheHits());
+        assertEquals(6, stats.getMisses());
+
+        assertNull(cp.find("test5.Added"));
+        cp.insertClassPath(new ByteArrayClassPath("test5.Added", new byte[0]));
+        assertNotNull(cp.find("test5.Added"));
+    }
+
+    public void testSystemPathRouting() throws Exception {
+        if (!JvstTest.java9)
+            return;
+
+        ClassPool cp = new ClassPool(null);
+        ClassPath path = cp.appendSystemPath();
+        assertNull(cp.find("test5.NoSuchClass"));
+        ClassPathStatistics stats = cp.getClassPathStatistics();
+        assertEquals(1, stats.getProbes());
+        assertEquals(1, stats.getSkippedProbes());     // the run-time image
+        assertNotNull(cp.find("javassist.CtClass"));
+        assertEquals("jrt", cp.find("java.lang.String").getProtocol());
+        stats = cp.getClassPathStatistics();
+        assertEquals(3, stats.getProbes());
+        assertEquals(2, stats.getSkippedProbes());
+
+        cp.removeClassPath(path);
+        assertNull(cp.find("java.lang.String"));
+    }
+
+    public void testEvictionPolicy() throws Exception {
+        ClassPool cp = new ClassPool(null);
+        cp.appendClassPath(JAR_PATH + "javassist.jar");
+        assertNull(cp.getEvictionStatistics());
+        cp.setEvictionPolicy(new EvictionPolicy.LRU(), 30000);
+        assertTrue(cp.getEvictionPolicy() instanceof EvictionPolicy.LRU);
+
+        CtClass modified = cp.get("javassist.CtField");
+        modified.setModifiers(Modifier.PUBLIC);
+        CtClass frozen = cp.get("javassist.CtNewMethod");
+        frozen.toBytecode();
+        frozen.getClassFile2();
+        assertTrue(frozen.isFrozen());
+        assertFalse(frozen.isModified());
+        String[] names = { "javassist.CtMethod", "javassist.CtBehavior",
+                           "javassist.CtClass", "javassist.ClassPool",
+                           "javassist.CtConstructor", "javassist.CtMember" };
+        for (String name: names)
+            cp.get(name).getClassFile2();
+
+        EvictionStatistics stats = cp.getEvictionStatistics();
+        assertTrue(stats.toString(), stats.getEvictions() > 0);
+        assertTrue(stats.getEvictedBytes() > 0);
+        assertTrue(stats.getPinnedSkips() > 0);
+        assertSame(modified, cp.get("javassist.CtField"));
+        assertSame(frozen, cp.get("javassist.CtNewMethod"));
+        CtClass last = cp.get(names[names.length - 1]);
+        assertSame(last, cp.get(names[names.length - 1]));
+
+        ClassPool cp2 = new ClassPool(null);
+        cp2.appendClassPath(JAR_PATH + "javassist.jar");
+        cp2.setEvictionPolicy(new EvictionPolicy.LFU(), 80000);
+        CtClass often = cp2.get("javassist.CtMethod");
+        often.getClassFile2();
+        for (int i = 0; i < 3; i++)
+            cp2.get("javassist.CtMethod");
+
+        for (String name: names)
+            cp2.get(name).getClassFile2();
+
+        assertTrue(cp2.getEvictionStatistics().getEvictions() > 0);
+        assertSame(often, cp2.get("javassist.CtMethod"));
+
+        // the pinned classes alone exceed the budget.
+        ClassPool cp3 = new ClassPool(null);
+        cp3.appendClassPath(JAR_PATH + "javassist.jar");
+        cp3.setEvictionPolicy(new EvictionPolicy.LRU(), 1);
+        CtClass pinned1 = cp3.get("javassist.CtField");
+        pinned1.setModifiers(Modifier.PUBLIC);
+        CtClass pinned2 = cp3.get("javassist.CtNewMethod");
+        pinned2.setModifiers(Modifier.PUBLIC);
+        for (String name: names)
+            cp3.get(name).getClassFile2();
+
+        stats = cp3.getEvictionStatistics();
+        assertEquals(2, stats.getPinnedSkips());
+        assertEquals(names.length - 1, stats.getEvictions());
+        assertSame(pinned1, cp3.get("javassist.CtField"));
+        cp3.get("javassist.CtNewConstructor").getClassFile2();
+        assertEquals(3, cp3.getEvictionStatistics().getPinnedSkips());
+        assertSame(pinned1, cp3.get("javassist.CtField"));
+        assertSame(pinned2, cp3.get("javassist.CtNewMethod"));
+    }
+
+    public void testGetAll() throws Exception {
+        java.util.List<String> names = java.util.Arrays.asList(
+            "javassist.CtMethod", "javassist.NoSuchClass", "javassist.CtField",
+            "java.lang.String", "int", "javassist.CtClass[]", "test5.NoSuchClass");
+        for (boolean concurrent: new boolean[] { false, true }) {
+            ClassPool cp = new ClassPool(null, concurrent);
+            cp.appendSystemPath();
+            cp.appendClassPath(JAR_PATH + "javassist.jar");
+            java.util.List<String> missing = new java.util.ArrayList<String>();
+            java.util.Map<String,CtClass> map = cp.getAll(names, missing);
+            assertEquals(java.util.Arrays.asList("javassist.NoSuchClass", "test5.NoSuchClass"), missing);
+            assertEquals(java.util.Arrays.asList("javassist.CtMethod", "javassist.CtField", "java.lang.String",
+                                                 "int", "javassist.CtClass[]"),
+                         new java.util.ArrayList<String>(map.keySet()));
+            assertSame(map.get("javassist.CtMethod"), cp.get("javassist.CtMethod"));
+            assertSame(CtClass.intType, map.get("int"));
+            assertNotNull(((CtClassType)map.get("javassist.CtField")).classfile);
+
+            java.util.concurrent.ExecutorService exec = java.util.concurrent.Executors.newFixedThreadPool(3);
+            try {
+                java.util.Map<String,CtClass> map2
+                    = cp.getAllAsync(names, null, exec).get();
+                assertEquals(map, map2);
+            }
+            finally {
+                exec.shutdown();
+            }
+        }
+    }
+
+    public void testGetAllPublication() throws Exception {
+        java.util.List<String> names = java.util.Arrays.asList(
+            "javassist.CtMethod", "javassist.CtField", "test5.BrokenClassFile");
+        for (boolean concurrent: new boolean[] { false, true }) {
+            ClassPool cp = new ClassPool(null, concurrent);
+            cp.appendClassPath(JAR_PATH + "javassist.jar");
+            cp.appendClassPath(new ByteArrayClassPath("test5.BrokenClassFile", new byte[] { 1, 2, 3 }));
+            final java.util.LinkedList<Runnable> queue = new java.util.LinkedList<Runnable>();
+            java.util.List<String> missing = new java.util.ArrayList<String>();
+            java.util.concurrent.CompletableFuture<java.util.Map<String,CtClass>> future
+                = cp.getAllAsync(names, missing, queue::add);
+            while (queue.size() > 0) {
+                assertNull(cp.getCached("javassist.CtMethod"));
+                assertNull(cp.getCached("javassist.CtField"));
+                queue.removeFirst().run();
+            }
+
+            java.util.Map<String,CtClass> map = future.get();
+            assertEquals(java.util.Arrays.asList("test5.BrokenClassFile"), missing);
+            assertSame(map.get("javassist.CtMethod"), cp.getCached("javassist.CtMethod"));
+            assertSame(map.get("javassist.CtField"), cp.get("javassist.CtField"));
+            assertNull(cp.getCached("test5.BrokenClassFile"));
+        }
+    }
+
+    public void testClassPathBuffer() throws Exception {
+        byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(PATH + "test5/BoolTest.class"));
+        final byte[] shared = original.clone();
+        ClassPool cp = new ClassPool(null);
+        cp.appendClassPath(new ByteArrayClassPath("test5.BoolTest", shared));
+        java.nio.ByteBuffer buf = cp.openClassfileBuffer("test5.BoolTest");
+        assertTrue(buf.isReadOnly());
+        assertEquals(shared.length, buf.remaining());
+        assertNull(cp.openClassfileBuffer("test5.NoSuchClass"));
+
+        CtClass cc = cp.get("test5.BoolTest");
+        byte[] b = cc.toBytecode();
+        assertNotSame(shared, b);
+        assertTrue(java.util.Arrays.equals(original, b));
+
+        ClassPool cp2 = new ClassPool(null);
+        cp2.appendClassPath(new ClassPath() {
+            public java.io.InputStream openClassfile(String name) {
+                return name.equals("test5.BoolTest") ? new java.io.ByteArrayInputStream(shared) : null;
+            }
+            public java.net.URL find(String name) {
+                try {
+                    return name.equals("test5.BoolTest") ? new java.net.URL("file:/BoolTest.class") : null;
+                }
+                catch (java.net.MalformedURLException e) { return null; }
+            }
+        });
+        cp2.appendSystemPath();
+        cp2.appendClassPath(JAR_PATH + "javassist.jar");
+        assertEquals(shared.length, cp2.openClassfileBuffer("test5.BoolTest").remaining());
+        CtClass cc2 = cp2.get("test5.BoolTest");
+        cc2.addField(new CtField(CtClass.intType, "added", cc2));
+        byte[] b2 = cc2.toBytecode();
+        assertEquals(cc2.getClassFile2().sizeOf(), b2.length);
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        cc2.getClassFile2().write(new java.io.DataOutputStream(out));
+        assertTrue(java.util.Arrays.equals(out.toByteArray(), b2));
+
+        CtClass made = cp2.makeClass("test5.MadeByBuffer");
+        byte[] b3 = made.toBytecode();
+        assertEquals(1, new javassist.bytecode.ClassFile(java.nio.ByteBuffer.wrap(b3))
+                             .getMethods().size());     // the inherited constructor
+        assertTrue(cp2.get("javassist.CtMethod").toBytecode().length > 0);
+    }
+
+    public void testSymbolTable() throws Exception {
+        for (boolean weak: new boolean[] { false, true }) {
+            ClassPool cp = new ClassPool(null);
+            cp.appendClassPath(JAR_PATH + "javassist.jar");
+            javassist.bytecode.SymbolTable table = new javassist.bytecode.SymbolTable(weak);
+            cp.setSymbolTable(table);
+            assertSame(table, cp.getSymbolTable());
+            javassist.bytecode.ClassFile cf1 = cp.get("javassist.CtMethod").getClassFile2();
+            javassist.bytecode.ClassFile cf2 = cp.get("javassist.CtField").getClassFile2();
+            assertTrue(table.size() > 0);
+            assertSame(cf1.getAttribute("SourceFile").getName(),
+                       cf2.getAttribute("SourceFile").getName());
+            assertSame(cf1.getMethods().get(0).getCodeAttribute().getName(),
+                       cf2.getMethods().get(0).getCodeAttribute().getName());
+            assertSame(table.intern(new String("java/lang/Object")),
+                       table.intern(new String("java/lang/Object")));
+        }
+
+        ClassPool cp2 = new ClassPool(null);
+        cp2.appendClassPath(JAR_PATH + "javassist.jar");
+        javassist.bytecode.ClassFile cf3 = cp2.get("javassist.CtMethod").getClassFile2();
+        javassist.bytecode.ClassFile cf4 = cp2.get("javassist.CtField").getClassFile2();
+        assertNotSame(cf3.getMethods().get(0).getCodeAttribute().getName(),
+                      cf4.getMethods().get(0).getCodeAttribute().getName());
+    }
+
+    public void testOriginalClassFile() throws Exception {
+        final byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(PATH + "test5/BoolTest.class"));
+        final int[] opened = new int[1];
+        boolean keep = ClassPool.keepOriginalClassFile;
+        ClassPool.keepOriginalClassFile = true;
+        try {
+            testOriginalClassFile(original, opened);
+        }
+        finally {
+            ClassPool.keepOriginalClassFile = keep;
+        }
+    }
+
+    private void testOriginalClassFile(final byte[] original, final int[] opened) throws Exception {
+        ClassPool cp = new ClassPool(null);
+        cp.appendClassPath(new ClassPath() {
+            public java.io.InputStream openClassfile(String name) {
+                if (!name.equals("test5.BoolTest"))
+                    return null;
+
+                opened[0]++;
+                return new java.io.ByteArrayInputStream(original);
+            }
+            public java.net.URL find(String name) {
+                try {
+                    return name.equals("test5.BoolTest") ? new java.net.URL("file:/BoolTest.class") : null;
+                }
+                catch (java.net.MalformedURLException e) { return null; }
+            }
+        });
+
+        CtClass cc = cp.get("test5.BoolTest");
+        assertTrue(cc.getDeclaredMethods().length > 0);
+        assertEquals(1, opened[0]);
+        cc.prune();
+        byte[] b = cc.toBytecode();
+        assertTrue(java.util.Arrays.equals(original, b));
+        b[0] = 0;
+        java.io.ByteArrayOutputStream bout = new java.io.ByteArrayOutputStream();
+        cc.toBytecode(new java.io.DataOutputStream(bout));
+        assertTrue(java.util.Arrays.equals(original, bout.toByteArray()));
+        assertEquals(1, opened[0]);
+
+        ClassPool.keepOriginalClassFile = false;
+        try {
+            ClassPool cp2 = new ClassPool(null);
+            cp2.appendClassPath(new ByteArrayClassPath("test5.BoolTest", original));
+            CtClass cc2 = cp2.get("test5.BoolTest");
+            cc2.getClassFile2();
+            assertNull(((CtClassType)cc2).originalClassfile);
+            assertTrue(java.util.Arrays.equals(original, cc2.toBytecode()));
+        }
+        finally {
+            ClassPool.keepOriginalClassFile = true;
+        }
+
+        ClassPool cp3 = new ClassPool(null);
+        cp3.appendClassPath(new ByteArrayClassPath("test5.BoolTest", original));
+        cp3.appendSystemPath();
+        CtClass cc3 = cp3.get("test5.BoolTest");
+        cc3.getClassFile2();
+        assertNotNull(((CtClassType)cc3).originalClassfile);
+        cc3.addField(new CtField(CtClass.intType, "added", cc3));
+        assertNull(((CtClassType)cc3).originalClassfile);
+        byte[] b3 = cc3.toBytecode();
+        assertTrue(b3.length > original.length);
+        assertEquals(2, new javassist.bytecode.ClassFile(java.nio.ByteBuffer.wrap(b3))
+                                .getFields().size());
+    }
+
+    public void testClassHierarchyIndex() throws Exception {
+        java.io.File file = new java.io.File("hierarchy.idx");
+        file.delete();
+        java.util.List<String> classpath = java.util.Arrays.asList(
+                JAR_PATH + "javassist.jar", PATH, "no-such.jar");
+        ClassHierarchyIndex index = new ClassHierarchyIndex(file);
+        index.update(classpath);
+        assertEquals(0, index.getHits());
+        assertEquals(2, index.getMisses());
+        assertTrue(index.isModified());
+        assertEquals("javassist.CtClass", index.getSuperclass("javassist.CtClassType"));
+        assertNull(index.getSuperclass("java.lang.NoSuchClass"));
+        assertEquals("java.lang.Object", index.getSuperclass("test5.RemoveAnnotation"));
+
+        java.util.Set<String> subs = index.getSubtypes("javassist.CtClass");
+        assertTrue(subs.contains("javassist.CtClassType"));
+        assertTrue(subs.contains("javassist.CtNewClass"));     // indirect
+        assertTrue(subs.contains("javassist.CtArray"));
+        assertFalse(subs.contains("javassist.CtClass"));
+        java.util.Set<String> impls = index.getImplementors("javassist.ClassPath");
+        assertTrue(impls.contains("javassist.LoaderClassPath"));
+        assertTrue(impls.contains("javassist.ByteArrayClassPath"));
+        assertFalse(impls.contains("javassist.ClassPath"));
+        assertTrue(java.util.Arrays.asList(index.getInterfaces("javassist.LoaderClassPath"))
+                   .contains("javassist.ClassPath"));
+
+        assertTrue(index.getAnnotatedClasses("test5.RemoveAnno1").contains("test5.RemoveAnnotation"));
+        assertTrue(index.getAnnotatedClasses("test4.Anno1").contains("test4.Anno"));
+        assertEquals(0, index.getAnnotatedClasses("test4.NoSuchAnno").size());
+        assertEquals("test4.Anno1", index.getAnnotations("test4.Anno")[0]);
+        int size = index.getClassNames().size();
+
+        index.save();
+        assertFalse(index.isModified());
+        assertTrue(file.isFile());
+
+        ClassHierarchyIndex index2 = new ClassHierarchyIndex(file);
+        assertEquals(size, index2.getClassNames().size());
+        assertEquals("javassist.CtClass", index2.getSuperclass("javassist.CtClassType"));
+        assertTrue(index2.getAnnotatedClasses("test5.RemoveAnno1").contains("test5.RemoveAnnotation"));
+        index2.update(classpath);
+        assertEquals(1, index2.getHits());         // the directory is read again
+        assertEquals(1, index2.getMisses());
+        assertEquals(size, index2.getClassNames().size());
+
+        index2.update(java.util.Arrays.asList(JAR_PATH + "javassist.jar"));
+        assertFalse(index2.contains("test5.RemoveAnnotation"));
+        assertTrue(index2.contains("javassist.CtClass"));
+        assertTrue(index2.isModified());
+        file.delete();
+    }
+
+    public void testHierarchyCache() throws Exception {
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        CtClass a = cp.makeClass("test5.HierA");
+        CtClass b = cp.makeClass("test5.HierB");
+        b.setSuperclass(a);
+        CtClass c = cp.makeClass("test5.HierC");
+        c.setSuperclass(a);
+        CtClass i = cp.makeInterface("test5.HierI");
+        CtClass object = cp.get("java.lang.Object");
+        assertTrue(b.subtypeOf(a));
+        assertTrue(b.subtypeOf(object));
+        assertFalse(b.subtypeOf(i));
+        assertFalse(a.subtypeOf(b));
+        assertSame(a, cp.getCommonSuperclass(b, c));
+        assertSame(a, cp.getCommonSuperclass(a, c));
+        assertSame(a, javassist.bytecode.stackmap.TypeData.commonSuperClass(c, b));
+        assertSame(object, cp.getCommonSuperclass(b, i));
+        assertSame(object, cp.getCommonSuperclass(object, object));
+        assertTrue(cp.hierarchy.size() > 0);
+
+        int size = cp.hierarchy.size();
+        ClassPool cp2 = new ClassPool(null);
+        cp2.makeClass("test5.HierA").setSuperclass(cp2.makeClass("test5.HierB2"));
+        assertEquals(size, cp.hierarchy.size());
+
+        b.addInterface(i);
+        assertTrue(b.subtypeOf(i));
+        assertTrue(cp.hierarchy.size() > 0);
+
+        CtClass d = cp.makeClass("test5.HierD");
+        c.setSuperclass(d);
+        assertTrue(c.subtypeOf(d));
+        assertFalse(c.subtypeOf(a));
+        assertSame(object, cp.getCommonSuperclass(b, c));
+
+        c.setInterfaces(new CtClass[] { i });
+        assertTrue(c.subtypeOf(i));
+        c.setInterfaces(null);
+        assertFalse(c.subtypeOf(i));
+
+        CtClass e = cp.makeClass("test5.HierE");
+        e.setSuperclass(b);
+        assertTrue(e.subtypeOf(i));
+        e.getClassFile().addInterface("test5.NoSuchInterface");
+        assertTrue(e.subtypeOf(a));
+        try {
+            e.subtypeOf(d);
+            fail();
+        }
+        catch (NotFoundException ex) {}
+
+        CtClass runnable = cp.get("java.lang.Runnable");
+        CtClass thread = cp.get("java.lang.Thread");
+        assertTrue(thread.subtypeOf(runnable));
+        assertFalse(cp.get("java.lang.String").subtypeOf(runnable));
+        assertSame(object, cp.getCommonSuperclass(thread, cp.get("java.lang.String")));
+        assertSame(cp.get("java.lang.Number"),
+                   cp.getCommonSuperclass(cp.get("java.lang.Integer"), cp.get("java.lang.Long")));
+
+        // a class read again after detach() does not inherit the modified hierarchy.
+        CtClass list = cp.get("java.util.ArrayList");
+        CtClass exception = cp.get("java.lang.Exception");
+        list.setSuperclass(exception);
+        assertTrue(list.subtypeOf(exception));
+        assertSame(exception, cp.getCommonSuperclass(list, cp.get("java.io.IOException")));
+        list.detach();
+        CtClass list2 = cp.get("java.util.ArrayList");
+        assertNotSame(list, list2);
+        assertEquals("java.util.AbstractList", list2.getSuperclass().getName());
+        assertFalse(list2.subtypeOf(exception));
+        assertSame(object, cp.getCommonSuperclass(list2, cp.get("java.io.IOException")));
+
+        // the super types are read only when they are needed.
+        ClassPool cp3 = new ClassPool(null);
+        cp3.appendSystemPath();
+        cp3.appendClassPath(JAR_PATH + "javassist.jar");
+        CtClass newClass = cp3.get("javassist.CtNewClass");
+        assertTrue(newClass.subtypeOf(cp3.get("javassist.CtClassType")));
+        assertNull(cp3.getCached("javassist.CtClass"));
+        assertFalse(newClass.subtypeOf(cp3.get("javassist.ClassPath")));
+        assertNotNull(cp3.getCached("javassist.CtClass"));
+        assertTrue(newClass.subtypeOf(cp3.get("javassist.CtClass")));
+    }
+
+    public void testHierarchyResolver() throws Exception {
+        final ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        cp.appendClassPath(JAR_PATH + "javassist.jar");
+        javassist.bytecode.HierarchyResolver r = cp.getHierarchyResolver();
+        assertTrue(r instanceof ClassHeaderIndex);
+        assertSame(r, cp.getHierarchyResolver());
+        assertNull(r.getSuperclass("java.lang.Object"));
+        assertEquals("java.lang.Object", r.getSuperclass("java.lang.Runnable"));
+        assertEquals("javassist.CtClass", r.getSuperclass("javassist.CtClassType"));
+        assertEquals("javassist.ClassPath", r.getInterfaces("javassist.LoaderClassPath")[0]);
+        assertNull(cp.getCached("javassist.CtClassType"));
+        try {
+            r.getSuperclass("test5.NoSuchClass");
+            fail();
+        }
+        catch (NotFoundException e) {}
+
+        CtClass a = cp.makeClass("test5.ResolverA");
+        CtClass b = cp.makeClass("test5.ResolverB");
+        b.setSuperclass(a);
+        assertEquals("test5.ResolverA", r.getSuperclass("test5.ResolverB"));
+
+        assertEquals("java.lang.Number",
+                     javassist.bytecode.stackmap.TypeData.commonSuperClassEx("java.lang.Integer", "java.lang.Long", r));
+        assertEquals("[Ljava/lang/Number;",
+                     javassist.bytecode.stackmap.TypeData.commonSuperClassEx("[Ljava/lang/Integer;", "[Ljava/lang/Long;", r));
+        assertEquals("[Ljava/lang/Number;",
+                     javassist.bytecode.stackmap.TypeData.commonSuperClassEx("[Ljava/lang/Integer;", "[Ljava/lang/Number;", r));
+        assertEquals("java.lang.Object", javassist.bytecode.stackmap.TypeData.commonSuperClassEx("[I", "[J", r));
+        assertEquals("java.lang.Object", javassist.bytecode.stackmap.TypeData.commonSuperClassEx("[I", "java.lang.String", r));
+        assertEquals("test5.ResolverA", javassist.bytecode.stackmap.TypeData.commonSuperClassEx("test5.ResolverB", "test5.ResolverA", r));
+        assertTrue(javassist.bytecode.stackmap.TypeData.subtypeOf("[Ljava/lang/Integer;", "[Ljava/lang/Number;", r));
+        assertTrue(javassist.bytecode.stackmap.TypeData.subtypeOf("[I", "java.io.Serializable", r));
+        assertFalse(javassist.bytecode.stackmap.TypeData.subtypeOf("[I", "[J", r));
+        assertTrue(javassist.bytecode.stackmap.TypeData.subtypeOf("java.lang.Thread", "java.lang.Runnable", r));
+        assertFalse(javassist.bytecode.stackmap.TypeData.subtypeOf("java.lang.Runnable", "java.lang.Thread", r));
+
+        // the stack maps are the same as the ones computed with CtClass objects.
+        javassist.bytecode.HierarchyResolver byCtClass = new javassist.bytecode.HierarchyResolver() {
+            public String getSuperclass(String name) throws NotFoundException {
+                CtClass sc = cp.get(name).getSuperclass();
+                return sc == null ? null : sc.getName();
+            }
+
+            public String[] getInterfaces(String name) throws NotFoundException {
+                return cp.get(name).getClassFile2().getInterfaces();
+            }
+        };
+
+        String[] names = { "javassist.CtClassType", "javassist.ClassPool",
+                           "javassist.bytecode.stackmap.Tracer" };
+        ClassFile[] files = new ClassFile[names.length];
+        for (int k = 0; k < names.length; k++) {
+            files[k] = new ClassFile(new java.io.DataInputStream(new java.io.ByteArrayInputStream(cp.readClassfile(names[k]))));
+            files[k].rebuildStackMaps(r);
+        }
+
+        assertNull(cp.getCached("javassist.CtMember"));
+        assertNull(cp.getCached("javassist.CtClassType"));
+        for (int k = 0; k < names.length; k++) {
+            ClassFile cf1 = files[k];
+            ClassFile cf2 = new ClassFile(new java.io.DataInputStream(new java.io.ByteArrayInputStream(cp.readClassfile(names[k]))));
+            cf2.rebuildStackMaps(byCtClass);
+            for (int i = 0; i < cf1.getMethods().size(); i++) {
+                javassist.bytecode.CodeAttribute ca1 = cf1.getMethods().get(i).getCodeAttribute();
+                javassist.bytecode.CodeAttribute ca2 = cf2.getMethods().get(i).getCodeAttribute();
+                if (ca1 != null) {
+                    AttributeInfo smt1 = ca1.getAttribute(javassist.bytecode.StackMapTable.tag);
+                    AttributeInfo smt2 = ca2.getAttribute(javassist.bytecode.StackMapTable.tag);
+                    assertEquals(smt1 == null, smt2 == null);
+                    if (smt1 != null)
+                        assertTrue(java.util.Arrays.equals(smt1.get(), smt2.get()));
+                }
+            }
+        }
+
+        assertTrue(((ClassHeaderIndex)r).size() > 10);
+
+        // a class missing in the class path
+        ClassFile cf = new ClassFile(new java.io.DataInputStream(new java.io.ByteArrayInputStream(cp.readClassfile("javassist.CtClassType"))));
+        javassist.bytecode.HierarchyResolver empty = new javassist.bytecode.HierarchyResolver() {
+            public String getSuperclass(String name) throws NotFoundException {
+                throw new NotFoundException(name);
+            }
+
+            public String[] getInterfaces(String name) throws NotFoundException {
+                throw new NotFoundException(name);
+            }
+        };
+
+        try {
+            cf.rebuildStackMaps(empty);
+            fail();
+        }
+        catch (javassist.bytecode.BadBytecode e) {}
+
+        cp.setHierarchyResolver(empty);
+        assertSame(empty, cp.getHierarchyResolver());
+        cp.setHierarchyResolver(null);
+        assertTrue(cp.getHierarchyResolver() instanceof ClassHeaderIndex);
+    }
+
+    public void testDeferredStackMap() throws Exception {
+        sloader.setStackMapDeferred(true);
+        try {
+            CtClass cc = sloader.makeClass("test5.DeferredStackMap");
+            CtMethod m = CtNewMethod.make(
+                "public int run() { int k = 0;"
+                + " for (int j = 0; j < 10; j++) {"
+                + "   Object o = j % 2 == 0 ? (Object)\"a\" : (Object)Integer.valueOf(j);"
+                + "   if (o instanceof String) k++; }"
+                + " return k; }", cc);
+            cc.addMethod(m);
+            CtMethod m2 = CtNewMethod.make("public int untouched() { return 1; }", cc);
+            cc.addMethod(m2);
+            MethodInfo minfo = m.getMethodInfo2();
+            MethodInfo minfo2 = m2.getMethodInfo2();
+            assertTrue(minfo.isStackMapDirty());
+            cc.getClassFile().rebuildDirtyStackMaps(sloader.getHierarchyResolver());
+            assertFalse(minfo.isStackMapDirty());
+            assertFalse(minfo2.isStackMapDirty());
+
+            m.insertBefore("{ if ($0 == null) return -1; }");
+            m.insertAfter("$_ = $_ + 100;");
+            m.instrument(new ExprEditor() {
+                public void edit(MethodCall mc) throws CannotCompileException {
+                    if (mc.getMethodName().equals("valueOf"))
+                        mc.replace("{ $_ = $proceed($$); }");
+                }
+            });
+            assertTrue(minfo.isStackMapDirty());
+            assertFalse(minfo2.isStackMapDirty());
+            cc.writeFile();
+            assertFalse(minfo.isStackMapDirty());
+            Object obj = make(cc.getName());
+            assertEquals(105, invoke(obj, "run"));
+            assertEquals(1, invoke(obj, "untouched"));
+        }
+        finally {
+            sloader.setStackMapDeferred(false);
+        }
+
+        assertFalse(sloader.isStackMapDeferred());
+        CtClass cc2 = sloader.makeClass("test5.DeferredStackMap2");
+        CtMethod m3 = CtNewMethod.make("public int run() { return 3; }", cc2);
+        cc2.addMethod(m3);
+        assertFalse(m3.getMethodInfo2().isStackMapDirty());
+    }
+
+    public void testParallelStackMap() throws Exception {
+        byte[] serial = makeParallelStackMap(null);
+        byte[] parallel = makeParallelStackMap(java.util.concurrent.ForkJoinPool.commonPool());
+        assertTrue(java.util.Arrays.equals(serial, parallel));
+
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        ClassFile cf = new ClassFile(new java.io.DataInputStream(new java.io.ByteArrayInputStream(serial)));
+        ClassFile cf2 = new ClassFile(new java.io.DataInputStream(new java.io.ByteArrayInputStream(serial)));
+        cf.rebuildStackMaps(cp.getHierarchyResolver());
+        cf2.rebuildStackMaps(cp.getHierarchyResolver(), java.util.concurrent.ForkJoinPool.commonPool());
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        cf.write(new java.io.DataOutputStream(out));
+        java.io.ByteArrayOutputStream out2 = new java.io.ByteArrayOutputStream();
+        cf2.write(new java.io.DataOutputStream(out2));
+        assertTrue(java.util.Arrays.equals(out.toByteArray(), out2.toByteArray()));
+
+        CtClass cc = sloader.makeClass(cf2);
+        cc.writeFile();
+        Object obj = make(cc.getName());
+        for (int i = 0; i < 30; i++)
+            assertEquals(i + 4, invoke(obj, "m" + i));
+
+        // a method that cannot be analyzed.
+        MethodInfo bad = cf2.getMethod("m7");
+        bad.getCodeAttribute().getCode()[0] = (byte)javassist.bytecode.Opcode.POP;
+        try {
+            cf2.rebuildStackMaps(cp.getHierarchyResolver(), java.util.concurrent.ForkJoinPool.commonPool());
+            fail("stack map for m7");
+        }
+        catch (javassist.bytecode.BadBytecode e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("m7") >= 0);
+        }
+    }
+
+    private byte[] makeParallelStackMap(java.util.concurrent.Executor executor) throws Exception {
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        cp.setStackMapDeferred(true);
+        cp.setStackMapExecutor(executor);
+        CtClass cc = cp.makeClass("test5.ParallelStackMap");
+        for (int i = 0; i < 30; i++) {
+            CtMethod m = CtNewMethod.make(
+                "public int m" + i + "() { int k = 0;"
+                + " for (int j = 0; j < " + (i + 1) + "; j++) {"
+                + "   Object o = j % 2 == 0 ? (Object)new StringBuilder() : (Object)new StringBuffer();"
+                + "   if (o instanceof CharSequence) k++; }"
+                + " return k; }", cc);
+            cc.addMethod(m);
+            m.insertBefore("{ java.util.List l = $0 == null ? (java.util.List)new java.util.ArrayList() : (java.util.List)new java.util.LinkedList(); }");
+            m.insertAfter("$_ = $_ + 3;");
+        }
+
+        assertEquals(executor, cp.getStackMapExecutor());
+        return cc.toBytecode();
+    }
+
+    public void testCodeIteratorBatch() throws Exception {
+        String[] classes = { "javassist.bytecode.CodeIterator",
+                             "javassist.bytecode.stackmap.Tracer",
+                             "java.util.regex.Pattern" };
+        int edited = 0;
+        for (String cname: classes) {
+            ClassFile cf1 = new ClassFile(new java.io.DataInputStream(sloader.openClassfile(cname)));
+            ClassFile cf2 = new ClassFile(new java.io.DataInputStream(sloader.openClassfile(cname)));
+            for (int m = 0; m < cf1.getMethods().size(); m++) {
+                javassist.bytecode.CodeAttribute ca1 = cf1.getMethods().get(m).getCodeAttribute();
+                javassist.bytecode.CodeAttribute ca2 = cf2.getMethods().get(m).getCodeAttribute();
+                if (ca1 == null)
+                    continue;
+
+                java.util.List<Integer> positions = new java.util.ArrayList<Integer>();
+                javassist.bytecode.CodeIterator it1 = ca1.iterator();
+                while (it1.hasNext())
+                    positions.add(it1.next());
+
+                byte[] probe = { (byte)javassist.bytecode.Opcode.ICONST_0, (byte)javassist.bytecode.Opcode.POP };
+                for (int i = positions.size() - 1; i >= 0; i -= 3)
+                    if (i % 2 == 0)
+                        it1.insertAt(positions.get(i), probe);
+                    else
+                        it1.insertExAt(positions.get(i), probe);
+
+                javassist.bytecode.CodeIterator.Batch batch = ca2.iterator().batch();
+                for (int i = positions.size() - 1; i >= 0; i -= 3)
+                    if (i % 2 == 0)
+                        batch.insert(positions.get(i), probe);
+                    else
+                        batch.insertEx(positions.get(i), probe);
+
+                int[] inserted = batch.apply();
+                assertEquals(batch.size(), 0);
+                for (int k: inserted)
+                    assertEquals(javassist.bytecode.Opcode.ICONST_0, ca2.getCode()[k]);
+
+                String name = cf1.getMethods().get(m).getName();
+                assertTrue(name, java.util.Arrays.equals(ca1.getCode(), ca2.getCode()));
+                javassist.bytecode.ExceptionTable et1 = ca1.getExceptionTable();
+                javassist.bytecode.ExceptionTable et2 = ca2.getExceptionTable();
+                assertEquals(et1.size(), et2.size());
+                for (int i = 0; i < et1.size(); i++) {
+                    assertEquals(et1.startPc(i), et2.startPc(i));
+                    assertEquals(et1.endPc(i), et2.endPc(i));
+                    assertEquals(et1.handlerPc(i), et2.handlerPc(i));
+                }
+
+                for (String tag: new String[] { javassist.bytecode.LineNumberAttribute.tag, javassist.bytecode.LocalVariableAttribute.tag,
+                                                javassist.bytecode.StackMapTable.tag }) {
+                    AttributeInfo a1 = ca1.getAttribute(tag);
+                    AttributeInfo a2 = ca2.getAttribute(tag);
+                    if (a1 != null)
+                        assertTrue(name + " " + tag, java.util.Arrays.equals(a1.get(), a2.get()));
+                }
+
+                edited++;
+            }
+        }
+
+        assertTrue(edited > 20);
+
+        CtClass cc = sloader.makeClass("test5.CodeIteratorBatch");
+        cc.addField(CtField.make("public static int count;", cc));
+        cc.addMethod(CtNewMethod.make(
+                "public int run(int n) { int sum = 0;"
+                + " for (int i = 0; i < n; i++) {"
+                + "   switch (i % 3) { case 0: sum += 2; break; case 1: sum += 20; break; default: sum += 200; }"
+                + "   try { if (i == 1) throw new RuntimeException(); } catch (RuntimeException e) { sum += 2000; } }"
+                + " return sum; }", cc));
+        MethodInfo minfo = cc.getDeclaredMethod("run").getMethodInfo();
+        ConstPool cp = minfo.getConstPool();
+        javassist.bytecode.CodeAttribute ca = minfo.getCodeAttribute();
+        javassist.bytecode.Bytecode probe = new javassist.bytecode.Bytecode(cp);
+        probe.addGetstatic(cc, "count", "I");
+        probe.addIconst(1);
+        probe.addOpcode(javassist.bytecode.Opcode.IADD);
+        probe.addPutstatic(cc, "count", "I");
+        javassist.bytecode.CodeIterator it = ca.iterator();
+        javassist.bytecode.CodeIterator.Batch batch = it.batch();
+        int probes = 0;
+        int replaced = -1;
+        while (it.hasNext()) {
+            int pos = it.next();
+            int op = it.byteAt(pos);
+            if (op == javassist.bytecode.Opcode.ICONST_2) {
+                javassist.bytecode.Bytecode b = new javassist.bytecode.Bytecode(cp);
+                b.addIconst(3);
+                replaced = batch.size();
+                batch.replace(pos, b.get());
+            }
+            else if (op == javassist.bytecode.Opcode.BIPUSH && it.byteAt(pos + 1) == 20)
+                batch.replace(pos, new byte[] { (byte)javassist.bytecode.Opcode.SIPUSH, 0, 30 });
+            else if (op == javassist.bytecode.Opcode.TABLESWITCH || op == javassist.bytecode.Opcode.LOOKUPSWITCH || op == javassist.bytecode.Opcode.ATHROW) {
+                batch.insert(pos, probe.get());
+                probes++;
+            }
+        }
+
+        assertEquals(probes + 2, batch.size());
+        int[] positions = batch.apply();
+        assertEquals(probes + 2, positions.length);
+        assertEquals(javassist.bytecode.Opcode.ICONST_3, it.byteAt(positions[replaced]));
+        ca.setMaxStack(ca.getMaxStack() + 2);
+        minfo.rebuildStackMapIf6(sloader, cc.getClassFile());
+        cc.writeFile();
+        Object obj = make(cc.getName());
+        assertEquals(3 + 30 + 200 + 2000, invoke(obj, "run", 3));
+        assertEquals(4, obj.getClass().getField("count").getInt(null));
+    }
+
+    public void testBranchRelaxation() throws Exception {
+        CtClass cc = sloader.makeClass("test5.BranchRelaxation");
+        StringBuilder body = new StringBuilder("public int run(int n) { int s = 0;"
+                                               + " for (int i = 0; i < n; i++) {");
+        for (int k = 0; k < 20; k++)
+            body.append(" switch ((i + ").append(k).append(") % 4) {"
+                        + " case 0: s += 1; break; case 1: s += 2; break;"
+                        + " case 2: s -= 1; break; default: s ^= ").append(k).append("; }")
+                .append(" if (s > ").append(k * 10).append(") s--;");
+
+        body.append(" } return s; }");
+        cc.addMethod(CtNewMethod.make(body.toString(), cc));
+        MethodInfo minfo = cc.getDeclaredMethod("run").getMethodInfo();
+        javassist.bytecode.CodeAttribute ca = minfo.getCodeAttribute();
+        javassist.bytecode.CodeIterator it = ca.iterator();
+        int where = -1;
+        while (it.hasNext()) {
+            int pos = it.next();
+            int op = it.byteAt(pos);
+            if ((op == javassist.bytecode.Opcode.TABLESWITCH
+                 || op == javassist.bytecode.Opcode.LOOKUPSWITCH) && where < 0)
+                where = pos;
+        }
+
+        assertTrue(where > 0);
+        int expected = invoke(make2(cc, "test5.BranchRelaxation0"), "run", 7);
+        for (int gap = 1; gap < 5; gap++) {
+            javassist.bytecode.CodeAttribute ca2
+                = (javassist.bytecode.CodeAttribute)ca.copy(minfo.getConstPool(), null);
+            ca2.iterator().insertGap(where, 33000 + gap);
+            int wide = 0;
+            javassist.bytecode.CodeIterator it2 = ca2.iterator();
+            while (it2.hasNext())
+                if (it2.byteAt(it2.next()) == javassist.bytecode.Opcode.GOTO_W)
+                    wide++;
+
+            assertTrue(wide > 0);
+            minfo.setCodeAttribute(ca2);
+            minfo.rebuildStackMapIf6(sloader, cc.getClassFile2());
+            Object obj = make2(cc, "test5.BranchRelaxation" + gap);
+            assertEquals(expected, invoke(obj, "run", 7));
+        }
+
+        // a batch of gaps exceeding 32K in total.
+        javassist.bytecode.CodeAttribute ca3
+            = (javassist.bytecode.CodeAttribute)ca.copy(minfo.getConstPool(), null);
+        javassist.bytecode.CodeIterator it3 = ca3.iterator();
+        javassist.bytecode.CodeIterator.Batch batch = it3.batch();
+        byte[] nops = new byte[451];
+        int k = 0;
+        while (it3.hasNext()) {
+            int pos = it3.next();
+            if (k++ % 7 == 0)
+                if (k % 2 == 0)
+                    batch.insert(pos, nops);
+                else
+                    batch.insertEx(pos, nops);
+        }
+
+        assertTrue(batch.size() * nops.length > 32768);
+        batch.apply();
+        minfo.setCodeAttribute(ca3);
+        minfo.rebuildStackMapIf6(sloader, cc.getClassFile2());
+        Object obj = make2(cc, "test5.BranchRelaxation5");
+        assertEquals(expected, invoke(obj, "run", 7));
+    }
+
+    private Object make2(CtClass cc, String name) throws Exception {
+        cc.defrost();
+        cc.setName(name);
+        cc.writeFile();
+        return make(name);
+    }
+
+    public void testCompositeExprEditor() throws Exception {
+        int[] visits1 = new int[4];
+        CtClass cc1 = makeCompositeEditorClass("test5.CompositeEditor1");
+        for (ExprEditor ed: compositeTestEditors(visits1))
+            cc1.instrument(ed);
+
+        int[] visits2 = new int[4];
+        CtClass cc2 = makeCompositeEditorClass("test5.CompositeEditor2");
+        cc2.instrument(new javassist.expr.CompositeExprEditor(compositeTestEditors(visits2)));
+        assertTrue(java.util.Arrays.equals(visits1, visits2));
+        assertEquals(4, visits1[3]);
+
+        cc1.writeFile();
+        cc2.writeFile();
+        Object obj1 = make(cc1.getName());
+        Object obj2 = make(cc2.getName());
+        assertEquals(invoke(obj1, "run", 5), invoke(obj2, "run", 5));
+        assertEquals(obj1.getClass().getField("count").getInt(null),
+                     obj2.getClass().getField("count").getInt(null));
+        assertEquals(7006, obj2.getClass().getField("count").getInt(null));
+    }
+
+    private CtClass makeCompositeEditorClass(String name) throws Exception {
+        CtClass cc = sloader.makeClass(name);
+        cc.addField(CtField.make("public static int count;", cc));
+        cc.addMethod(CtNewMethod.make("public int foo(int i) { return i + 1; }", cc));
+        cc.addMethod(CtNewMethod.make("public int bar(int i) { return i * 2; }", cc));
+        cc.addMethod(CtNewMethod.make(
+                "public int run(int n) { int s = 0;"
+                + " for (int i = 0; i < n; i++) {"
+                + "   try { s += foo(i); if (i == 2) throw new RuntimeException(); }"
+                + "   catch (RuntimeException e) { s += bar(i); } }"
+                + " return s; }", cc));
+        return cc;
+    }
+
+    /* The first editor inserts calls to bar(), which are visited
+     * by the second editor.  The third editor inserts a call to bar()
+     * into the catch clause, which is visited by the fourth editor.
+     */
+    private ExprEditor[] compositeTestEditors(int[] visits) {
+        return new ExprEditor[] {
+            new ExprEditor() {
+                public void edit(MethodCall m) throws CannotCompileException {
+                    visits[0]++;
+                    if (m.getMethodName().equals("foo"))
+                        m.replace("{ $_ = bar($1) + $proceed($$); }");
+                }
+            },
+            new ExprEditor() {
+                public void edit(MethodCall m) throws CannotCompileException {
+                    visits[1]++;
+                    if (m.getMethodName().equals("bar"))
+                        m.replace("{ count++; $_ = $proceed($$); }");
+                }
+            },
+            new ExprEditor() {
+                public void edit(javassist.expr.Handler h) throws CannotCompileException {
+                    visits[2]++;
+                    h.insertBefore("bar(100);");
+                }
+            },
+            new ExprEditor() {
+                public void edit(MethodCall m) throws CannotCompileException {
+                    visits[3]++;
+                    if (m.getMethodName().equals("bar") && m.where().getName().equals("run"))
+                        m.replace("{ count += 1000; $_ = $proceed($$); }");
+                }
+            } };
+    }
+
+    public void testMemberMatcher() throws Exception {
+        CtClass cc = sloader.makeClass("test5.MemberMatcherPrefilter");
+        cc.addField(CtField.make("public static int count;", cc));
+        cc.addMethod(CtNewMethod.make("public int abs(int i) { return Math.abs(i); }", cc));
+        cc.addMethod(CtNewMethod.make("public int len(String s) { return s.length(); }", cc));
+        cc.addMethod(CtNewMethod.make("public int get() { return count + \"foo\".length(); }", cc));
+        cc.addMethod(CtNewMethod.make("public int abs2(int i) { return i * 10; }", cc));
+        cc.addMethod(CtNewMethod.make("public int run() { return abs(-3) + len(\"ab\") + get(); }", cc));
+        javassist.bytecode.ConstPool cp = cc.getClassFile().getConstPool();
+        javassist.bytecode.MemberMatcher abs
+            = javassist.bytecode.MemberMatcher.method("java.lang.Math", "abs", null);
+        javassist.bytecode.MemberMatcher count
+            = javassist.bytecode.MemberMatcher.field(null, "count", "I");
+        assertTrue(abs.refersTo(cp));
+        assertTrue(abs.refersTo(cp, cc.getDeclaredMethod("abs").getMethodInfo().getCodeAttribute()));
+        assertFalse(abs.refersTo(cp, cc.getDeclaredMethod("len").getMethodInfo().getCodeAttribute()));
+        assertFalse(javassist.bytecode.MemberMatcher.method("java.lang.Math", "max", null).refersTo(cp));
+        assertFalse(javassist.bytecode.MemberMatcher.method(null, "abs", "(J)J").refersTo(cp));
+        assertFalse(javassist.bytecode.MemberMatcher.field(null, "abs", null).refersTo(cp));
+        assertFalse(abs.or(count).refersTo(cp, cc.getDeclaredMethod("len").getMethodInfo().getCodeAttribute()));
+        assertTrue(abs.or(count).refersTo(cp, cc.getDeclaredMethod("get").getMethodInfo().getCodeAttribute()));
+
+        final java.util.List<String> visited = new java.util.ArrayList<String>();
+        final javassist.bytecode.MemberMatcher targets
+            = javassist.bytecode.MemberMatcher.method(null, "length", null).or(count);
+        cc.instrument(new ExprEditor() {
+            public javassist.bytecode.MemberMatcher getTargets() { return targets; }
+            public void edit(MethodCall m) throws CannotCompileException {
+                visited.add(m.where().getName() + ":" + m.getMethodName());
+                if (m.getMethodName().equals("length"))
+                    m.replace("{ $_ = $proceed($$) + 100; }");
+            }
+            public void edit(javassist.expr.FieldAccess f) {
+                visited.add(f.where().getName() + ":" + f.getFieldName());
+            }
+        });
+        assertEquals(java.util.Arrays.asList("len:length", "get:count", "get:length"), visited);
+
+        CodeConverter conv = new CodeConverter();
+        conv.redirectMethodCall("abs", cc.getDeclaredMethod("abs2"));
+        cc.instrument(conv);
+        cc.writeFile();
+        Object obj = make(cc.getName());
+        assertEquals(-30 + 102 + 103, invoke(obj, "run"));
+    }
+
+    public void testInstrumentUnmatchedClass() throws Exception {
+        byte[] original = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(PATH + "test5/BoolTest.class"));
+        ClassPool cp = new ClassPool(null);
+        cp.appendClassPath(new ByteArrayClassPath("test5.BoolTest", original));
+        CtClass cc = cp.get("test5.BoolTest");
+        final int[] edited = new int[1];
+        final javassist.bytecode.MemberMatcher targets
+            = javassist.bytecode.MemberMatcher.method("test5.NoSuchClass", "foo", null);
+        ExprEditor editor = new ExprEditor() {
+            public javassist.bytecode.MemberMatcher getTargets() { return targets; }
+            public void edit(MethodCall m) { edited[0]++; }
+        };
+        cc.instrument(editor);
+        assertEquals(0, edited[0]);
+        assertFalse(cc.isModified());
+
+        CtClass other = cp.makeClass("test5.UnmatchedTarget");
+        CtMethod foo = CtNewMethod.make("public static void foo() {}", other);
+        other.addMethod(foo);
+        CodeConverter conv = new CodeConverter();
+        conv.redirectMethodCall("noSuchMethod", foo);
+        cc.instrument(conv);
+        assertFalse(cc.isModified());
+        assertTrue(java.util.Arrays.equals(original, cc.toBytecode()));
+
+        try {
+            cc.instrument(editor);
+            fail("frozen class");
+        }
+        catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("frozen"));
+        }
+    }
+
+    public void testMemberMatcherCallSites() throws Exception {
+        CtClass cc = sloader.makeClass("test5.MemberMatcherCallSites");
+        cc.addField(CtField.make("public static int count;", cc));
+        cc.addField(CtField.make("public int value;", cc));
+        cc.addMethod(CtNewMethod.make("public int foo(int i) { return Math.abs(i) + Math.max(i, count); }", cc));
+        cc.addMethod(CtNewMethod.make("public int run(String s) { value = s.length(); count++;"
+                                      + " return foo(-value) + Math.abs(count) + s.indexOf('b'); }", cc));
+        final javassist.bytecode.MemberMatcher abs
+            = javassist.bytecode.MemberMatcher.method("java.lang.Math", "abs", "(I)I");
+        final javassist.bytecode.MemberMatcher string
+            = javassist.bytecode.MemberMatcher.method("java.lang.String", null, null);
+        final javassist.bytecode.MemberMatcher count
+            = javassist.bytecode.MemberMatcher.field("test5.MemberMatcherCallSites", "count", null);
+        final int[] found = new int[3];
+        cc.instrument(new ExprEditor() {
+            public void edit(MethodCall m) throws CannotCompileException {
+                boolean isAbs = m.getClassName().equals("java.lang.Math")
+                                && m.getMethodName().equals("abs");
+                assertEquals(isAbs, m.matches(abs));
+                assertEquals(m.getClassName().equals("java.lang.String"), m.matches(string));
+                assertFalse(m.matches(count));
+                if (m.matches(abs)) {
+                    found[0]++;
+                    m.replace("{ $_ = $proceed($$) * 10; }");
+                }
+                else if (m.matches(string))
+                    found[1]++;
+            }
+            public void edit(javassist.expr.FieldAccess f) {
+                assertEquals(f.getFieldName().equals("count"), f.matches(count));
+                assertFalse(f.matches(abs));
+                if (f.matches(count))
+                    found[2]++;
+            }
+        });
+        assertEquals(2, found[0]);
+        assertEquals(2, found[1]);
+        assertEquals(4, found[2]);
+
+        javassist.bytecode.ConstPool cp = cc.getClassFile().getConstPool();
+        int index = cp.addMethodrefInfo(cp.addClassInfo("java.lang.String"), "trim",
+                                        "()Ljava/lang/String;");
+        assertTrue(string.matches(cp, index));
+        assertFalse(abs.matches(cp, index));
+        assertFalse(abs.matches(cp, 0));
+
+        cc.writeFile();
+        Object obj = make(cc.getName());
+        assertEquals(30 + 1 + 10 + 1, obj.getClass().getMethod("run", String.class).invoke(obj, "abc"));
+    }
+
+    public void testMemberMatcherAfterRename() throws Exception {
+        CtClass foo = sloader.makeClass("test5.MatcherRenameFoo");
+        foo.addMethod(CtNewMethod.make("public static int bar() { return 1; }", foo));
+        CtClass user = sloader.makeClass("test5.MatcherRenameUser");
+        user.addMethod(CtNewMethod.make("public int run() { return test5.MatcherRenameFoo.bar(); }", user));
+        final javassist.bytecode.MemberMatcher targets
+            = javassist.bytecode.MemberMatcher.method("test5.MatcherRenameBaz", "bar", null);
+        final int[] hits = new int[1];
+        ExprEditor editor = new ExprEditor() {
+            public javassist.bytecode.MemberMatcher getTargets() { return targets; }
+            public void edit(MethodCall m) { hits[0]++; }
+        };
+
+        final javassist.bytecode.MemberMatcher fooBar
+            = javassist.bytecode.MemberMatcher.method("test5.MatcherRenameFoo", "bar", null);
+        final int[] matches = new int[2];
+        ExprEditor editor2 = new ExprEditor() {
+            public void edit(MethodCall m) {
+                if (m.matches(fooBar))
+                    matches[0]++;
+
+                if (m.matches(targets))
+                    matches[1]++;
+            }
+        };
+
+        user.instrument(editor);
+        user.instrument(editor2);
+        assertEquals(0, hits[0]);
+        assertEquals(1, matches[0]);
+        assertEquals(0, matches[1]);
+        user.replaceClassName("test5.MatcherRenameFoo", "test5.MatcherRenameBaz");
+        user.instrument(editor);
+        user.instrument(editor2);
+        assertEquals(1, hits[0]);
+        assertEquals(1, matches[0]);
+        assertEquals(1, matches[1]);
+    }
 }
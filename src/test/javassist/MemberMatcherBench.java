@@ -0,0 +1,83 @@
+package javassist;
+
+import javassist.bytecode.MemberMatcher;
+import javassist.expr.ExprEditor;
+import javassist.expr.MethodCall;
+
+/**
+ * Compares the time for instrumenting all the classes in a jar file
+ * with an editor wrapping the calls to a few methods when the editor
+ * declares its targets by <code>getTargets()</code> and when it does not.
+ * Most classes do not call those methods.  It also checks that both
+ * editors edit the same number of calls.
+ *
+ * <pre>java javassist.MemberMatcherBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class MemberMatcherBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] names = ClassPoolContentionBench.classNames(jar);
+        System.out.println("classes: " + names.length + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            int[] count1 = new int[1];
+            long t1 = run(jar, names, false, count1);
+            int[] count2 = new int[1];
+            long t2 = run(jar, names, true, count2);
+            if (count1[0] != count2[0])
+                throw new RuntimeException("different edits");
+
+            System.out.println("edited calls: " + count1[0] + "\tall methods: "
+                               + t1 + " ms\twith targets: " + t2 + " ms");
+        }
+    }
+
+    static long run(String jar, String[] names, boolean filter, int[] count)
+        throws Exception
+    {
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        cp.appendClassPath(jar);
+        CtClass[] classes = new CtClass[names.length];
+        for (int i = 0; i < names.length; i++) {
+            classes[i] = cp.get(names[i]);
+            classes[i].getClassFile();
+        }
+
+        ExprEditor editor = filter ? new Tracer(count) {
+            final MemberMatcher targets
+                = MemberMatcher.method("java.io.PrintStream", "println", null)
+                  .or(MemberMatcher.method("java.lang.Thread", "sleep", null))
+                  .or(MemberMatcher.method("java.lang.System", "exit", null));
+
+            public MemberMatcher getTargets() { return targets; }
+        } : new Tracer(count);
+
+        long t0 = System.nanoTime();
+        for (CtClass cc: classes)
+            if (!cc.isInterface() && !cc.isAnnotation())
+                cc.instrument(editor);
+
+        return (System.nanoTime() - t0) / 1000000;
+    }
+
+    static class Tracer extends ExprEditor {
+        final int[] count;
+
+        Tracer(int[] count) { this.count = count; }
+
+        public void edit(MethodCall m) throws CannotCompileException {
+            String cname = m.getClassName();
+            String mname = m.getMethodName();
+            if ((cname.equals("java.io.PrintStream") && mname.equals("println"))
+                || (cname.equals("java.lang.Thread") && mname.equals("sleep"))
+                || (cname.equals("java.lang.System") && mname.equals("exit"))) {
+                count[0]++;
+                m.replace("{ long t = System.nanoTime(); $_ = $proceed($$); }");
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.HierarchyResolver;
+
+/**
+ * Compares the time for rebuilding the stack maps of a generated class
+ * with a large number of methods when the methods are analyzed serially
+ * and in parallel by the common fork-join pool.  It also checks that
+ * both produce the same class file.
+ *
+ * <pre>java javassist.ParallelStackMapBench [methods] [rounds]</pre>
+ */
+public class ParallelStackMapBench {
+    public static void main(String[] args) throws Exception {
+        int methods = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        ClassPool cp = new ClassPool(null);
+        cp.appendSystemPath();
+        byte[] classfile = makeClass(cp, methods);
+        HierarchyResolver resolver = cp.getHierarchyResolver();
+        System.out.println("methods: " + methods + " rounds: " + rounds
+                           + " threads: " + ForkJoinPool.getCommonPoolParallelism());
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            byte[] serial = rebuild(classfile, resolver, null);
+            long t1 = System.nanoTime();
+            byte[] parallel = rebuild(classfile, resolver, ForkJoinPool.commonPool());
+            long t2 = System.nanoTime();
+            if (!Arrays.equals(serial, parallel))
+                throw new RuntimeException("different class files");
+
+            System.out.println("serial: " + (t1 - t0) / 1000000 + " ms\tparallel: "
+                               + (t2 - t1) / 1000000 + " ms");
+        }
+    }
+
+    static byte[] makeClass(ClassPool cp, int methods) throws Exception {
+        CtClass cc = cp.makeClass("test5.ParallelStackMapBench");
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < methods; i++) {
+            body.setLength(0);
+            body.append("public Object m").append(i).append("(int n) { Object r = null;");
+            for (int j = 0; j < 8; j++)
+                body.append(" for (int j = 0; j < n; j++) {")
+                    .append(" Object o = j % ").append(j + 2).append(" == 0")
+                    .append(" ? (Object)new java.util.ArrayList()")
+                    .append(" : (Object)new java.util.LinkedList();")
+                    .append(" if (o instanceof java.util.List) r = o; }");
+
+            body.append(" return r; }");
+            cc.addMethod(CtNewMethod.make(body.toString(), cc));
+        }
+
+        return cc.toBytecode();
+    }
+
+    static byte[] rebuild(byte[] classfile, HierarchyResolver resolver,
+                          Executor executor)
+        throws Exception
+    {
+        ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(classfile)));
+        cf.rebuildStackMaps(resolver, executor);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cf.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+}
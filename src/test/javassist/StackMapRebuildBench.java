@@ -0,0 +1,63 @@
+package javassist;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.List;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.HierarchyResolver;
+
+/**
+ * Compares the time for rebuilding the stack maps of all the classes
+ * in a jar file when the type hierarchy is resolved by
+ * <code>ClassHeaderIndex</code> and by <code>CtClass</code> objects.
+ * It also reports how many classes are cached in the class pool.
+ *
+ * <pre>java javassist.StackMapRebuildBench [jar file] [rounds]</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class StackMapRebuildBench {
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "javassist.jar";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<byte[]> classfiles = ClassFileParseBench.readAll(jar);
+        System.out.println("classes: " + classfiles.size() + " rounds: " + rounds);
+        for (int r = 0; r < rounds; r++) {
+            run("header ", jar, classfiles, false);
+            run("CtClass", jar, classfiles, true);
+        }
+    }
+
+    static void run(String label, String jar, List<byte[]> classfiles,
+                    boolean useCtClass)
+        throws Exception
+    {
+        final ClassPool cp = new ClassPool(true);
+        cp.appendClassPath(jar);
+        int cached = cp.classes.size();
+        HierarchyResolver resolver = cp.getHierarchyResolver();
+        if (useCtClass)
+            resolver = new HierarchyResolver() {
+                public String getSuperclass(String name) throws NotFoundException {
+                    CtClass sc = cp.get(name).getSuperclass();
+                    return sc == null ? null : sc.getName();
+                }
+
+                public String[] getInterfaces(String name) throws NotFoundException {
+                    return cp.get(name).getClassFile2().getInterfaces();
+                }
+            };
+
+        long t0 = System.nanoTime();
+        for (byte[] b: classfiles) {
+            ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(b)));
+            cf.rebuildStackMaps(resolver);
+        }
+
+        long t = (System.nanoTime() - t0) / 1000000;
+        System.out.println(label + "\ttime: " + t + " ms\tCtClass objects: "
+                           + (cp.classes.size() - cached));
+    }
+}
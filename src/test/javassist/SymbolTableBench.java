@@ -0,0 +1,66 @@
+package javassist;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.SymbolTable;
+
+/**
+ * Measures the heap retained by the class files read by a
+ * <code>ClassPool</code> without a symbol table, with a strong one,
+ * and with a weak one.
+ *
+ * <pre>java javassist.SymbolTableBench [jar file] ...</pre>
+ *
+ * Without a jar file, <code>javassist.jar</code> in the current
+ * directory is read.
+ */
+public class SymbolTableBench {
+    public static void main(String[] args) throws Exception {
+        String[] jars = args.length > 0 ? args : new String[] { "javassist.jar" };
+        List<String> names = new ArrayList<String>();
+        for (String jar: jars)
+            for (String name: ClassPoolContentionBench.classNames(jar))
+                names.add(name);
+
+        System.out.println("classes: " + names.size());
+        for (int r = 0; r < 3; r++) {
+            report("none  ", jars, names, null);
+            report("strong", jars, names, new SymbolTable(false));
+            report("weak  ", jars, names, new SymbolTable(true));
+        }
+    }
+
+    static void report(String label, String[] jars, List<String> names,
+                       SymbolTable table)
+        throws Exception
+    {
+        long heap0 = usedHeap();
+        long t0 = System.nanoTime();
+        ClassPool cp = new ClassPool(null);
+        for (String jar: jars)
+            cp.appendClassPath(jar);
+
+        cp.setSymbolTable(table);
+        // ClassPool may release class files that are not used.
+        List<ClassFile> classes = new ArrayList<ClassFile>(names.size());
+        for (String name: names)
+            classes.add(cp.get(name).getClassFile2());
+
+        long t = (System.nanoTime() - t0) / 1000000;
+        long heap = usedHeap() - heap0;
+        System.out.println(label + "\ttime: " + t + " ms\theap: "
+                           + heap / 1024 + " KB\t("
+                           + heap / classes.size() + " bytes/class)"
+                           + (table == null ? "" : "\tsymbols: " + table.size()));
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -857,6 +857,372 @@ public class BytecodeTest extends TestCase {
         assertEquals("hello", destObj.getClass().getMethod("getString").invoke(destObj));
     }
 
+    public void testLazyDecoding() throws Exception {
+        java.io.InputStream in = getClass().getResourceAsStream("/javassist/bytecode/MethodInfo.class");
+        byte[] bytes = in.readAllBytes();
+        in.close();
+        ClassFile eager = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        ClassFile lazy;
+        MethodInfo.lazyDecoding = true;
+        try {
+            lazy = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+        finally {
+            MethodInfo.lazyDecoding = false;
+        }
+
+        MethodInfo m0 = eager.getMethod("getCodeAttribute");
+        MethodInfo m = lazy.getMethod("getCodeAttribute");
+        assertNull(m0.rawCode);
+        assertNotNull(m.rawCode);
+        assertEquals(m0.getAttributesLength(), m.getAttributesLength());
+        assertNotNull(m.rawCode);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        lazy.write(new DataOutputStream(out));
+        assertTrue(java.util.Arrays.equals(bytes, out.toByteArray()));
+
+        CodeAttribute ca = m.getCodeAttribute();
+        assertNull(m.rawCode);
+        assertEquals(m0.getCodeAttribute().getCodeLength(), ca.getCodeLength());
+        assertEquals(m0.getCodeAttribute().getMaxStack(), ca.getMaxStack());
+        assertNotNull(ca.getAttribute(LineNumberAttribute.tag));
+        assertSame(ca, m.getAttribute(CodeAttribute.tag));
+
+        MethodInfo m2 = lazy.getMethod("getAttributes");
+        assertNotNull(m2.rawCode);
+        for (AttributeInfo a: m2.getAttributes())
+            assertFalse(a.getClass() == AttributeInfo.class);
+
+        assertNull(m2.rawCode);
+        MethodInfo m3 = lazy.getMethod("removeAttribute");
+        m3.removeCodeAttribute();
+        assertNull(m3.rawCode);
+        assertNull(m3.getCodeAttribute());
+
+        lazy.compact();
+        assertNotNull(lazy.getMethod("getCodeAttribute").getCodeAttribute());
+        assertNotNull(lazy.getMethod("toString").getCodeAttribute());
+    }
+
+    public void testByteBufferClassFile() throws Exception {
+        String[] names = { "javassist/bytecode/MethodInfo.class", "javassist/CtClassType.class",
+                           "test4/InvokeDynCopySrc.class" };
+        for (String name: names) {
+            java.io.InputStream in = getClass().getResourceAsStream("/" + name);
+            byte[] bytes = in.readAllBytes();
+            in.close();
+            java.nio.ByteBuffer direct = java.nio.ByteBuffer.allocateDirect(bytes.length + 3);
+            direct.put(new byte[3]).put(bytes).position(3);
+            ClassFile cf = new ClassFile(direct);
+            assertEquals(3, direct.position());
+            assertEquals(bytes.length, cf.sizeOf());
+
+            java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(cf.sizeOf());
+            cf.write(buf);
+            assertFalse(buf.hasRemaining());
+            assertTrue(name, java.util.Arrays.equals(bytes, buf.array()));
+        }
+
+        ClassFile cf = new ClassFile(false, "test4.Utf8Size", null);
+        cf.getConstPool().addUtf8Info("\u0000\u00e9\u3042 \ud83d\ude00");
+        cf.addAttribute(new AttributeInfo(cf.getConstPool(), "Foo", new byte[5]));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cf.write(new DataOutputStream(out));
+        assertEquals(out.size(), cf.sizeOf());
+
+        try {
+            cf.write(java.nio.ByteBuffer.allocate(cf.sizeOf() - 1));
+            fail();
+        }
+        catch (java.nio.BufferOverflowException e) {}
+    }
+
+    public void testLazyConstPool() throws Exception {
+        ClassFile src = new ClassFile(false, "test4.LazyConstPool", null);
+        ConstPool cp0 = src.getConstPool();
+        cp0.addUtf8Info("\u0000\u00e9\u3042 \ud83d\ude00");
+        cp0.addLongInfo(1234567890123L);
+        cp0.addDoubleInfo(-0.5);
+        cp0.addFloatInfo(1.5f);
+        cp0.addIntegerInfo(-7);
+        cp0.addMethodHandleInfo(ConstPool.REF_invokeStatic,
+                cp0.addMethodrefInfo(cp0.getThisClassInfo(), "foo", "()V"));
+        cp0.addMethodTypeInfo(cp0.addUtf8Info("(I)V"));
+        cp0.addInvokeDynamicInfo(0, cp0.addNameAndTypeInfo("bar", "()V"));
+        cp0.addStringInfo("baz");
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        src.write(new DataOutputStream(bout));
+        byte[] bytes = bout.toByteArray();
+
+        ClassFile eager = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        ClassFile lazy;
+        ConstPool.lazyDecoding = true;
+        try {
+            lazy = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+        finally {
+            ConstPool.lazyDecoding = false;
+        }
+
+        ConstPool cp = lazy.getConstPool();
+        ConstPool cpe = eager.getConstPool();
+        assertNotNull(cp.rawItems);
+        assertEquals("test4.LazyConstPool", lazy.getName());
+        assertNull(cp.items.elementAt(cp.getSize() - 1));
+        assertEquals(cpe.getSize(), cp.getSize());
+        assertEquals(bytes.length, lazy.sizeOf());
+        bout = new ByteArrayOutputStream();
+        lazy.write(new DataOutputStream(bout));
+        assertTrue(java.util.Arrays.equals(bytes, bout.toByteArray()));
+
+        for (int i = 1; i < cp.getSize(); i++) {
+            assertEquals(cpe.getTag(i), cp.getTag(i));
+            assertEquals(cpe.getItem(i).toString(), cp.getItem(i).toString());
+        }
+
+        assertEquals(cp0.getUtf8Info(1), cp.getUtf8Info(1));
+        assertEquals(1234567890123L, cp.getLongInfo(cp.addLongInfo(1234567890123L)));
+        int size = cp.getSize();
+        assertEquals(cpe.addUtf8Info("baz"), cp.addUtf8Info("baz"));
+        assertEquals(size, cp.getSize());
+        cp.addUtf8Info("qux");
+        assertEquals(size + 1, cp.getSize());
+        assertEquals("qux", cp.getUtf8Info(size));
+        lazy.renameClass("test4.LazyConstPool", "test4.LazyConstPool2");
+        assertEquals("test4.LazyConstPool2", lazy.getName());
+        lazy.compact();
+        assertEquals("test4.LazyConstPool2", lazy.getName());
+    }
+
+    public void testConstIndex() throws Exception {
+        ConstPool cp = new ConstPool("test4.ConstIndex");
+        int n = 20000;
+        int[] ints = new int[n];
+        int[] strs = new int[n];
+        int[] refs = new int[n];
+        for (int i = 0; i < n; i++) {
+            ints[i] = cp.addIntegerInfo(i * 31);
+            strs[i] = cp.addStringInfo("s" + i);
+            refs[i] = cp.addMethodrefInfo(cp.getThisClassInfo(), "m" + i, "()V");
+        }
+
+        int size = cp.getSize();
+        for (int i = 0; i < n; i++) {
+            assertEquals(ints[i], cp.addIntegerInfo(i * 31));
+            assertEquals(strs[i], cp.addStringInfo("s" + i));
+            assertEquals(refs[i], cp.addMethodrefInfo(cp.getThisClassInfo(), "m" + i, "()V"));
+        }
+
+        assertEquals(size, cp.getSize());
+        assertEquals(size, cp.itemsCache.size() + 1);
+
+        int l = cp.addLongInfo(1L << 40);
+        int d = cp.addDoubleInfo(1.5);
+        int f = cp.addFloatInfo(-0.0f);
+        assertEquals(size + 5, cp.getSize());
+        assertEquals(l, cp.addLongInfo(1L << 40));
+        assertEquals(d, cp.addDoubleInfo(1.5));
+        assertEquals(f, cp.addFloatInfo(-0.0f));
+        assertTrue(f != cp.addFloatInfo(0.0f));
+        assertTrue(l != cp.addLongInfo(1L << 8));
+        assertTrue(cp.addFieldrefInfo(cp.getThisClassInfo(), "m0", "()V") != refs[0]);
+        assertTrue(cp.addInterfaceMethodrefInfo(cp.getThisClassInfo(), "m0", "()V") != refs[0]);
+
+        cp.prune();
+        assertNull(cp.itemsCache);
+        size = cp.getSize();
+        assertEquals(strs[7], cp.addStringInfo("s7"));
+        assertEquals(l, cp.addLongInfo(1L << 40));
+        assertNotNull(cp.itemsCache);
+        assertEquals(size, cp.getSize());
+
+        int c = cp.addClassInfo("test4.Foo");
+        cp.renameClass("test4/Foo", "test4/Bar");
+        assertEquals("test4.Bar", cp.getClassInfo(c));
+        assertEquals(c, cp.addClassInfo("test4.Bar"));
+        int c2 = cp.addClassInfo("test4.Foo");
+        assertTrue(c2 != c);
+        assertEquals("test4.Foo", cp.getClassInfo(c2));
+        for (int i = 0; i < n; i += 1000)
+            assertEquals(strs[i], cp.addStringInfo("s" + i));
+    }
+
+    public void testKeepEncoded() throws Exception {
+        java.io.InputStream in = getClass().getResourceAsStream("/javassist/CtClassType.class");
+        byte[] bytes = in.readAllBytes();
+        in.close();
+        ClassFile eager = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        ClassFile kept;
+        MethodInfo.keepEncoded = true;
+        try {
+            kept = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+        finally {
+            MethodInfo.keepEncoded = false;
+        }
+
+        for (int i = 0; i < kept.getMethods().size(); i++) {
+            MethodInfo m = kept.getMethods().get(i);
+            assertNotNull(m.encoded);
+            assertEquals(eager.getMethods().get(i).getAttributesLength(),
+                         m.getAttributesLength());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        kept.write(new DataOutputStream(out));
+        assertTrue(java.util.Arrays.equals(bytes, out.toByteArray()));
+        assertEquals(bytes.length, kept.sizeOf());
+
+        MethodInfo m = kept.getMethod("toBytecode0");
+        assertTrue(m.getLineNumber(0) > 0);
+        assertNotNull(m.encoded);
+        assertNull(m.getAttribute("NoSuchAttribute"));
+        assertNotNull(m.encoded);
+
+        ClassFile[] cfs = { eager, kept };
+        for (ClassFile cf: cfs) {
+            CodeAttribute ca = cf.getMethod("toBytecode0").getCodeAttribute();
+            ca.setMaxLocals(ca.getMaxLocals() + 1);
+            cf.getMethod("prune").setAccessFlags(AccessFlag.PUBLIC | AccessFlag.FINAL);
+            cf.getMethod("compress").getAttributes();
+        }
+
+        assertNull(m.encoded);
+        assertNull(kept.getMethod("compress").encoded);
+        assertNotNull(kept.getMethod("prune").encoded);
+        assertNotNull(kept.getMethod("isModified").encoded);
+
+        byte[] expected = toBytes(eager);
+        out = new ByteArrayOutputStream();
+        kept.write(new DataOutputStream(out));
+        assertTrue(java.util.Arrays.equals(expected, out.toByteArray()));
+        assertEquals(expected.length, kept.sizeOf());
+
+        MethodInfo m2 = kept.getMethod("isModified");
+        kept.compact();
+        assertNull(m2.encoded);
+        out = new ByteArrayOutputStream();
+        kept.write(new DataOutputStream(out));
+        assertEquals("isModified", new ClassFile(new DataInputStream(new ByteArrayInputStream(out.toByteArray())))
+                                      .getMethod("isModified").getName());
+    }
+
+    private static byte[] toBytes(ClassFile cf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cf.write(new DataOutputStream(out));
+        return out.toByteArray();
+    }
+
+    public void testClassFileReader() throws Exception {
+        String[] names = { "/javassist/CtClassType.class", "/javassist/bytecode/ConstPool.class",
+                           "/test5/RemoveAnnotation.class", "/javassist/ClassPath.class" };
+        for (String name: names) {
+            java.io.InputStream in = getClass().getResourceAsStream(name);
+            byte[] bytes = in.readAllBytes();
+            in.close();
+            final ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes)));
+            final ClassFileReader reader = new ClassFileReader(bytes);
+            assertEquals(cf.getName(), reader.getName());
+            assertEquals(cf.getSuperclass(), reader.getSuperclass());
+            assertEquals(java.util.Arrays.asList(cf.getInterfaces()),
+                         java.util.Arrays.asList(reader.getInterfaces()));
+            assertEquals(cf.getAccessFlags(), reader.getAccessFlags());
+            assertEquals(cf.getMajorVersion(), reader.getMajorVersion());
+            assertEquals(cf.getConstPool().getSize(), reader.getConstPoolSize());
+            assertEquals(cf.getConstPool().getClassNames(), reader.getClassNames());
+
+            final java.util.List<String> events = new java.util.ArrayList<String>();
+            final int[] constants = new int[1];
+            new ClassFileReader(bytes) {
+                public boolean constPool(int size) { return true; }
+                public void constant(int index, int tag, int pos) {
+                    assertEquals(cf.getConstPool().getTag(index), tag);
+                    constants[0]++;
+                }
+                public boolean field(int acc, String name, String desc) {
+                    events.add("field " + acc + " " + name + " " + desc);
+                    return true;
+                }
+                public void fieldAttribute(String name, int pos, int length) {
+                    events.add("  " + name + " " + length);
+                }
+                public boolean method(int acc, String name, String desc) {
+                    events.add("method " + acc + " " + name + " " + desc);
+                    return true;
+                }
+                public void methodAttribute(String name, int pos, int length) {
+                    events.add("  " + name + " " + length);
+                    if (name.equals(AnnotationsAttribute.invisibleTag))
+                        events.add("  " + java.util.Arrays.asList(getAnnotationTypes(pos, length)));
+                }
+                public void classAttribute(String name, int pos, int length) {
+                    events.add(name + " " + length);
+                }
+            }.parse();
+
+            final java.util.List<String> expected = new java.util.ArrayList<String>();
+            for (FieldInfo f: cf.getFields()) {
+                expected.add("field " + f.getAccessFlags() + " " + f.getName() + " " + f.getDescriptor());
+                for (AttributeInfo a: f.getAttributes())
+                    expected.add("  " + a.getName() + " " + (a.length() - 6));
+            }
+
+            for (MethodInfo m: cf.getMethods()) {
+                expected.add("method " + m.getAccessFlags() + " " + m.getName() + " " + m.getDescriptor());
+                for (AttributeInfo a: m.getAttributes()) {
+                    expected.add("  " + a.getName() + " " + (a.length() - 6));
+                    if (a instanceof AnnotationsAttribute && a.getName().equals(AnnotationsAttribute.invisibleTag)) {
+                        java.util.List<String> types = new java.util.ArrayList<String>();
+                        for (javassist.bytecode.annotation.Annotation anno: ((AnnotationsAttribute)a).getAnnotations())
+                            types.add(anno.getTypeName());
+
+                        expected.add("  " + types);
+                    }
+                }
+            }
+
+            for (AttributeInfo a: cf.getAttributes())
+                expected.add(a.getName() + " " + (a.length() - 6));
+
+            assertEquals(expected, events);
+            assertTrue(constants[0] > 0);
+        }
+
+        java.io.InputStream in = getClass().getResourceAsStream("/test5/RemoveAnnotation.class");
+        byte[] bytes = in.readAllBytes();
+        in.close();
+        byte[] padded = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(padded, 3, bytes.length).slice();
+        ClassFileReader reader = new ClassFileReader(buf);
+        assertEquals("test5.RemoveAnnotation", reader.getName());
+        assertSame(padded, reader.getBytes());
+        reader.parse();
+        assertEquals("test5.RemoveAnnotation", new ClassFileReader(buf.asReadOnlyBuffer()).getName());
+
+        final int[] skipped = new int[1];
+        new ClassFileReader(bytes) {
+            public boolean fields(int count) { return false; }
+            public boolean methods(int count) { return false; }
+            public boolean field(int acc, String name, String desc) { skipped[0]++; return true; }
+            public boolean method(int acc, String name, String desc) { skipped[0]++; return true; }
+        }.parse();
+        assertEquals(0, skipped[0]);
+
+        try {
+            new ClassFileReader(java.util.Arrays.copyOf(bytes, bytes.length - 5)).parse();
+            fail("truncated");
+        }
+        catch (IOException e) {}
+
+        try {
+            new ClassFileReader(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+            fail("bad magic");
+        }
+        catch (IOException e) {}
+    }
+
     public static Test suite() {
         TestSuite suite = new TestSuite("Bytecode Tests");
         suite.addTestSuite(BytecodeTest.class);